@@ -0,0 +1,48 @@
+package com.irembo.certify.certificate;
+
+import com.irembo.certify.common.BaseTenantEntity;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.UUID;
+
+/**
+ * A bulk submission of one template with many data rows. Each row is a
+ * {@link CertificateJob} pointing back here; {@code completedCount} and
+ * {@code failedCount} are advanced as those jobs finish, and the batch is
+ * {@link CertificateBatchStatus#COMPLETED} once every row has an outcome.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "certificate_batches")
+public class CertificateBatch extends BaseTenantEntity {
+
+    @Column(name = "template_id", nullable = false)
+    private UUID templateId;
+
+    @Column(name = "requested_by", nullable = false)
+    private String requestedBy;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    private CertificateBatchStatus status = CertificateBatchStatus.PENDING;
+
+    @Column(name = "total_rows", nullable = false)
+    private int totalRows;
+
+    @Column(name = "completed_count", nullable = false)
+    private int completedCount;
+
+    @Column(name = "failed_count", nullable = false)
+    private int failedCount;
+
+    public int getRemainingCount() {
+        return Math.max(0, totalRows - completedCount - failedCount);
+    }
+}
@@ -0,0 +1,97 @@
+package com.irembo.certify.certificate;
+
+import com.irembo.certify.certificate.dto.CertificateBatchFailureResponse;
+import com.irembo.certify.certificate.dto.CertificateBatchRequest;
+import com.irembo.certify.certificate.dto.CertificateBatchResponse;
+import com.irembo.certify.certificate.dto.CertificateBatchUploadResponse;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.UUID;
+
+@RestController
+@RequestMapping("/api/v1/certificates/batches")
+public class CertificateBatchController {
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private final CertificateBatchService batchService;
+    private final CertificateJobEventStream eventStream;
+
+    public CertificateBatchController(CertificateBatchService batchService, CertificateJobEventStream eventStream) {
+        this.batchService = batchService;
+        this.eventStream = eventStream;
+    }
+
+    /**
+     * Queue one certificate job per row. Progress is reported on the returned batch.
+     */
+    @PostMapping
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    @PreAuthorize("hasAnyRole('TENANT_ADMIN','TENANT_USER')")
+    public CertificateBatchResponse submit(
+            @Valid @RequestBody CertificateBatchRequest request,
+            @AuthenticationPrincipal org.springframework.security.core.userdetails.User principal
+    ) {
+        String requestedByEmail = principal != null ? principal.getUsername() : "unknown";
+        return CertificateBatchResponse.from(batchService.submitBatch(request, requestedByEmail));
+    }
+
+    /**
+     * Queue a batch read from a CSV file with a header row ({@code text/csv}) or from
+     * one JSON object per line ({@code application/x-ndjson}), streamed as the request
+     * body. Rows that don't satisfy the template's placeholders are reported by line
+     * number and skipped.
+     */
+    @PostMapping(path = "/upload", consumes = {"text/csv", "application/x-ndjson"})
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    @PreAuthorize("hasAnyRole('TENANT_ADMIN','TENANT_USER')")
+    public CertificateBatchUploadResponse upload(
+            @RequestParam("templateId") UUID templateId,
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+            InputStream body,
+            @AuthenticationPrincipal org.springframework.security.core.userdetails.User principal
+    ) {
+        String requestedByEmail = principal != null ? principal.getUsername() : "unknown";
+        CertificateBatchService.UploadFormat format = NDJSON.includes(contentType)
+                ? CertificateBatchService.UploadFormat.NDJSON
+                : CertificateBatchService.UploadFormat.CSV;
+        return batchService.uploadBatch(templateId, format, body, requestedByEmail);
+    }
+
+    @GetMapping("/{id}")
+    @PreAuthorize("hasAnyRole('TENANT_ADMIN','TENANT_USER')")
+    public CertificateBatchResponse getBatch(@PathVariable("id") UUID id) {
+        return CertificateBatchResponse.from(batchService.getBatchForCurrentTenant(id));
+    }
+
+    /**
+     * Stream the status changes of the batch's jobs as Server-Sent Events, starting with
+     * the batch's current progress.
+     */
+    @GetMapping(path = "/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("hasAnyRole('TENANT_ADMIN','TENANT_USER')")
+    public SseEmitter streamEvents(@PathVariable("id") UUID id) {
+        return eventStream.streamBatch(id, () -> CertificateBatchResponse.from(batchService.getBatchForCurrentTenant(id)));
+    }
+
+    /**
+     * Failed rows with their errors, by row index in the submitted batch.
+     */
+    @GetMapping("/{id}/failures")
+    @PreAuthorize("hasAnyRole('TENANT_ADMIN','TENANT_USER')")
+    public List<CertificateBatchFailureResponse> getFailures(
+            @PathVariable("id") UUID id,
+            @RequestParam(name = "limit", defaultValue = "100") int limit
+    ) {
+        return batchService.getFailuresForCurrentTenant(id, limit);
+    }
+}
@@ -0,0 +1,11 @@
+package com.irembo.certify.certificate;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Optional;
+import java.util.UUID;
+
+public interface CertificateBatchRepository extends JpaRepository<CertificateBatch, UUID> {
+
+    Optional<CertificateBatch> findByIdAndTenantId(UUID id, UUID tenantId);
+}
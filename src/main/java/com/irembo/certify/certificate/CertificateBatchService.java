@@ -0,0 +1,352 @@
+package com.irembo.certify.certificate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.irembo.certify.certificate.dto.BatchRowError;
+import com.irembo.certify.certificate.dto.CertificateBatchFailureResponse;
+import com.irembo.certify.certificate.dto.CertificateBatchRequest;
+import com.irembo.certify.certificate.dto.CertificateBatchResponse;
+import com.irembo.certify.certificate.dto.CertificateBatchUploadResponse;
+import com.irembo.certify.common.TenantContextHolder;
+import com.irembo.certify.template.CertificateTemplate;
+import com.irembo.certify.template.CertificateTemplateRepository;
+import com.irembo.certify.template.PlaceholderValidator;
+import com.irembo.certify.template.TemplateService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.transaction.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk submission of certificate jobs.
+ * <p>
+ * A batch is stored as one {@link CertificateBatch} row plus one PENDING
+ * {@link CertificateJob} per data row, all in one transaction. The jobs are written with
+ * {@link CertificateBulkWriter} rather than through the persistence context. The jobs are then worked
+ * off by {@link CertificateJobProcessor} like any other: each row's outcome is committed
+ * on its own, together with the batch counters, so every finished row is a checkpoint.
+ * If a node dies mid-batch, the rows it had claimed go back to the queue when their
+ * leases expire and the batch carries on from there.
+ * <p>
+ * Large batches can be uploaded as CSV (with a header row) or NDJSON. The upload is
+ * parsed as it streams in; each row is validated against the template's placeholders
+ * and accepted rows are copied in {@value #INSERT_CHUNK_SIZE} at a time, so neither the
+ * file nor its jobs are held in memory. Each chunk commits on its own, so a slow upload
+ * never holds a transaction open; the batch and its jobs stay UPLOADING, which workers
+ * don't claim, until the last row is in and one short transaction queues them together
+ * with the batch total. An upload that fails is deleted again. Rows are counted in
+ * {@code certify.batch.upload.rows} by outcome, and upload time in
+ * {@code certify.batch.upload.duration}.
+ */
+@Service
+@Transactional
+public class CertificateBatchService {
+
+    private static final Logger log = LoggerFactory.getLogger(CertificateBatchService.class);
+
+    private static final int MAX_FAILURES_LISTED = 1000;
+    private static final List<CertificateJobStatus> FAILED_STATUSES =
+            List.of(CertificateJobStatus.FAILED, CertificateJobStatus.DEAD_LETTER);
+    private static final int MAX_UPLOAD_ERRORS_LISTED = 1000;
+    private static final int INSERT_CHUNK_SIZE = 500;
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+    private static final CsvMapper CSV_MAPPER = new CsvMapper();
+
+    private final CertificateBatchRepository batchRepository;
+    private final CertificateJobRepository jobRepository;
+    private final CertificateTemplateRepository templateRepository;
+    private final TemplateService templateService;
+    private final CertificateBulkWriter bulkWriter;
+    private final CertificateJobNotifier jobNotifier;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transaction;
+    private final int maxBatchRows;
+    private final Counter acceptedRowsCounter;
+    private final Counter rejectedRowsCounter;
+    private final Timer uploadTimer;
+
+    public CertificateBatchService(
+            CertificateBatchRepository batchRepository,
+            CertificateJobRepository jobRepository,
+            CertificateTemplateRepository templateRepository,
+            TemplateService templateService,
+            CertificateBulkWriter bulkWriter,
+            CertificateJobNotifier jobNotifier,
+            ObjectMapper objectMapper,
+            PlatformTransactionManager transactionManager,
+            CertificateJobProperties properties,
+            MeterRegistry meterRegistry
+    ) {
+        this.batchRepository = batchRepository;
+        this.jobRepository = jobRepository;
+        this.templateRepository = templateRepository;
+        this.templateService = templateService;
+        this.bulkWriter = bulkWriter;
+        this.jobNotifier = jobNotifier;
+        this.objectMapper = objectMapper;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.maxBatchRows = properties.maxBatchRows();
+        this.acceptedRowsCounter = Counter.builder("certify.batch.upload.rows")
+                .tag("outcome", "accepted")
+                .description("Rows read from uploaded batches")
+                .register(meterRegistry);
+        this.rejectedRowsCounter = Counter.builder("certify.batch.upload.rows")
+                .tag("outcome", "rejected")
+                .description("Rows read from uploaded batches")
+                .register(meterRegistry);
+        this.uploadTimer = Timer.builder("certify.batch.upload.duration")
+                .description("Time spent reading and queueing an uploaded batch")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the batch has more than {@code maxBatchRows} rows
+     */
+    public CertificateBatch submitBatch(CertificateBatchRequest request, String requestedByEmail) {
+        UUID tenantId = requireTenant();
+        if (request.rows().size() > maxBatchRows) {
+            throw new IllegalArgumentException("A batch can have at most " + maxBatchRows + " rows");
+        }
+        requireTemplate(request.templateId(), tenantId);
+
+        CertificateBatch batch = newBatch(tenantId, request.templateId(), requestedByEmail);
+        batch.setTotalRows(request.rows().size());
+        // The jobs reference the batch, and they are copied in outside of Hibernate.
+        batch = batchRepository.saveAndFlush(batch);
+
+        List<CertificateJob> jobs = new ArrayList<>(request.rows().size());
+        for (int i = 0; i < request.rows().size(); i++) {
+            jobs.add(newJob(batch, i, request.rows().get(i), CertificateJobStatus.PENDING));
+        }
+        bulkWriter.insertJobs(jobs);
+        jobNotifier.jobsQueued();
+        return batch;
+    }
+
+    /**
+     * Read a batch from {@code content} and queue every row that is valid for the
+     * template. Rows that fail validation are reported with their line numbers and
+     * skipped; content that can't be parsed at all rejects the whole upload.
+     *
+     * @throws IllegalArgumentException if the content is malformed or has more than
+     *                                  {@code maxBatchRows} rows
+     */
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public CertificateBatchUploadResponse uploadBatch(UUID templateId, UploadFormat format, InputStream content,
+                                                      String requestedByEmail) {
+        UUID tenantId = requireTenant();
+        PlaceholderValidator validator = templateService.placeholderValidator(requireTemplate(templateId, tenantId));
+        long start = System.nanoTime();
+
+        CertificateBatch uploading = newBatch(tenantId, templateId, requestedByEmail);
+        uploading.setStatus(CertificateBatchStatus.UPLOADING);
+        CertificateBatch batch = batchRepository.saveAndFlush(uploading);
+        try {
+            return readUpload(batch, format, validator, content, start);
+        } catch (RuntimeException e) {
+            discardUpload(batch, e);
+            throw e;
+        }
+    }
+
+    private CertificateBatchUploadResponse readUpload(CertificateBatch batch, UploadFormat format,
+                                                      PlaceholderValidator validator, InputStream content,
+                                                      long start) {
+        List<CertificateJob> chunk = new ArrayList<>(INSERT_CHUNK_SIZE);
+        List<BatchRowError> errors = new ArrayList<>();
+        int accepted = 0;
+        int rejected = 0;
+        try (MappingIterator<Map<String, Object>> rows = format.reader(objectMapper).readValues(content)) {
+            while (true) {
+                long lineBefore = rows.getCurrentLocation().getLineNr();
+                if (!rows.hasNextValue()) {
+                    break;
+                }
+                long line = format.firstLine(rows, lineBefore);
+                Map<String, Object> row = rows.nextValue();
+                if (accepted + rejected == maxBatchRows) {
+                    throw new IllegalArgumentException("A batch can have at most " + maxBatchRows + " rows");
+                }
+                List<String> problems = validator.validate(row);
+                if (!problems.isEmpty()) {
+                    if (errors.size() < MAX_UPLOAD_ERRORS_LISTED) {
+                        errors.add(new BatchRowError(line, String.join("; ", problems)));
+                    }
+                    rejected++;
+                    continue;
+                }
+                chunk.add(newJob(batch, accepted++, row, CertificateJobStatus.UPLOADING));
+                if (chunk.size() == INSERT_CHUNK_SIZE) {
+                    bulkWriter.insertJobs(chunk);
+                    chunk = new ArrayList<>(INSERT_CHUNK_SIZE);
+                }
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Line " + e.getLocation().getLineNr() + ": " + e.getOriginalMessage(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read uploaded batch", e);
+        }
+        bulkWriter.insertJobs(chunk);
+
+        batch.setTotalRows(accepted);
+        batch.setStatus(accepted == 0 ? CertificateBatchStatus.COMPLETED : CertificateBatchStatus.PENDING);
+        CertificateBatch queued = transaction.execute(status -> {
+            jobRepository.queueUploadedJobs(batch.getId());
+            return batchRepository.save(batch);
+        });
+        if (accepted > 0) {
+            jobNotifier.jobsQueued();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        uploadTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        acceptedRowsCounter.increment(accepted);
+        rejectedRowsCounter.increment(rejected);
+        log.info("Queued batch {} from {} upload: {} rows accepted, {} rejected, {} rows/s",
+                queued.getId(), format, accepted, rejected,
+                Math.round((accepted + rejected) / Math.max(elapsed / 1e9, 1e-3)));
+        return new CertificateBatchUploadResponse(CertificateBatchResponse.from(queued), accepted, rejected, errors);
+    }
+
+    /**
+     * Delete an upload that failed part-way, with the jobs already copied in for it.
+     */
+    private void discardUpload(CertificateBatch batch, RuntimeException cause) {
+        try {
+            transaction.executeWithoutResult(status -> {
+                jobRepository.deleteByBatchId(batch.getId());
+                batchRepository.deleteById(batch.getId());
+            });
+        } catch (RuntimeException cleanupEx) {
+            cause.addSuppressed(cleanupEx);
+        }
+    }
+
+    public CertificateBatch getBatchForCurrentTenant(UUID id) {
+        UUID tenantId = requireTenant();
+        return batchRepository.findByIdAndTenantId(id, tenantId)
+                .orElseThrow(() -> new NoSuchElementException("Batch not found"));
+    }
+
+    /**
+     * The failed rows of a batch in row order, at most {@code limit} of them.
+     */
+    public List<CertificateBatchFailureResponse> getFailuresForCurrentTenant(UUID id, int limit) {
+        CertificateBatch batch = getBatchForCurrentTenant(id);
+        if (batch.getFailedCount() == 0) {
+            return List.of();
+        }
+        int pageSize = Math.max(1, Math.min(limit, MAX_FAILURES_LISTED));
+        return jobRepository.findByBatchIdAndStatusInOrderByRowIndex(batch.getId(), FAILED_STATUSES,
+                        PageRequest.of(0, pageSize))
+                .stream()
+                .map(CertificateBatchFailureResponse::from)
+                .toList();
+    }
+
+    private CertificateTemplate requireTemplate(UUID templateId, UUID tenantId) {
+        return templateRepository.findByIdAndTenantId(templateId, tenantId)
+                .orElseThrow(() -> new NoSuchElementException("Template not found"));
+    }
+
+    private static CertificateBatch newBatch(UUID tenantId, UUID templateId, String requestedByEmail) {
+        CertificateBatch batch = new CertificateBatch();
+        batch.setTenantId(tenantId);
+        batch.setTemplateId(templateId);
+        batch.setRequestedBy(requestedByEmail);
+        batch.setStatus(CertificateBatchStatus.PENDING);
+        return batch;
+    }
+
+    private CertificateJob newJob(CertificateBatch batch, int rowIndex, Map<String, Object> data,
+                                  CertificateJobStatus status) {
+        CertificateJob job = new CertificateJob();
+        job.setTenantId(batch.getTenantId());
+        job.setTemplateId(batch.getTemplateId());
+        job.setRequestedBy(batch.getRequestedBy());
+        job.setStatus(status);
+        job.setPriority(CertificateJobPriority.LOW);
+        job.setRequestDataJson(writeDataJson(data));
+        job.setBatchId(batch.getId());
+        job.setRowIndex(rowIndex);
+        return job;
+    }
+
+    private String writeDataJson(Map<String, Object> data) {
+        try {
+            return objectMapper.writeValueAsString(data);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to serialize certificate data", e);
+        }
+    }
+
+    public enum UploadFormat {
+        /**
+         * Comma-separated values with a header row naming the placeholders.
+         */
+        CSV {
+            @Override
+            ObjectReader reader(ObjectMapper objectMapper) {
+                return CSV_MAPPER.readerFor(MAP_TYPE).with(CsvSchema.emptySchema().withHeader());
+            }
+
+            @Override
+            long firstLine(MappingIterator<?> rows, long lineBefore) {
+                // The CSV parser stops at the start of the next record.
+                return lineBefore;
+            }
+        },
+        /**
+         * One JSON object per line.
+         */
+        NDJSON {
+            @Override
+            ObjectReader reader(ObjectMapper objectMapper) {
+                return objectMapper.readerFor(MAP_TYPE);
+            }
+
+            @Override
+            long firstLine(MappingIterator<?> rows, long lineBefore) {
+                // Blank lines are skipped on the way to the object's opening brace.
+                return rows.getParser().currentTokenLocation().getLineNr();
+            }
+        };
+
+        abstract ObjectReader reader(ObjectMapper objectMapper);
+
+        /**
+         * The line the row found by {@code hasNextValue()} starts on, given the parser's
+         * line before that call.
+         */
+        abstract long firstLine(MappingIterator<?> rows, long lineBefore);
+    }
+
+    private UUID requireTenant() {
+        UUID tenantId = TenantContextHolder.getTenantId();
+        if (tenantId == null) {
+            throw new IllegalStateException("No tenant in context");
+        }
+        return tenantId;
+    }
+}
@@ -0,0 +1,11 @@
+package com.irembo.certify.certificate;
+
+public enum CertificateBatchStatus {
+    /**
+     * Rows are still being read from an upload; its jobs can't be claimed yet.
+     */
+    UPLOADING,
+    PENDING,
+    PROCESSING,
+    COMPLETED
+}
@@ -0,0 +1,169 @@
+package com.irembo.certify.certificate;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Inserts certificates, verification tokens and jobs in bulk with PostgreSQL's
+ * {@code COPY ... FROM STDIN}, one statement per call instead of one round trip per row.
+ * <p>
+ * Rows are written on the connection of the surrounding transaction, so they commit or
+ * roll back with it, but they bypass Hibernate: anything they reference must already be
+ * flushed, and ids and timestamps are assigned here as {@code @PrePersist} would. The
+ * rows are not in the persistence context afterwards; load them if they are needed as
+ * managed entities. Data is sent in chunks of about {@value #FLUSH_THRESHOLD} characters
+ * while it is encoded, so large inputs are never held as one buffer.
+ */
+@Component
+public class CertificateBulkWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(CertificateBulkWriter.class);
+
+    private static final int FLUSH_THRESHOLD = 256 * 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public CertificateBulkWriter(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    public void insertJobs(List<CertificateJob> jobs) {
+        jobs.forEach(CertificateJob::onCreate);
+        copy("certificate_jobs",
+                "id, tenant_id, template_id, request_data_json, status, priority, deadline, requested_by, "
+                        + "batch_id, row_index, created_at, updated_at",
+                jobs, (job, row) -> row
+                        .field(job.getId())
+                        .field(job.getTenantId())
+                        .field(job.getTemplateId())
+                        .field(job.getRequestDataJson())
+                        .field(job.getStatus())
+                        .field(job.getPriority())
+                        .field(job.getDeadline())
+                        .field(job.getRequestedBy())
+                        .field(job.getBatchId())
+                        .field(job.getRowIndex())
+                        .field(job.getCreatedAt())
+                        .field(job.getUpdatedAt()));
+    }
+
+    public void insertCertificates(List<Certificate> certificates) {
+        certificates.forEach(Certificate::onCreate);
+        copy("certificates",
+                "id, tenant_id, template_id, data_json, status, storage_path, hash, created_by, created_at, updated_at",
+                certificates, (certificate, row) -> row
+                        .field(certificate.getId())
+                        .field(certificate.getTenantId())
+                        .field(certificate.getTemplateId())
+                        .field(certificate.getDataJson())
+                        .field(certificate.getStatus())
+                        .field(certificate.getStoragePath())
+                        .field(certificate.getHash())
+                        .field(certificate.getCreatedBy())
+                        .field(certificate.getCreatedAt())
+                        .field(certificate.getUpdatedAt()));
+    }
+
+    /**
+     * Tokens reference their certificates, so insert those first.
+     */
+    public void insertTokens(List<CertificateVerificationToken> tokens) {
+        copy("certificate_verification_tokens",
+                "public_id, certificate_id, checksum, expires_at, created_at",
+                tokens, (token, row) -> row
+                        .field(token.getPublicId())
+                        .field(token.getCertificateId())
+                        .field(token.getChecksum())
+                        .field(token.getExpiresAt())
+                        .field(token.getCreatedAt()));
+    }
+
+    private <T> void copy(String table, String columns, List<T> rows, BiConsumer<T, CsvRows> encoder) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        String sql = "COPY " + table + " (" + columns + ") FROM STDIN (FORMAT csv)";
+        Long copied = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+            try {
+                CsvRows csv = new CsvRows(copyIn);
+                for (T row : rows) {
+                    encoder.accept(row, csv);
+                    csv.endRow();
+                }
+                csv.flush();
+                return copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+        });
+        log.debug("Copied {} rows into {} in {} ms", copied, table, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Encodes rows in COPY's CSV format: every value quoted, {@code null} as an empty
+     * unquoted field.
+     */
+    static final class CsvRows {
+
+        private final CopyIn copyIn;
+        private final StringBuilder text = new StringBuilder(FLUSH_THRESHOLD + 4096);
+        private boolean firstField = true;
+
+        CsvRows(CopyIn copyIn) {
+            this.copyIn = copyIn;
+        }
+
+        CsvRows field(Object value) {
+            if (!firstField) {
+                text.append(',');
+            }
+            firstField = false;
+            if (value == null) {
+                return this;
+            }
+            String string = value instanceof Enum<?> constant ? constant.name() : value.toString();
+            text.append('"');
+            for (int i = 0; i < string.length(); i++) {
+                char c = string.charAt(i);
+                if (c == '"') {
+                    text.append('"');
+                }
+                text.append(c);
+            }
+            text.append('"');
+            return this;
+        }
+
+        void endRow() throws SQLException {
+            text.append('\n');
+            firstField = true;
+            if (text.length() >= FLUSH_THRESHOLD) {
+                flush();
+            }
+        }
+
+        void flush() throws SQLException {
+            if (text.isEmpty()) {
+                return;
+            }
+            byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            text.setLength(0);
+        }
+    }
+}
@@ -3,26 +3,49 @@ package com.irembo.certify.certificate;
 import com.irembo.certify.certificate.dto.CertificateGenerateRequest;
 import com.irembo.certify.certificate.dto.CertificateJobResponse;
 import com.irembo.certify.certificate.dto.CertificateResponse;
+import com.irembo.certify.certificate.dto.PrintBatchRequest;
 import com.irembo.certify.certificate.dto.RevokeCertificateRequest;
 import jakarta.validation.Valid;
+import org.springframework.core.io.Resource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 
 @RestController
 @RequestMapping("/api/v1/certificates")
 public class CertificateController {
 
     private final CertificateService certificateService;
+    private final CertificateExportService exportService;
+    private final CertificatePrintBatchService printBatchService;
+    private final CertificateJobEventStream eventStream;
 
-    public CertificateController(CertificateService certificateService) {
+    public CertificateController(
+            CertificateService certificateService,
+            CertificateExportService exportService,
+            CertificatePrintBatchService printBatchService,
+            CertificateJobEventStream eventStream
+    ) {
         this.certificateService = certificateService;
+        this.exportService = exportService;
+        this.printBatchService = printBatchService;
+        this.eventStream = eventStream;
     }
 
     @GetMapping
@@ -68,6 +91,25 @@ public class CertificateController {
         return CertificateJobResponse.from(job);
     }
 
+    /**
+     * Issue one certificate per row and stream them back as a single PDF for printing.
+     */
+    @PostMapping("/print-batch")
+    @PreAuthorize("hasAnyRole('TENANT_ADMIN','TENANT_USER')")
+    public ResponseEntity<StreamingResponseBody> printBatch(
+            @Valid @RequestBody PrintBatchRequest request,
+            @AuthenticationPrincipal org.springframework.security.core.userdetails.User principal,
+            NativeWebRequest webRequest
+    ) {
+        String createdByEmail = principal != null ? principal.getUsername() : "unknown";
+        CertificatePrintBatchService.PrintBatch batch = printBatchService.startBatch(request, createdByEmail);
+        abandonUnlessWritten(webRequest, batch::abandon);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=certificates-print.pdf")
+                .contentType(MediaType.APPLICATION_PDF)
+                .body(batch::writeTo);
+    }
+
     @GetMapping("/jobs/{id}")
     @PreAuthorize("hasAnyRole('TENANT_ADMIN','TENANT_USER')")
     public CertificateJobResponse getJob(@PathVariable("id") UUID id) {
@@ -75,6 +117,24 @@ public class CertificateController {
         return CertificateJobResponse.from(job);
     }
 
+    /**
+     * Stream a job's status changes as Server-Sent Events, starting with its current state.
+     */
+    @GetMapping(path = "/jobs/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("hasAnyRole('TENANT_ADMIN','TENANT_USER')")
+    public SseEmitter streamJobEvents(@PathVariable("id") UUID id) {
+        return eventStream.streamJob(id, () -> CertificateJobEvent.of(certificateService.getJobForCurrentTenant(id)));
+    }
+
+    /**
+     * Stream the status changes of all of the current tenant's jobs as Server-Sent Events.
+     */
+    @GetMapping(path = "/jobs/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("hasAnyRole('TENANT_ADMIN','TENANT_USER')")
+    public SseEmitter streamTenantJobEvents() {
+        return eventStream.streamCurrentTenant();
+    }
+
     @PostMapping("/{id}/revoke")
     @PreAuthorize("hasRole('TENANT_ADMIN')")
     public CertificateResponse revoke(
@@ -85,13 +145,63 @@ public class CertificateController {
         return certificateService.revokeForCurrentTenant(id, reason);
     }
 
+    /**
+     * Streams the stored PDF from disk. Spring serves {@code Range} requests from the
+     * {@link org.springframework.core.io.Resource} body, and answers {@code If-None-Match}
+     * with 304 using the certificate hash as a strong ETag; stored PDFs never change.
+     */
     @GetMapping("/{id}/download")
     @PreAuthorize("hasAnyRole('TENANT_ADMIN','TENANT_USER')")
-    public ResponseEntity<byte[]> download(@PathVariable("id") UUID id) {
-        byte[] pdf = certificateService.downloadForCurrentTenant(id);
+    public ResponseEntity<Resource> download(@PathVariable("id") UUID id) {
+        CertificateDownload download = certificateService.downloadForCurrentTenant(id);
+        if (download.redirectUrl() != null) {
+            // Pre-signed URLs expire, so the redirect itself must not be cached.
+            return ResponseEntity.status(HttpStatus.FOUND)
+                    .location(download.redirectUrl())
+                    .cacheControl(CacheControl.noStore())
+                    .build();
+        }
         return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=certificate-" + id + ".pdf")
+                .eTag(download.hash())
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=" + CertificateService.downloadFilename(id))
                 .contentType(MediaType.APPLICATION_PDF)
-                .body(pdf);
+                .body(download.content());
+    }
+
+    /**
+     * Stream the current tenant's certificates as one ZIP, optionally limited to a
+     * template and a creation time range ({@code from} inclusive, {@code to} exclusive).
+     */
+    @GetMapping("/export")
+    @PreAuthorize("hasAnyRole('TENANT_ADMIN','TENANT_USER')")
+    public ResponseEntity<StreamingResponseBody> export(
+            @RequestParam(name = "templateId", required = false) UUID templateId,
+            @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            NativeWebRequest webRequest
+    ) {
+        CertificateExportService.CertificateExport export = exportService.startExport(templateId, from, to);
+        abandonUnlessWritten(webRequest, export::abandon);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=certificates.zip")
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(export::writeTo);
+    }
+
+    /**
+     * Run {@code abandon} when the async request completes, whichever way it ends. A streaming
+     * body that never ran (timed out before it started, rejected by the executor, or the
+     * client went away before dispatch) would otherwise keep its slot until restart.
+     */
+    private static void abandonUnlessWritten(NativeWebRequest webRequest, Runnable abandon) {
+        WebAsyncUtils.getAsyncManager(webRequest).registerCallableInterceptor(abandon,
+                new CallableProcessingInterceptor() {
+                    @Override
+                    public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+                        abandon.run();
+                    }
+                });
     }
 }
@@ -0,0 +1,20 @@
+package com.irembo.certify.certificate;
+
+import org.springframework.core.io.Resource;
+
+import java.net.URI;
+
+/**
+ * A stored certificate PDF with the SHA-256 it was stored under: either ready to be
+ * streamed, or, when the storage backend serves downloads itself, a URL to redirect to.
+ */
+public record CertificateDownload(Resource content, String hash, URI redirectUrl) {
+
+    public CertificateDownload(Resource content, String hash) {
+        this(content, hash, null);
+    }
+
+    public static CertificateDownload redirect(URI url, String hash) {
+        return new CertificateDownload(null, hash, url);
+    }
+}
@@ -0,0 +1,21 @@
+package com.irembo.certify.certificate;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Limits for streaming ZIP exports of certificates.
+ * <p>
+ * At most {@code maxConcurrent} exports run at once per node; further requests are
+ * rejected straight away. Rows are fetched from the database {@code fetchSize} at a time.
+ * PDFs up to {@code bufferedEntrySize} are read once into a reusable buffer to compute
+ * their CRC; larger ones are read twice instead.
+ */
+@ConfigurationProperties(prefix = "certify.export")
+public record CertificateExportProperties(
+        @DefaultValue("2") int maxConcurrent,
+        @DefaultValue("500") int fetchSize,
+        @DefaultValue("8MB") DataSize bufferedEntrySize
+) {
+}
@@ -0,0 +1,264 @@
+package com.irembo.certify.certificate;
+
+import com.irembo.certify.common.TenantContextHolder;
+import com.irembo.certify.storage.ContentWriter;
+import com.irembo.certify.storage.StorageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Streams a tenant's certificates as one ZIP archive.
+ * <p>
+ * Rows are read through a server-side cursor in a read-only transaction and each PDF is
+ * copied from storage into the archive as an uncompressed entry (PDFs are compressed
+ * already), so an export of any size runs in roughly constant memory. Exports run in a
+ * bounded number of slots; when they are all taken the request is rejected with
+ * {@link ExportRejectedException} rather than queued.
+ * <p>
+ * The cursor keeps its transaction, and so a pooled database connection, open for the
+ * whole download: a slow client holds one for up to the async request timeout
+ * ({@code spring.mvc.async.request-timeout}). Size {@code certify.export.max-concurrent}
+ * against the connection pool accordingly.
+ */
+@Service
+public class CertificateExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(CertificateExportService.class);
+
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(30);
+    private static final int MAX_LISTED_MISSING = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final StorageService storageService;
+    private final int bufferedEntrySize;
+    private final Semaphore slots;
+
+    public CertificateExportService(
+            DataSource dataSource,
+            PlatformTransactionManager transactionManager,
+            StorageService storageService,
+            CertificateExportProperties properties
+    ) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        // With autocommit off (inside the transaction) PgJDBC fetches through a cursor.
+        this.jdbcTemplate.setFetchSize(properties.fetchSize());
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.storageService = storageService;
+        this.bufferedEntrySize = (int) Math.min(properties.bufferedEntrySize().toBytes(), Integer.MAX_VALUE - 8);
+        this.slots = new Semaphore(Math.max(1, properties.maxConcurrent()));
+    }
+
+    /**
+     * Reserve an export slot for the current tenant's certificates matching the given
+     * filters, any of which may be {@code null}. The slot is released once the returned
+     * export has been written, or when it is {@linkplain CertificateExport#abandon() abandoned}.
+     *
+     * @throws ExportRejectedException if every export slot is taken
+     */
+    public CertificateExport startExport(UUID templateId, Instant from, Instant to) {
+        UUID tenantId = TenantContextHolder.getTenantId();
+        if (tenantId == null) {
+            throw new IllegalStateException("No tenant in context");
+        }
+        if (!slots.tryAcquire()) {
+            throw new ExportRejectedException(RETRY_AFTER);
+        }
+        return new CertificateExport(tenantId, templateId, from, to);
+    }
+
+    /**
+     * One export waiting to be streamed. {@link #writeTo} may be called once, and not after
+     * {@link #abandon}.
+     */
+    public final class CertificateExport implements ContentWriter {
+
+        private final UUID tenantId;
+        private final UUID templateId;
+        private final Instant from;
+        private final Instant to;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private CertificateExport(UUID tenantId, UUID templateId, Instant from, Instant to) {
+            this.tenantId = tenantId;
+            this.templateId = templateId;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            if (!started.compareAndSet(false, true)) {
+                throw new IllegalStateException("Export was already written or abandoned");
+            }
+            long start = System.nanoTime();
+            try (ZipStreamWriter zip = new ZipStreamWriter(out, Path.of(System.getProperty("java.io.tmpdir")))) {
+                EntryWriter entries = new EntryWriter(zip);
+                try {
+                    readOnlyTransaction.executeWithoutResult(status -> query(entries));
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                entries.writeMissingList();
+                zip.finish();
+                log.info("Exported {} certificates for tenant {} in {} ms ({} missing from storage)",
+                        entries.exported, tenantId, Duration.ofNanos(System.nanoTime() - start).toMillis(),
+                        entries.missing);
+            } finally {
+                slots.release();
+            }
+        }
+
+        /**
+         * Give the slot back if {@link #writeTo} has not started, e.g. because the request
+         * timed out or the client went away before the response was written. Once writing
+         * has started this does nothing; the writer releases the slot when it is done.
+         */
+        public void abandon() {
+            if (started.compareAndSet(false, true)) {
+                slots.release();
+            }
+        }
+
+        private void query(EntryWriter entries) {
+            StringBuilder sql = new StringBuilder("""
+                    select id, storage_path, created_at
+                    from certificates
+                    where tenant_id = ?
+                      and storage_path <> 'pending'
+                    """);
+            List<Object> args = new ArrayList<>();
+            args.add(tenantId);
+            if (templateId != null) {
+                sql.append("  and template_id = ?\n");
+                args.add(templateId);
+            }
+            if (from != null) {
+                sql.append("  and created_at >= ?\n");
+                args.add(Timestamp.from(from));
+            }
+            if (to != null) {
+                sql.append("  and created_at < ?\n");
+                args.add(Timestamp.from(to));
+            }
+            sql.append("order by created_at, id");
+
+            jdbcTemplate.query(sql.toString(), rs -> {
+                entries.add(rs.getObject("id", UUID.class), rs.getString("storage_path"),
+                        rs.getTimestamp("created_at").toInstant());
+            }, args.toArray());
+        }
+    }
+
+    /**
+     * Copies PDFs into the archive, reusing one buffer for the whole export.
+     */
+    private final class EntryWriter {
+
+        private final ZipStreamWriter zip;
+        private final CRC32 crc = new CRC32();
+        private final List<UUID> missingIds = new ArrayList<>();
+        private byte[] buffer = new byte[64 * 1024];
+        private long exported;
+        private long missing;
+
+        EntryWriter(ZipStreamWriter zip) {
+            this.zip = zip;
+        }
+
+        void add(UUID certificateId, String storagePath, Instant createdAt) {
+            Resource pdf;
+            try {
+                pdf = storageService.open(storagePath);
+            } catch (IllegalStateException e) {
+                log.warn("Skipping certificate {} in export: {}", certificateId, e.getMessage());
+                if (missingIds.size() < MAX_LISTED_MISSING) {
+                    missingIds.add(certificateId);
+                }
+                missing++;
+                return;
+            }
+
+            String name = CertificateService.downloadFilename(certificateId);
+            try {
+                long size = pdf.contentLength();
+                if (size <= bufferedEntrySize) {
+                    int length = readFully(pdf, (int) size);
+                    zip.addEntry(name, createdAt, buffer, length);
+                } else {
+                    // Too large to buffer: one pass for the CRC, one to copy.
+                    try (InputStream in = pdf.getInputStream()) {
+                        zip.addEntry(name, createdAt, size, crc32(pdf), in);
+                    }
+                }
+                exported++;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeMissingList() throws IOException {
+            if (missing == 0) {
+                return;
+            }
+            StringBuilder text = new StringBuilder()
+                    .append(missing).append(" certificate(s) could not be read from storage");
+            if (missing > missingIds.size()) {
+                text.append("; the first ").append(missingIds.size()).append(" are listed");
+            }
+            text.append(":\n");
+            missingIds.forEach(id -> text.append(id).append('\n'));
+            byte[] content = text.toString().getBytes(StandardCharsets.UTF_8);
+            zip.addEntry("MISSING.txt", Instant.now(), content, content.length);
+        }
+
+        private int readFully(Resource pdf, int size) throws IOException {
+            if (buffer.length < size) {
+                buffer = new byte[Math.max(size, Math.min(buffer.length * 2, bufferedEntrySize))];
+            }
+            int length = 0;
+            try (InputStream in = pdf.getInputStream()) {
+                for (int read; length < size && (read = in.read(buffer, length, size - length)) >= 0; ) {
+                    length += read;
+                }
+            }
+            if (length != size) {
+                throw new IOException("Stored PDF " + pdf + " ended after " + length + " of " + size + " bytes");
+            }
+            return length;
+        }
+
+        private long crc32(Resource pdf) throws IOException {
+            crc.reset();
+            try (InputStream in = pdf.getInputStream()) {
+                for (int read; (read = in.read(buffer)) >= 0; ) {
+                    crc.update(buffer, 0, read);
+                }
+            }
+            return crc.getValue();
+        }
+    }
+}
@@ -11,6 +11,7 @@ import lombok.Setter;
 import org.hibernate.annotations.JdbcTypeCode;
 import org.hibernate.type.SqlTypes;
 
+import java.time.Instant;
 import java.util.UUID;
 
 @Getter
@@ -30,6 +31,13 @@ public class CertificateJob extends BaseTenantEntity {
     @Column(name = "status", nullable = false)
     private CertificateJobStatus status = CertificateJobStatus.PENDING;
 
+    @Enumerated(EnumType.STRING)
+    @Column(name = "priority", nullable = false)
+    private CertificateJobPriority priority = CertificateJobPriority.NORMAL;
+
+    @Column(name = "deadline")
+    private Instant deadline;
+
     @Column(name = "certificate_id")
     private UUID certificateId;
 
@@ -38,4 +46,22 @@ public class CertificateJob extends BaseTenantEntity {
 
     @Column(name = "error_message")
     private String errorMessage;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "next_attempt_at")
+    private Instant nextAttemptAt;
+
+    @Column(name = "lease_owner")
+    private String leaseOwner;
+
+    @Column(name = "lease_expires_at")
+    private Instant leaseExpiresAt;
+
+    @Column(name = "batch_id", updatable = false)
+    private UUID batchId;
+
+    @Column(name = "row_index", updatable = false)
+    private Integer rowIndex;
 }
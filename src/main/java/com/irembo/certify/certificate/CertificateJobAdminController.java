@@ -0,0 +1,31 @@
+package com.irembo.certify.certificate;
+
+import com.irembo.certify.certificate.dto.RequeueDeadLettersRequest;
+import com.irembo.certify.certificate.dto.RequeueDeadLettersResponse;
+import jakarta.validation.Valid;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/admin/certificate-jobs")
+@PreAuthorize("hasRole('SYSTEM_ADMIN')")
+public class CertificateJobAdminController {
+
+    private final CertificateService certificateService;
+
+    public CertificateJobAdminController(CertificateService certificateService) {
+        this.certificateService = certificateService;
+    }
+
+    /**
+     * Give dead-lettered jobs a fresh set of attempts, all at once or filtered by tenant,
+     * batch or job ids.
+     */
+    @PostMapping("/dead-letter/requeue")
+    public RequeueDeadLettersResponse requeueDeadLetters(@Valid @RequestBody RequeueDeadLettersRequest request) {
+        return new RequeueDeadLettersResponse(certificateService.requeueDeadLetters(request));
+    }
+}
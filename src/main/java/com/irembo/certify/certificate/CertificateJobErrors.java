@@ -0,0 +1,121 @@
+package com.irembo.certify.certificate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.irembo.certify.pdf.RenderRejectedException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.TransactionTimedOutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Tells transient job failures, which are worth another attempt, from permanent ones.
+ */
+final class CertificateJobErrors {
+
+    /**
+     * I/O errors that come from the content rather than the storage or the network: bad
+     * JSON, undecodable text, malformed URLs and archives, missing or forbidden files.
+     */
+    private static final List<Class<? extends IOException>> PERMANENT_IO_ERRORS = List.of(
+            JsonProcessingException.class,
+            CharacterCodingException.class,
+            UnsupportedEncodingException.class,
+            UTFDataFormatException.class,
+            MalformedURLException.class,
+            ZipException.class,
+            FileNotFoundException.class,
+            NoSuchFileException.class,
+            AccessDeniedException.class,
+            FileAlreadyExistsException.class,
+            NotDirectoryException.class
+    );
+
+    private CertificateJobErrors() {
+    }
+
+    /**
+     * Whether {@code error} or any of its causes is transient: a busy renderer, a storage
+     * or database hiccup, a lock or query timeout. Anything else, such as bad request data
+     * or a missing template, would fail the same way again. The first cause that is either
+     * decides, so an I/O error about the content is not retried for what it wraps.
+     */
+    static boolean isRetryable(Throwable error) {
+        for (Throwable current = error; current != null; current = current.getCause()) {
+            if (isPermanentIoError(current)) {
+                return false;
+            }
+            if (isTransient(current)) {
+                return true;
+            }
+            if (current.getCause() == current) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPermanentIoError(Throwable error) {
+        return PERMANENT_IO_ERRORS.stream().anyMatch(type -> type.isInstance(error));
+    }
+
+    private static boolean isTransient(Throwable error) {
+        if (error instanceof SdkServiceException serviceException) {
+            return serviceException.retryable()
+                    || serviceException.isThrottlingException()
+                    || serviceException.statusCode() >= 500;
+        }
+        if (error instanceof SdkClientException) {
+            // The request never got an answer: connection resets, timeouts, unreachable endpoints.
+            return true;
+        }
+        if (error instanceof SQLException sqlException && isTransientSqlState(sqlException.getSQLState())) {
+            return true;
+        }
+        return error instanceof RenderRejectedException
+                || error instanceof IOException
+                || error instanceof TransientDataAccessException
+                || error instanceof RecoverableDataAccessException
+                || error instanceof DataAccessResourceFailureException
+                || error instanceof CannotCreateTransactionException
+                || error instanceof TransactionTimedOutException
+                || error instanceof jakarta.persistence.LockTimeoutException
+                || error instanceof jakarta.persistence.PessimisticLockException
+                || error instanceof jakarta.persistence.QueryTimeoutException
+                || error instanceof SQLTransientException
+                || error instanceof SQLRecoverableException;
+    }
+
+    /**
+     * Connection failures, serialization failures, deadlocks, lock timeouts and cancelled
+     * statements, as PostgreSQL reports them when nothing has translated them.
+     */
+    private static boolean isTransientSqlState(String sqlState) {
+        if (sqlState == null) {
+            return false;
+        }
+        return sqlState.startsWith("08")
+                || sqlState.equals("40001")
+                || sqlState.equals("40P01")
+                || sqlState.equals("55P03")
+                || sqlState.equals("57014");
+    }
+}
@@ -0,0 +1,41 @@
+package com.irembo.certify.certificate;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A status change of a certificate job, as published on {@link CertificateJobEventBus}
+ * and streamed to subscribers.
+ */
+public record CertificateJobEvent(
+        UUID jobId,
+        UUID tenantId,
+        UUID batchId,
+        Integer rowIndex,
+        CertificateJobStatus status,
+        UUID certificateId,
+        String errorMessage,
+        int attempts,
+        Instant nextAttemptAt,
+        Instant updatedAt
+) {
+
+    public static CertificateJobEvent of(CertificateJob job, Instant updatedAt) {
+        return new CertificateJobEvent(
+                job.getId(),
+                job.getTenantId(),
+                job.getBatchId(),
+                job.getRowIndex(),
+                job.getStatus(),
+                job.getCertificateId(),
+                job.getErrorMessage(),
+                job.getAttempts(),
+                job.getNextAttemptAt(),
+                updatedAt
+        );
+    }
+
+    public static CertificateJobEvent of(CertificateJob job) {
+        return of(job, job.getUpdatedAt());
+    }
+}
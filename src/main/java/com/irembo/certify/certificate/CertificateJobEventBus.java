@@ -0,0 +1,195 @@
+package com.irembo.certify.certificate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Delivers {@link CertificateJobEvent}s to listeners subscribed to a job, a batch or a
+ * whole tenant.
+ * <p>
+ * Events published on this node are delivered to local listeners straight away and
+ * relayed to the other nodes in the background, batched into one
+ * {@link CertificateJobNotifier#jobEvents} statement per round; {@link CertificateJobListener}
+ * hands the events relayed by other nodes to {@link #receive}. Relaying is skipped while
+ * {@code certify.jobs.listen} is off, as no node would receive them. Listeners run on the
+ * publishing thread, so they must hand events off rather than block.
+ */
+@Component
+public class CertificateJobEventBus {
+
+    private static final Logger log = LoggerFactory.getLogger(CertificateJobEventBus.class);
+
+    private static final int RELAY_BATCH_SIZE = 500;
+
+    private final CertificateJobNotifier notifier;
+    private final ObjectMapper objectMapper;
+    private final boolean relay;
+    private final String origin = UUID.randomUUID().toString();
+    private final ConcurrentMap<UUID, Set<Consumer<CertificateJobEvent>>> byJob = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, Set<Consumer<CertificateJobEvent>>> byBatch = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, Set<Consumer<CertificateJobEvent>>> byTenant = new ConcurrentHashMap<>();
+    private final BlockingQueue<CertificateJobEvent> outbox;
+    private final Counter droppedCounter;
+    private volatile boolean running;
+    private volatile Thread relayThread;
+
+    public CertificateJobEventBus(
+            CertificateJobNotifier notifier,
+            ObjectMapper objectMapper,
+            CertificateJobProperties jobProperties,
+            CertificateJobEventProperties eventProperties,
+            MeterRegistry meterRegistry
+    ) {
+        this.notifier = notifier;
+        this.objectMapper = objectMapper;
+        this.relay = jobProperties.listen();
+        this.outbox = new ArrayBlockingQueue<>(Math.max(1, eventProperties.relayBufferSize()));
+        this.droppedCounter = Counter.builder("certify.jobs.events.relay.dropped")
+                .description("Job events not relayed to other nodes because the relay fell behind")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startRelay() {
+        if (!relay || running) {
+            return;
+        }
+        running = true;
+        relayThread = Thread.ofPlatform().name("certificate-job-event-relay").daemon(true).start(this::relayLoop);
+    }
+
+    @PreDestroy
+    void stopRelay() {
+        running = false;
+        Thread current = relayThread;
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    public Subscription subscribeToJob(UUID jobId, Consumer<CertificateJobEvent> listener) {
+        return subscribe(byJob, jobId, listener);
+    }
+
+    public Subscription subscribeToBatch(UUID batchId, Consumer<CertificateJobEvent> listener) {
+        return subscribe(byBatch, batchId, listener);
+    }
+
+    public Subscription subscribeToTenant(UUID tenantId, Consumer<CertificateJobEvent> listener) {
+        return subscribe(byTenant, tenantId, listener);
+    }
+
+    /**
+     * Delivers {@code event} to this node's listeners and queues it for the other nodes.
+     * Publish only once the change it reports is committed.
+     */
+    public void publish(CertificateJobEvent event) {
+        deliver(event);
+        if (relay && !outbox.offer(event)) {
+            droppedCounter.increment();
+        }
+    }
+
+    /**
+     * Delivers an event relayed by another node. Events this node relayed itself have
+     * already been delivered and are ignored.
+     */
+    void receive(String payload) {
+        RelayedEvent relayed;
+        try {
+            relayed = objectMapper.readValue(payload, RelayedEvent.class);
+        } catch (JsonProcessingException ex) {
+            log.warn("Ignoring malformed certificate job event: {}", ex.getOriginalMessage());
+            return;
+        }
+        if (!origin.equals(relayed.origin()) && relayed.event() != null) {
+            deliver(relayed.event());
+        }
+    }
+
+    private void deliver(CertificateJobEvent event) {
+        deliver(byJob.get(event.jobId()), event);
+        if (event.batchId() != null) {
+            deliver(byBatch.get(event.batchId()), event);
+        }
+        deliver(byTenant.get(event.tenantId()), event);
+    }
+
+    private static void deliver(Set<Consumer<CertificateJobEvent>> listeners, CertificateJobEvent event) {
+        if (listeners == null) {
+            return;
+        }
+        for (Consumer<CertificateJobEvent> listener : listeners) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException ex) {
+                log.warn("Certificate job event listener failed: {}", ex.getMessage());
+            }
+        }
+    }
+
+    private static Subscription subscribe(ConcurrentMap<UUID, Set<Consumer<CertificateJobEvent>>> index, UUID key,
+                                          Consumer<CertificateJobEvent> listener) {
+        index.compute(key, (k, listeners) -> {
+            Set<Consumer<CertificateJobEvent>> set = listeners != null ? listeners : ConcurrentHashMap.newKeySet();
+            set.add(listener);
+            return set;
+        });
+        return () -> index.computeIfPresent(key, (k, listeners) -> {
+            listeners.remove(listener);
+            return listeners.isEmpty() ? null : listeners;
+        });
+    }
+
+    private void relayLoop() {
+        List<CertificateJobEvent> events = new ArrayList<>(RELAY_BATCH_SIZE);
+        while (running) {
+            try {
+                events.add(outbox.take());
+            } catch (InterruptedException ex) {
+                return;
+            }
+            outbox.drainTo(events, RELAY_BATCH_SIZE - 1);
+            try {
+                List<String> payloads = new ArrayList<>(events.size());
+                for (CertificateJobEvent event : events) {
+                    payloads.add(objectMapper.writeValueAsString(new RelayedEvent(origin, event)));
+                }
+                notifier.jobEvents(payloads);
+            } catch (JsonProcessingException | RuntimeException ex) {
+                droppedCounter.increment(events.size());
+                log.warn("Failed to relay {} certificate job events: {}", events.size(), ex.getMessage());
+            }
+            events.clear();
+        }
+    }
+
+    /**
+     * Stops delivering events to the listener it was returned for.
+     */
+    @FunctionalInterface
+    public interface Subscription {
+        void cancel();
+    }
+
+    record RelayedEvent(String origin, CertificateJobEvent event) {
+    }
+}
@@ -0,0 +1,24 @@
+package com.irembo.certify.certificate;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Limits for streaming job status events to clients.
+ * <p>
+ * A node serves at most {@code maxSubscribers} open streams; further requests are
+ * rejected straight away. Each stream buffers up to {@code bufferSize} events for a
+ * client that reads slower than they arrive, and is closed after {@code timeout}, when
+ * the client is expected to reconnect. Up to {@code relayBufferSize} events wait to be
+ * relayed to the other nodes.
+ */
+@ConfigurationProperties(prefix = "certify.jobs.events")
+public record CertificateJobEventProperties(
+        @DefaultValue("10000") int maxSubscribers,
+        @DefaultValue("256") int bufferSize,
+        @DefaultValue("30m") Duration timeout,
+        @DefaultValue("10000") int relayBufferSize
+) {
+}
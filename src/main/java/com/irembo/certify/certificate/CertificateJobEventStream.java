@@ -0,0 +1,211 @@
+package com.irembo.certify.certificate;
+
+import com.irembo.certify.common.TenantContextHolder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Streams {@link CertificateJobEvent}s to clients as Server-Sent Events.
+ * <p>
+ * Streams hold no thread while idle: events are queued on the stream and written by a
+ * short-lived virtual thread, one at a time per stream, so a slow client only holds up
+ * its own stream. A stream buffers up to {@code bufferSize} events; when a client falls
+ * further behind, newer events are dropped and an {@code overflow} event follows the
+ * buffered ones, telling the client to reload the current state. A comment is sent
+ * every {@code heartbeat-interval} to keep idle connections open through proxies.
+ * <p>
+ * Events are named {@code job}; a job stream starts with the job's current state and a
+ * batch stream with the batch's, named {@code batch}. Jobs are reported from the moment
+ * they are claimed.
+ */
+@Component
+public class CertificateJobEventStream {
+
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(5);
+
+    private final CertificateJobEventBus eventBus;
+    private final int maxSubscribers;
+    private final int bufferSize;
+    private final long timeoutMillis;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger open = new AtomicInteger();
+    private final ExecutorService senders =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("certificate-job-events-", 0).factory());
+    private final Counter droppedCounter;
+
+    public CertificateJobEventStream(
+            CertificateJobEventBus eventBus,
+            CertificateJobEventProperties properties,
+            MeterRegistry meterRegistry
+    ) {
+        this.eventBus = eventBus;
+        this.maxSubscribers = properties.maxSubscribers();
+        this.bufferSize = Math.max(1, properties.bufferSize());
+        this.timeoutMillis = properties.timeout().toMillis();
+        this.droppedCounter = Counter.builder("certify.jobs.events.dropped")
+                .description("Job events dropped because a client read its stream too slowly")
+                .register(meterRegistry);
+        Gauge.builder("certify.jobs.events.subscribers", open, AtomicInteger::get)
+                .description("Job event streams open on this node")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Streams the events of one job, starting with {@code snapshot}, which is read only
+     * once the stream is subscribed so that it is never older than the events that follow.
+     */
+    public SseEmitter streamJob(UUID jobId, Supplier<CertificateJobEvent> snapshot) {
+        return open(listener -> eventBus.subscribeToJob(jobId, listener), "job", snapshot);
+    }
+
+    /**
+     * Streams the events of every job in a batch, starting with {@code snapshot} of the batch.
+     */
+    public SseEmitter streamBatch(UUID batchId, Supplier<?> snapshot) {
+        return open(listener -> eventBus.subscribeToBatch(batchId, listener), "batch", snapshot);
+    }
+
+    /**
+     * Streams the events of every job of the current tenant.
+     */
+    public SseEmitter streamCurrentTenant() {
+        UUID tenantId = TenantContextHolder.getTenantId();
+        if (tenantId == null) {
+            throw new IllegalStateException("No tenant in context");
+        }
+        return open(listener -> eventBus.subscribeToTenant(tenantId, listener), null, null);
+    }
+
+    @Scheduled(fixedDelayString = "${certify.jobs.events.heartbeat-interval:15000}")
+    public void sendHeartbeats() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(SseEmitter.event().comment("heartbeat"));
+        }
+    }
+
+    int openStreams() {
+        return open.get();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.close();
+            subscriber.emitter.complete();
+        }
+        senders.shutdownNow();
+    }
+
+    private SseEmitter open(Function<Consumer<CertificateJobEvent>, CertificateJobEventBus.Subscription> subscribe,
+                            String snapshotName, Supplier<?> snapshot) {
+        if (open.incrementAndGet() > maxSubscribers) {
+            open.decrementAndGet();
+            throw new EventStreamRejectedException(RETRY_AFTER);
+        }
+        Subscriber subscriber = new Subscriber(new SseEmitter(timeoutMillis));
+        subscribers.add(subscriber);
+        try {
+            subscriber.subscription = subscribe.apply(subscriber::onEvent);
+            if (snapshot != null) {
+                subscriber.offer(SseEmitter.event().name(snapshotName).data(snapshot.get(), MediaType.APPLICATION_JSON));
+            }
+        } catch (RuntimeException ex) {
+            subscriber.close();
+            throw ex;
+        }
+        subscriber.emitter.onCompletion(subscriber::close);
+        subscriber.emitter.onTimeout(subscriber::close);
+        subscriber.emitter.onError(ex -> subscriber.close());
+        return subscriber.emitter;
+    }
+
+    private final class Subscriber {
+
+        private final SseEmitter emitter;
+        private final BlockingQueue<SseEmitter.SseEventBuilder> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean overflowed;
+        private volatile CertificateJobEventBus.Subscription subscription;
+
+        private Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        private void onEvent(CertificateJobEvent event) {
+            offer(SseEmitter.event().name("job").data(event, MediaType.APPLICATION_JSON));
+        }
+
+        private void offer(SseEmitter.SseEventBuilder event) {
+            if (closed.get()) {
+                return;
+            }
+            if (!buffer.offer(event)) {
+                overflowed = true;
+                droppedCounter.increment();
+            }
+            if (sending.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::send);
+                } catch (RejectedExecutionException ex) {
+                    sending.set(false);
+                }
+            }
+        }
+
+        private void send() {
+            try {
+                do {
+                    SseEmitter.SseEventBuilder next;
+                    while (!closed.get() && (next = buffer.poll()) != null) {
+                        emitter.send(next);
+                    }
+                    if (overflowed && !closed.get()) {
+                        overflowed = false;
+                        emitter.send(SseEmitter.event().name("overflow").data("Events were dropped; reload the current state"));
+                    }
+                    sending.set(false);
+                    // An event offered after the buffer was drained may have found sending still set.
+                } while ((!buffer.isEmpty() || overflowed) && !closed.get() && sending.compareAndSet(false, true));
+            } catch (IOException | IllegalStateException ex) {
+                // The client is gone; the container reports it to the emitter's callbacks as well.
+                close();
+            }
+        }
+
+        private void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            CertificateJobEventBus.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+            subscribers.remove(this);
+            open.decrementAndGet();
+            buffer.clear();
+        }
+    }
+}
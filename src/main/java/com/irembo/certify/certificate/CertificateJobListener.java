@@ -0,0 +1,133 @@
+package com.irembo.certify.certificate;
+
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+
+/**
+ * Wakes the {@link CertificateJobProcessor} when {@link CertificateJobNotifier} reports
+ * new jobs, and hands job events relayed by other nodes to the {@link CertificateJobEventBus}.
+ * <p>
+ * {@code LISTEN} needs a session of its own for as long as the node runs, so the
+ * listener opens a dedicated connection outside the pool rather than holding one of the
+ * pool's. While it is connected the processor may back off its fallback polling; when
+ * the connection is lost the processor goes back to polling at its regular interval
+ * until the listener has reconnected.
+ */
+@Component
+public class CertificateJobListener {
+
+    private static final Logger log = LoggerFactory.getLogger(CertificateJobListener.class);
+
+    private static final int RECEIVE_TIMEOUT_MILLIS = 30_000;
+    private static final Duration RECONNECT_DELAY = Duration.ofSeconds(5);
+
+    private final DataSource dataSource;
+    private final CertificateJobProcessor processor;
+    private final CertificateJobEventBus eventBus;
+    private final boolean enabled;
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    public CertificateJobListener(
+            DataSourceProperties dataSourceProperties,
+            CertificateJobProcessor processor,
+            CertificateJobEventBus eventBus,
+            CertificateJobProperties properties
+    ) {
+        this.dataSource = dataSourceProperties.initializeDataSourceBuilder()
+                .type(SimpleDriverDataSource.class)
+                .build();
+        this.processor = processor;
+        this.eventBus = eventBus;
+        this.enabled = properties.listen();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        thread = Thread.ofPlatform().name("certificate-job-listener").daemon(true).start(this::run);
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        Thread current = thread;
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                listen(connection);
+            } catch (SQLException ex) {
+                if (running) {
+                    log.warn("Certificate job listener disconnected, retrying in {}s: {}",
+                            RECONNECT_DELAY.toSeconds(), ex.getMessage());
+                }
+            } finally {
+                processor.setNotificationsActive(false);
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY);
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    private void listen(Connection connection) throws SQLException {
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("LISTEN " + CertificateJobNotifier.CHANNEL);
+            statement.execute("LISTEN " + CertificateJobNotifier.EVENTS_CHANNEL);
+        }
+        log.info("Listening for certificate jobs on channels {} and {}",
+                CertificateJobNotifier.CHANNEL, CertificateJobNotifier.EVENTS_CHANNEL);
+        processor.setNotificationsActive(true);
+        // Jobs queued while nobody was listening were announced to no one.
+        processor.wakeUp();
+
+        while (running) {
+            PGNotification[] notifications = pgConnection.getNotifications(RECEIVE_TIMEOUT_MILLIS);
+            if (notifications != null && notifications.length > 0) {
+                dispatch(notifications);
+            } else if (!connection.isValid(5)) {
+                // Only reading never notices a dead peer; check the session while idle.
+                throw new SQLException("Listener connection is no longer valid");
+            }
+        }
+    }
+
+    private void dispatch(PGNotification[] notifications) {
+        boolean jobsQueued = false;
+        for (PGNotification notification : notifications) {
+            if (CertificateJobNotifier.EVENTS_CHANNEL.equals(notification.getName())) {
+                eventBus.receive(notification.getParameter());
+            } else {
+                jobsQueued = true;
+            }
+        }
+        if (jobsQueued) {
+            processor.wakeUp();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.irembo.certify.certificate;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * Tells job processors on every node that new certificate jobs are queued, with a
+ * PostgreSQL {@code NOTIFY} on {@value #CHANNEL}, and relays job status events to the
+ * other nodes on {@value #EVENTS_CHANNEL}.
+ * <p>
+ * The notification is sent on the connection of the surrounding transaction, and
+ * PostgreSQL delivers it only when that transaction commits, so listeners never wake up
+ * for jobs they can't see yet. Repeated notifications in one transaction are folded
+ * into one.
+ */
+@Component
+public class CertificateJobNotifier {
+
+    static final String CHANNEL = "certificate_jobs";
+    static final String EVENTS_CHANNEL = "certificate_job_events";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public CertificateJobNotifier(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    public void jobsQueued() {
+        jdbcTemplate.execute("NOTIFY " + CHANNEL);
+    }
+
+    /**
+     * Sends each payload as its own notification on {@value #EVENTS_CHANNEL}, all in one
+     * statement. A payload must stay below PostgreSQL's limit of 8000 bytes.
+     */
+    public void jobEvents(List<String> payloads) {
+        if (payloads.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.execute("SELECT pg_notify(?, payload) FROM unnest(?) AS payload",
+                (PreparedStatementCallback<Boolean>) statement -> {
+                    statement.setString(1, EVENTS_CHANNEL);
+                    statement.setArray(2, statement.getConnection().createArrayOf("text", payloads.toArray()));
+                    return statement.execute();
+                });
+    }
+}
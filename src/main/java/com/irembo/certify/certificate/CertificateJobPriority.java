@@ -0,0 +1,17 @@
+package com.irembo.certify.certificate;
+
+/**
+ * Priority lanes of the certificate job queue. Each lane is claimed on its own and has its
+ * own workers on every node, so a saturated lane can't hold up the others.
+ */
+public enum CertificateJobPriority {
+
+    /** Someone is waiting for the certificate, e.g. at a service counter. */
+    HIGH,
+
+    /** Default for single asynchronous jobs. */
+    NORMAL,
+
+    /** Batches and backfills. */
+    LOW
+}
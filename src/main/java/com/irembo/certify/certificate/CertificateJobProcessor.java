@@ -1,16 +1,56 @@
 package com.irembo.certify.certificate;
 
 import com.irembo.certify.common.TenantContextHolder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Works off the certificate_jobs queue on this node.
+ * <p>
+ * A dispatcher thread claims jobs whenever it is woken up: by {@link CertificateJobListener}
+ * when jobs are queued, by a worker that frees up while there may be more work, or by the
+ * fallback poll. The poll runs every {@code pollInterval} while jobs keep turning up or
+ * while notifications are unavailable, and doubles up to {@code maxPollInterval} while
+ * the queue is empty, so idle nodes hardly touch the database.
+ * <p>
+ * Each {@link CertificateJobPriority} lane has its own workers and is claimed on its own,
+ * highest priority first, so a saturated low-priority lane never delays high-priority
+ * jobs. Queue wait is recorded per lane in {@code certify.jobs.queue.wait}.
+ * <p>
+ * A job that fails with a transient error (see {@link CertificateJobErrors}) goes back to
+ * the queue with an exponential backoff until it runs out of attempts, and is then moved
+ * to DEAD_LETTER; the dispatcher wakes up when a retry it scheduled comes due. Claims,
+ * retries and outcomes are published on the {@link CertificateJobEventBus} once they are
+ * committed.
+ */
 @Component
 public class CertificateJobProcessor {
 
@@ -18,72 +58,393 @@ public class CertificateJobProcessor {
 
     private final CertificateJobRepository jobRepository;
     private final CertificateService certificateService;
+    private final CertificateJobEventBus eventBus;
+    private final int batchSize;
+    private final int workers;
+    private final long leaseSeconds;
+    private final String nodeId;
+    private final List<Lane> lanes;
+    private final ExecutorService workerPool;
+    private final Set<UUID> inFlightJobIds = ConcurrentHashMap.newKeySet();
+    private final long pollIntervalNanos;
+    private final long maxPollIntervalNanos;
+    private final Semaphore wakeUps = new Semaphore(0);
+    private final Queue<Instant> retriesDue = new PriorityBlockingQueue<>();
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+    private final long maxRetryBackoffMillis;
+    private volatile boolean notificationsActive;
+    private volatile boolean running;
+    private volatile Thread dispatcher;
+
+    private final Counter completedCounter;
+    private final Counter failedCounter;
+    private final Counter retriedCounter;
+    private final Counter deadLetterCounter;
+    private final Counter requeuedCounter;
+    private final Timer jobTimer;
 
     public CertificateJobProcessor(
             CertificateJobRepository jobRepository,
-            CertificateService certificateService
+            CertificateService certificateService,
+            CertificateJobEventBus eventBus,
+            CertificateJobProperties properties,
+            MeterRegistry meterRegistry
     ) {
         this.jobRepository = jobRepository;
         this.certificateService = certificateService;
+        this.eventBus = eventBus;
+        this.batchSize = properties.batchSize();
+        this.leaseSeconds = Math.max(1, properties.leaseDuration().toSeconds());
+        this.nodeId = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8);
+        this.lanes = Arrays.stream(CertificateJobPriority.values())
+                .map(priority -> new Lane(priority, properties.laneWorkers(priority), meterRegistry))
+                .toList();
+        this.workers = lanes.stream().mapToInt(lane -> lane.workers).sum();
+        this.workerPool = createWorkerPool(properties.virtualThreads(), workers);
+        this.pollIntervalNanos = Math.max(1, properties.pollInterval().toNanos());
+        this.maxPollIntervalNanos = Math.max(pollIntervalNanos, properties.maxPollInterval().toNanos());
+        this.maxAttempts = Math.max(1, properties.maxAttempts());
+        this.retryBackoffMillis = Math.max(1, properties.retryBackoff().toMillis());
+        this.maxRetryBackoffMillis = Math.max(retryBackoffMillis, properties.maxRetryBackoff().toMillis());
+
+        this.completedCounter = Counter.builder("certify.jobs.processed")
+                .tag("outcome", "completed")
+                .description("Certificate jobs processed by this node")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("certify.jobs.processed")
+                .tag("outcome", "failed")
+                .description("Certificate jobs processed by this node")
+                .register(meterRegistry);
+        this.retriedCounter = Counter.builder("certify.jobs.processed")
+                .tag("outcome", "retried")
+                .description("Certificate jobs processed by this node")
+                .register(meterRegistry);
+        this.deadLetterCounter = Counter.builder("certify.jobs.processed")
+                .tag("outcome", "dead_letter")
+                .description("Certificate jobs processed by this node")
+                .register(meterRegistry);
+        this.requeuedCounter = Counter.builder("certify.jobs.lease.requeued")
+                .description("Jobs returned to the queue after their lease expired")
+                .register(meterRegistry);
+        this.jobTimer = Timer.builder("certify.jobs.duration")
+                .description("Time spent processing a single certificate job")
+                .register(meterRegistry);
+
+        log.info("Certificate job processor {} started with {} {} workers (high {}, normal {}, low {})",
+                nodeId, workers, properties.virtualThreads() ? "virtual" : "platform",
+                lanes.get(0).workers, lanes.get(1).workers, lanes.get(2).workers);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startDispatcher() {
+        if (running) {
+            return;
+        }
+        running = true;
+        dispatcher = Thread.ofPlatform().name("certificate-job-dispatcher").daemon(true).start(this::dispatch);
+    }
+
+    /**
+     * Have the dispatcher look for jobs now rather than at its next poll.
+     */
+    public void wakeUp() {
+        if (wakeUps.availablePermits() == 0) {
+            wakeUps.release();
+        }
     }
 
     /**
-     * Looks in the certificate_jobs table for pending work and processes jobs in small batches.
+     * Whether job notifications are being received, which lets the fallback poll back off.
      */
-    @Scheduled(fixedDelayString = "${certify.jobs.poll-interval:1000}")
-    public void pollAndProcessJobs() {
-        List<UUID> claimedJobIds = claimNextBatch(50);
-        for (UUID jobId : claimedJobIds) {
+    void setNotificationsActive(boolean active) {
+        notificationsActive = active;
+    }
+
+    /**
+     * Claims pending work from the certificate_jobs table, lane by lane, and fans it out
+     * across the worker pool. Only as many jobs as a lane has idle workers are claimed for
+     * it, so a busy node leaves the rest of the queue to other nodes.
+     *
+     * @return the number of jobs claimed
+     */
+    public int pollAndProcessJobs() {
+        int claimed = 0;
+        for (Lane lane : lanes) {
+            claimed += poll(lane);
+        }
+        return claimed;
+    }
+
+    private int poll(Lane lane) {
+        int capacity = Math.min(batchSize, lane.freeWorkers.availablePermits());
+        if (capacity == 0 || !lane.freeWorkers.tryAcquire(capacity)) {
+            // Look again as soon as a worker frees up.
+            lane.backlog = true;
+            return 0;
+        }
+
+        List<CertificateJob> claimedJobs;
+        try {
+            claimedJobs = jobRepository.claimNextBatch(nodeId, leaseSeconds, lane.priority, capacity);
+        } catch (RuntimeException ex) {
+            lane.freeWorkers.release(capacity);
+            throw ex;
+        }
+        lane.freeWorkers.release(capacity - claimedJobs.size());
+        // A full claim suggests more jobs are waiting.
+        lane.backlog = claimedJobs.size() == capacity;
+
+        Instant now = Instant.now();
+        for (CertificateJob job : claimedJobs) {
+            if (job.getCreatedAt() != null) {
+                lane.waitTimer.record(Duration.between(job.getCreatedAt(), now));
+            }
+            eventBus.publish(CertificateJobEvent.of(job));
+            inFlightJobIds.add(job.getId());
             try {
-                processSingleJob(jobId);
-            } catch (Exception ex) {
-                log.error("Failed to process certificate job id={}", jobId, ex);
+                workerPool.execute(() -> runOnWorker(job, lane));
+            } catch (RejectedExecutionException ex) {
+                inFlightJobIds.remove(job.getId());
+                lane.freeWorkers.release();
+                log.warn("Worker pool rejected certificate job id={}; it will be requeued when its lease expires",
+                        job.getId());
             }
         }
+        return claimedJobs.size();
     }
 
     /**
-     * Claims the next batch of PENDING jobs by locking and updating them to PROCESSING
+     * Renews the lease on every job this node is still working on, in one statement.
      */
-    @Transactional
-    protected List<UUID> claimNextBatch(int limit) {
-        List<CertificateJob> jobs = jobRepository.findNextBatchForUpdate(
-                CertificateJobStatus.PENDING.name(),
-                limit
-        );
-
-        for (CertificateJob job : jobs) {
-            job.setStatus(CertificateJobStatus.PROCESSING);
+    @Scheduled(fixedDelayString = "${certify.jobs.lease-heartbeat-interval:30000}")
+    public void renewLeases() {
+        List<UUID> ids = List.copyOf(inFlightJobIds);
+        if (ids.isEmpty()) {
+            return;
+        }
+        int renewed = jobRepository.renewLeases(ids, nodeId, leaseSeconds);
+        if (renewed < ids.size()) {
+            log.warn("Renewed {} of {} certificate job leases held by {}", renewed, ids.size(), nodeId);
         }
+    }
 
-        return jobs.stream()
-                .map(CertificateJob::getId)
-                .collect(Collectors.toList());
+    /**
+     * Returns jobs whose owner stopped renewing their lease, e.g. after a crash, to PENDING.
+     */
+    @Scheduled(fixedDelayString = "${certify.jobs.lease-reaper-interval:60000}")
+    public void requeueExpiredLeases() {
+        int requeued = jobRepository.requeueExpiredLeases();
+        if (requeued > 0) {
+            requeuedCounter.increment(requeued);
+            log.warn("Requeued {} certificate jobs with expired leases", requeued);
+            wakeUp();
+        }
     }
 
-    @Transactional
-    public void processSingleJob(UUID jobId) {
-        CertificateJob job = jobRepository.findById(jobId).orElse(null);
-        if (job == null || job.getStatus() != CertificateJobStatus.PROCESSING) {
+    public void processSingleJob(CertificateJob job) {
+        if (job.getStatus() != CertificateJobStatus.PROCESSING) {
+            return;
+        }
+        if (job.getAttempts() > maxAttempts) {
+            // Its lease ran out on every attempt, e.g. because processing it keeps killing the node.
+            log.warn("Certificate job id={} was claimed {} times without finishing; moving it to the dead-letter queue",
+                    job.getId(), job.getAttempts());
+            deadLetterCounter.increment();
+            finish(job, CertificateJobStatus.DEAD_LETTER, null, "Gave up after " + maxAttempts + " attempts");
             return;
         }
 
+        UUID certificateId = null;
+        Exception failure = null;
+        long start = System.nanoTime();
         try {
             TenantContextHolder.setTenantId(job.getTenantId());
             var response = certificateService.processJob(job);
-            job.setCertificateId(response.id());
-            job.setStatus(CertificateJobStatus.COMPLETED);
-            job.setErrorMessage(null);
+            certificateId = response.id();
         } catch (Exception ex) {
-            log.warn("Certificate job id={} failed: {}", job.getId(), ex.getMessage());
-            job.setStatus(CertificateJobStatus.FAILED);
-            String message = ex.getMessage();
-            if (message != null && message.length() > 500) {
-                message = message.substring(0, 500);
-            }
-            job.setErrorMessage(message);
+            failure = ex;
         } finally {
             TenantContextHolder.clear();
+            jobTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        if (failure == null) {
+            completedCounter.increment();
+            finish(job, CertificateJobStatus.COMPLETED, certificateId, null);
+            return;
+        }
+        String errorMessage = failure.getMessage();
+        if (errorMessage != null && errorMessage.length() > 500) {
+            errorMessage = errorMessage.substring(0, 500);
+        }
+        if (!CertificateJobErrors.isRetryable(failure)) {
+            log.warn("Certificate job id={} failed: {}", job.getId(), failure.getMessage());
+            failedCounter.increment();
+            finish(job, CertificateJobStatus.FAILED, null, errorMessage);
+        } else if (job.getAttempts() >= maxAttempts) {
+            log.warn("Certificate job id={} failed on its last attempt ({}); moving it to the dead-letter queue: {}",
+                    job.getId(), job.getAttempts(), failure.getMessage());
+            deadLetterCounter.increment();
+            finish(job, CertificateJobStatus.DEAD_LETTER, null, errorMessage);
+        } else {
+            retry(job, errorMessage);
+        }
+    }
+
+    /**
+     * The backoff before the attempt after {@code attempt}: {@code retryBackoff} doubled per
+     * attempt up to {@code maxRetryBackoff}, of which a random half is taken off so that
+     * jobs that failed together don't all come back at once.
+     */
+    Duration retryDelay(int attempt) {
+        long delay = Math.min(maxRetryBackoffMillis, retryBackoffMillis << Math.min(Math.max(attempt - 1, 0), 30));
+        return Duration.ofMillis(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+    }
+
+    private void finish(CertificateJob job, CertificateJobStatus outcome, UUID certificateId, String errorMessage) {
+        job.setStatus(outcome);
+        job.setCertificateId(certificateId);
+        job.setErrorMessage(errorMessage);
+
+        Instant finishedAt = Instant.now();
+        int updated = jobRepository.finishJob(job.getId(), nodeId, outcome, certificateId, errorMessage, finishedAt);
+        if (updated == 0) {
+            log.warn("Lease on certificate job id={} was lost before it finished; outcome {} discarded",
+                    job.getId(), outcome);
+            return;
+        }
+        eventBus.publish(CertificateJobEvent.of(job, finishedAt));
+    }
+
+    private void retry(CertificateJob job, String errorMessage) {
+        Instant now = Instant.now();
+        Instant nextAttemptAt = now.plus(retryDelay(job.getAttempts()));
+        job.setStatus(CertificateJobStatus.PENDING);
+        job.setErrorMessage(errorMessage);
+        job.setNextAttemptAt(nextAttemptAt);
+
+        int updated = jobRepository.retryJob(job.getId(), nodeId, errorMessage, nextAttemptAt, now);
+        if (updated == 0) {
+            log.warn("Lease on certificate job id={} was lost before it could be retried", job.getId());
+            return;
+        }
+        retriedCounter.increment();
+        log.info("Certificate job id={} failed on attempt {} of {}, retrying at {}: {}",
+                job.getId(), job.getAttempts(), maxAttempts, nextAttemptAt, errorMessage);
+        eventBus.publish(CertificateJobEvent.of(job, now));
+
+        Instant earliest = retriesDue.peek();
+        retriesDue.add(nextAttemptAt);
+        if (earliest == null || nextAttemptAt.isBefore(earliest)) {
+            // Let the dispatcher shorten its wait to this retry.
+            wakeUp();
+        }
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        running = false;
+        Thread current = dispatcher;
+        if (current != null) {
+            current.interrupt();
+        }
+        workerPool.shutdown();
+    }
+
+    private void dispatch() {
+        long delayNanos = pollIntervalNanos;
+        while (running) {
+            try {
+                int claimed = pollAndProcessJobs();
+                delayNanos = claimed > 0 || !notificationsActive
+                        ? pollIntervalNanos
+                        : Math.min(delayNanos * 2, maxPollIntervalNanos);
+            } catch (RuntimeException ex) {
+                log.warn("Failed to claim certificate jobs: {}", ex.getMessage());
+                delayNanos = Math.min(delayNanos * 2, maxPollIntervalNanos);
+            }
+            try {
+                if (wakeUps.tryAcquire(untilNextRetry(delayNanos), TimeUnit.NANOSECONDS)) {
+                    wakeUps.drainPermits();
+                }
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Shortens {@code delayNanos} to the time until the earliest retry this node scheduled;
+     * zero if one has come due since the last claim.
+     */
+    private long untilNextRetry(long delayNanos) {
+        Instant now = Instant.now();
+        boolean due = false;
+        Instant next;
+        while ((next = retriesDue.peek()) != null && !next.isAfter(now)) {
+            retriesDue.poll();
+            due = true;
+        }
+        if (due) {
+            return 0;
+        }
+        return next == null ? delayNanos : Math.min(delayNanos, Duration.between(now, next).toNanos());
+    }
+
+    private void runOnWorker(CertificateJob job, Lane lane) {
+        try {
+            processSingleJob(job);
+        } catch (Exception ex) {
+            log.error("Failed to process certificate job id={}", job.getId(), ex);
+        } finally {
+            inFlightJobIds.remove(job.getId());
+            lane.freeWorkers.release();
+            if (lane.backlog) {
+                wakeUp();
+            }
+        }
+    }
+
+    private static ExecutorService createWorkerPool(boolean virtualThreads, int workers) {
+        if (virtualThreads) {
+            // Concurrency is bounded by the lanes' freeWorkers semaphores, not by the executor.
+            ThreadFactory factory = Thread.ofVirtual().name("certificate-job-", 0).factory();
+            return Executors.newThreadPerTaskExecutor(factory);
+        }
+        ThreadFactory factory = Thread.ofPlatform().name("certificate-job-", 0).daemon(true).factory();
+        return Executors.newFixedThreadPool(workers, factory);
+    }
+
+    /**
+     * Workers and claim state of one priority lane.
+     */
+    private static final class Lane {
+
+        private final CertificateJobPriority priority;
+        private final int workers;
+        private final Semaphore freeWorkers;
+        private final Timer waitTimer;
+        private volatile boolean backlog;
+
+        private Lane(CertificateJobPriority priority, int workers, MeterRegistry meterRegistry) {
+            this.priority = priority;
+            this.workers = workers;
+            this.freeWorkers = new Semaphore(workers);
+            String tag = priority.name().toLowerCase(Locale.ROOT);
+            this.waitTimer = Timer.builder("certify.jobs.queue.wait")
+                    .tag("lane", tag)
+                    .description("Time from queueing a certificate job to claiming it")
+                    .publishPercentiles(0.5, 0.99)
+                    .register(meterRegistry);
+            Gauge.builder("certify.jobs.in-flight", freeWorkers, s -> workers - s.availablePermits())
+                    .tag("lane", tag)
+                    .description("Certificate jobs currently being processed by this node")
+                    .register(meterRegistry);
         }
     }
 }
@@ -0,0 +1,71 @@
+package com.irembo.certify.certificate;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Tuning for the asynchronous certificate job pipeline.
+ * <p>
+ * {@code workers} is the number of jobs a single node renders concurrently. Rendering
+ * is CPU-bound, so when left at {@code 0} it defaults to the number of available
+ * processors. The workers are split between the priority lanes, so that each lane keeps
+ * capacity however busy the others are: {@code highPriorityWorkers} default to a quarter
+ * of them and {@code lowPriorityWorkers} to half, and normal priority gets the rest; each
+ * lane has at least one. A node never claims more jobs for a lane than the lane has free
+ * workers.
+ * <p>
+ * Claimed jobs are leased for {@code leaseDuration}; the owning node renews the lease
+ * while it works, and a job whose lease runs out is handed back to the queue.
+ * <p>
+ * A job that fails with a transient error, such as a busy renderer, a storage hiccup or
+ * a lock timeout, is tried again after a backoff that starts at {@code retryBackoff} and
+ * doubles with every attempt up to {@code maxRetryBackoff}, with jitter. After
+ * {@code maxAttempts} attempts it is moved to DEAD_LETTER; permanent errors fail the job
+ * straight away.
+ * <p>
+ * A bulk submission may have at most {@code maxBatchRows} rows.
+ * <p>
+ * A certificate reservation that is still PENDING {@code reservationTimeout} after it was
+ * made belongs to a render that died with its node, and is deleted. It must be well above
+ * the render executor's queue timeout plus the time a render takes.
+ * <p>
+ * With {@code listen} on, each node holds a connection that {@code LISTEN}s for newly
+ * queued jobs and claims them as soon as they are committed. The queue is still polled
+ * as a fallback: every {@code pollInterval} while work keeps turning up or while
+ * notifications are unavailable, backing off up to {@code maxPollInterval} when idle.
+ */
+@ConfigurationProperties(prefix = "certify.jobs")
+public record CertificateJobProperties(
+        @DefaultValue("50") int batchSize,
+        @DefaultValue("0") int workers,
+        @DefaultValue("false") boolean virtualThreads,
+        @DefaultValue("5m") Duration leaseDuration,
+        @DefaultValue("50000") int maxBatchRows,
+        @DefaultValue("1s") Duration pollInterval,
+        @DefaultValue("30s") Duration maxPollInterval,
+        @DefaultValue("true") boolean listen,
+        @DefaultValue("0") int highPriorityWorkers,
+        @DefaultValue("0") int lowPriorityWorkers,
+        @DefaultValue("5") int maxAttempts,
+        @DefaultValue("10s") Duration retryBackoff,
+        @DefaultValue("10m") Duration maxRetryBackoff,
+        @DefaultValue("1h") Duration reservationTimeout
+) {
+
+    public int effectiveWorkers() {
+        return workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int laneWorkers(CertificateJobPriority priority) {
+        int total = effectiveWorkers();
+        int high = highPriorityWorkers > 0 ? highPriorityWorkers : Math.max(1, total / 4);
+        int low = lowPriorityWorkers > 0 ? lowPriorityWorkers : Math.max(1, total / 2);
+        return switch (priority) {
+            case HIGH -> high;
+            case NORMAL -> Math.max(1, total - high - low);
+            case LOW -> low;
+        };
+    }
+}
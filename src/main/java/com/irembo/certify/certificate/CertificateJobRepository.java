@@ -1,31 +1,329 @@
 package com.irembo.certify.certificate;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
 public interface CertificateJobRepository extends JpaRepository<CertificateJob, UUID> {
 
     /**
-     * Claims a batch of jobs for processing using PostgreSQL row locking to avoid
-     * multiple application instances picking the same rows.
+     * Claims up to {@code :limit} PENDING jobs of the {@code :priority} lane for
+     * {@code :owner}, sharing them fairly between tenants.
+     * <p>
+     * Each tenant with pending jobs in the lane offers its first ones as candidates, earliest
+     * deadline first and then oldest first. A candidate's share is the number of jobs its
+     * tenant would then be running in the lane, including jobs running on any node, divided
+     * by the tenant's {@code job_weight}; the lowest shares are claimed first, and ties go
+     * to the earlier deadline and then the older job. A tenant with one job therefore gets
+     * the next free worker even behind another tenant's backlog of thousands, tenants that
+     * both have a backlog get workers in proportion to their weights, and deadlines can't
+     * be used to jump ahead of other tenants.
+     * <p>
+     * Jobs waiting out a retry backoff are skipped until their {@code next_attempt_at},
+     * and each claim counts as an attempt.
+     * <p>
+     * Row locking with {@code SKIP LOCKED} keeps multiple application instances from
+     * picking the same rows, and the status change and lease happen in the same
+     * statement, so claiming costs a single round-trip per batch.
      */
-    @Query(
-            value = """
-                    SELECT *
+    String CLAIM_NEXT_BATCH_SQL = """
+            WITH RECURSIVE pending_tenants (tenant_id) AS (
+                (
+                    SELECT tenant_id
                     FROM certificate_jobs
-                    WHERE status = :status
-                    ORDER BY created_at
-                    FOR UPDATE SKIP LOCKED
+                    WHERE status = 'PENDING'
+                      AND priority = :priority
+                      AND (next_attempt_at IS NULL OR next_attempt_at <= now())
+                    ORDER BY tenant_id
+                    LIMIT 1
+                )
+                UNION ALL
+                SELECT (
+                    SELECT j.tenant_id
+                    FROM certificate_jobs j
+                    WHERE j.status = 'PENDING'
+                      AND j.priority = :priority
+                      AND (j.next_attempt_at IS NULL OR j.next_attempt_at <= now())
+                      AND j.tenant_id > pt.tenant_id
+                    ORDER BY j.tenant_id
+                    LIMIT 1
+                )
+                FROM pending_tenants pt
+                WHERE pt.tenant_id IS NOT NULL
+            ), running AS (
+                SELECT tenant_id, count(*) AS jobs
+                FROM certificate_jobs
+                WHERE status = 'PROCESSING'
+                  AND priority = :priority
+                GROUP BY tenant_id
+            ), candidates AS (
+                SELECT c.id,
+                       (coalesce(r.jobs, 0) + c.position)
+                           / CAST(coalesce(t.job_weight, 1) AS double precision) AS share,
+                       c.deadline,
+                       c.created_at,
+                       c.row_index
+                FROM pending_tenants pt
+                CROSS JOIN LATERAL (
+                    SELECT p.id,
+                           p.deadline,
+                           p.created_at,
+                           p.row_index,
+                           row_number() OVER (ORDER BY p.deadline, p.created_at, p.row_index) AS position
+                    FROM certificate_jobs p
+                    WHERE p.priority = :priority
+                      AND p.tenant_id = pt.tenant_id
+                      AND p.status = 'PENDING'
+                      AND (p.next_attempt_at IS NULL OR p.next_attempt_at <= now())
+                    ORDER BY p.deadline, p.created_at, p.row_index
                     LIMIT :limit
+                ) c
+                LEFT JOIN tenants t ON t.id = pt.tenant_id
+                LEFT JOIN running r ON r.tenant_id = pt.tenant_id
+            )
+            UPDATE certificate_jobs
+            SET status = 'PROCESSING',
+                attempts = attempts + 1,
+                next_attempt_at = NULL,
+                lease_owner = :owner,
+                lease_expires_at = now() + :leaseSeconds * interval '1 second',
+                updated_at = now()
+            WHERE id IN (
+                SELECT j.id
+                FROM certificate_jobs j
+                JOIN candidates c ON c.id = j.id
+                WHERE j.status = 'PENDING'
+                ORDER BY c.share, c.deadline, c.created_at, c.row_index
+                LIMIT :limit
+                FOR UPDATE OF j SKIP LOCKED
+            )
+            RETURNING *
+            """;
+
+    /**
+     * Atomically claims a batch of PENDING jobs of one lane for {@code owner} and returns
+     * them, as described on {@link #CLAIM_NEXT_BATCH_SQL}.
+     */
+    default List<CertificateJob> claimNextBatch(String owner, long leaseSeconds, CertificateJobPriority priority,
+                                                int limit) {
+        return claimNextBatch(owner, leaseSeconds, priority.name(), limit);
+    }
+
+    @Transactional
+    @Query(value = CLAIM_NEXT_BATCH_SQL, nativeQuery = true)
+    List<CertificateJob> claimNextBatch(
+            @Param("owner") String owner,
+            @Param("leaseSeconds") long leaseSeconds,
+            @Param("priority") String priority,
+            @Param("limit") int limit
+    );
+
+    /**
+     * Queues the jobs of an uploaded batch, once all of its rows are in.
+     */
+    @Transactional
+    @Modifying
+    @Query(
+            value = """
+                    UPDATE certificate_jobs
+                    SET status = 'PENDING',
+                        updated_at = now()
+                    WHERE batch_id = :batchId
+                      AND status = 'UPLOADING'
+                    """,
+            nativeQuery = true
+    )
+    int queueUploadedJobs(@Param("batchId") UUID batchId);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM certificate_jobs WHERE batch_id = :batchId", nativeQuery = true)
+    int deleteByBatchId(@Param("batchId") UUID batchId);
+
+    /**
+     * Extends the lease of jobs still owned by {@code owner}. Returns the number of
+     * leases renewed; anything less than {@code ids.size()} means a lease was lost.
+     */
+    @Transactional
+    @Modifying
+    @Query(
+            value = """
+                    UPDATE certificate_jobs
+                    SET lease_expires_at = now() + :leaseSeconds * interval '1 second'
+                    WHERE id IN (:ids)
+                      AND lease_owner = :owner
+                      AND status = 'PROCESSING'
+                    """,
+            nativeQuery = true
+    )
+    int renewLeases(
+            @Param("ids") Collection<UUID> ids,
+            @Param("owner") String owner,
+            @Param("leaseSeconds") long leaseSeconds
+    );
+
+    /**
+     * Returns PROCESSING jobs whose lease has expired (e.g. because the owning node
+     * crashed) to PENDING so another worker can claim them.
+     */
+    @Transactional
+    @Modifying
+    @Query(
+            value = """
+                    UPDATE certificate_jobs
+                    SET status = 'PENDING',
+                        lease_owner = NULL,
+                        lease_expires_at = NULL,
+                        updated_at = now()
+                    WHERE status = 'PROCESSING'
+                      AND lease_expires_at < now()
                     """,
             nativeQuery = true
     )
-    List<CertificateJob> findNextBatchForUpdate(
+    int requeueExpiredLeases();
+
+    /**
+     * Records the outcome of a job, provided {@code owner} still holds its lease, and
+     * advances the counters of the batch it belongs to in the same statement, so a
+     * batch's progress can never disagree with its jobs. Returns 1 if the outcome was
+     * recorded and 0 if the lease had been lost.
+     */
+    default int finishJob(UUID id, String owner, CertificateJobStatus status, UUID certificateId,
+                          String errorMessage, Instant now) {
+        return (int) finishJobAndAdvanceBatch(id, owner, status.name(), certificateId, errorMessage, now);
+    }
+
+    @Transactional
+    @Query(
+            value = """
+                    WITH finished AS (
+                        UPDATE certificate_jobs
+                        SET status = :status,
+                            certificate_id = CAST(:certificateId AS uuid),
+                            error_message = CAST(:errorMessage AS text),
+                            lease_owner = NULL,
+                            lease_expires_at = NULL,
+                            updated_at = :now
+                        WHERE id = :id
+                          AND lease_owner = :owner
+                          AND status = 'PROCESSING'
+                        RETURNING batch_id
+                    ), progress AS (
+                        UPDATE certificate_batches b
+                        SET completed_count = b.completed_count + CASE WHEN :status = 'COMPLETED' THEN 1 ELSE 0 END,
+                            failed_count = b.failed_count
+                                + CASE WHEN :status IN ('FAILED', 'DEAD_LETTER') THEN 1 ELSE 0 END,
+                            status = CASE
+                                WHEN b.completed_count + b.failed_count + 1 >= b.total_rows THEN 'COMPLETED'
+                                ELSE 'PROCESSING'
+                            END,
+                            updated_at = :now
+                        FROM finished
+                        WHERE b.id = finished.batch_id
+                    )
+                    SELECT count(*) FROM finished
+                    """,
+            nativeQuery = true
+    )
+    long finishJobAndAdvanceBatch(
+            @Param("id") UUID id,
+            @Param("owner") String owner,
             @Param("status") String status,
-            @Param("limit") int limit
+            @Param("certificateId") UUID certificateId,
+            @Param("errorMessage") String errorMessage,
+            @Param("now") Instant now
     );
+
+    /**
+     * Puts a job that failed with a transient error back in the queue until
+     * {@code nextAttemptAt}, provided {@code owner} still holds its lease. Returns 1 if the
+     * job was requeued and 0 if the lease had been lost.
+     */
+    @Transactional
+    @Modifying
+    @Query(
+            value = """
+                    UPDATE certificate_jobs
+                    SET status = 'PENDING',
+                        error_message = CAST(:errorMessage AS text),
+                        next_attempt_at = :nextAttemptAt,
+                        lease_owner = NULL,
+                        lease_expires_at = NULL,
+                        updated_at = :now
+                    WHERE id = :id
+                      AND lease_owner = :owner
+                      AND status = 'PROCESSING'
+                    """,
+            nativeQuery = true
+    )
+    int retryJob(
+            @Param("id") UUID id,
+            @Param("owner") String owner,
+            @Param("errorMessage") String errorMessage,
+            @Param("nextAttemptAt") Instant nextAttemptAt,
+            @Param("now") Instant now
+    );
+
+    /**
+     * Returns DEAD_LETTER jobs to the queue with a fresh set of attempts, optionally only
+     * those of one tenant, one batch or with the given ids, and takes them off the failed
+     * count of their batches again. Returns the number of jobs requeued.
+     */
+    default int requeueDeadLetters(UUID tenantId, UUID batchId, Collection<UUID> jobIds) {
+        boolean anyJob = jobIds == null || jobIds.isEmpty();
+        // An empty IN list is not valid SQL, so pass a placeholder when ids don't matter.
+        return (int) requeueDeadLetterJobs(tenantId, batchId, anyJob, anyJob ? List.of(new UUID(0, 0)) : jobIds);
+    }
+
+    @Transactional
+    @Query(
+            value = """
+                    WITH requeued AS (
+                        UPDATE certificate_jobs
+                        SET status = 'PENDING',
+                            attempts = 0,
+                            next_attempt_at = NULL,
+                            updated_at = now()
+                        WHERE status = 'DEAD_LETTER'
+                          AND (CAST(:tenantId AS uuid) IS NULL OR tenant_id = CAST(:tenantId AS uuid))
+                          AND (CAST(:batchId AS uuid) IS NULL OR batch_id = CAST(:batchId AS uuid))
+                          AND (:anyJob OR id IN (:jobIds))
+                        RETURNING batch_id
+                    ), batches AS (
+                        SELECT batch_id, count(*) AS jobs
+                        FROM requeued
+                        WHERE batch_id IS NOT NULL
+                        GROUP BY batch_id
+                    ), progress AS (
+                        UPDATE certificate_batches b
+                        SET failed_count = b.failed_count - batches.jobs,
+                            status = 'PROCESSING',
+                            updated_at = now()
+                        FROM batches
+                        WHERE b.id = batches.batch_id
+                    )
+                    SELECT count(*) FROM requeued
+                    """,
+            nativeQuery = true
+    )
+    long requeueDeadLetterJobs(
+            @Param("tenantId") UUID tenantId,
+            @Param("batchId") UUID batchId,
+            @Param("anyJob") boolean anyJob,
+            @Param("jobIds") Collection<UUID> jobIds
+    );
+
+    /**
+     * Failed rows of a batch in row order, for its failure report.
+     */
+    List<CertificateJob> findByBatchIdAndStatusInOrderByRowIndex(UUID batchId, Collection<CertificateJobStatus> statuses,
+                                                                 Pageable page);
 }
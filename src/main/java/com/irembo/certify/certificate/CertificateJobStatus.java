@@ -1,8 +1,16 @@
 package com.irembo.certify.certificate;
 
 public enum CertificateJobStatus {
+    /**
+     * Part of a batch that is still being uploaded; queued once the upload is complete.
+     */
+    UPLOADING,
     PENDING,
     PROCESSING,
     COMPLETED,
-    FAILED
+    FAILED,
+    /**
+     * Failed with a transient error on every one of its attempts; stays put until requeued.
+     */
+    DEAD_LETTER
 }
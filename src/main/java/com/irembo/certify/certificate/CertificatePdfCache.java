@@ -0,0 +1,330 @@
+package com.irembo.certify.certificate;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.irembo.certify.storage.ByteBufferResource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the PDFs of frequently downloaded certificates in memory.
+ * <p>
+ * PDFs are held in direct buffers, so the cached bytes live off-heap and cost the
+ * garbage collector nothing; the total is bounded by {@code maxSize}. Caffeine's
+ * W-TinyLFU policy keeps the hot set, and concurrent misses for the same certificate
+ * share a single read from storage. The read runs on the caller's thread outside the
+ * cache, so a slow disk or S3 read never blocks lookups of other certificates. Entries
+ * are keyed by certificate id and checked against the hash the certificate was stored
+ * under.
+ * <p>
+ * Every open stream holds a reference to its PDF's buffer, and so does the cache. The
+ * buffer is freed as soon as the last of them lets go rather than whenever the garbage
+ * collector gets to it, so off-heap use stays within {@code maxSize} plus the PDFs of
+ * downloads still streaming when their entry was evicted.
+ * <p>
+ * Hits, misses and evictions are published as the standard {@code cache.*} meters
+ * tagged {@code cache=certificate-pdf}; the bytes held as
+ * {@code certify.download.cache.bytes}.
+ */
+@Component
+public class CertificatePdfCache {
+
+    private static final Logger log = LoggerFactory.getLogger(CertificatePdfCache.class);
+
+    private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+
+    private final AsyncCache<UUID, CachedPdf> cache;
+    private final long maxEntrySize;
+
+    public CertificatePdfCache(CertificatePdfCacheProperties properties, MeterRegistry meterRegistry) {
+        this.maxEntrySize = properties.maxEntrySize().toBytes();
+        if (!properties.enabled()) {
+            this.cache = null;
+            return;
+        }
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.maxSize().toBytes())
+                .weigher((UUID id, CachedPdf pdf) -> pdf.size())
+                .expireAfterAccess(properties.expireAfterAccess())
+                .removalListener((UUID id, CachedPdf pdf, RemovalCause cause) -> {
+                    if (pdf != null) {
+                        pdf.release();
+                    }
+                })
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), "certificate-pdf");
+        Gauge.builder("certify.download.cache.bytes", cache.synchronous(),
+                        c -> c.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L))
+                .description("Off-heap bytes held by cached certificate PDFs")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The PDF of certificate {@code certificateId}, from memory when it is cached and
+     * otherwise opened with {@code storage} and cached if it is small enough.
+     */
+    public Resource get(UUID certificateId, String hash, Supplier<Resource> storage) {
+        if (cache == null) {
+            return storage.get();
+        }
+        CompletableFuture<CachedPdf> created = new CompletableFuture<>();
+        CompletableFuture<CachedPdf> future = cache.get(certificateId, (id, executor) -> created);
+        CachedPdf pdf;
+        if (future == created) {
+            Resource resource;
+            try {
+                resource = storage.get();
+                pdf = load(hash, resource);
+            } catch (RuntimeException e) {
+                created.completeExceptionally(e);
+                throw e;
+            }
+            // Completing with null drops the entry again.
+            created.complete(pdf);
+            if (pdf == null) {
+                return resource;
+            }
+        } else {
+            pdf = join(future);
+            if (pdf == null) {
+                // Not cacheable, as the thread that read it found out.
+                return storage.get();
+            }
+        }
+        if (!pdf.hash().equals(hash)) {
+            cache.synchronous().invalidate(certificateId);
+            return storage.get();
+        }
+        return new CachedPdfResource(pdf, "cached certificate " + certificateId, storage);
+    }
+
+    public void invalidate(UUID certificateId) {
+        if (cache != null) {
+            cache.synchronous().invalidate(certificateId);
+        }
+    }
+
+    private CachedPdf load(String hash, Resource resource) {
+        // Pack segments are memory-mapped already.
+        if (resource instanceof ByteBufferResource) {
+            return null;
+        }
+        try {
+            long length = resource.contentLength();
+            if (length > maxEntrySize) {
+                return null;
+            }
+            ByteBuffer content = ByteBuffer.allocateDirect((int) length);
+            try (ReadableByteChannel channel = resource.readableChannel()) {
+                while (content.hasRemaining() && channel.read(content) >= 0) {
+                    // keep reading
+                }
+            }
+            if (content.hasRemaining()) {
+                free(content);
+                throw new IllegalStateException("Stored certificate PDF is shorter than expected: " + resource);
+            }
+            content.flip();
+            return new CachedPdf(hash, content);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read stored certificate PDF " + resource, e);
+        }
+    }
+
+    private static CachedPdf join(CompletableFuture<CachedPdf> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Free a direct buffer now instead of when it is collected. The JDK has no public API
+     * for this before the foreign memory API, hence {@code Unsafe.invokeCleaner}; where it
+     * is unavailable the buffer is left to the garbage collector.
+     */
+    private static void free(ByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invokeExact(buffer);
+        } catch (Throwable e) {
+            log.warn("Failed to free a cached certificate PDF buffer", e);
+        }
+    }
+
+    private static MethodHandle invokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(theUnsafe.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Cached certificate PDFs will be freed by the garbage collector: {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * A cached PDF and the references to its buffer: one for the cache and one per open
+     * stream. The buffer is freed when the count drops to zero and is never handed out again.
+     */
+    private static final class CachedPdf {
+
+        private final String hash;
+        private final ByteBuffer content;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        CachedPdf(String hash, ByteBuffer content) {
+            this.hash = hash;
+            this.content = content;
+        }
+
+        String hash() {
+            return hash;
+        }
+
+        int size() {
+            return content.capacity();
+        }
+
+        boolean retain() {
+            for (int count = references.get(); count > 0; count = references.get()) {
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                free(content);
+            }
+        }
+    }
+
+    /**
+     * Serves a cached PDF, falling back to storage if it was evicted and freed before the
+     * resource was opened.
+     */
+    private static final class CachedPdfResource extends AbstractResource {
+
+        private final CachedPdf pdf;
+        private final String description;
+        private final Supplier<Resource> storage;
+
+        CachedPdfResource(CachedPdf pdf, String description, Supplier<Resource> storage) {
+            this.pdf = pdf;
+            this.description = description;
+            this.storage = storage;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public long contentLength() {
+            return pdf.size();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if (!pdf.retain()) {
+                return storage.get().getInputStream();
+            }
+            return new CachedPdfInputStream(new ByteBufferResource(pdf.content, description).getInputStream(), pdf);
+        }
+
+        @Override
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * Holds a reference to the cached buffer until closed, and refuses reads afterwards so
+     * that nothing touches a freed buffer.
+     */
+    private static final class CachedPdfInputStream extends FilterInputStream {
+
+        private final CachedPdf pdf;
+        private boolean closed;
+
+        CachedPdfInputStream(InputStream in, CachedPdf pdf) {
+            super(in);
+            this.pdf = pdf;
+        }
+
+        @Override
+        public int read() throws IOException {
+            ensureOpen();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            ensureOpen();
+            return super.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            ensureOpen();
+            return super.available();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                pdf.release();
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.irembo.certify.certificate;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Sizing for the in-memory cache of downloaded certificate PDFs.
+ * <p>
+ * {@code maxSize} bounds the off-heap memory held by cached PDFs; PDFs larger than
+ * {@code maxEntrySize} are always streamed from storage. Entries not downloaded for
+ * {@code expireAfterAccess} are dropped. Cached PDFs count against
+ * {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size; leave room
+ * above {@code maxSize} for the PDFs of downloads still streaming after eviction.
+ */
+@ConfigurationProperties(prefix = "certify.download-cache")
+public record CertificatePdfCacheProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("256MB") DataSize maxSize,
+        @DefaultValue("4MB") DataSize maxEntrySize,
+        @DefaultValue("6h") Duration expireAfterAccess
+) {
+}
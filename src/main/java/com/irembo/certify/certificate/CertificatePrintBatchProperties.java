@@ -0,0 +1,20 @@
+package com.irembo.certify.certificate;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Limits for merged print-batch PDFs.
+ * <p>
+ * At most {@code maxConcurrent} batches run at once per node and each takes up to
+ * {@code maxRows} rows. Rows are rendered {@code chunkSize} at a time as one document,
+ * so fonts and images are embedded once per chunk; larger chunks give smaller output at
+ * the cost of more memory while a chunk is laid out.
+ */
+@ConfigurationProperties(prefix = "certify.print-batch")
+public record CertificatePrintBatchProperties(
+        @DefaultValue("1") int maxConcurrent,
+        @DefaultValue("5000") int maxRows,
+        @DefaultValue("100") int chunkSize
+) {
+}
@@ -0,0 +1,260 @@
+package com.irembo.certify.certificate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.irembo.certify.certificate.dto.PrintBatchRequest;
+import com.irembo.certify.common.TenantContextHolder;
+import com.irembo.certify.pdf.RenderLane;
+import com.irembo.certify.qr.QrCodeService;
+import com.irembo.certify.storage.ContentWriter;
+import com.irembo.certify.storage.StorageService;
+import com.irembo.certify.storage.StoredFile;
+import com.irembo.certify.template.TemplateRenderer;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Issues many certificates from one template and returns them as a single PDF for printing.
+ * <p>
+ * Every row becomes a regular certificate with its own verification token and stored PDF;
+ * a chunk's certificates are reserved together with one bulk insert.
+ * Rows are rendered in chunks, each chunk as one document so that fonts and images are
+ * embedded once for the whole chunk; the chunk is then split back into one PDF per
+ * certificate for storage, and its pages are streamed into the print document with
+ * {@link PdfStreamWriter} straight away, so the client starts receiving the batch once
+ * its first chunk is issued. A chunk is spooled to a temporary file and PDFBox keeps its
+ * working data in scratch files, so memory use depends on the chunk size rather than the
+ * batch size.
+ * <p>
+ * Batches run in a bounded number of slots, like exports, and are rejected with
+ * {@link ExportRejectedException} when they are all taken.
+ */
+@Service
+public class CertificatePrintBatchService {
+
+    private static final Logger log = LoggerFactory.getLogger(CertificatePrintBatchService.class);
+
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(30);
+
+    private final CertificateReservationService reservationService;
+    private final TemplateRenderer templateRenderer;
+    private final StorageService storageService;
+    private final QrCodeService qrCodeService;
+    private final ObjectMapper objectMapper;
+    private final String verificationBaseUrl;
+    private final int maxRows;
+    private final int chunkSize;
+    private final Semaphore slots;
+
+    public CertificatePrintBatchService(
+            CertificateReservationService reservationService,
+            TemplateRenderer templateRenderer,
+            StorageService storageService,
+            QrCodeService qrCodeService,
+            ObjectMapper objectMapper,
+            CertificatePrintBatchProperties properties,
+            @Value("${certify.verification.base-url:http://localhost:8080/public/verify}") String verificationBaseUrl
+    ) {
+        this.reservationService = reservationService;
+        this.templateRenderer = templateRenderer;
+        this.storageService = storageService;
+        this.qrCodeService = qrCodeService;
+        this.objectMapper = objectMapper;
+        this.verificationBaseUrl = verificationBaseUrl;
+        this.maxRows = properties.maxRows();
+        this.chunkSize = Math.max(1, properties.chunkSize());
+        this.slots = new Semaphore(Math.max(1, properties.maxConcurrent()));
+    }
+
+    /**
+     * Reserve a slot for a print batch for the current tenant. Nothing is issued until the
+     * returned batch is written; the slot is released once it has been, or when the batch
+     * is {@linkplain PrintBatch#abandon() abandoned}.
+     *
+     * @throws IllegalArgumentException if the batch has more than {@code maxRows} rows
+     * @throws ExportRejectedException  if every print-batch slot is taken
+     */
+    public PrintBatch startBatch(PrintBatchRequest request, String createdByEmail) {
+        UUID tenantId = TenantContextHolder.getTenantId();
+        if (tenantId == null) {
+            throw new IllegalStateException("No tenant in context");
+        }
+        if (request.rows().size() > maxRows) {
+            throw new IllegalArgumentException("A print batch can have at most " + maxRows + " rows");
+        }
+        if (!slots.tryAcquire()) {
+            throw new ExportRejectedException(RETRY_AFTER);
+        }
+        return new PrintBatch(tenantId, request.templateId(), request.rows(), createdByEmail);
+    }
+
+    /**
+     * One print batch waiting to be issued and streamed. {@link #writeTo} may be called once,
+     * and not after {@link #abandon}.
+     */
+    public final class PrintBatch implements ContentWriter {
+
+        private final UUID tenantId;
+        private final UUID templateId;
+        private final List<Map<String, Object>> rows;
+        private final String createdByEmail;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private PrintBatch(UUID tenantId, UUID templateId, List<Map<String, Object>> rows, String createdByEmail) {
+            this.tenantId = tenantId;
+            this.templateId = templateId;
+            this.rows = rows;
+            this.createdByEmail = createdByEmail;
+        }
+
+        /**
+         * Issue every row's certificate and write the merged PDF to {@code out}. If a chunk
+         * fails, its certificates are discarded; those of earlier chunks remain issued, and
+         * the PDF written so far ends without its cross-reference table.
+         */
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            if (!started.compareAndSet(false, true)) {
+                throw new IllegalStateException("Print batch was already written or abandoned");
+            }
+            long start = System.nanoTime();
+            Path workDirectory = null;
+            try {
+                workDirectory = Files.createTempDirectory("print-batch");
+                PdfStreamWriter pdf = new PdfStreamWriter(out);
+                for (int from = 0; from < rows.size(); from += chunkSize) {
+                    Path chunk = workDirectory.resolve(String.format("chunk-%06d.pdf", from / chunkSize));
+                    issueChunk(rows.subList(from, Math.min(from + chunkSize, rows.size())), chunk, pdf);
+                    Files.delete(chunk);
+                    pdf.flush();
+                }
+                pdf.finish();
+                log.info("Issued print batch of {} certificates for tenant {} in {} ms",
+                        rows.size(), tenantId, Duration.ofNanos(System.nanoTime() - start).toMillis());
+            } finally {
+                if (workDirectory != null) {
+                    FileSystemUtils.deleteRecursively(workDirectory);
+                }
+                slots.release();
+            }
+        }
+
+        /**
+         * Give the slot back if {@link #writeTo} has not started, e.g. because the request
+         * timed out or the client went away before the response was written. Once writing
+         * has started this does nothing; the writer releases the slot when it is done.
+         */
+        public void abandon() {
+            if (started.compareAndSet(false, true)) {
+                slots.release();
+            }
+        }
+
+        private void issueChunk(List<Map<String, Object>> chunkRows, Path chunkFile, PdfStreamWriter pdf)
+                throws IOException {
+            List<String> dataJson = new ArrayList<>(chunkRows.size());
+            for (Map<String, Object> row : chunkRows) {
+                dataJson.add(writeDataJson(row));
+            }
+            List<CertificateReservationService.Reservation> reservations =
+                    reservationService.reserveAll(tenantId, templateId, dataJson, createdByEmail);
+
+            List<Map<String, Object>> data = new ArrayList<>(chunkRows.size());
+            List<Map<String, Object>> renderData = new ArrayList<>(chunkRows.size());
+            int completed = 0;
+            String storagePath = null;
+            try {
+                for (int i = 0; i < chunkRows.size(); i++) {
+                    Map<String, Object> rowData = new LinkedHashMap<>(chunkRows.get(i));
+                    CertificateReservationService.Reservation reservation = reservations.get(i);
+
+                    String verificationUrl = verificationBaseUrl + "/" + reservation.token().getPublicId();
+                    rowData.put("verificationUrl", verificationUrl);
+                    Map<String, Object> rowRenderData = new LinkedHashMap<>(rowData);
+                    rowRenderData.putIfAbsent("qrCodeImage",
+                            qrCodeService.image(verificationUrl, CertificateService.QR_CODE_SIZE));
+                    data.add(rowData);
+                    renderData.add(rowRenderData);
+                }
+
+                int[] firstPages;
+                try (PDDocument document = new PDDocument(MemoryUsageSetting.setupTempFileOnly())) {
+                    firstPages = templateRenderer.appendPdf(reservations.get(0).template(), renderData,
+                            RenderLane.BULK, document);
+                    // Saving subsets and embeds the fonts, so split the saved copy rather than this one.
+                    document.save(chunkFile.toFile());
+                }
+
+                try (PDDocument document = PDDocument.load(chunkFile.toFile(), MemoryUsageSetting.setupTempFileOnly())) {
+                    for (; completed < reservations.size(); completed++) {
+                        CertificateReservationService.Reservation reservation = reservations.get(completed);
+                        int firstPage = firstPages[completed];
+                        int endPage = completed + 1 < firstPages.length
+                                ? firstPages[completed + 1]
+                                : document.getNumberOfPages();
+                        StoredFile stored = storageService.write(tenantId, reservation.certificate().getId(),
+                                target -> writePages(document, firstPage, endPage, target));
+                        storagePath = stored.storagePath();
+                        reservationService.complete(reservation, writeDataJson(data.get(completed)),
+                                stored.sha256(), storagePath);
+                        storagePath = null;
+                    }
+                    pdf.addPages(document);
+                }
+            } catch (RuntimeException | IOException ex) {
+                discardQuietly(reservations.subList(completed, reservations.size()), storagePath, ex);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Write pages {@code [firstPage, endPage)} of {@code source} as a document of their own.
+     * The pages share their fonts and images with the source, which must stay open.
+     */
+    private static void writePages(PDDocument source, int firstPage, int endPage, OutputStream out) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            for (int page = firstPage; page < endPage; page++) {
+                document.importPage(source.getPage(page));
+            }
+            document.save(out);
+        }
+    }
+
+    private void discardQuietly(List<CertificateReservationService.Reservation> reservations, String storagePath,
+                                Exception cause) {
+        try {
+            for (int i = 0; i < reservations.size(); i++) {
+                // A stored file that was not recorded belongs to the first of them.
+                reservationService.discard(reservations.get(i), i == 0 ? storagePath : null);
+            }
+        } catch (RuntimeException cleanupEx) {
+            cause.addSuppressed(cleanupEx);
+        }
+    }
+
+    private String writeDataJson(Map<String, Object> data) {
+        try {
+            return objectMapper.writeValueAsString(data);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to serialize certificate data", e);
+        }
+    }
+}
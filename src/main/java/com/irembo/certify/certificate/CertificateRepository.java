@@ -1,14 +1,82 @@
 package com.irembo.certify.certificate;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 public interface CertificateRepository extends JpaRepository<Certificate, UUID> {
 
-    List<Certificate> findAllByTenantId(UUID tenantId);
+    List<Certificate> findAllByTenantIdAndStatusNot(UUID tenantId, CertificateStatus status);
 
     Optional<Certificate> findByIdAndTenantId(UUID id, UUID tenantId);
+
+    boolean existsByStoragePath(String storagePath);
+
+    /**
+     * Take a transaction-scoped advisory lock on a storage path; see {@link StorageReferences}.
+     */
+    @Query(value = "select 1 from pg_advisory_xact_lock(hashtextextended(:storagePath, 0))", nativeQuery = true)
+    int lockStoragePath(@Param("storagePath") String storagePath);
+
+    /**
+     * Keyset page of certificates stored outside the content-addressed layout, ordered by id.
+     * Paths of the pack-file and S3 backends are never legacy files.
+     */
+    @Query("""
+            select c.id as id, c.storagePath as storagePath, c.hash as hash
+            from Certificate c
+            where c.id > :after
+              and c.storagePath not like 'cas/%'
+              and c.storagePath not like 'pack/%'
+              and c.storagePath not like 's3/%'
+              and c.storagePath <> 'pending'
+            order by c.id
+            """)
+    List<StorageRef> findLegacyStorageAfter(@Param("after") UUID after, Pageable page);
+
+    /**
+     * Point a certificate at a new storage path, unless it was changed concurrently.
+     */
+    @Modifying
+    @Transactional
+    @Query("update Certificate c set c.storagePath = :newPath where c.id = :id and c.storagePath = :oldPath")
+    int moveStoragePath(@Param("id") UUID id, @Param("oldPath") String oldPath, @Param("newPath") String newPath);
+
+    /**
+     * Delete the verification tokens of reservations created before {@code cutoff} that
+     * were never completed.
+     */
+    @Modifying
+    @Query(value = """
+            DELETE FROM certificate_verification_tokens t
+            USING certificates c
+            WHERE t.certificate_id = c.id
+              AND c.status = 'PENDING'
+              AND c.created_at < :cutoff
+            """, nativeQuery = true)
+    int deleteAbandonedReservationTokens(@Param("cutoff") Instant cutoff);
+
+    /**
+     * Delete reservations created before {@code cutoff} that were never completed; their
+     * tokens must be deleted first.
+     */
+    @Modifying
+    @Query(value = "DELETE FROM certificates WHERE status = 'PENDING' AND created_at < :cutoff", nativeQuery = true)
+    int deleteAbandonedReservations(@Param("cutoff") Instant cutoff);
+
+    interface StorageRef {
+        UUID getId();
+
+        String getStoragePath();
+
+        String getHash();
+    }
 }
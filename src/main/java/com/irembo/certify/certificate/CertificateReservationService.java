@@ -0,0 +1,174 @@
+package com.irembo.certify.certificate;
+
+import com.irembo.certify.template.CertificateTemplate;
+import com.irembo.certify.template.CertificateTemplateRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Short transactions around certificate generation.
+ * <p>
+ * Generation is split in two phases so that no database connection is held while
+ * the QR code and PDF are rendered and written to storage: {@link #reserve} inserts
+ * the certificate and verification token rows, and {@link #complete} records the
+ * hash and storage path once the file exists. {@link #discard} removes a reservation
+ * whose render failed, along with its stored file unless another certificate shares it. {@link #reserveAll} reserves many certificates for one template
+ * with a single bulk insert per table.
+ * <p>
+ * A node that dies mid-render never completes or discards its reservations, so
+ * {@link #reapAbandoned} deletes those still pending after {@code reservationTimeout}.
+ */
+@Component
+public class CertificateReservationService {
+
+    private static final Logger log = LoggerFactory.getLogger(CertificateReservationService.class);
+
+    private final CertificateRepository certificateRepository;
+    private final CertificateVerificationTokenRepository tokenRepository;
+    private final CertificateTemplateRepository templateRepository;
+    private final CertificateBulkWriter bulkWriter;
+    private final StorageReferences storageReferences;
+    private final Duration reservationTimeout;
+
+    public CertificateReservationService(
+            CertificateRepository certificateRepository,
+            CertificateVerificationTokenRepository tokenRepository,
+            CertificateTemplateRepository templateRepository,
+            CertificateBulkWriter bulkWriter,
+            StorageReferences storageReferences,
+            CertificateJobProperties properties
+    ) {
+        this.certificateRepository = certificateRepository;
+        this.tokenRepository = tokenRepository;
+        this.templateRepository = templateRepository;
+        this.bulkWriter = bulkWriter;
+        this.storageReferences = storageReferences;
+        this.reservationTimeout = properties.reservationTimeout();
+    }
+
+    @Transactional
+    public Reservation reserve(UUID tenantId, UUID templateId, String dataJson, String createdByEmail) {
+        CertificateTemplate template = requireTemplate(tenantId, templateId);
+
+        // Persist early to assign id that we can use for storage & verification
+        Certificate certificate = pendingCertificate(tenantId, template, dataJson, createdByEmail);
+        certificate = certificateRepository.save(certificate);
+
+        CertificateVerificationToken token = CertificateVerificationToken.create(certificate.getId(), "pending", null);
+        token = tokenRepository.save(token);
+
+        return new Reservation(template, certificate, token);
+    }
+
+    /**
+     * Reserve one certificate per entry of {@code dataJson}, in order. The returned
+     * certificates and tokens are not managed entities.
+     */
+    @Transactional
+    public List<Reservation> reserveAll(UUID tenantId, UUID templateId, List<String> dataJson, String createdByEmail) {
+        CertificateTemplate template = requireTemplate(tenantId, templateId);
+
+        List<Certificate> certificates = new ArrayList<>(dataJson.size());
+        List<CertificateVerificationToken> tokens = new ArrayList<>(dataJson.size());
+        List<Reservation> reservations = new ArrayList<>(dataJson.size());
+        for (String data : dataJson) {
+            Certificate certificate = pendingCertificate(tenantId, template, data, createdByEmail);
+            certificate.onCreate();
+            CertificateVerificationToken token =
+                    CertificateVerificationToken.create(certificate.getId(), "pending", null);
+            certificates.add(certificate);
+            tokens.add(token);
+            reservations.add(new Reservation(template, certificate, token));
+        }
+        bulkWriter.insertCertificates(certificates);
+        bulkWriter.insertTokens(tokens);
+        return reservations;
+    }
+
+    @Transactional
+    public Certificate complete(Reservation reservation, String dataJson, String hash, String storagePath) {
+        storageReferences.lockForReference(storagePath);
+        Certificate certificate = certificateRepository.findById(reservation.certificate().getId())
+                .orElseThrow(() -> new NoSuchElementException("Certificate not found"));
+        certificate.setDataJson(dataJson);
+        certificate.setHash(hash);
+        certificate.setStoragePath(storagePath);
+        if (certificate.getStatus() == CertificateStatus.PENDING) {
+            // Don't resurrect a certificate that was revoked while it was being rendered.
+            certificate.setStatus(CertificateStatus.GENERATED);
+        }
+
+        CertificateVerificationToken token = tokenRepository.findById(reservation.token().getPublicId())
+                .orElseThrow(() -> new NoSuchElementException("Verification token not found"));
+        token.setChecksum(hash);
+
+        return certificate;
+    }
+
+    /**
+     * Remove the reservation and, unless it is {@code null} or shared, the file that was
+     * stored for it.
+     */
+    @Transactional
+    public void discard(Reservation reservation, String storagePath) {
+        tokenRepository.deleteById(reservation.token().getPublicId());
+        certificateRepository.deleteById(reservation.certificate().getId());
+        if (storagePath != null) {
+            storageReferences.deleteIfUnreferenced(storagePath);
+        }
+    }
+
+    /**
+     * Delete reservations that are still pending {@code reservationTimeout} after they were
+     * made. A file their render had already stored is not recorded anywhere and stays
+     * in storage.
+     */
+    @Scheduled(fixedDelayString = "${certify.jobs.reservation-reaper-interval:300000}")
+    @Transactional
+    public void reapAbandoned() {
+        Instant cutoff = Instant.now().minus(reservationTimeout);
+        certificateRepository.deleteAbandonedReservationTokens(cutoff);
+        int reaped = certificateRepository.deleteAbandonedReservations(cutoff);
+        if (reaped > 0) {
+            log.warn("Deleted {} certificate reservations abandoned before {}", reaped, cutoff);
+        }
+    }
+
+    private CertificateTemplate requireTemplate(UUID tenantId, UUID templateId) {
+        return templateRepository
+                .findByIdAndTenantId(templateId, tenantId)
+                .orElseThrow(() -> new NoSuchElementException("Template not found"));
+    }
+
+    private static Certificate pendingCertificate(UUID tenantId, CertificateTemplate template, String dataJson,
+                                                  String createdByEmail) {
+        Certificate certificate = new Certificate();
+        certificate.setTenantId(tenantId);
+        certificate.setTemplateId(template.getId());
+        certificate.setCreatedBy(createdByEmail);
+        certificate.setStatus(CertificateStatus.PENDING);
+
+        // Satisfy NOT NULL constraints until the PDF has been rendered and stored
+        certificate.setDataJson(dataJson);
+        certificate.setHash("pending");
+        certificate.setStoragePath("pending");
+        return certificate;
+    }
+
+    public record Reservation(
+            CertificateTemplate template,
+            Certificate certificate,
+            CertificateVerificationToken token
+    ) {
+    }
+}
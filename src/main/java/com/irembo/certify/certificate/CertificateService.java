@@ -4,19 +4,20 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.irembo.certify.certificate.dto.CertificateGenerateRequest;
 import com.irembo.certify.certificate.dto.CertificateResponse;
+import com.irembo.certify.certificate.dto.RequeueDeadLettersRequest;
 import com.irembo.certify.common.TenantContextHolder;
-import com.irembo.certify.pdf.PdfRenderer;
+import com.irembo.certify.pdf.RenderLane;
 import com.irembo.certify.qr.QrCodeService;
-import com.irembo.certify.storage.FileSystemStorageService;
+import com.irembo.certify.storage.StorageService;
+import com.irembo.certify.storage.StoredFile;
 import com.irembo.certify.template.CertificateTemplate;
 import com.irembo.certify.template.CertificateTemplateRepository;
+import com.irembo.certify.template.TemplateRenderer;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
 @Service
@@ -24,15 +25,19 @@ import java.util.*;
 public class CertificateService {
 
     private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+    static final int QR_CODE_SIZE = 200;
 
     private final CertificateRepository certificateRepository;
     private final CertificateVerificationTokenRepository tokenRepository;
     private final CertificateTemplateRepository templateRepository;
     private final CertificateJobRepository jobRepository;
     private final ObjectMapper objectMapper;
-    private final PdfRenderer pdfRenderer;
-    private final FileSystemStorageService storageService;
+    private final TemplateRenderer templateRenderer;
+    private final StorageService storageService;
+    private final CertificatePdfCache pdfCache;
     private final QrCodeService qrCodeService;
+    private final CertificateReservationService reservationService;
+    private final CertificateJobNotifier jobNotifier;
     private final String verificationBaseUrl;
 
     public CertificateService(
@@ -41,9 +46,12 @@ public class CertificateService {
             CertificateTemplateRepository templateRepository,
             CertificateJobRepository jobRepository,
             ObjectMapper objectMapper,
-            PdfRenderer pdfRenderer,
-            FileSystemStorageService storageService,
+            TemplateRenderer templateRenderer,
+            StorageService storageService,
+            CertificatePdfCache pdfCache,
             QrCodeService qrCodeService,
+            CertificateReservationService reservationService,
+            CertificateJobNotifier jobNotifier,
             @Value("${certify.verification.base-url:http://localhost:8080/public/verify}") String verificationBaseUrl
     ) {
         this.certificateRepository = certificateRepository;
@@ -51,24 +59,24 @@ public class CertificateService {
         this.templateRepository = templateRepository;
         this.jobRepository = jobRepository;
         this.objectMapper = objectMapper;
-        this.pdfRenderer = pdfRenderer;
+        this.templateRenderer = templateRenderer;
         this.storageService = storageService;
+        this.pdfCache = pdfCache;
         this.qrCodeService = qrCodeService;
+        this.reservationService = reservationService;
+        this.jobNotifier = jobNotifier;
         this.verificationBaseUrl = verificationBaseUrl;
     }
 
     public List<CertificateResponse> listForCurrentTenant() {
         UUID tenantId = requireTenant();
-        return certificateRepository.findAllByTenantId(tenantId).stream()
+        return certificateRepository.findAllByTenantIdAndStatusNot(tenantId, CertificateStatus.PENDING).stream()
                 .map(this::toResponse)
                 .toList();
     }
 
     public CertificateResponse getForCurrentTenant(UUID id) {
-        UUID tenantId = requireTenant();
-        Certificate certificate = certificateRepository.findByIdAndTenantId(id, tenantId)
-                .orElseThrow(() -> new NoSuchElementException("Certificate not found"));
-        return toResponse(certificate);
+        return toResponse(requireForCurrentTenant(id));
     }
 
     /**
@@ -76,9 +84,16 @@ public class CertificateService {
      * we don't have an authenticated tenant context.
      */
     public CertificateResponse getById(UUID id) {
-        Certificate certificate = certificateRepository.findById(id)
-                .orElseThrow(() -> new NoSuchElementException("Certificate not found"));
-        return toResponse(certificate);
+        return findById(id).orElseThrow(() -> new NoSuchElementException("Certificate not found"));
+    }
+
+    /**
+     * Like {@link #getById}, but empty rather than failing when there is no such certificate.
+     */
+    public Optional<CertificateResponse> findById(UUID id) {
+        return certificateRepository.findById(id)
+                .filter(CertificateService::isIssued)
+                .map(this::toResponse);
     }
 
     /*
@@ -89,9 +104,7 @@ public class CertificateService {
      */
 
     public CertificateResponse revokeForCurrentTenant(UUID id, String reason) {
-        UUID tenantId = requireTenant();
-        Certificate certificate = certificateRepository.findByIdAndTenantId(id, tenantId)
-                .orElseThrow(() -> new NoSuchElementException("Certificate not found"));
+        Certificate certificate = requireForCurrentTenant(id);
 
         if (certificate.getStatus() == CertificateStatus.REVOKED) {
             // Idempotent behaviour – already revoked, just return current representation.
@@ -105,6 +118,7 @@ public class CertificateService {
 
         certificate.setStatus(CertificateStatus.REVOKED);
         certificate.setDataJson(writeDataJson(data));
+        pdfCache.invalidate(id);
 
         return toResponse(certificate);
     }
@@ -115,6 +129,7 @@ public class CertificateService {
      * @return The simulated PDF bytes.
      */
 
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
     public byte[] simulate(CertificateGenerateRequest request) {
         UUID tenantId = requireTenant();
         CertificateTemplate template = templateRepository
@@ -125,25 +140,56 @@ public class CertificateService {
         // Use a dummy public id just for preview QR code
         UUID dummyPublicId = UUID.randomUUID();
         String verificationUrl = verificationBaseUrl + "/" + dummyPublicId;
-        String qrDataUrl = qrCodeService.generateDataUrl(verificationUrl, 200);
         data.put("verificationUrl", verificationUrl);
-        data.putIfAbsent("qrCodeImage", qrDataUrl);
 
-        String html = applyPlaceholders(template.getHtmlTemplate(), data);
-        return pdfRenderer.renderHtmlToPdf(html);
+        return templateRenderer.renderPdf(template, withQrCode(data, verificationUrl), RenderLane.INTERACTIVE);
     }
 
+    /**
+     * Generates and stores a certificate. Runs without an enclosing transaction so that
+     * rendering doesn't pin a pooled connection; see {@link CertificateReservationService}.
+     */
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
     public CertificateResponse generate(CertificateGenerateRequest request, String createdByEmail) {
         UUID tenantId = requireTenant();
         Map<String, Object> data = new LinkedHashMap<>(request.data());
-        return generateInternal(tenantId, request.templateId(), data, createdByEmail);
+        return generateInternal(tenantId, request.templateId(), data, createdByEmail, RenderLane.INTERACTIVE);
     }
 
-    public byte[] downloadForCurrentTenant(UUID id) {
+    /**
+     * The stored PDF of a certificate, opened lazily, and its SHA-256 for use as an ETag.
+     * Backends that can serve the PDF directly return a URL to redirect to instead.
+     * Frequently downloaded PDFs are served from {@link CertificatePdfCache}; revoked
+     * certificates never are.
+     */
+    public CertificateDownload downloadForCurrentTenant(UUID id) {
+        Certificate certificate = requireForCurrentTenant(id);
+        String storagePath = certificate.getStoragePath();
+        String hash = certificate.getHash();
+        return storageService.downloadUrl(storagePath, downloadFilename(id))
+                .map(url -> CertificateDownload.redirect(url, hash))
+                .orElseGet(() -> new CertificateDownload(certificate.getStatus() == CertificateStatus.REVOKED
+                        ? storageService.open(storagePath)
+                        : pdfCache.get(id, hash, () -> storageService.open(storagePath)), hash));
+    }
+
+    /**
+     * A certificate of the current tenant. Reservations whose PDF is still being rendered
+     * have no stored file or checksum yet, so they are not found until they are complete.
+     */
+    private Certificate requireForCurrentTenant(UUID id) {
         UUID tenantId = requireTenant();
-        Certificate certificate = certificateRepository.findByIdAndTenantId(id, tenantId)
+        return certificateRepository.findByIdAndTenantId(id, tenantId)
+                .filter(CertificateService::isIssued)
                 .orElseThrow(() -> new NoSuchElementException("Certificate not found"));
-        return storageService.load(certificate.getStoragePath());
+    }
+
+    private static boolean isIssued(Certificate certificate) {
+        return certificate.getStatus() != CertificateStatus.PENDING;
+    }
+
+    public static String downloadFilename(UUID certificateId) {
+        return "certificate-" + certificateId + ".pdf";
     }
 
     public CertificateJob submitAsyncJob(CertificateGenerateRequest request, String requestedByEmail) {
@@ -153,8 +199,12 @@ public class CertificateService {
         job.setTemplateId(request.templateId());
         job.setRequestedBy(requestedByEmail);
         job.setStatus(CertificateJobStatus.PENDING);
+        job.setPriority(request.priority() != null ? request.priority() : CertificateJobPriority.NORMAL);
+        job.setDeadline(request.deadline());
         job.setRequestDataJson(writeDataJson(new LinkedHashMap<>(request.data())));
-        return jobRepository.save(job);
+        job = jobRepository.save(job);
+        jobNotifier.jobsQueued();
+        return job;
     }
 
     public CertificateJob getJobForCurrentTenant(UUID id) {
@@ -167,18 +217,38 @@ public class CertificateService {
         return job;
     }
 
+    /**
+     * Returns dead-lettered jobs to the queue, optionally only those of one tenant, one
+     * batch or with the given ids.
+     */
+    public int requeueDeadLetters(RequeueDeadLettersRequest request) {
+        int requeued = jobRepository.requeueDeadLetters(request.tenantId(), request.batchId(), request.jobIds());
+        if (requeued > 0) {
+            jobNotifier.jobsQueued();
+        }
+        return requeued;
+    }
+
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
     public CertificateResponse processJob(CertificateJob job) {
         Map<String, Object> data = readDataJson(job.getRequestDataJson());
-        return generateInternal(job.getTenantId(), job.getTemplateId(), new LinkedHashMap<>(data), job.getRequestedBy());
+        // High-priority jobs have someone waiting on them, so they don't queue behind bulk renders.
+        RenderLane lane = job.getPriority() == CertificateJobPriority.HIGH ? RenderLane.INTERACTIVE : RenderLane.BULK;
+        return generateInternal(job.getTenantId(), job.getTemplateId(), new LinkedHashMap<>(data), job.getRequestedBy(),
+                lane);
     }
 
     private CertificateResponse toResponse(Certificate certificate) {
-        UUID tenantId = certificate.getTenantId();
-        Map<String, Object> data = readDataJson(certificate.getDataJson());
-
         UUID publicId = tokenRepository.findByCertificateId(certificate.getId())
                 .map(CertificateVerificationToken::getPublicId)
                 .orElse(null);
+        return toResponse(certificate, publicId);
+    }
+
+    private CertificateResponse toResponse(Certificate certificate, UUID publicId) {
+        UUID tenantId = certificate.getTenantId();
+        Map<String, Object> data = readDataJson(certificate.getDataJson());
+
         String verificationUrl = publicId != null ? verificationBaseUrl + "/" + publicId : null;
 
         return new CertificateResponse(
@@ -200,47 +270,51 @@ public class CertificateService {
             UUID tenantId,
             UUID templateId,
             Map<String, Object> data,
-            String createdByEmail
+            String createdByEmail,
+            RenderLane lane
     ) {
-        CertificateTemplate template = templateRepository
-                .findByIdAndTenantId(templateId, tenantId)
-                .orElseThrow(() -> new NoSuchElementException("Template not found"));
+        CertificateReservationService.Reservation reservation =
+                reservationService.reserve(tenantId, templateId, writeDataJson(data), createdByEmail);
+        UUID certificateId = reservation.certificate().getId();
+        UUID publicId = reservation.token().getPublicId();
 
-        Certificate certificate = new Certificate();
-        certificate.setTenantId(tenantId);
-        certificate.setTemplateId(template.getId());
-        certificate.setCreatedBy(createdByEmail);
-        certificate.setStatus(CertificateStatus.GENERATED);
-
-        // Satisfy NOT NULL constraints on initial insert;
-        certificate.setDataJson(writeDataJson(data));
-        certificate.setHash("pending");
-        certificate.setStoragePath("pending");
-
-        // Persist early to assign id that we can use for storage & verification
-        certificate = certificateRepository.save(certificate);
-
-        CertificateVerificationToken token = CertificateVerificationToken.create(certificate.getId(), "pending", null);
-        token = tokenRepository.save(token);
-
-        String verificationUrl = verificationBaseUrl + "/" + token.getPublicId();
-        String qrDataUrl = qrCodeService.generateDataUrl(verificationUrl, 200);
-        data.put("verificationUrl", verificationUrl);
-        data.putIfAbsent("qrCodeImage", qrDataUrl);
+        // Everything below runs without a database connection until the final complete().
+        String storagePath = null;
+        try {
+            String verificationUrl = verificationBaseUrl + "/" + publicId;
+            data.put("verificationUrl", verificationUrl);
 
-        String html = applyPlaceholders(template.getHtmlTemplate(), data);
-        byte[] pdfBytes = pdfRenderer.renderHtmlToPdf(html);
+            Map<String, Object> renderData = withQrCode(data, verificationUrl);
 
-        String hash = sha256Hex(pdfBytes);
-        String storagePath = storageService.save(tenantId, certificate.getId(), pdfBytes);
+            // Rendered straight into storage, hashing on the way; the PDF is never held as a byte[].
+            StoredFile stored = storageService.write(tenantId, certificateId, out ->
+                    templateRenderer.renderPdf(reservation.template(), renderData, lane, out));
+            storagePath = stored.storagePath();
 
-        certificate.setDataJson(writeDataJson(data));
-        certificate.setHash(hash);
-        certificate.setStoragePath(storagePath);
+            Certificate certificate = reservationService.complete(reservation, writeDataJson(data), stored.sha256(), storagePath);
+            return toResponse(certificate, publicId);
+        } catch (RuntimeException ex) {
+            discardQuietly(reservation, storagePath, ex);
+            throw ex;
+        }
+    }
 
-        token.setChecksum(hash);
+    /**
+     * Render-only copy of {@code data} with the QR code placeholder filled in. The QR code
+     * is derived from the verification URL, so it is never persisted with the certificate.
+     */
+    private Map<String, Object> withQrCode(Map<String, Object> data, String verificationUrl) {
+        Map<String, Object> renderData = new LinkedHashMap<>(data);
+        renderData.putIfAbsent("qrCodeImage", qrCodeService.image(verificationUrl, QR_CODE_SIZE));
+        return renderData;
+    }
 
-        return toResponse(certificate);
+    private void discardQuietly(CertificateReservationService.Reservation reservation, String storagePath, RuntimeException cause) {
+        try {
+            reservationService.discard(reservation, storagePath);
+        } catch (RuntimeException cleanupEx) {
+            cause.addSuppressed(cleanupEx);
+        }
     }
 
     private Map<String, Object> readDataJson(String json) {
@@ -269,28 +343,4 @@ public class CertificateService {
         }
         return tenantId;
     }
-
-    private String applyPlaceholders(String htmlTemplate, Map<String, Object> data) {
-        String result = htmlTemplate;
-        for (Map.Entry<String, Object> entry : data.entrySet()) {
-            String placeholder = "${" + entry.getKey() + "}";
-            String value = entry.getValue() != null ? entry.getValue().toString() : "";
-            result = result.replace(placeholder, value);
-        }
-        return result;
-    }
-
-    private String sha256Hex(byte[] bytes) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(bytes);
-            StringBuilder sb = new StringBuilder(hash.length * 2);
-            for (byte b : hash) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException("SHA-256 not available", e);
-        }
-    }
 }
@@ -1,6 +1,7 @@
 package com.irembo.certify.certificate;
 
 public enum CertificateStatus {
+    PENDING,
     GENERATED,
     REVOKED
 }
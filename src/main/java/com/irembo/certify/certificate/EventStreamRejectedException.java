@@ -0,0 +1,20 @@
+package com.irembo.certify.certificate;
+
+import java.time.Duration;
+
+/**
+ * Thrown when this node already serves as many job event streams as it may.
+ */
+public class EventStreamRejectedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public EventStreamRejectedException(Duration retryAfter) {
+        super("Too many job event streams open; retry later");
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,20 @@
+package com.irembo.certify.certificate;
+
+import java.time.Duration;
+
+/**
+ * Thrown when every export slot on this node is taken.
+ */
+public class ExportRejectedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public ExportRejectedException(Duration retryAfter) {
+        super("Too many certificate exports in progress; retry later");
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
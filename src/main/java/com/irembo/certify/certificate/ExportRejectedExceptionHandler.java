@@ -0,0 +1,23 @@
+package com.irembo.certify.certificate;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * Turns a full export pool into an immediate 503 with a {@code Retry-After} hint.
+ */
+@RestControllerAdvice
+public class ExportRejectedExceptionHandler {
+
+    @ExceptionHandler(ExportRejectedException.class)
+    public ResponseEntity<ProblemDetail> handle(ExportRejectedException ex) {
+        ProblemDetail problem = ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE, ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(ex.getRetryAfter().toSeconds()))
+                .body(problem);
+    }
+}
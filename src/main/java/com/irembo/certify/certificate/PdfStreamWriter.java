@@ -0,0 +1,284 @@
+package com.irembo.certify.certificate;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdfwriter.COSWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes one PDF straight to a stream from the pages of many documents, in order.
+ * <p>
+ * Unlike saving a merged {@link PDDocument}, which writes nothing until every page is
+ * in, each document's pages are written, together with everything they reference, as
+ * soon as they are added; only the object offsets are kept until {@link #finish} writes
+ * the page tree and the cross-reference table. Objects shared by pages of one document,
+ * such as fonts, are written once for that document. Document-level structures such
+ * as outlines and the structure tree are not carried over.
+ */
+final class PdfStreamWriter {
+
+    private static final byte[] HEADER = "%PDF-1.7\n%âãÏÓ\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int CATALOG = 1;
+    private static final int PAGES = 2;
+    private static final COSName[] INHERITED =
+            {COSName.RESOURCES, COSName.MEDIA_BOX, COSName.CROP_BOX, COSName.ROTATE};
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CountingOutputStream out;
+    private final List<Integer> pages = new ArrayList<>();
+    private long[] offsets = new long[1024];
+    private int nextObject = PAGES + 1;
+    private boolean finished;
+
+    PdfStreamWriter(OutputStream out) throws IOException {
+        this.out = new CountingOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        this.out.write(HEADER);
+    }
+
+    /**
+     * Append every page of {@code document}, which must stay open until this returns.
+     */
+    void addPages(PDDocument document) throws IOException {
+        Map<COSBase, Integer> numbers = new IdentityHashMap<>();
+        List<COSDictionary> added = new ArrayList<>();
+        for (PDPage page : document.getPages()) {
+            // Numbered up front so that links and annotations can refer to any page.
+            numbers.put(page.getCOSObject(), nextObject);
+            pages.add(nextObject++);
+            added.add(page.getCOSObject());
+        }
+        Deque<COSBase> pending = new ArrayDeque<>();
+        for (COSDictionary page : added) {
+            beginObject(numbers.get(page));
+            writePage(page, numbers, pending);
+            endObject();
+            while (!pending.isEmpty()) {
+                COSBase object = pending.poll();
+                beginObject(numbers.get(object));
+                writeDirect(object, numbers, pending);
+                endObject();
+            }
+        }
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Write the page tree, the catalog and the cross-reference table. Nothing can be
+     * added afterwards; the underlying stream is flushed but not closed.
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        beginObject(PAGES);
+        write("<< /Type /Pages /Count " + pages.size() + " /Kids [");
+        for (int page : pages) {
+            write(" " + page + " 0 R");
+        }
+        write(" ] >>");
+        endObject();
+        beginObject(CATALOG);
+        write("<< /Type /Catalog /Pages " + PAGES + " 0 R >>");
+        endObject();
+
+        long xref = out.position;
+        write("xref\n0 " + nextObject + "\n0000000000 65535 f\r\n");
+        for (int object = 1; object < nextObject; object++) {
+            write(String.format("%010d 00000 n\r\n", offsets[object]));
+        }
+        write("trailer\n<< /Size " + nextObject + " /Root " + CATALOG + " 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+        out.flush();
+    }
+
+    /**
+     * A page without its parent, carrying the attributes it inherited from the page tree
+     * it came from.
+     */
+    private void writePage(COSDictionary page, Map<COSBase, Integer> numbers, Deque<COSBase> pending)
+            throws IOException {
+        write("<<");
+        for (Map.Entry<COSName, COSBase> entry : page.entrySet()) {
+            if (!COSName.PARENT.equals(entry.getKey())) {
+                writeEntry(entry.getKey(), entry.getValue(), numbers, pending);
+            }
+        }
+        for (COSName key : INHERITED) {
+            if (!page.containsKey(key)) {
+                COSBase value = inherited(page, key);
+                if (value != null) {
+                    writeEntry(key, value, numbers, pending);
+                }
+            }
+        }
+        write(" /Parent " + PAGES + " 0 R >>");
+    }
+
+    private static COSBase inherited(COSDictionary page, COSName key) {
+        COSBase parent = page.getDictionaryObject(COSName.PARENT);
+        while (parent instanceof COSDictionary node) {
+            COSBase value = node.getItem(key);
+            if (value != null) {
+                return value;
+            }
+            parent = node.getDictionaryObject(COSName.PARENT);
+        }
+        return null;
+    }
+
+    private void writeDirect(COSBase object, Map<COSBase, Integer> numbers, Deque<COSBase> pending)
+            throws IOException {
+        if (object instanceof COSStream stream) {
+            write("<<");
+            for (Map.Entry<COSName, COSBase> entry : stream.entrySet()) {
+                if (!COSName.LENGTH.equals(entry.getKey())) {
+                    writeEntry(entry.getKey(), entry.getValue(), numbers, pending);
+                }
+            }
+            write(" /Length " + stream.getLength() + " >>\nstream\n");
+            try (InputStream data = stream.createRawInputStream()) {
+                data.transferTo(out);
+            }
+            write("\nendstream");
+        } else if (object instanceof COSDictionary dictionary) {
+            write("<<");
+            for (Map.Entry<COSName, COSBase> entry : dictionary.entrySet()) {
+                writeEntry(entry.getKey(), entry.getValue(), numbers, pending);
+            }
+            write(" >>");
+        } else if (object instanceof COSArray array) {
+            write("[");
+            for (int i = 0; i < array.size(); i++) {
+                write(" ");
+                writeValue(array.get(i), numbers, pending);
+            }
+            write(" ]");
+        } else if (object instanceof COSName name) {
+            name.writePDF(out);
+        } else if (object instanceof COSString string) {
+            COSWriter.writeString(string, out);
+        } else if (object instanceof COSInteger integer) {
+            integer.writePDF(out);
+        } else if (object instanceof COSFloat number) {
+            number.writePDF(out);
+        } else if (object instanceof COSBoolean bool) {
+            bool.writePDF(out);
+        } else if (object == null || object instanceof COSNull) {
+            write("null");
+        } else {
+            throw new IllegalStateException("Unexpected PDF object " + object.getClass().getSimpleName());
+        }
+    }
+
+    private void writeEntry(COSName key, COSBase value, Map<COSBase, Integer> numbers, Deque<COSBase> pending)
+            throws IOException {
+        write(" ");
+        key.writePDF(out);
+        write(" ");
+        writeValue(value, numbers, pending);
+    }
+
+    private void writeValue(COSBase value, Map<COSBase, Integer> numbers, Deque<COSBase> pending)
+            throws IOException {
+        if (value instanceof COSObject reference) {
+            COSBase target = reference.getObject();
+            if (target == null) {
+                write("null");
+            } else {
+                writeReference(target, numbers, pending);
+            }
+        } else if (value instanceof COSStream) {
+            // Streams can only be indirect objects.
+            writeReference(value, numbers, pending);
+        } else {
+            writeDirect(value, numbers, pending);
+        }
+    }
+
+    private void writeReference(COSBase target, Map<COSBase, Integer> numbers, Deque<COSBase> pending)
+            throws IOException {
+        if (target instanceof COSDictionary dictionary && !(target instanceof COSStream)) {
+            COSBase type = dictionary.getDictionaryObject(COSName.TYPE);
+            if (COSName.PAGES.equals(type)) {
+                // The source's page tree is replaced by this document's.
+                write(PAGES + " 0 R");
+                return;
+            }
+            if (COSName.CATALOG.equals(type)) {
+                write("null");
+                return;
+            }
+        }
+        Integer number = numbers.get(target);
+        if (number == null) {
+            number = nextObject++;
+            numbers.put(target, number);
+            pending.add(target);
+        }
+        write(number + " 0 R");
+    }
+
+    private void beginObject(int number) throws IOException {
+        if (number >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(number + 1, offsets.length * 2));
+        }
+        offsets[number] = out.position;
+        write(number + " 0 obj\n");
+    }
+
+    private void endObject() throws IOException {
+        write("\nendobj\n");
+    }
+
+    private void write(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long position;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+    }
+}
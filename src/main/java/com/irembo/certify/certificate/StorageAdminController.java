@@ -0,0 +1,33 @@
+package com.irembo.certify.certificate;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/admin/storage")
+@PreAuthorize("hasRole('SYSTEM_ADMIN')")
+public class StorageAdminController {
+
+    private final StorageMigrationService migrationService;
+
+    public StorageAdminController(StorageMigrationService migrationService) {
+        this.migrationService = migrationService;
+    }
+
+    @PostMapping("/migration")
+    public ResponseEntity<StorageMigrationStatus> startMigration() {
+        return ResponseEntity.accepted().body(migrationService.start());
+    }
+
+    /**
+     * The current or most recent migration run on the node serving this request.
+     */
+    @GetMapping("/migration")
+    public StorageMigrationStatus migrationStatus() {
+        return migrationService.status();
+    }
+}
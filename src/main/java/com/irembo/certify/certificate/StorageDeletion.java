@@ -0,0 +1,27 @@
+package com.irembo.certify.certificate;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * A stored file that nothing refers to any more, to be deleted after {@code deleteAfter}.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "storage_deletions")
+public class StorageDeletion {
+
+    @Id
+    @Column(name = "storage_path", nullable = false, updatable = false)
+    private String storagePath;
+
+    @Column(name = "delete_after", nullable = false)
+    private Instant deleteAfter;
+}
@@ -0,0 +1,28 @@
+package com.irembo.certify.certificate;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface StorageDeletionRepository extends JpaRepository<StorageDeletion, String> {
+
+    /**
+     * Schedule a file for deletion, keeping the earlier schedule if it already has one.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = """
+            INSERT INTO storage_deletions (storage_path, delete_after)
+            VALUES (:storagePath, :deleteAfter)
+            ON CONFLICT (storage_path) DO NOTHING
+            """, nativeQuery = true)
+    int schedule(@Param("storagePath") String storagePath, @Param("deleteAfter") Instant deleteAfter);
+
+    List<StorageDeletion> findByDeleteAfterLessThanEqualOrderByDeleteAfter(Instant now, Pageable page);
+}
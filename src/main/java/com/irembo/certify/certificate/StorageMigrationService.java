@@ -0,0 +1,195 @@
+package com.irembo.certify.certificate;
+
+import com.irembo.certify.storage.FileSystemStorageService;
+import com.irembo.certify.storage.StorageProperties;
+import com.irembo.certify.storage.StoredFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves certificates stored in the per-tenant layout into the content-addressed layout
+ * while the application keeps serving traffic.
+ * <p>
+ * Certificates are scanned in id order, a batch at a time, and each batch is migrated in
+ * parallel. For each certificate the file is hashed and checked against the stored hash,
+ * linked into place under {@code cas/}, and the row is repointed with a compare-and-set
+ * update. A certificate whose path changed in the meantime is left alone, and re-running
+ * the migration picks up anything that was skipped or failed.
+ * <p>
+ * The old file is not deleted straight away: a download or export may have resolved its
+ * path just before the row moved and still be reading it. It is recorded in
+ * {@code storage_deletions} instead and removed by a periodic sweep, on any node, once
+ * {@code certify.storage.migration.delete-grace} has passed.
+ * <p>
+ * The progress of a run is kept in memory on the node that runs it, so
+ * {@link #status()} only reports on this node.
+ */
+@Service
+public class StorageMigrationService {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageMigrationService.class);
+
+    private static final int SWEEP_BATCH_SIZE = 500;
+
+    private final CertificateRepository certificateRepository;
+    private final StorageDeletionRepository deletionRepository;
+    private final StorageReferences storageReferences;
+    private final FileSystemStorageService storageService;
+    private final int threads;
+    private final int batchSize;
+    private final Duration deleteGrace;
+
+    private StorageMigrationStatus status = StorageMigrationStatus.idle();
+    private Run current;
+
+    public StorageMigrationService(
+            CertificateRepository certificateRepository,
+            StorageDeletionRepository deletionRepository,
+            StorageReferences storageReferences,
+            FileSystemStorageService storageService,
+            StorageProperties properties
+    ) {
+        this.certificateRepository = certificateRepository;
+        this.deletionRepository = deletionRepository;
+        this.storageReferences = storageReferences;
+        this.storageService = storageService;
+        this.threads = Math.max(1, properties.migration().threads());
+        this.batchSize = Math.max(1, properties.migration().batchSize());
+        this.deleteGrace = properties.migration().deleteGrace();
+    }
+
+    /**
+     * Start a migration in the background, unless one is already running.
+     */
+    public synchronized StorageMigrationStatus start() {
+        if (current == null) {
+            current = new Run(Instant.now());
+            Thread.ofPlatform().name("storage-migration").daemon(true).start(this::run);
+        }
+        return current.snapshot(StorageMigrationStatus.State.RUNNING, null, null);
+    }
+
+    /**
+     * The current or most recent run on this node.
+     */
+    public synchronized StorageMigrationStatus status() {
+        return current != null ? current.snapshot(StorageMigrationStatus.State.RUNNING, null, null) : status;
+    }
+
+    void run() {
+        Run run;
+        synchronized (this) {
+            run = current;
+        }
+        StorageMigrationStatus.State outcome = StorageMigrationStatus.State.COMPLETED;
+        String error = null;
+        try (ExecutorService pool = Executors.newFixedThreadPool(threads,
+                Thread.ofPlatform().name("storage-migration-", 0).daemon(true).factory())) {
+            UUID after = new UUID(0, 0);
+            while (true) {
+                List<CertificateRepository.StorageRef> batch =
+                        certificateRepository.findLegacyStorageAfter(after, PageRequest.of(0, batchSize));
+                if (batch.isEmpty()) {
+                    break;
+                }
+                List<Callable<Void>> tasks = new ArrayList<>(batch.size());
+                for (CertificateRepository.StorageRef ref : batch) {
+                    tasks.add(() -> {
+                        migrate(ref, run);
+                        return null;
+                    });
+                }
+                pool.invokeAll(tasks);
+                run.scanned.addAndGet(batch.size());
+                after = batch.get(batch.size() - 1).getId();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            outcome = StorageMigrationStatus.State.FAILED;
+            error = "Interrupted";
+        } catch (RuntimeException e) {
+            log.error("Storage migration failed", e);
+            outcome = StorageMigrationStatus.State.FAILED;
+            error = e.getMessage();
+        }
+
+        synchronized (this) {
+            status = run.snapshot(outcome, Instant.now(), error);
+            current = null;
+        }
+        log.info("Storage migration {}: scanned={} migrated={} skipped={} failed={}",
+                outcome, run.scanned, run.migrated, run.skipped, run.failed);
+    }
+
+    private void migrate(CertificateRepository.StorageRef ref, Run run) {
+        try {
+            StoredFile stored = storageService.moveToContentAddressed(ref.getStoragePath(), ref.getHash());
+            if (storageReferences.move(ref.getId(), ref.getStoragePath(), stored.storagePath())) {
+                deletionRepository.schedule(ref.getStoragePath(), Instant.now().plus(deleteGrace));
+                run.migrated.incrementAndGet();
+            } else {
+                run.skipped.incrementAndGet();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to migrate storage for certificate id={}: {}", ref.getId(), e.getMessage());
+            run.failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Delete moved files whose grace period is over. A file that a certificate refers to
+     * again is kept; its schedule is dropped either way. Each run handles one batch, so
+     * a large backlog after a migration is worked off over several runs instead of
+     * tying up a scheduler thread.
+     */
+    @Scheduled(fixedDelayString = "${certify.storage.migration.delete-sweep-interval:60000}")
+    public void sweepDeletions() {
+        List<StorageDeletion> due = deletionRepository.findByDeleteAfterLessThanEqualOrderByDeleteAfter(Instant.now(),
+                PageRequest.of(0, SWEEP_BATCH_SIZE));
+        List<String> done = new ArrayList<>(due.size());
+        for (StorageDeletion deletion : due) {
+            String storagePath = deletion.getStoragePath();
+            try {
+                storageReferences.deleteIfUnreferenced(storagePath);
+                done.add(storagePath);
+            } catch (RuntimeException e) {
+                // Left for the next sweep.
+                log.warn("Failed to delete moved certificate file {}: {}", storagePath, e.getMessage());
+            }
+        }
+        if (!done.isEmpty()) {
+            deletionRepository.deleteAllByIdInBatch(done);
+        }
+    }
+
+    private static final class Run {
+
+        private final Instant startedAt;
+        private final AtomicLong scanned = new AtomicLong();
+        private final AtomicLong migrated = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+
+        Run(Instant startedAt) {
+            this.startedAt = startedAt;
+        }
+
+        StorageMigrationStatus snapshot(StorageMigrationStatus.State state, Instant finishedAt, String error) {
+            return new StorageMigrationStatus(state, startedAt, finishedAt,
+                    scanned.get(), migrated.get(), skipped.get(), failed.get(), error);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.irembo.certify.certificate;
+
+import java.time.Instant;
+
+/**
+ * Progress of the most recent storage layout migration on this node.
+ */
+public record StorageMigrationStatus(
+        State state,
+        Instant startedAt,
+        Instant finishedAt,
+        long scanned,
+        long migrated,
+        long skipped,
+        long failed,
+        String error
+) {
+
+    public enum State {
+        IDLE,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    static StorageMigrationStatus idle() {
+        return new StorageMigrationStatus(State.IDLE, null, null, 0, 0, 0, 0, null);
+    }
+}
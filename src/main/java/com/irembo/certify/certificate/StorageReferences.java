@@ -0,0 +1,70 @@
+package com.irembo.certify.certificate;
+
+import com.irembo.certify.storage.StorageService;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.UUID;
+
+/**
+ * Keeps shared stored PDFs from being deleted while a certificate starts to refer to them.
+ * <p>
+ * Identical PDFs share one storage path, and a write whose content is already stored just
+ * reuses the existing file. Checking that nothing refers to a path and then deleting it
+ * would race with such a write whose certificate row commits in between. Both sides
+ * therefore hold a transaction-scoped advisory lock on the path: deleting checks the
+ * references and removes the file under the lock, and recording a reference checks that
+ * the file is still there under the lock, in the transaction that commits the reference.
+ */
+@Component
+public class StorageReferences {
+
+    private final CertificateRepository certificateRepository;
+    private final StorageService storageService;
+
+    public StorageReferences(CertificateRepository certificateRepository, StorageService storageService) {
+        this.certificateRepository = certificateRepository;
+        this.storageService = storageService;
+    }
+
+    /**
+     * Lock {@code storagePath} until the current transaction ends, once it is known to
+     * still exist, so it can't be deleted before the reference to it commits.
+     *
+     * @throws ConcurrencyFailureException if it was deleted after it was written; writing
+     *                                     it again stores it afresh
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void lockForReference(String storagePath) {
+        certificateRepository.lockStoragePath(storagePath);
+        if (!storageService.exists(storagePath)) {
+            throw new ConcurrencyFailureException("Stored certificate PDF " + storagePath
+                    + " was deleted before a certificate could refer to it");
+        }
+    }
+
+    /**
+     * Point a certificate at {@code newPath}, unless its path changed concurrently.
+     */
+    @Transactional
+    public boolean move(UUID certificateId, String oldPath, String newPath) {
+        lockForReference(newPath);
+        return certificateRepository.moveStoragePath(certificateId, oldPath, newPath) == 1;
+    }
+
+    /**
+     * Delete {@code storagePath} unless a certificate refers to it, and return whether it
+     * was deleted.
+     */
+    @Transactional
+    public boolean deleteIfUnreferenced(String storagePath) {
+        certificateRepository.lockStoragePath(storagePath);
+        if (certificateRepository.existsByStoragePath(storagePath)) {
+            return false;
+        }
+        storageService.delete(storagePath);
+        return true;
+    }
+}
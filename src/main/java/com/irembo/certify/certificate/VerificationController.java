@@ -32,7 +32,12 @@ public class VerificationController {
             return ResponseEntity.notFound().build();
         }
 
-        CertificateResponse certificate = certificateService.getById(token.get().getCertificateId());
+        // Reservations still being rendered have no checksum to verify against yet.
+        var found = certificateService.findById(token.get().getCertificateId());
+        if (found.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        CertificateResponse certificate = found.get();
 
         boolean hashMatches = certificate.hash().equals(token.get().getChecksum());
 
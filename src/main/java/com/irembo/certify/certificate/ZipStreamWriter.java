@@ -0,0 +1,212 @@
+package com.irembo.certify.certificate;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a ZIP archive of uncompressed (STORED) entries straight to a stream.
+ * <p>
+ * Unlike {@link java.util.zip.ZipOutputStream}, which keeps every entry in memory until
+ * it writes the central directory, the central directory is spooled to a temporary file
+ * as entries are added, so heap use does not grow with the number of entries. Zip64
+ * end records are written once the archive outgrows the classic format. Entries must be
+ * smaller than 4 GB.
+ */
+final class ZipStreamWriter implements Closeable {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int ZIP64_END = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int END = 0x06054b50;
+
+    private static final short VERSION = 20;
+    private static final short VERSION_ZIP64 = 45;
+    private static final short FLAG_UTF8 = 0x0800;
+    private static final short METHOD_STORED = 0;
+    private static final long MAX_32 = 0xffffffffL;
+    private static final int MAX_16 = 0xffff;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final Path centralDirectoryFile;
+    private final OutputStream centralDirectory;
+    private final ByteBuffer header = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc = new CRC32();
+    private final byte[] copyBuffer = new byte[BUFFER_SIZE];
+    private long position;
+    private long entries;
+    private boolean finished;
+
+    ZipStreamWriter(OutputStream out, Path tempDirectory) throws IOException {
+        this.out = out;
+        this.centralDirectoryFile = Files.createTempFile(tempDirectory, "zip-central-directory", ".tmp");
+        this.centralDirectory = new BufferedOutputStream(Files.newOutputStream(centralDirectoryFile), BUFFER_SIZE);
+    }
+
+    /**
+     * Add an entry whose content is the first {@code length} bytes of {@code data}.
+     */
+    void addEntry(String name, Instant modified, byte[] data, int length) throws IOException {
+        crc.reset();
+        crc.update(data, 0, length);
+        writeHeaders(name, modified, crc.getValue(), length);
+        out.write(data, 0, length);
+        position += length;
+    }
+
+    /**
+     * Add an entry of exactly {@code size} bytes read from {@code data}, whose CRC-32 the
+     * caller has already computed.
+     */
+    void addEntry(String name, Instant modified, long size, long crc32, InputStream data) throws IOException {
+        writeHeaders(name, modified, crc32, size);
+        long copied = 0;
+        while (copied < size) {
+            int read = data.read(copyBuffer, 0, (int) Math.min(copyBuffer.length, size - copied));
+            if (read < 0) {
+                break;
+            }
+            out.write(copyBuffer, 0, read);
+            copied += read;
+        }
+        if (copied != size) {
+            throw new IOException("Entry " + name + " ended after " + copied + " of " + size + " bytes");
+        }
+        position += size;
+    }
+
+    /**
+     * Write the central directory and end records. The underlying stream is left open.
+     */
+    void finish() throws IOException {
+        centralDirectory.close();
+        long centralDirectoryOffset = position;
+        long centralDirectorySize = Files.copy(centralDirectoryFile, out);
+        position += centralDirectorySize;
+
+        if (entries >= MAX_16 || centralDirectoryOffset >= MAX_32 || centralDirectorySize >= MAX_32) {
+            long zip64EndOffset = position;
+            header.clear()
+                    .putInt(ZIP64_END)
+                    .putLong(44)
+                    .putShort(VERSION_ZIP64)
+                    .putShort(VERSION_ZIP64)
+                    .putInt(0)
+                    .putInt(0)
+                    .putLong(entries)
+                    .putLong(entries)
+                    .putLong(centralDirectorySize)
+                    .putLong(centralDirectoryOffset)
+                    .putInt(ZIP64_LOCATOR)
+                    .putInt(0)
+                    .putLong(zip64EndOffset)
+                    .putInt(1);
+            writeHeader(out);
+        }
+
+        header.clear()
+                .putInt(END)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) Math.min(entries, MAX_16))
+                .putShort((short) Math.min(entries, MAX_16))
+                .putInt((int) Math.min(centralDirectorySize, MAX_32))
+                .putInt((int) Math.min(centralDirectoryOffset, MAX_32))
+                .putShort((short) 0);
+        writeHeader(out);
+        out.flush();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            centralDirectory.close();
+        }
+        Files.deleteIfExists(centralDirectoryFile);
+    }
+
+    private void writeHeaders(String name, Instant modified, long crc32, long size) throws IOException {
+        if (size >= MAX_32) {
+            throw new IOException("Entry " + name + " is too large for the archive: " + size + " bytes");
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int dosTime = dosTime(modified);
+        long offset = position;
+        boolean zip64 = offset >= MAX_32;
+
+        header.clear()
+                .putInt(LOCAL_HEADER)
+                .putShort(VERSION)
+                .putShort(FLAG_UTF8)
+                .putShort(METHOD_STORED)
+                .putInt(dosTime)
+                .putInt((int) crc32)
+                .putInt((int) size)
+                .putInt((int) size)
+                .putShort((short) nameBytes.length)
+                .putShort((short) 0);
+        writeHeader(out);
+        out.write(nameBytes);
+        position += 30 + nameBytes.length;
+
+        header.clear()
+                .putInt(CENTRAL_HEADER)
+                .putShort(zip64 ? VERSION_ZIP64 : VERSION)
+                .putShort(zip64 ? VERSION_ZIP64 : VERSION)
+                .putShort(FLAG_UTF8)
+                .putShort(METHOD_STORED)
+                .putInt(dosTime)
+                .putInt((int) crc32)
+                .putInt((int) size)
+                .putInt((int) size)
+                .putShort((short) nameBytes.length)
+                .putShort((short) (zip64 ? 12 : 0))
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putInt(0)
+                .putInt((int) (zip64 ? MAX_32 : offset));
+        writeHeader(centralDirectory);
+        centralDirectory.write(nameBytes);
+        if (zip64) {
+            header.clear()
+                    .putShort((short) 0x0001)
+                    .putShort((short) 8)
+                    .putLong(offset);
+            writeHeader(centralDirectory);
+        }
+        entries++;
+    }
+
+    private void writeHeader(OutputStream target) throws IOException {
+        header.flip();
+        target.write(header.array(), 0, header.limit());
+    }
+
+    /**
+     * MS-DOS date and time as one little-endian int: time in the low half, date in the high.
+     */
+    private static int dosTime(Instant instant) {
+        LocalDateTime time = LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            time = LocalDateTime.of(1980, 1, 1, 0, 0);
+        }
+        int dosDate = (time.getYear() - 1980) << 9 | time.getMonthValue() << 5 | time.getDayOfMonth();
+        int dosClock = time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+        return dosDate << 16 | dosClock;
+    }
+}
@@ -0,0 +1,10 @@
+package com.irembo.certify.certificate.dto;
+
+/**
+ * A rejected row of an uploaded batch; {@code line} is the 1-based line it starts on.
+ */
+public record BatchRowError(
+        long line,
+        String message
+) {
+}
@@ -0,0 +1,20 @@
+package com.irembo.certify.certificate.dto;
+
+import com.irembo.certify.certificate.CertificateJob;
+import com.irembo.certify.certificate.CertificateJobStatus;
+
+import java.util.UUID;
+
+public record CertificateBatchFailureResponse(
+        int rowIndex,
+        UUID jobId,
+        String errorMessage,
+        CertificateJobStatus status,
+        int attempts
+) {
+
+    public static CertificateBatchFailureResponse from(CertificateJob job) {
+        return new CertificateBatchFailureResponse(job.getRowIndex(), job.getId(), job.getErrorMessage(),
+                job.getStatus(), job.getAttempts());
+    }
+}
@@ -0,0 +1,34 @@
+package com.irembo.certify.certificate.dto;
+
+import com.irembo.certify.certificate.CertificateBatch;
+import com.irembo.certify.certificate.CertificateBatchStatus;
+
+import java.time.Instant;
+import java.util.UUID;
+
+public record CertificateBatchResponse(
+        UUID id,
+        UUID templateId,
+        CertificateBatchStatus status,
+        int totalRows,
+        int completedCount,
+        int failedCount,
+        int remainingCount,
+        Instant createdAt,
+        Instant updatedAt
+) {
+
+    public static CertificateBatchResponse from(CertificateBatch batch) {
+        return new CertificateBatchResponse(
+                batch.getId(),
+                batch.getTemplateId(),
+                batch.getStatus(),
+                batch.getTotalRows(),
+                batch.getCompletedCount(),
+                batch.getFailedCount(),
+                batch.getRemainingCount(),
+                batch.getCreatedAt(),
+                batch.getUpdatedAt()
+        );
+    }
+}
@@ -0,0 +1,15 @@
+package com.irembo.certify.certificate.dto;
+
+import java.util.List;
+
+/**
+ * Outcome of an uploaded batch. Only accepted rows are queued; {@code errors} lists the
+ * first rejected rows, up to a limit, while {@code rejectedRows} counts all of them.
+ */
+public record CertificateBatchUploadResponse(
+        CertificateBatchResponse batch,
+        int acceptedRows,
+        int rejectedRows,
+        List<BatchRowError> errors
+) {
+}
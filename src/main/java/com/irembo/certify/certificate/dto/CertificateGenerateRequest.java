@@ -1,15 +1,30 @@
 package com.irembo.certify.certificate.dto;
 
+import com.irembo.certify.certificate.CertificateJobPriority;
 import jakarta.validation.constraints.NotNull;
 
+import java.time.Instant;
 import java.util.Map;
 import java.util.UUID;
 
+/**
+ * {@code priority} and {@code deadline} only apply to asynchronous jobs: the job is
+ * queued in that priority's lane, where jobs are claimed earliest deadline first.
+ * Without a priority the job is {@link CertificateJobPriority#NORMAL}.
+ */
 public record CertificateGenerateRequest(
         @NotNull
         UUID templateId,
 
         @NotNull
-        Map<String, Object> data
+        Map<String, Object> data,
+
+        CertificateJobPriority priority,
+
+        Instant deadline
 ) {
+
+    public CertificateGenerateRequest(UUID templateId, Map<String, Object> data) {
+        this(templateId, data, null, null);
+    }
 }
@@ -1,6 +1,7 @@
 package com.irembo.certify.certificate.dto;
 
 import com.irembo.certify.certificate.CertificateJob;
+import com.irembo.certify.certificate.CertificateJobPriority;
 import com.irembo.certify.certificate.CertificateJobStatus;
 
 import java.time.Instant;
@@ -10,8 +11,14 @@ public record CertificateJobResponse(
         UUID id,
         UUID templateId,
         CertificateJobStatus status,
+        CertificateJobPriority priority,
+        Instant deadline,
         UUID certificateId,
         String errorMessage,
+        int attempts,
+        Instant nextAttemptAt,
+        UUID batchId,
+        Integer rowIndex,
         Instant createdAt,
         Instant updatedAt
 ) {
@@ -21,8 +28,14 @@ public record CertificateJobResponse(
                 job.getId(),
                 job.getTemplateId(),
                 job.getStatus(),
+                job.getPriority(),
+                job.getDeadline(),
                 job.getCertificateId(),
                 job.getErrorMessage(),
+                job.getAttempts(),
+                job.getNextAttemptAt(),
+                job.getBatchId(),
+                job.getRowIndex(),
                 job.getCreatedAt(),
                 job.getUpdatedAt()
         );
@@ -0,0 +1,17 @@
+package com.irembo.certify.certificate.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public record PrintBatchRequest(
+        @NotNull
+        UUID templateId,
+
+        @NotEmpty
+        List<@NotNull Map<String, Object>> rows
+) {
+}
@@ -0,0 +1,17 @@
+package com.irembo.certify.certificate.dto;
+
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Which dead-lettered jobs to requeue; every filter left out matches all of them.
+ */
+public record RequeueDeadLettersRequest(
+        UUID tenantId,
+        UUID batchId,
+        @Size(max = 10000, message = "At most 10000 job ids can be requeued at once")
+        List<UUID> jobIds
+) {
+}
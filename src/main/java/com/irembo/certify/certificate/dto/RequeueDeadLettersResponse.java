@@ -0,0 +1,6 @@
+package com.irembo.certify.certificate.dto;
+
+public record RequeueDeadLettersResponse(
+        int requeued
+) {
+}
@@ -0,0 +1,60 @@
+package com.irembo.certify.pdf;
+
+/**
+ * Concurrency limit that follows render latency, in the style of a gradient limiter.
+ * <p>
+ * A long-running average of latency serves as the baseline. While recent latency stays
+ * within {@link #TOLERANCE} of it the limit grows by roughly its square root per sample;
+ * once renders slow down (usually because they are contending for CPU) it shrinks in
+ * proportion to the slowdown. Changes are smoothed so a single slow render has little
+ * effect. Not thread-safe; callers synchronize.
+ */
+final class AdaptiveConcurrencyLimit {
+
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double SHORT_WINDOW = 4;
+    private static final double LONG_WINDOW = 100;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private double shortLatency;
+    private double longLatency;
+
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    int current() {
+        return (int) limit;
+    }
+
+    /**
+     * Record a successful render that took {@code latencyNanos} while {@code inFlight}
+     * renders (including this one) were running.
+     */
+    void onSample(long latencyNanos, int inFlight) {
+        if (longLatency == 0) {
+            shortLatency = latencyNanos;
+            longLatency = latencyNanos;
+            return;
+        }
+        shortLatency += (latencyNanos - shortLatency) / SHORT_WINDOW;
+        longLatency += (latencyNanos - longLatency) / LONG_WINDOW;
+        // Let the baseline recover quickly after a period of unusually slow renders.
+        if (longLatency > shortLatency * 2) {
+            longLatency *= 0.95;
+        }
+
+        double gradient = Math.clamp(TOLERANCE * longLatency / shortLatency, 0.5, 1.0);
+        if (gradient == 1.0 && inFlight < limit / 2) {
+            // Latency is fine but the lane isn't using its limit; there's nothing to learn.
+            return;
+        }
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = Math.clamp(limit * (1 - SMOOTHING) + target * SMOOTHING, minLimit, maxLimit);
+    }
+}
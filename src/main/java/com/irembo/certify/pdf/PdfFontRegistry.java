@@ -0,0 +1,161 @@
+package com.irembo.certify.pdf;
+
+import com.openhtmltopdf.extend.FSCacheEx;
+import com.openhtmltopdf.extend.FSCacheValue;
+import com.openhtmltopdf.extend.impl.FSDefaultCacheStore;
+import com.openhtmltopdf.outputdevice.helper.BaseRendererBuilder;
+import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
+import org.apache.fontbox.ttf.OTFParser;
+import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Fonts and font-metric caches shared by every render.
+ * <p>
+ * Font files are read into memory once at startup and handed to each
+ * {@link PdfRendererBuilder} from there, and each font set keeps its own openhtmltopdf
+ * metrics cache, so the cost of parsing fonts is paid once per node rather than once per
+ * certificate. Tenants with their own fonts get a separate font set (system fonts plus
+ * theirs) so that family names can't collide across tenants.
+ */
+@Component
+public class PdfFontRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(PdfFontRegistry.class);
+
+    private final FontSet systemFonts;
+    private final Map<UUID, FontSet> tenantFonts;
+
+    public PdfFontRegistry(PdfRendererProperties properties) {
+        List<FontFace> system = List.of();
+        Map<UUID, FontSet> tenants = new HashMap<>();
+
+        if (StringUtils.hasText(properties.fontsPath())) {
+            Path root = Paths.get(properties.fontsPath()).toAbsolutePath().normalize();
+            system = loadFaces(root);
+            Path tenantsDir = root.resolve("tenants");
+            if (Files.isDirectory(tenantsDir)) {
+                try (Stream<Path> dirs = Files.list(tenantsDir)) {
+                    for (Path dir : dirs.filter(Files::isDirectory).toList()) {
+                        UUID tenantId = parseTenantId(dir);
+                        if (tenantId != null) {
+                            List<FontFace> faces = new ArrayList<>(system);
+                            faces.addAll(loadFaces(dir));
+                            tenants.put(tenantId, new FontSet(faces));
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException("Failed to list tenant fonts in " + tenantsDir, e);
+                }
+            }
+        }
+
+        this.systemFonts = new FontSet(system);
+        this.tenantFonts = Map.copyOf(tenants);
+        log.info("Registered {} system font faces and fonts for {} tenants", system.size(), tenants.size());
+    }
+
+    /**
+     * Register the fonts and shared caches for {@code tenantId} (or only the system fonts
+     * when it is {@code null}) on a renderer builder.
+     */
+    public void apply(PdfRendererBuilder builder, UUID tenantId) {
+        FontSet fonts = tenantId != null ? tenantFonts.getOrDefault(tenantId, systemFonts) : systemFonts;
+        builder.useCacheStore(PdfRendererBuilder.CacheStore.PDF_FONT_METRICS, fonts.metricsCache());
+        for (FontFace face : fonts.faces()) {
+            builder.useFont(() -> new ByteArrayInputStream(face.data()), face.family(), face.weight(), face.style(), true);
+        }
+    }
+
+    /**
+     * All font family names known to the registry, used for warm-up renders.
+     */
+    public Set<String> families() {
+        Set<String> families = new TreeSet<>();
+        systemFonts.faces().forEach(face -> families.add(face.family()));
+        tenantFonts.values().forEach(set -> set.faces().forEach(face -> families.add(face.family())));
+        return families;
+    }
+
+    private static List<FontFace> loadFaces(Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            List<FontFace> faces = new ArrayList<>();
+            for (Path file : files.filter(Files::isRegularFile).sorted().toList()) {
+                String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+                if (name.endsWith(".ttf") || name.endsWith(".otf")) {
+                    faces.add(loadFace(file, name.endsWith(".otf")));
+                }
+            }
+            return faces;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load fonts from " + dir, e);
+        }
+    }
+
+    private static FontFace loadFace(Path file, boolean openType) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        TrueTypeFont font = openType
+                ? new OTFParser(true).parse(new ByteArrayInputStream(data))
+                : new TTFParser(true).parse(new ByteArrayInputStream(data));
+        try {
+            String family = font.getNaming() != null ? font.getNaming().getFontFamily() : null;
+            String subFamily = font.getNaming() != null ? font.getNaming().getFontSubFamily() : null;
+            if (!StringUtils.hasText(family)) {
+                String fileName = file.getFileName().toString();
+                family = fileName.substring(0, fileName.lastIndexOf('.'));
+            }
+            int weight = font.getOS2Windows() != null ? font.getOS2Windows().getWeightClass() : 400;
+            boolean italic = subFamily != null && subFamily.toLowerCase(Locale.ROOT).matches(".*(italic|oblique).*");
+            log.debug("Loaded font '{}' weight={} italic={} from {}", family, weight, italic, file);
+            return new FontFace(
+                    data,
+                    family,
+                    weight > 0 ? weight : 400,
+                    italic ? BaseRendererBuilder.FontStyle.ITALIC : BaseRendererBuilder.FontStyle.NORMAL
+            );
+        } finally {
+            font.close();
+        }
+    }
+
+    private static UUID parseTenantId(Path dir) {
+        try {
+            return UUID.fromString(dir.getFileName().toString());
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring tenant font directory {}: name is not a tenant id", dir);
+            return null;
+        }
+    }
+
+    private record FontFace(byte[] data, String family, int weight, BaseRendererBuilder.FontStyle style) {
+    }
+
+    private record FontSet(List<FontFace> faces, FSCacheEx<String, FSCacheValue> metricsCache) {
+
+        FontSet(List<FontFace> faces) {
+            this(List.copyOf(faces), new FSDefaultCacheStore());
+        }
+    }
+}
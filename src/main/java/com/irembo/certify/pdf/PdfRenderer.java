@@ -1,32 +1,199 @@
 package com.irembo.certify.pdf;
 
+import com.irembo.certify.common.TenantContextHolder;
+import com.irembo.certify.qr.QrCodeObjectDrawer;
+import com.openhtmltopdf.pdfboxout.PagePosition;
+import com.openhtmltopdf.pdfboxout.PdfBoxRenderer;
 import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
+import com.openhtmltopdf.render.Box;
+import com.openhtmltopdf.render.DefaultObjectDrawerFactory;
+import com.openhtmltopdf.resource.FSEntityResolver;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.pdfbox.pdmodel.PDDocument;
 import org.springframework.stereotype.Component;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
+/**
+ * Renders XHTML to PDF with the fonts and caches from {@link PdfFontRegistry}, drawing
+ * vector QR code objects with {@link QrCodeObjectDrawer}.
+ * <p>
+ * Render latency is recorded as {@code certify.pdf.render}, tagged with
+ * {@code phase=warmup} for start-up renders, {@code phase=batch} for multi-certificate
+ * documents appended to a print batch and {@code phase=live} for everything else.
+ */
 @Component
 public class PdfRenderer {
 
+    private final PdfFontRegistry fontRegistry;
+    private final DefaultObjectDrawerFactory objectDrawers = new DefaultObjectDrawerFactory();
+    private final Timer liveTimer;
+    private final Timer warmUpTimer;
+    private final Timer batchTimer;
+
+    public PdfRenderer(PdfFontRegistry fontRegistry, QrCodeObjectDrawer qrCodeDrawer, MeterRegistry meterRegistry) {
+        this.fontRegistry = fontRegistry;
+        this.objectDrawers.registerDrawer(QrCodeObjectDrawer.OBJECT_TYPE, qrCodeDrawer);
+        this.liveTimer = renderTimer("live", meterRegistry);
+        this.warmUpTimer = renderTimer("warmup", meterRegistry);
+        this.batchTimer = renderTimer("batch", meterRegistry);
+    }
+
     public byte[] renderHtmlToPdf(String html) {
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            String content = html;
-            if (html != null && !html.toLowerCase().contains("<html")) {
-                content =
-                        "<!DOCTYPE html><html><head><meta charset='UTF-8'></meta></head><body>"
-                                + html +
-                                "</body></html>";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderHtmlToPdf(html, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Render {@code html} straight into {@code out}, which is left open.
+     */
+    public void renderHtmlToPdf(String html, OutputStream out) {
+        render(builder -> builder.withHtmlContent(normalizeXhtml(html), null), out, liveTimer);
+    }
+
+    /**
+     * Render an already parsed document, typically a copy of a template prepared with
+     * {@link #prepareDocument(String)}. The document may be modified by the renderer,
+     * so callers must not pass a shared instance.
+     */
+    public byte[] renderDocumentToPdf(Document document) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderDocumentToPdf(document, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Render {@code document} straight into {@code out}, which is left open.
+     */
+    public void renderDocumentToPdf(Document document, OutputStream out) {
+        render(builder -> builder.withW3cDocument(document, null), out, liveTimer);
+    }
+
+    /**
+     * Append the pages of {@code document} to {@code target}, which is left open and unsaved,
+     * and return the index in {@code target} of the page each element whose id matches
+     * {@code ids} starts on. Fonts and images are embedded once per call, however many
+     * pages the document has.
+     */
+    public Map<String, Integer> appendDocumentToPdf(Document document, PDDocument target, Pattern ids) {
+        long start = System.nanoTime();
+        int firstPage = target.getNumberOfPages();
+        PdfRendererBuilder builder = newBuilder();
+        builder.withW3cDocument(document, null);
+        builder.usePDDocument(target);
+        try (PdfBoxRenderer renderer = builder.buildPdfRenderer()) {
+            renderer.layout();
+            renderer.createPDFWithoutClosing();
+            Map<String, Integer> pages = new HashMap<>();
+            for (PagePosition<Box> position : renderer.findPagePositionsByID(ids)) {
+                pages.merge(position.getId(), firstPage + position.getPageNo(), Math::min);
             }
+            return pages;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to render PDF", e);
+        } finally {
+            batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
 
-            PdfRendererBuilder builder = new PdfRendererBuilder();
-            builder.useFastMode();
-            builder.withHtmlContent(content, null);
+    /**
+     * Render {@code html} on the warm-up path; the result is discarded.
+     */
+    void warmUp(String html) {
+        render(builder -> builder.withHtmlContent(normalizeXhtml(html), null), OutputStream.nullOutputStream(), warmUpTimer);
+    }
+
+    /**
+     * Normalize and parse template markup the same way {@link #renderHtmlToPdf(String)}
+     * does, so the result can be cached and rendered repeatedly.
+     *
+     * @throws IllegalArgumentException if the markup is not well-formed XHTML
+     */
+    public Document prepareDocument(String html) {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setValidating(false);
+            // Fully expanded nodes: cached documents are cloned from many threads.
+            factory.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            // Resolve the XHTML DTDs (and their entities) locally, like openhtmltopdf's own loader.
+            builder.setEntityResolver(FSEntityResolver.instance());
+            builder.setErrorHandler(new DefaultHandler());
+            return builder.parse(new InputSource(new StringReader(normalizeXhtml(html))));
+        } catch (SAXException | IOException e) {
+            throw new IllegalArgumentException("Template is not well-formed XHTML", e);
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("XML parser is not available", e);
+        }
+    }
+
+    private void render(Consumer<PdfRendererBuilder> input, OutputStream out, Timer timer) {
+        long start = System.nanoTime();
+        try {
+            PdfRendererBuilder builder = newBuilder();
+            input.accept(builder);
             builder.toStream(out);
             builder.run();
-            return out.toByteArray();
         } catch (IOException e) {
             throw new IllegalStateException("Failed to render PDF", e);
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private PdfRendererBuilder newBuilder() {
+        PdfRendererBuilder builder = new PdfRendererBuilder();
+        builder.useFastMode();
+        builder.useObjectDrawerFactory(objectDrawers);
+        fontRegistry.apply(builder, TenantContextHolder.getTenantId());
+        return builder;
+    }
+
+    private static Timer renderTimer(String phase, MeterRegistry meterRegistry) {
+        return Timer.builder("certify.pdf.render")
+                .tag("phase", phase)
+                .description("Time spent rendering a single PDF")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * Wrap HTML fragments in a minimal XHTML document; full documents are returned as-is.
+     */
+    static String normalizeXhtml(String html) {
+        if (html == null || containsIgnoreCase(html, "<html")) {
+            return html;
+        }
+        return "<!DOCTYPE html><html><head><meta charset='UTF-8'></meta></head><body>"
+                + html +
+                "</body></html>";
+    }
+
+    private static boolean containsIgnoreCase(String text, String needle) {
+        int last = text.length() - needle.length();
+        for (int i = 0; i <= last; i++) {
+            if (text.charAt(i) == '<' && text.regionMatches(true, i, needle, 0, needle.length())) {
+                return true;
+            }
         }
+        return false;
     }
 }
@@ -0,0 +1,20 @@
+package com.irembo.certify.pdf;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Configuration for the PDF renderer.
+ * <p>
+ * {@code fontsPath} points at a directory of system-wide {@code .ttf}/{@code .otf} fonts;
+ * tenant-specific fonts live in {@code <fontsPath>/tenants/<tenantId>/}. Fonts are read
+ * once at startup. {@code warmUpIterations} sample renders run before the node reports
+ * ready, so the first real request doesn't pay for class loading and JIT compilation;
+ * {@code 0} skips the warm-up.
+ */
+@ConfigurationProperties(prefix = "certify.pdf")
+public record PdfRendererProperties(
+        String fontsPath,
+        @DefaultValue("3") int warmUpIterations
+) {
+}
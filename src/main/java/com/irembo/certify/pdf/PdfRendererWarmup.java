@@ -0,0 +1,99 @@
+package com.irembo.certify.pdf;
+
+import com.irembo.certify.qr.QrCodeObjectDrawer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Renders a few sample PDFs once the application has started, and reports the node as
+ * not ready until that has finished.
+ * <p>
+ * The first render in a JVM loads most of openhtmltopdf and PDFBox and runs cold; doing it
+ * here keeps that cost off the first certificate request. The indicator is part of the
+ * {@code readiness} health group, so load balancers hold traffic back until it is UP.
+ * A failed warm-up is logged and the node is marked ready anyway: a real request would
+ * fail the same way, and keeping the node out of rotation would not help.
+ */
+@Component
+public class PdfRendererWarmup implements HealthIndicator {
+
+    private static final Logger log = LoggerFactory.getLogger(PdfRendererWarmup.class);
+
+    private enum State { PENDING, RUNNING, DONE }
+
+    private final PdfRenderer pdfRenderer;
+    private final PdfFontRegistry fontRegistry;
+    private final int iterations;
+    private final AtomicReference<State> state = new AtomicReference<>(State.PENDING);
+
+    public PdfRendererWarmup(PdfRenderer pdfRenderer, PdfFontRegistry fontRegistry, PdfRendererProperties properties) {
+        this.pdfRenderer = pdfRenderer;
+        this.fontRegistry = fontRegistry;
+        this.iterations = Math.max(0, properties.warmUpIterations());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startWarmUp() {
+        if (!state.compareAndSet(State.PENDING, State.RUNNING)) {
+            return;
+        }
+        Thread.ofPlatform().name("pdf-renderer-warmup").daemon(true).start(this::warmUp);
+    }
+
+    @Override
+    public Health health() {
+        State current = state.get();
+        return current == State.DONE
+                ? Health.up().withDetail("warmUpIterations", iterations).build()
+                : Health.outOfService().withDetail("warmUp", current.name().toLowerCase(Locale.ROOT)).build();
+    }
+
+    void warmUp() {
+        long start = System.nanoTime();
+        try {
+            String html = sampleHtml(fontRegistry.families());
+            for (int i = 0; i < iterations; i++) {
+                pdfRenderer.warmUp(html);
+            }
+            log.info("PDF renderer warmed up with {} renders in {} ms",
+                    iterations, (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException ex) {
+            log.warn("PDF renderer warm-up failed", ex);
+        } finally {
+            state.set(State.DONE);
+        }
+    }
+
+    /**
+     * A small certificate-like page that touches each registered font, a table, a vector QR
+     * code and an image.
+     */
+    static String sampleHtml(Set<String> families) {
+        StringBuilder html = new StringBuilder(512)
+                .append("<html><head><style>")
+                .append("body{font-family:serif} td{border:1px solid #333;padding:4px}")
+                .append("</style></head><body><h1>Certificate of Completion</h1>")
+                .append("<table><tr><td>Name</td><td>Jane Doe</td></tr><tr><td>Date</td><td>2024-01-01</td></tr></table>");
+        for (String family : families) {
+            html.append("<p style=\"font-family:'").append(family.replace("'", "")).append("'\">")
+                    .append("Sample text <b>bold</b> <i>italic</i></p>");
+        }
+        html.append("<object type=\"").append(QrCodeObjectDrawer.OBJECT_TYPE)
+                .append("\" ").append(QrCodeObjectDrawer.CONTENT_ATTRIBUTE)
+                .append("=\"https://example.org/verify\" style=\"width:100px;height:100px\"></object>");
+        // 1x1 transparent PNG, so image decoding is warmed up too.
+        html.append("<img src=\"data:image/png;base64,")
+                .append("iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNkYPhfDwAChwGA60e6kgAAAABJRU5ErkJggg==")
+                .append("\"/></body></html>");
+        return html.toString();
+    }
+}
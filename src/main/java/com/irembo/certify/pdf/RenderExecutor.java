@@ -0,0 +1,221 @@
+package com.irembo.certify.pdf;
+
+import com.irembo.certify.common.TenantContextHolder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Shared, bounded executor for PDF rendering.
+ * <p>
+ * Every render is admitted through a {@link RenderLane}. A lane runs at most its current
+ * {@link AdaptiveConcurrencyLimit} of renders at once and queues a bounded number more;
+ * when the queue is full, or a render has waited longer than the lane's queue timeout,
+ * the caller gets a {@link RenderRejectedException} straight away instead of piling onto
+ * an overloaded node. The calling thread blocks until its render has finished, and the
+ * tenant context is carried over to the render thread.
+ * <p>
+ * Metrics per lane: {@code certify.pdf.executor.queued}, {@code .in-flight},
+ * {@code .limit}, {@code .rejected} and {@code .wait} (time spent queued).
+ */
+@Component
+public class RenderExecutor {
+
+    private final ExecutorService renderThreads;
+    private final Map<RenderLane, Lane> lanes = new EnumMap<>(RenderLane.class);
+
+    public RenderExecutor(RenderExecutorProperties properties, MeterRegistry meterRegistry) {
+        // Concurrency is bounded by the lane limits, not by the pool.
+        this.renderThreads = Executors.newCachedThreadPool(
+                Thread.ofPlatform().name("pdf-render-", 0).daemon(true).factory());
+        for (RenderLane lane : RenderLane.values()) {
+            lanes.put(lane, new Lane(lane, properties.lane(lane), meterRegistry));
+        }
+    }
+
+    /**
+     * Run {@code render} in {@code lane} and return its result.
+     *
+     * @throws RenderRejectedException if the lane is saturated
+     */
+    public <T> T execute(RenderLane lane, Supplier<T> render) {
+        UUID tenantId = TenantContextHolder.getTenantId();
+        Task<T> task = new Task<>(() -> {
+            TenantContextHolder.setTenantId(tenantId);
+            try {
+                return render.get();
+            } finally {
+                TenantContextHolder.clear();
+            }
+        });
+        return lanes.get(lane).execute(task);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        renderThreads.shutdown();
+    }
+
+    private final class Lane {
+
+        private final RenderLane lane;
+        private final RenderExecutorProperties.Lane settings;
+        private final AdaptiveConcurrencyLimit limit;
+        private final ArrayDeque<Task<?>> queue = new ArrayDeque<>();
+        private int inFlight;
+
+        private final Counter rejectedCounter;
+        private final Timer waitTimer;
+
+        Lane(RenderLane lane, RenderExecutorProperties.Lane settings, MeterRegistry meterRegistry) {
+            this.lane = lane;
+            this.settings = settings;
+            this.limit = new AdaptiveConcurrencyLimit(settings.initialLimit(), settings.minLimit(), settings.maxLimit());
+
+            String tag = lane.name().toLowerCase(Locale.ROOT);
+            this.rejectedCounter = Counter.builder("certify.pdf.executor.rejected")
+                    .tag("lane", tag)
+                    .description("Renders rejected because the lane was saturated")
+                    .register(meterRegistry);
+            this.waitTimer = Timer.builder("certify.pdf.executor.wait")
+                    .tag("lane", tag)
+                    .description("Time renders spent queued before starting")
+                    .register(meterRegistry);
+            Gauge.builder("certify.pdf.executor.queued", this, l -> l.snapshot(() -> l.queue.size()))
+                    .tag("lane", tag)
+                    .description("Renders waiting for a slot")
+                    .register(meterRegistry);
+            Gauge.builder("certify.pdf.executor.in-flight", this, l -> l.snapshot(() -> l.inFlight))
+                    .tag("lane", tag)
+                    .description("Renders currently running")
+                    .register(meterRegistry);
+            Gauge.builder("certify.pdf.executor.limit", this, l -> l.snapshot(l.limit::current))
+                    .tag("lane", tag)
+                    .description("Current adaptive concurrency limit")
+                    .register(meterRegistry);
+        }
+
+        <T> T execute(Task<T> task) {
+            admit(task);
+            try {
+                return await(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dequeue(task);
+                throw new IllegalStateException("Interrupted while waiting for PDF render", e);
+            }
+        }
+
+        private <T> T await(Task<T> task) throws InterruptedException {
+            try {
+                try {
+                    return task.result.get(settings.queueTimeout().toNanos(), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    if (dequeue(task)) {
+                        throw reject();
+                    }
+                    // Already running; it's admitted, so wait for it to finish.
+                    return task.result.get();
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtime) {
+                    throw runtime;
+                }
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw new IllegalStateException("Failed to render PDF", e.getCause());
+            }
+        }
+
+        private synchronized void admit(Task<?> task) {
+            if (inFlight < limit.current()) {
+                start(task);
+            } else if (queue.size() < settings.queueCapacity()) {
+                queue.addLast(task);
+            } else {
+                throw reject();
+            }
+        }
+
+        private synchronized boolean dequeue(Task<?> task) {
+            return queue.remove(task);
+        }
+
+        private synchronized void onFinished(long latencyNanos, boolean succeeded) {
+            if (succeeded) {
+                limit.onSample(latencyNanos, inFlight);
+            }
+            inFlight--;
+            while (inFlight < limit.current() && !queue.isEmpty()) {
+                start(queue.pollFirst());
+            }
+        }
+
+        /**
+         * Must hold the lane lock.
+         */
+        private void start(Task<?> task) {
+            inFlight++;
+            waitTimer.record(System.nanoTime() - task.enqueuedAt, TimeUnit.NANOSECONDS);
+            try {
+                renderThreads.execute(() -> run(task));
+            } catch (RejectedExecutionException e) {
+                inFlight--;
+                task.result.completeExceptionally(new IllegalStateException("PDF renderer is shutting down", e));
+            }
+        }
+
+        private <T> void run(Task<T> task) {
+            long start = System.nanoTime();
+            boolean succeeded = false;
+            try {
+                task.result.complete(task.render.get());
+                succeeded = true;
+            } catch (Throwable t) {
+                task.result.completeExceptionally(t);
+            } finally {
+                onFinished(System.nanoTime() - start, succeeded);
+            }
+        }
+
+        private RenderRejectedException reject() {
+            rejectedCounter.increment();
+            long seconds = Math.max(1, settings.queueTimeout().toSeconds());
+            return new RenderRejectedException(lane, Duration.ofSeconds(seconds));
+        }
+
+        private synchronized double snapshot(Supplier<Integer> value) {
+            return value.get();
+        }
+    }
+
+    private static final class Task<T> {
+
+        private final Supplier<T> render;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final long enqueuedAt = System.nanoTime();
+
+        Task(Supplier<T> render) {
+            this.render = render;
+        }
+    }
+}
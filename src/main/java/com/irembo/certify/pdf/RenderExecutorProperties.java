@@ -0,0 +1,46 @@
+package com.irembo.certify.pdf;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Per-lane admission settings for the {@link RenderExecutor}.
+ * <p>
+ * Each lane's concurrency limit starts at {@code initialLimit} and adapts between
+ * {@code minLimit} and {@code maxLimit} ({@code 0} = one per available processor) based
+ * on observed render latency. Up to {@code queueCapacity} renders may wait for a slot,
+ * each for at most {@code queueTimeout}; anything beyond that is rejected.
+ */
+@ConfigurationProperties(prefix = "certify.pdf.executor")
+public record RenderExecutorProperties(Lane interactive, Lane bulk) {
+
+    public RenderExecutorProperties {
+        if (interactive == null) {
+            interactive = new Lane(2, 1, 0, 16, Duration.ofSeconds(2));
+        }
+        if (bulk == null) {
+            bulk = new Lane(2, 1, 0, 256, Duration.ofMinutes(2));
+        }
+    }
+
+    public Lane lane(RenderLane lane) {
+        return lane == RenderLane.INTERACTIVE ? interactive : bulk;
+    }
+
+    public record Lane(int initialLimit, int minLimit, int maxLimit, int queueCapacity, Duration queueTimeout) {
+
+        public Lane {
+            minLimit = Math.max(1, minLimit);
+            if (maxLimit <= 0) {
+                maxLimit = Runtime.getRuntime().availableProcessors();
+            }
+            maxLimit = Math.max(minLimit, maxLimit);
+            initialLimit = Math.clamp(initialLimit, minLimit, maxLimit);
+            queueCapacity = Math.max(0, queueCapacity);
+            if (queueTimeout == null || queueTimeout.isNegative()) {
+                queueTimeout = Duration.ZERO;
+            }
+        }
+    }
+}
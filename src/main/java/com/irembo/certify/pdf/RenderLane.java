@@ -0,0 +1,14 @@
+package com.irembo.certify.pdf;
+
+/**
+ * Admission lanes of the {@link RenderExecutor}. Each lane has its own concurrency limit
+ * and queue, so a backlog in one can't hold up the other.
+ */
+public enum RenderLane {
+
+    /** A user is waiting on the response: simulate, preview and synchronous generate. */
+    INTERACTIVE,
+
+    /** Background certificate jobs. */
+    BULK
+}
@@ -0,0 +1,28 @@
+package com.irembo.certify.pdf;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Thrown when the {@link RenderExecutor} can't admit a render, either because the lane's
+ * queue is full or because the render waited longer than the lane's queue timeout.
+ */
+public class RenderRejectedException extends RuntimeException {
+
+    private final RenderLane lane;
+    private final Duration retryAfter;
+
+    public RenderRejectedException(RenderLane lane, Duration retryAfter) {
+        super("PDF renderer is busy (" + lane.name().toLowerCase(Locale.ROOT) + " lane); retry in " + retryAfter.toSeconds() + "s");
+        this.lane = lane;
+        this.retryAfter = retryAfter;
+    }
+
+    public RenderLane getLane() {
+        return lane;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
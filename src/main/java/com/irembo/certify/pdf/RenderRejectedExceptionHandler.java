@@ -0,0 +1,23 @@
+package com.irembo.certify.pdf;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * Turns renderer saturation into an immediate 503 with a {@code Retry-After} hint.
+ */
+@RestControllerAdvice
+public class RenderRejectedExceptionHandler {
+
+    @ExceptionHandler(RenderRejectedException.class)
+    public ResponseEntity<ProblemDetail> handle(RenderRejectedException ex) {
+        ProblemDetail problem = ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE, ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(ex.getRetryAfter().toSeconds()))
+                .body(problem);
+    }
+}
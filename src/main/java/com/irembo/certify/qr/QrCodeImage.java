@@ -0,0 +1,52 @@
+package com.irembo.certify.qr;
+
+import java.util.function.Supplier;
+
+/**
+ * A QR code placeholder value.
+ * <p>
+ * Rendered as text (for instance by the string template path) it is the PNG data URL,
+ * which is only generated on first use. When {@link #vector()} is set, the template
+ * renderer draws an {@code <img>} bound to it as vector paths instead, so the data URL is
+ * never built at all.
+ */
+public final class QrCodeImage {
+
+    private final String content;
+    private final int size;
+    private final boolean vector;
+    private final Supplier<String> dataUrlSupplier;
+    private volatile String dataUrl;
+
+    public QrCodeImage(String content, int size, boolean vector, Supplier<String> dataUrlSupplier) {
+        this.content = content;
+        this.size = size;
+        this.vector = vector;
+        this.dataUrlSupplier = dataUrlSupplier;
+    }
+
+    public String content() {
+        return content;
+    }
+
+    /**
+     * Default edge length in CSS pixels, used when the template doesn't size the image.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean vector() {
+        return vector;
+    }
+
+    @Override
+    public String toString() {
+        String url = dataUrl;
+        if (url == null) {
+            url = dataUrlSupplier.get();
+            dataUrl = url;
+        }
+        return url;
+    }
+}
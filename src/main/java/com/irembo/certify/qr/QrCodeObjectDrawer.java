@@ -0,0 +1,84 @@
+package com.irembo.certify.qr;
+
+import com.google.zxing.common.BitMatrix;
+import com.openhtmltopdf.css.parser.FSRGBColor;
+import com.openhtmltopdf.extend.FSObjectDrawer;
+import com.openhtmltopdf.extend.OutputDevice;
+import com.openhtmltopdf.render.RenderingContext;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Element;
+
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.util.Map;
+
+/**
+ * Draws {@code <object type="application/x-certify-qr" data-content="...">} elements as a
+ * single filled PDF path built from the QR matrix, one rectangle per horizontal run of
+ * dark modules. The code is centred in the element's box and scales without blurring.
+ */
+@Component
+public class QrCodeObjectDrawer implements FSObjectDrawer {
+
+    public static final String OBJECT_TYPE = "application/x-certify-qr";
+    public static final String CONTENT_ATTRIBUTE = "data-content";
+
+    private static final FSRGBColor DARK = new FSRGBColor(0, 0, 0);
+
+    private final QrCodeService qrCodeService;
+
+    public QrCodeObjectDrawer(QrCodeService qrCodeService) {
+        this.qrCodeService = qrCodeService;
+    }
+
+    @Override
+    public Map<Shape, String> drawObject(
+            Element e,
+            double x,
+            double y,
+            double width,
+            double height,
+            OutputDevice outputDevice,
+            RenderingContext ctx,
+            int dotsPerPixel
+    ) {
+        String content = e.getAttribute(CONTENT_ATTRIBUTE);
+        if (content.isEmpty()) {
+            return null;
+        }
+        outputDevice.setColor(DARK);
+        outputDevice.fill(toPath(qrCodeService.encode(content), x, y, width, height));
+        return null;
+    }
+
+    static Path2D toPath(BitMatrix matrix, double x, double y, double width, double height) {
+        double module = Math.min(width / matrix.getWidth(), height / matrix.getHeight());
+        double left = x + (width - module * matrix.getWidth()) / 2;
+        double top = y + (height - module * matrix.getHeight()) / 2;
+
+        Path2D.Double path = new Path2D.Double();
+        for (int row = 0; row < matrix.getHeight(); row++) {
+            int col = 0;
+            while (col < matrix.getWidth()) {
+                if (!matrix.get(col, row)) {
+                    col++;
+                    continue;
+                }
+                int start = col;
+                while (col < matrix.getWidth() && matrix.get(col, row)) {
+                    col++;
+                }
+                double x0 = left + start * module;
+                double y0 = top + row * module;
+                double x1 = left + col * module;
+                double y1 = y0 + module;
+                path.moveTo(x0, y0);
+                path.lineTo(x1, y0);
+                path.lineTo(x1, y1);
+                path.lineTo(x0, y1);
+                path.closePath();
+            }
+        }
+        return path;
+    }
+}
@@ -0,0 +1,20 @@
+package com.irembo.certify.qr;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * How QR codes are embedded in certificates.
+ * <p>
+ * In {@code vector} mode a template's {@code <img src="${qrCodeImage}">} is drawn as PDF
+ * path operations straight from the QR matrix; {@code png} embeds a PNG data URL as before.
+ * Any other use of {@code ${qrCodeImage}} always gets the data URL.
+ */
+@ConfigurationProperties(prefix = "certify.qr")
+public record QrCodeProperties(@DefaultValue("vector") Mode mode) {
+
+    public enum Mode {
+        PNG,
+        VECTOR
+    }
+}
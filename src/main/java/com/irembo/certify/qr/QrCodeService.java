@@ -6,46 +6,63 @@ import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
 import org.springframework.stereotype.Component;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 
 @Component
 public class QrCodeService {
 
+    private static final String DATA_URL_PREFIX = "data:image/png;base64,";
+
+    private static final ThreadLocal<QrPngEncoder> ENCODERS = ThreadLocal.withInitial(QrPngEncoder::new);
+
+    private final QrCodeProperties properties;
+
+    public QrCodeService(QrCodeProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * A placeholder value for a QR code of {@code content}, drawn as vector paths or
+     * embedded as a PNG depending on {@code certify.qr.mode}.
+     */
+    public QrCodeImage image(String content, int size) {
+        return new QrCodeImage(
+                content,
+                size,
+                properties.mode() == QrCodeProperties.Mode.VECTOR,
+                () -> generateDataUrl(content, size)
+        );
+    }
+
     /**
      * Create a small PNG QR code for the given content and return it as a
      * {@code data:image/png;base64,...} data URL suitable for embedding into HTML.
+     * <p>
+     * The image is a 1-bit PNG exactly {@code size} pixels square, so templates that rely
+     * on its natural size keep their layout. Modules are scaled by a whole number of pixels
+     * to stay sharp however the PDF scales them, and the remainder widens the white quiet
+     * zone. A {@code size} smaller than the code gives one pixel per module.
      */
     public String generateDataUrl(String content, int size) {
+        BitMatrix matrix = encode(content);
+        int side = Math.max(size, matrix.getWidth());
+
+        QrPngEncoder encoder = ENCODERS.get();
+        int length = encoder.encode(matrix, side / matrix.getWidth(), side);
+        ByteBuffer base64 = Base64.getEncoder().encode(ByteBuffer.wrap(encoder.buffer(), 0, length));
+        return DATA_URL_PREFIX + StandardCharsets.ISO_8859_1.decode(base64);
+    }
+
+    /**
+     * The QR code for {@code content} at one bit per module, including the quiet zone.
+     */
+    public BitMatrix encode(String content) {
         try {
-            QRCodeWriter writer = new QRCodeWriter();
-            BitMatrix matrix = writer.encode(content, BarcodeFormat.QR_CODE, size, size);
-
-            BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
-            Graphics2D graphics = image.createGraphics();
-            graphics.setColor(Color.WHITE);
-            graphics.fillRect(0, 0, size, size);
-            graphics.setColor(Color.BLACK);
-
-            for (int x = 0; x < size; x++) {
-                for (int y = 0; y < size; y++) {
-                    if (matrix.get(x, y)) {
-                        graphics.fillRect(x, y, 1, 1);
-                    }
-                }
-            }
-            graphics.dispose();
-
-            try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-                ImageIO.write(image, "PNG", baos);
-                String base64 = Base64.getEncoder().encodeToString(baos.toByteArray());
-                return "data:image/png;base64," + base64;
-            }
-        } catch (WriterException | IOException e) {
+            // A 0x0 target size makes zxing return the matrix at module resolution.
+            return new QRCodeWriter().encode(content, BarcodeFormat.QR_CODE, 0, 0);
+        } catch (WriterException e) {
             throw new IllegalStateException("Failed to generate QR code image", e);
         }
     }
@@ -0,0 +1,188 @@
+package com.irembo.certify.qr;
+
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a {@link BitMatrix} as a 1-bit grayscale PNG without going through Java2D.
+ * <p>
+ * Each module becomes a {@code scale}×{@code scale} block of pixels, centred in a white
+ * square of {@code side} pixels. Every row uses the PNG "Up" filter, so the repeated rows
+ * inside a module row, and the white margin, deflate to almost nothing and upscaling
+ * costs little beyond the deflate pass. One instance holds its buffers and
+ * {@link Deflater} for reuse, so instances must not be shared between threads.
+ */
+final class QrPngEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+    private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+    private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+
+    private static final byte FILTER_UP = 2;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final CRC32 crc = new CRC32();
+    private BitArray matrixRow = new BitArray(0);
+    private byte[] line = new byte[0];
+    private byte[] previousLine = new byte[0];
+    private byte[] raw = new byte[0];
+    private byte[] out = new byte[1024];
+    private int length;
+
+    /**
+     * Encode {@code matrix} and return the number of bytes written to {@link #buffer()}.
+     * {@code side} must be at least the matrix size times {@code scale}.
+     */
+    int encode(BitMatrix matrix, int scale, int side) {
+        int rowBytes = (side + 7) >>> 3;
+        int stride = rowBytes + 1;
+
+        fillRaw(matrix, scale, side, rowBytes, stride);
+
+        length = 0;
+        ensureCapacity(SIGNATURE.length + 25);
+        write(SIGNATURE, 0, SIGNATURE.length);
+
+        int ihdrStart = beginChunk(13, IHDR);
+        writeInt(side);
+        writeInt(side);
+        writeByte(1); // bit depth
+        writeByte(0); // grayscale
+        writeByte(0); // deflate
+        writeByte(0); // adaptive filtering
+        writeByte(0); // no interlace
+        endChunk(ihdrStart);
+
+        deflater.reset();
+        deflater.setInput(raw, 0, stride * side);
+        deflater.finish();
+        ensureCapacity(length + 8);
+        int idatStart = beginChunk(0, IDAT);
+        while (!deflater.finished()) {
+            ensureCapacity(length + 256 + 12);
+            length += deflater.deflate(out, length, out.length - length - 12);
+        }
+        int idatLength = length - idatStart - 8;
+        writeIntAt(idatStart, idatLength);
+        endChunk(idatStart);
+
+        ensureCapacity(length + 12);
+        int iendStart = beginChunk(0, IEND);
+        endChunk(iendStart);
+        return length;
+    }
+
+    /**
+     * The encoded PNG; valid up to the length returned by the last {@link #encode} call.
+     */
+    byte[] buffer() {
+        return out;
+    }
+
+    private void fillRaw(BitMatrix matrix, int scale, int side, int rowBytes, int stride) {
+        int size = stride * side;
+        if (raw.length < size) {
+            raw = new byte[size];
+        }
+        if (line.length < rowBytes) {
+            line = new byte[rowBytes];
+            previousLine = new byte[rowBytes];
+        }
+        // The row above the first one counts as zero for the Up filter.
+        Arrays.fill(previousLine, 0, rowBytes, (byte) 0);
+        // Centred the way zxing pads a code to a requested size.
+        int margin = (side - matrix.getWidth() * scale) / 2;
+
+        // PNG grayscale: 1 = white.
+        Arrays.fill(line, 0, rowBytes, (byte) 0xff);
+        int offset = appendRows(0, margin, rowBytes, stride);
+        for (int y = 0; y < matrix.getHeight(); y++) {
+            matrixRow = matrix.getRow(y, matrixRow);
+            int[] bits = matrixRow.getBitArray();
+
+            // Start white and clear the bits of dark modules.
+            Arrays.fill(line, 0, rowBytes, (byte) 0xff);
+            int pixel = margin;
+            for (int x = 0; x < matrix.getWidth(); x++, pixel += scale) {
+                if ((bits[x >>> 5] & (1 << (x & 31))) != 0) {
+                    for (int p = pixel; p < pixel + scale; p++) {
+                        line[p >>> 3] &= (byte) ~(0x80 >>> (p & 7));
+                    }
+                }
+            }
+            offset = appendRows(offset, scale, rowBytes, stride);
+        }
+        Arrays.fill(line, 0, rowBytes, (byte) 0xff);
+        appendRows(offset, side - margin - matrix.getHeight() * scale, rowBytes, stride);
+    }
+
+    /**
+     * Append {@code count} copies of {@code line} at {@code offset} and return the offset
+     * after them. Only the first differs from the row above; the others filter to zero.
+     */
+    private int appendRows(int offset, int count, int rowBytes, int stride) {
+        if (count == 0) {
+            return offset;
+        }
+        raw[offset] = FILTER_UP;
+        for (int i = 0; i < rowBytes; i++) {
+            raw[offset + 1 + i] = (byte) (line[i] - previousLine[i]);
+        }
+        offset += stride;
+        for (int s = 1; s < count; s++, offset += stride) {
+            raw[offset] = FILTER_UP;
+            Arrays.fill(raw, offset + 1, offset + stride, (byte) 0);
+        }
+
+        byte[] swap = previousLine;
+        previousLine = line;
+        line = swap;
+        return offset;
+    }
+
+    private int beginChunk(int dataLength, byte[] type) {
+        int start = length;
+        writeInt(dataLength);
+        write(type, 0, type.length);
+        return start;
+    }
+
+    private void endChunk(int chunkStart) {
+        crc.reset();
+        crc.update(out, chunkStart + 4, length - chunkStart - 4);
+        ensureCapacity(length + 4);
+        writeInt((int) crc.getValue());
+    }
+
+    private void writeInt(int value) {
+        writeIntAt(length, value);
+        length += 4;
+    }
+
+    private void writeIntAt(int position, int value) {
+        out[position] = (byte) (value >>> 24);
+        out[position + 1] = (byte) (value >>> 16);
+        out[position + 2] = (byte) (value >>> 8);
+        out[position + 3] = (byte) value;
+    }
+
+    private void writeByte(int value) {
+        out[length++] = (byte) value;
+    }
+
+    private void write(byte[] bytes, int offset, int count) {
+        System.arraycopy(bytes, offset, out, length, count);
+        length += count;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (out.length < capacity) {
+            out = Arrays.copyOf(out, Math.max(capacity, out.length * 2));
+        }
+    }
+}
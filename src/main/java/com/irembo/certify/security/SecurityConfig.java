@@ -46,7 +46,8 @@ public class SecurityConfig {
                                 "/api/health",
                                 "/api/auth/login",
                                 "/public/**",
-                                "/actuator/health"
+                                "/actuator/health",
+                                "/actuator/health/**"
                         ).permitAll()
                         .anyRequest().authenticated()
                 )
@@ -0,0 +1,13 @@
+package com.irembo.certify.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Produces the content of a stored file by writing it to the given stream.
+ */
+@FunctionalInterface
+public interface ContentWriter {
+
+    void writeTo(OutputStream out) throws IOException;
+}
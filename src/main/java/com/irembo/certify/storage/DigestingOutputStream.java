@@ -0,0 +1,54 @@
+package com.irembo.certify.storage;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Updates a SHA-256 digest and counts bytes on their way to the underlying stream.
+ */
+final class DigestingOutputStream extends FilterOutputStream {
+
+    private final MessageDigest digest;
+    private long count;
+
+    DigestingOutputStream(OutputStream out) {
+        super(out);
+        this.digest = sha256();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        digest.update((byte) b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        digest.update(b, off, len);
+        count += len;
+    }
+
+    long count() {
+        return count;
+    }
+
+    /**
+     * The digest of everything written so far; call once, after the last write.
+     */
+    byte[] digest() {
+        return digest.digest();
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
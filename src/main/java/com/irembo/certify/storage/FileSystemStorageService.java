@@ -2,61 +2,264 @@ package com.irembo.certify.storage;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.HexFormat;
 import java.util.UUID;
 
+/**
+ * Stores certificate PDFs on the local file system.
+ * <p>
+ * With the {@code content-addressed} layout a PDF lives at
+ * {@code cas/<h0h1>/<h2h3>/<sha256>.pdf}: two levels of 256 prefix directories keep every
+ * directory small however many certificates there are, and identical PDFs are stored
+ * once. The older {@code tenant} layout, {@code <tenantId>/<certificateId>.pdf}, is still
+ * written when configured and is always readable; storage paths are relative to the
+ * root either way.
+ */
 @Component
-public class FileSystemStorageService {
+public class FileSystemStorageService implements StorageService {
 
     private static final Logger log = LoggerFactory.getLogger(FileSystemStorageService.class);
 
+    static final String CAS_DIR = "cas";
+    static final String TEMP_DIR = "tmp";
+    static final int BUFFER_SIZE = 64 * 1024;
+
     private final Path rootPath;
+    private final StorageProperties.Layout layout;
 
-    public FileSystemStorageService(@Value("${certify.storage.base-path:storage}") String basePath) {
-        this.rootPath = Paths.get(basePath).toAbsolutePath().normalize();
+    public FileSystemStorageService(StorageProperties properties) {
+        this.rootPath = Paths.get(properties.basePath()).toAbsolutePath().normalize();
+        this.layout = properties.layout();
         try {
-            Files.createDirectories(this.rootPath);
+            Files.createDirectories(this.rootPath.resolve(TEMP_DIR));
         } catch (IOException e) {
             throw new IllegalStateException("Failed to create storage directory " + this.rootPath, e);
         }
     }
 
     /**
-     * Persist the certificate PDF to disk and return a tenant-relative storage path,
-     * e.g. {@code tenantId/certificateId.pdf}. The returned value is what we store
-     * on the {@code Certificate} entity.
+     * Stream a certificate PDF to disk and return where it was stored, together with its
+     * SHA-256. The storage path is what we store on the {@code Certificate} entity.
+     * <p>
+     * The content is hashed as it is written to a temporary file, which is synced to disk
+     * and then atomically renamed into place; readers never see a partial file, not even
+     * after a crash, and nothing is buffered in memory beyond the stream buffer. In the content-addressed layout a PDF that is
+     * already stored is not written a second time.
      */
-    public String save(UUID tenantId, UUID certificateId, byte[] pdfBytes) {
+    @Override
+    public StoredFile write(UUID tenantId, UUID certificateId, ContentWriter writer) {
+        Path temp = null;
         try {
-            Path tenantDir = rootPath.resolve(tenantId.toString());
-            Files.createDirectories(tenantDir);
+            temp = Files.createTempFile(rootPath.resolve(TEMP_DIR), certificateId.toString(), ".tmp");
+
+            long size;
+            String sha256;
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+                 DigestingOutputStream out = new DigestingOutputStream(
+                         new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE))) {
+                writer.writeTo(out);
+                out.flush();
+                channel.force(true);
+                size = out.count();
+                sha256 = HexFormat.of().formatHex(out.digest());
+            }
 
-            Path file = tenantDir.resolve(certificateId.toString() + ".pdf");
-            Files.write(file, pdfBytes);
+            Path file = layout == StorageProperties.Layout.CONTENT_ADDRESSED
+                    ? contentAddressedPath(sha256)
+                    : rootPath.resolve(tenantId.toString()).resolve(certificateId + ".pdf");
+            publish(temp, file, layout == StorageProperties.Layout.TENANT);
+            temp = null;
 
-            String relativePath = rootPath.relativize(file).toString().replace('\\', '/');
-            log.debug("Stored certificate PDF at {}", file);
-            return relativePath;
+            log.debug("Stored certificate PDF at {} ({} bytes)", file, size);
+            return new StoredFile(relativize(file), sha256, size);
         } catch (IOException e) {
             throw new IllegalStateException("Failed to store certificate PDF", e);
+        } finally {
+            if (temp != null) {
+                deleteQuietly(temp);
+            }
         }
     }
 
-    public byte[] load(String storagePath) {
+    /**
+     * Make an existing PDF available in the content-addressed layout and return its new
+     * location. The original file is left in place; callers delete it once nothing refers
+     * to it any more. Paths that are already content-addressed are returned as they are.
+     *
+     * @param expectedSha256 the hash the file should have, or {@code null} to accept any;
+     *                       a file that does not match is not published
+     * @throws IllegalStateException if the file cannot be read, does not match
+     *                               {@code expectedSha256}, or cannot be linked into place
+     */
+    public StoredFile moveToContentAddressed(String storagePath, String expectedSha256) {
+        Path source = resolve(storagePath);
         try {
-            Path file = rootPath.resolve(storagePath).normalize();
-            if (!Files.exists(file)) {
-                throw new IllegalStateException("Stored certificate not found at " + file);
+            MessageDigest digest = DigestingOutputStream.sha256();
+            long size = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = Files.newInputStream(source)) {
+                for (int read; (read = in.read(buffer)) >= 0; size += read) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            String sha256 = HexFormat.of().formatHex(digest.digest());
+            if (expectedSha256 != null && !expectedSha256.equals(sha256)) {
+                throw new IllegalStateException("Stored certificate PDF " + storagePath
+                        + " does not match its recorded hash");
             }
-            return Files.readAllBytes(file);
+            if (isContentAddressed(storagePath)) {
+                return new StoredFile(storagePath, sha256, size);
+            }
+
+            Path target = contentAddressedPath(sha256);
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                Path temp = Files.createTempFile(rootPath.resolve(TEMP_DIR), sha256, ".tmp");
+                try {
+                    // A hard link avoids copying the data; fall back to a copy across file systems.
+                    Files.delete(temp);
+                    try {
+                        Files.createLink(temp, source);
+                    } catch (IOException | UnsupportedOperationException e) {
+                        Files.copy(source, temp);
+                    }
+                    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                        channel.force(true);
+                    }
+                    publish(temp, target, false);
+                    temp = null;
+                } finally {
+                    if (temp != null) {
+                        deleteQuietly(temp);
+                    }
+                }
+            }
+            return new StoredFile(relativize(target), sha256, size);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to move stored certificate PDF " + storagePath, e);
+        }
+    }
+
+    public static boolean isContentAddressed(String storagePath) {
+        return storagePath.startsWith(CAS_DIR + "/");
+    }
+
+    /**
+     * Open a stored PDF for streaming. Nothing is read until the returned resource's
+     * stream or channel is used, so the file can be served in constant memory.
+     */
+    @Override
+    public Resource open(String storagePath) {
+        Path file = resolve(storagePath);
+        if (!Files.isRegularFile(file)) {
+            throw new IllegalStateException("Stored certificate not found at " + file);
+        }
+        return new FileSystemResource(file);
+    }
+
+    @Override
+    public boolean exists(String storagePath) {
+        return Files.isRegularFile(resolve(storagePath));
+    }
+
+    /**
+     * Remove a stored PDF, e.g. when the certificate it belongs to could not be
+     * finalized. Missing files are ignored. Content-addressed files may be shared, so
+     * callers must make sure no other certificate refers to the path.
+     */
+    @Override
+    public void delete(String storagePath) {
+        try {
+            Files.deleteIfExists(resolve(storagePath));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to delete stored certificate PDF", e);
+        }
+    }
+
+    private Path resolve(String storagePath) {
+        Path file = rootPath.resolve(storagePath).normalize();
+        if (!file.startsWith(rootPath)) {
+            throw new IllegalStateException("Stored certificate not found at " + file);
+        }
+        return file;
+    }
+
+    private Path contentAddressedPath(String sha256) {
+        return rootPath.resolve(CAS_DIR)
+                .resolve(sha256.substring(0, 2))
+                .resolve(sha256.substring(2, 4))
+                .resolve(sha256 + ".pdf");
+    }
+
+    /**
+     * Atomically rename {@code temp}, whose content must already be synced, to
+     * {@code file}. Unless {@code replace} is set, an existing {@code file} wins and
+     * {@code temp} is discarded: for content-addressed files it has the same content.
+     * The directory entries are synced too, so a published file survives a crash.
+     */
+    private static void publish(Path temp, Path file, boolean replace) throws IOException {
+        Path parent = file.getParent();
+        Path existing = parent;
+        while (!Files.isDirectory(existing)) {
+            existing = existing.getParent();
+        }
+        Files.createDirectories(parent);
+        if (!replace && Files.exists(file)) {
+            Files.delete(temp);
+            return;
+        }
+        try {
+            if (replace) {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (FileAlreadyExistsException e) {
+            // Another writer stored the same content first.
+            Files.delete(temp);
+            return;
+        }
+        // The new entry, and the entries of any directories created for it.
+        for (Path directory = parent; !directory.equals(existing.getParent()); directory = directory.getParent()) {
+            syncDirectory(directory);
+        }
+    }
+
+    private static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Directories can't be opened for syncing on every platform (e.g. Windows).
+            log.debug("Cannot sync directory {}", directory);
+        }
+    }
+
+    private String relativize(Path file) {
+        return rootPath.relativize(file).toString().replace('\\', '/');
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
         } catch (IOException e) {
-            throw new IllegalStateException("Failed to read stored certificate PDF", e);
+            log.warn("Failed to delete temporary file {}", file, e);
         }
     }
 }
@@ -0,0 +1,109 @@
+package com.irembo.certify.storage;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams an object into S3 with at most one part buffered in memory.
+ * <p>
+ * Content that fits in a single part is sent with one {@code PutObject} when
+ * {@link #complete()} is called; anything larger switches to a multipart upload on the
+ * first full part. Closing the stream does not publish anything: callers must call
+ * {@link #complete()} on success and {@link #abort()} on failure.
+ */
+final class MultipartUploadOutputStream extends OutputStream {
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final S3Client s3;
+    private final String bucket;
+    private final String key;
+    private final int partSize;
+
+    private byte[] buffer;
+    private int count;
+    private String uploadId;
+    private final List<CompletedPart> parts = new ArrayList<>();
+
+    MultipartUploadOutputStream(S3Client s3, String bucket, String key, int partSize) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.key = key;
+        this.partSize = partSize;
+        this.buffer = new byte[Math.min(INITIAL_BUFFER_SIZE, partSize)];
+    }
+
+    @Override
+    public void write(int b) {
+        ensureSpace();
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            ensureSpace();
+            int chunk = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, chunk);
+            count += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    /**
+     * Publish the object.
+     */
+    void complete() {
+        if (uploadId == null) {
+            s3.putObject(request -> request.bucket(bucket).key(key).contentType("application/pdf"),
+                    RequestBody.fromInputStream(new ByteArrayInputStream(buffer, 0, count), count));
+            return;
+        }
+        if (count > 0) {
+            uploadPart();
+        }
+        s3.completeMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId)
+                .multipartUpload(upload -> upload.parts(parts)));
+    }
+
+    /**
+     * Discard everything uploaded so far.
+     */
+    void abort() {
+        if (uploadId != null) {
+            s3.abortMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId));
+        }
+    }
+
+    private void ensureSpace() {
+        if (count < buffer.length) {
+            return;
+        }
+        if (buffer.length < partSize) {
+            buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length * 2, partSize));
+            return;
+        }
+        if (uploadId == null) {
+            uploadId = s3.createMultipartUpload(request -> request.bucket(bucket).key(key)
+                    .contentType("application/pdf")).uploadId();
+        }
+        uploadPart();
+    }
+
+    private void uploadPart() {
+        int partNumber = parts.size() + 1;
+        String eTag = s3.uploadPart(request -> request.bucket(bucket).key(key).uploadId(uploadId)
+                        .partNumber(partNumber).contentLength((long) count),
+                RequestBody.fromInputStream(new ByteArrayInputStream(buffer, 0, count), count)).eTag();
+        parts.add(CompletedPart.builder().partNumber(partNumber).eTag(eTag).build());
+        count = 0;
+    }
+}
@@ -0,0 +1,639 @@
+package com.irembo.certify.storage;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Stores certificate PDFs appended to large segment files instead of one file each.
+ * <p>
+ * Segments live at {@code packs/segment-<n>.pack} under the storage root. Every record
+ * is a fixed header (magic, flags, SHA-256, length) followed by the PDF; a delete appends
+ * a tombstone header. The in-memory index from SHA-256 to segment, offset and length is
+ * rebuilt by scanning the headers at start-up, and a torn record at the end of the last
+ * segment is truncated away. Identical PDFs are stored once.
+ * <p>
+ * The storage path is {@code pack/<sha256>}, resolved through the index, so compaction
+ * can move records between segments without touching the database. Reads are served
+ * from read-only memory-mapped slices of the segment. The active segment is mapped at
+ * its full segment size up front, so reads of freshly appended records don't remap it;
+ * mapping extends the file, and the unused tail is trimmed when the segment is sealed.
+ * <p>
+ * Sealed segments whose live fraction drops below the configured threshold are rewritten
+ * in the background: live records are copied to a new file without holding the write
+ * lock, which then replaces the segment under the same id, so records keep their place
+ * in the recovery order. The lock is only taken to swap the index entries.
+ * <p>
+ * The pack backend is single-node only: the index lives in memory and appends are only
+ * coordinated within this process, so two processes sharing a pack directory would
+ * overwrite each other's records and miss each other's writes. An exclusive lock on
+ * {@code packs/owner.lock} is taken at start-up, which fails if another process holds it.
+ * <p>
+ * Paths written by {@link FileSystemStorageService} are still readable and deletable.
+ */
+@Component
+@Primary
+@ConditionalOnProperty(prefix = "certify.storage", name = "backend", havingValue = "pack")
+public class PackFileStorageService implements StorageService {
+
+    private static final Logger log = LoggerFactory.getLogger(PackFileStorageService.class);
+
+    static final String PATH_PREFIX = "pack/";
+    static final String PACK_DIR = "packs";
+    private static final String COMPACTING_SUFFIX = ".compacting";
+    private static final String LOCK_FILE = "owner.lock";
+
+    private static final int MAGIC = 0x43504b31; // "CPK1"
+    private static final byte LIVE = 0;
+    private static final byte TOMBSTONE = 1;
+    private static final int HASH_SIZE = 32;
+    static final int HEADER_SIZE = 4 + 1 + HASH_SIZE + 8;
+    // Segments are mapped whole, and a mapping is limited to 2 GB.
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    private final FileSystemStorageService fileSystem;
+    private final Path packPath;
+    private final Path tempPath;
+    private final long segmentSize;
+    private final double compactionThreshold;
+    private final FileChannel ownerLock;
+
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private Segment active; // guarded by writeLock
+
+    private final ScheduledExecutorService compactor;
+
+    public PackFileStorageService(StorageProperties properties, FileSystemStorageService fileSystem) {
+        this.fileSystem = fileSystem;
+        Path rootPath = Paths.get(properties.basePath()).toAbsolutePath().normalize();
+        this.packPath = rootPath.resolve(PACK_DIR);
+        this.tempPath = rootPath.resolve(FileSystemStorageService.TEMP_DIR);
+        StorageProperties.Pack pack = properties.pack();
+        this.segmentSize = Math.min(pack.segmentSize().toBytes(), MAX_SEGMENT_SIZE);
+        this.compactionThreshold = pack.compactionThreshold();
+        try {
+            Files.createDirectories(packPath);
+            Files.createDirectories(tempPath);
+            this.ownerLock = lockPackDirectory(packPath);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open pack storage at " + packPath, e);
+        }
+        try {
+            recover();
+        } catch (IOException e) {
+            closeQuietly(ownerLock);
+            throw new IllegalStateException("Failed to open pack storage at " + packPath, e);
+        } catch (RuntimeException e) {
+            closeQuietly(ownerLock);
+            throw e;
+        }
+
+        long interval = pack.compactionInterval().toMillis();
+        if (interval > 0) {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("pack-compactor").daemon(true).factory());
+            this.compactor.scheduleWithFixedDelay(this::compactQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.compactor = null;
+        }
+    }
+
+    /**
+     * Stream a PDF into the active segment. The content is first spooled to a temporary
+     * file, so it is hashed and measured before the segment is locked, and only complete
+     * records are ever appended.
+     */
+    @Override
+    public StoredFile write(UUID tenantId, UUID certificateId, ContentWriter writer) {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(tempPath, certificateId.toString(), ".tmp");
+
+            long size;
+            byte[] hash;
+            try (DigestingOutputStream out = new DigestingOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp), FileSystemStorageService.BUFFER_SIZE))) {
+                writer.writeTo(out);
+                size = out.count();
+                hash = out.digest();
+            }
+            String sha256 = HexFormat.of().formatHex(hash);
+
+            writeLock.lock();
+            try (FileChannel in = FileChannel.open(temp, StandardOpenOption.READ)) {
+                if (!index.containsKey(sha256)) {
+                    Segment segment = segmentFor(size);
+                    long offset = segment.size;
+                    writeHeader(segment.channel, offset, LIVE, hash, size);
+                    for (long copied = 0; copied < size; ) {
+                        copied += segment.channel.transferFrom(in, offset + HEADER_SIZE + copied, size - copied);
+                    }
+                    segment.channel.force(false);
+                    segment.size = offset + HEADER_SIZE + size;
+                    segment.liveBytes.addAndGet(HEADER_SIZE + size);
+                    index.put(sha256, new Location(segment, offset + HEADER_SIZE, size));
+                }
+            } finally {
+                writeLock.unlock();
+            }
+
+            log.debug("Stored certificate PDF {} in pack storage ({} bytes)", sha256, size);
+            return new StoredFile(PATH_PREFIX + sha256, sha256, size);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to store certificate PDF", e);
+        } finally {
+            if (temp != null) {
+                deleteQuietly(temp);
+            }
+        }
+    }
+
+    /**
+     * Open a stored PDF as a slice of its memory-mapped segment. The slice stays valid
+     * even if the record is compacted away afterwards.
+     */
+    @Override
+    public Resource open(String storagePath) {
+        if (!isPacked(storagePath)) {
+            return fileSystem.open(storagePath);
+        }
+        String sha256 = storagePath.substring(PATH_PREFIX.length());
+        // Retry once: compaction may close a segment between the index lookup and the read.
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Location location = index.get(sha256);
+            if (location == null) {
+                break;
+            }
+            try {
+                return new ByteBufferResource(location.segment().slice(location.offset(), location.length()),
+                        storagePath);
+            } catch (ClosedChannelException e) {
+                // Replaced by compaction; the index points at the new copy now.
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read stored certificate PDF " + storagePath, e);
+            }
+        }
+        throw new IllegalStateException("Stored certificate not found at " + storagePath);
+    }
+
+    /**
+     * Remove a stored PDF by appending a tombstone; the space is reclaimed when its
+     * segment is compacted. Missing content is ignored.
+     */
+    @Override
+    public void delete(String storagePath) {
+        if (!isPacked(storagePath)) {
+            fileSystem.delete(storagePath);
+            return;
+        }
+        String sha256 = storagePath.substring(PATH_PREFIX.length());
+        writeLock.lock();
+        try {
+            Location location = index.get(sha256);
+            if (location == null) {
+                return;
+            }
+            Segment segment = segmentFor(0);
+            writeHeader(segment.channel, segment.size, TOMBSTONE, HexFormat.of().parseHex(sha256), 0);
+            segment.channel.force(false);
+            segment.size += HEADER_SIZE;
+            index.remove(sha256);
+            location.segment().liveBytes.addAndGet(-(HEADER_SIZE + location.length()));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to delete stored certificate PDF", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean exists(String storagePath) {
+        if (!isPacked(storagePath)) {
+            return fileSystem.exists(storagePath);
+        }
+        return index.containsKey(storagePath.substring(PATH_PREFIX.length()));
+    }
+
+    public static boolean isPacked(String storagePath) {
+        return storagePath.startsWith(PATH_PREFIX);
+    }
+
+    /**
+     * Rewrite every sealed segment whose live fraction is below the threshold, keeping
+     * only its live records (and the tombstones older segments still need).
+     */
+    void compact() throws IOException {
+        for (Segment segment : List.copyOf(segments.values())) {
+            if (segment == currentSegment()) {
+                continue;
+            }
+            double liveFraction = segment.size == 0 ? 0 : (double) segment.liveBytes.get() / segment.size;
+            if (liveFraction < compactionThreshold) {
+                compact(segment);
+            }
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        writeLock.lock();
+        try {
+            sealQuietly(active);
+            for (Segment segment : segments.values()) {
+                closeQuietly(segment);
+            }
+            // Closing the channel releases the lock.
+            closeQuietly(ownerLock);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * How many times segments have been memory-mapped, for tests.
+     */
+    int mappings() {
+        return segments.values().stream().mapToInt(segment -> segment.mappings).sum();
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Pack segment compaction failed", e);
+        }
+    }
+
+    private void compact(Segment segment) throws IOException {
+        // Tombstones only matter while an older segment may still hold the record they kill.
+        boolean olderSegments = segments.firstKey() < segment.id;
+        Path compacted = segment.file.resolveSibling(segment.file.getFileName() + COMPACTING_SUFFIX);
+        List<CopiedRecord> copied = new ArrayList<>();
+        long size = 0;
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = 0;
+            while (position < segment.size) {
+                Header header = readHeader(segment.channel, position);
+                long dataOffset = position + HEADER_SIZE;
+                String sha256 = HexFormat.of().formatHex(header.hash());
+                Location location = new Location(segment, dataOffset, header.length());
+                if (header.flags() == LIVE && location.equals(index.get(sha256))) {
+                    writeHeader(out, size, LIVE, header.hash(), header.length());
+                    out.position(size + HEADER_SIZE);
+                    for (long transferred = 0; transferred < header.length(); ) {
+                        transferred += segment.channel.transferTo(dataOffset + transferred,
+                                header.length() - transferred, out);
+                    }
+                    copied.add(new CopiedRecord(sha256, location, size + HEADER_SIZE));
+                    size += HEADER_SIZE + header.length();
+                } else if (header.flags() == TOMBSTONE && olderSegments && !index.containsKey(sha256)) {
+                    writeHeader(out, size, TOMBSTONE, header.hash(), 0);
+                    size += HEADER_SIZE;
+                }
+                position = dataOffset + header.length();
+            }
+            out.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(compacted);
+            throw e;
+        }
+
+        // A record deleted while it was being copied keeps its stale copy, which the
+        // tombstone in a later segment still overrides on recovery.
+        long moved = 0;
+        writeLock.lock();
+        try {
+            if (size == 0) {
+                segments.remove(segment.id);
+                Files.deleteIfExists(compacted);
+                Files.deleteIfExists(segment.file);
+            } else {
+                Files.move(compacted, segment.file, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                Segment replacement = new Segment(segment.id, segment.file,
+                        FileChannel.open(segment.file, StandardOpenOption.READ), 0);
+                replacement.size = size;
+                for (CopiedRecord record : copied) {
+                    Location location = new Location(replacement, record.offset(), record.from().length());
+                    if (index.replace(record.sha256(), record.from(), location)) {
+                        replacement.liveBytes.addAndGet(HEADER_SIZE + location.length());
+                        moved++;
+                    }
+                }
+                segments.put(segment.id, replacement);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        // Slices handed out earlier keep their mapping after the channel is closed.
+        closeQuietly(segment);
+        log.info("Compacted pack segment {}: kept {} live records", segment.file.getFileName(), moved);
+    }
+
+    /**
+     * Rebuild the index from the segment headers, oldest segment first, so later
+     * records and tombstones win.
+     */
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        List<Path> unfinished = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(packPath)) {
+            listing.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.matches("segment-\\d+\\.pack")) {
+                    files.add(file);
+                } else if (name.endsWith(COMPACTING_SUFFIX)) {
+                    unfinished.add(file);
+                }
+            });
+        }
+        files.sort(null);
+        // Compactions cut short before they replaced their segment.
+        for (Path file : unfinished) {
+            Files.deleteIfExists(file);
+        }
+
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            boolean last = i == files.size() - 1;
+            FileChannel channel = last
+                    ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(file, StandardOpenOption.READ);
+            Segment segment = new Segment(segmentId(file), file, channel, last ? segmentSize : 0);
+            segments.put(segment.id, segment);
+            segment.size = scan(segment, last);
+        }
+
+        if (segments.isEmpty()) {
+            active = createSegment(0);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+        log.info("Opened pack storage with {} segments and {} stored PDFs", segments.size(), index.size());
+    }
+
+    private long scan(Segment segment, boolean last) throws IOException {
+        long fileSize = segment.channel.size();
+        long position = 0;
+        while (position < fileSize) {
+            Header header = position + HEADER_SIZE <= fileSize ? readHeader(segment.channel, position) : null;
+            if (header != null && header.magic() == 0 && header.length() == 0) {
+                // The zero-filled tail that mapping the active segment left behind.
+                if (last) {
+                    segment.channel.truncate(position);
+                }
+                break;
+            }
+            if (header == null || header.magic() != MAGIC
+                    || position + HEADER_SIZE + header.length() > fileSize || header.length() < 0) {
+                if (!last) {
+                    throw new IllegalStateException("Corrupt pack segment " + segment.file + " at offset " + position);
+                }
+                // A write that was cut short; it was never acknowledged, so drop it.
+                log.warn("Truncating torn record at offset {} of pack segment {}", position, segment.file);
+                segment.channel.truncate(position);
+                segment.channel.force(true);
+                break;
+            }
+
+            String sha256 = HexFormat.of().formatHex(header.hash());
+            Location previous = header.flags() == LIVE
+                    ? index.put(sha256, new Location(segment, position + HEADER_SIZE, header.length()))
+                    : index.remove(sha256);
+            if (previous != null) {
+                previous.segment().liveBytes.addAndGet(-(HEADER_SIZE + previous.length()));
+            }
+            if (header.flags() == LIVE) {
+                segment.liveBytes.addAndGet(HEADER_SIZE + header.length());
+            }
+            position += HEADER_SIZE + header.length();
+        }
+        return position;
+    }
+
+    private Segment currentSegment() {
+        writeLock.lock();
+        try {
+            return active;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * The segment to append a record of {@code length} bytes to, sealing the active
+     * segment first if the record would take it past the segment size. Must hold the
+     * write lock.
+     */
+    private Segment segmentFor(long length) throws IOException {
+        long recordSize = HEADER_SIZE + length;
+        if (recordSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalStateException("PDF of " + length + " bytes is too large for pack storage");
+        }
+        if (active.size > 0 && active.size + recordSize > segmentSize) {
+            active.seal();
+            active.channel.force(true);
+            active = createSegment(active.id + 1);
+        }
+        return active;
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        Path file = packPath.resolve(String.format("segment-%06d.pack", id));
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, file, channel, segmentSize);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static void writeHeader(FileChannel channel, long position, byte flags, byte[] hash, long length)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .put(flags)
+                .put(hash)
+                .putLong(length)
+                .flip();
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+    }
+
+    private static Header readHeader(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of pack segment at offset " + position);
+            }
+        }
+        buffer.flip();
+        int magic = buffer.getInt();
+        byte flags = buffer.get();
+        byte[] hash = new byte[HASH_SIZE];
+        buffer.get(hash);
+        return new Header(magic, flags, hash, buffer.getLong());
+    }
+
+    private static int segmentId(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring("segment-".length(), name.length() - ".pack".length()));
+    }
+
+    private static void sealQuietly(Segment segment) {
+        try {
+            if (segment.channel.isOpen()) {
+                segment.seal();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to seal pack segment {}", segment.file, e);
+        }
+    }
+
+    /**
+     * Hold an exclusive lock on the pack directory for as long as the returned channel is open.
+     */
+    private static FileChannel lockPackDirectory(Path packPath) throws IOException {
+        FileChannel channel = FileChannel.open(packPath.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IllegalStateException("Pack storage at " + packPath + " is in use by another process;"
+                    + " the pack backend must not be shared between nodes");
+        }
+        return channel;
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to release pack storage lock", e);
+        }
+    }
+
+    private static void closeQuietly(Segment segment) {
+        try {
+            segment.channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close pack segment {}", segment.file, e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete temporary file {}", file, e);
+        }
+    }
+
+    /**
+     * Where a PDF's bytes live; {@code offset} points past the record header.
+     */
+    private record Location(Segment segment, long offset, long length) {
+    }
+
+    private record CopiedRecord(String sha256, Location from, long offset) {
+    }
+
+    private record Header(int magic, byte flags, byte[] hash, long length) {
+    }
+
+    private static final class Segment {
+
+        private final int id;
+        private final Path file;
+        private final FileChannel channel;
+        // The active segment is mapped this far ahead of its data; 0 once sealed.
+        private long mapSize;
+        private final AtomicLong liveBytes = new AtomicLong();
+        // Appended to under the write lock; fixed once the segment is sealed.
+        private volatile long size;
+        private volatile MappedByteBuffer mapped;
+        private int mappings;
+
+        Segment(int id, Path file, FileChannel channel, long mapSize) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.mapSize = mapSize;
+        }
+
+        /**
+         * Stop mapping ahead and cut the zero-filled tail an earlier mapping left behind.
+         */
+        synchronized void seal() throws IOException {
+            mapSize = 0;
+            if (channel.size() > size) {
+                channel.truncate(size);
+            }
+        }
+
+        /**
+         * A read-only view of {@code length} bytes at {@code offset}. Only a record that
+         * outgrows the segment size, written alone to a fresh segment, needs a remap.
+         */
+        ByteBuffer slice(long offset, long length) throws IOException {
+            MappedByteBuffer buffer = mapped;
+            if (buffer == null || buffer.capacity() < offset + length) {
+                synchronized (this) {
+                    buffer = mapped;
+                    if (buffer == null || buffer.capacity() < offset + length) {
+                        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.max(mapSize, channel.size()));
+                        mapped = buffer;
+                        mappings++;
+                    }
+                }
+            }
+            return buffer.slice((int) offset, (int) length).asReadOnlyBuffer();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.irembo.certify.storage;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Stores certificate PDFs as objects in an S3-compatible bucket, so application nodes
+ * need no shared volume.
+ * <p>
+ * Objects are keyed {@code <tenantId>/<certificateId>.pdf} and the storage path is
+ * {@code s3/<key>}. Uploads stream through {@link MultipartUploadOutputStream}, hashing on
+ * the way, and only ever hold one part in memory. Requests share a bounded HTTP
+ * connection pool. Downloads are redirected to pre-signed URLs unless that is disabled.
+ * <p>
+ * Paths written by {@link FileSystemStorageService} are still readable and deletable
+ * where the files are present.
+ */
+@Component
+@Primary
+@ConditionalOnProperty(prefix = "certify.storage", name = "backend", havingValue = "s3")
+public class S3StorageService implements StorageService {
+
+    private static final Logger log = LoggerFactory.getLogger(S3StorageService.class);
+
+    static final String PATH_PREFIX = "s3/";
+    // S3 rejects multipart parts smaller than this, except the last one.
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
+    private final FileSystemStorageService fileSystem;
+    private final StorageProperties.S3 settings;
+    private final int partSize;
+    private final S3Client s3;
+    private final S3Presigner presigner;
+
+    public S3StorageService(StorageProperties properties, FileSystemStorageService fileSystem) {
+        this.fileSystem = fileSystem;
+        this.settings = properties.s3();
+        if (!StringUtils.hasText(settings.bucket())) {
+            throw new IllegalStateException("certify.storage.s3.bucket must be set for the s3 storage backend");
+        }
+        this.partSize = (int) Math.min(Math.max(settings.partSize().toBytes(), MIN_PART_SIZE), Integer.MAX_VALUE);
+
+        AwsCredentialsProvider credentials = StringUtils.hasText(settings.accessKey())
+                ? StaticCredentialsProvider.create(AwsBasicCredentials.create(settings.accessKey(), settings.secretKey()))
+                : DefaultCredentialsProvider.create();
+        S3Configuration serviceConfiguration = S3Configuration.builder()
+                .pathStyleAccessEnabled(settings.pathStyleAccess())
+                .build();
+
+        var clientBuilder = S3Client.builder()
+                .httpClientBuilder(ApacheHttpClient.builder()
+                        .maxConnections(settings.maxConnections())
+                        .connectionAcquisitionTimeout(settings.connectionAcquireTimeout()))
+                .region(Region.of(settings.region()))
+                .credentialsProvider(credentials)
+                .serviceConfiguration(serviceConfiguration);
+        var presignerBuilder = S3Presigner.builder()
+                .region(Region.of(settings.region()))
+                .credentialsProvider(credentials)
+                .serviceConfiguration(serviceConfiguration);
+        if (StringUtils.hasText(settings.endpoint())) {
+            clientBuilder.endpointOverride(URI.create(settings.endpoint()));
+            presignerBuilder.endpointOverride(URI.create(settings.endpoint()));
+        }
+        this.s3 = clientBuilder.build();
+        this.presigner = presignerBuilder.build();
+    }
+
+    /**
+     * Stream a PDF into the bucket. The object only appears once the upload completes; a
+     * failed multipart upload is aborted so its parts don't linger.
+     */
+    @Override
+    public StoredFile write(UUID tenantId, UUID certificateId, ContentWriter writer) {
+        String key = tenantId + "/" + certificateId + ".pdf";
+        MultipartUploadOutputStream upload = new MultipartUploadOutputStream(s3, settings.bucket(), key, partSize);
+        try {
+            DigestingOutputStream out = new DigestingOutputStream(upload);
+            writer.writeTo(out);
+            upload.complete();
+
+            log.debug("Stored certificate PDF at s3://{}/{} ({} bytes)", settings.bucket(), key, out.count());
+            return new StoredFile(PATH_PREFIX + key, HexFormat.of().formatHex(out.digest()), out.count());
+        } catch (IOException | SdkException e) {
+            abortQuietly(upload, key);
+            throw new IllegalStateException("Failed to store certificate PDF", e);
+        } catch (RuntimeException e) {
+            abortQuietly(upload, key);
+            throw e;
+        }
+    }
+
+    /**
+     * Open a stored PDF. Only its size is fetched here; the content is streamed from the
+     * bucket when the resource is read.
+     */
+    @Override
+    public Resource open(String storagePath) {
+        if (!isS3(storagePath)) {
+            return fileSystem.open(storagePath);
+        }
+        String key = key(storagePath);
+        try {
+            long size = s3.headObject(request -> request.bucket(settings.bucket()).key(key)).contentLength();
+            return new S3ObjectResource(key, size);
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                throw new IllegalStateException("Stored certificate not found at " + storagePath, e);
+            }
+            throw new IllegalStateException("Failed to read stored certificate PDF " + storagePath, e);
+        } catch (SdkException e) {
+            throw new IllegalStateException("Failed to read stored certificate PDF " + storagePath, e);
+        }
+    }
+
+    @Override
+    public boolean exists(String storagePath) {
+        if (!isS3(storagePath)) {
+            return fileSystem.exists(storagePath);
+        }
+        try {
+            s3.headObject(request -> request.bucket(settings.bucket()).key(key(storagePath)));
+            return true;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return false;
+            }
+            throw new IllegalStateException("Failed to read stored certificate PDF " + storagePath, e);
+        } catch (SdkException e) {
+            throw new IllegalStateException("Failed to read stored certificate PDF " + storagePath, e);
+        }
+    }
+
+    @Override
+    public Optional<URI> downloadUrl(String storagePath, String filename) {
+        if (!settings.presignedDownloads() || !isS3(storagePath)) {
+            return Optional.empty();
+        }
+        try {
+            URI url = presigner.presignGetObject(presign -> presign
+                            .signatureDuration(settings.presignedUrlTtl())
+                            .getObjectRequest(request -> request.bucket(settings.bucket()).key(key(storagePath))
+                                    .responseContentType("application/pdf")
+                                    .responseContentDisposition("attachment; filename=" + filename)))
+                    .url().toURI();
+            return Optional.of(url);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("Invalid pre-signed URL for " + storagePath, e);
+        }
+    }
+
+    @Override
+    public void delete(String storagePath) {
+        if (!isS3(storagePath)) {
+            fileSystem.delete(storagePath);
+            return;
+        }
+        try {
+            s3.deleteObject(request -> request.bucket(settings.bucket()).key(key(storagePath)));
+        } catch (SdkException e) {
+            throw new IllegalStateException("Failed to delete stored certificate PDF", e);
+        }
+    }
+
+    public static boolean isS3(String storagePath) {
+        return storagePath.startsWith(PATH_PREFIX);
+    }
+
+    @PreDestroy
+    void close() {
+        presigner.close();
+        s3.close();
+    }
+
+    private static String key(String storagePath) {
+        return storagePath.substring(PATH_PREFIX.length());
+    }
+
+    private void abortQuietly(MultipartUploadOutputStream upload, String key) {
+        try {
+            upload.abort();
+        } catch (SdkException e) {
+            log.warn("Failed to abort upload of s3://{}/{}", settings.bucket(), key, e);
+        }
+    }
+
+    private final class S3ObjectResource extends AbstractResource {
+
+        private final String key;
+        private final long size;
+
+        S3ObjectResource(String key, long size) {
+            this.key = key;
+            this.size = size;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public long contentLength() {
+            return size;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            try {
+                return s3.getObject(request -> request.bucket(settings.bucket()).key(key));
+            } catch (NoSuchKeyException e) {
+                throw new FileNotFoundException(getDescription());
+            } catch (SdkException e) {
+                throw new IOException("Failed to read " + getDescription(), e);
+            }
+        }
+
+        @Override
+        public String getDescription() {
+            return "s3://" + settings.bucket() + "/" + key;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.irembo.certify.storage;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Where and how certificate PDFs are stored; see {@link FileSystemStorageService},
+ * {@link PackFileStorageService} and {@link S3StorageService}.
+ */
+@ConfigurationProperties(prefix = "certify.storage")
+public record StorageProperties(
+        @DefaultValue("storage") String basePath,
+        @DefaultValue("content-addressed") Layout layout,
+        @DefaultValue("filesystem") Backend backend,
+        @DefaultValue Migration migration,
+        @DefaultValue Pack pack,
+        @DefaultValue S3 s3
+) {
+
+    /**
+     * Settings for moving existing files into the content-addressed layout.
+     *
+     * @param deleteGrace how long a moved file is kept after its certificate points at the
+     *                    new copy; longer than the slowest download or export that may
+     *                    still be reading it
+     */
+    public record Migration(
+            @DefaultValue("4") int threads,
+            @DefaultValue("500") int batchSize,
+            @DefaultValue("3h") Duration deleteGrace
+    ) {
+    }
+
+    /**
+     * Settings for the pack-file backend.
+     *
+     * @param segmentSize         a segment is sealed once it grows past this size
+     * @param compactionInterval  how often sealed segments are checked for garbage
+     * @param compactionThreshold sealed segments whose live fraction drops below this
+     *                            are rewritten
+     */
+    public record Pack(
+            @DefaultValue("1GB") DataSize segmentSize,
+            @DefaultValue("10m") Duration compactionInterval,
+            @DefaultValue("0.5") double compactionThreshold
+    ) {
+    }
+
+    /**
+     * Settings for the S3-compatible backend.
+     *
+     * @param endpoint                 endpoint override for S3-compatible stores such as
+     *                                 MinIO; unset for AWS
+     * @param accessKey                static credentials; unset to use the default AWS
+     *                                 credentials chain
+     * @param partSize                 objects up to this size are uploaded with one request,
+     *                                 larger ones in parts of this size (at least 5 MB)
+     * @param maxConnections           size of the HTTP connection pool
+     * @param connectionAcquireTimeout how long a request waits for a pooled connection
+     * @param presignedDownloads       redirect downloads to a pre-signed URL instead of
+     *                                 streaming them through the application
+     */
+    public record S3(
+            String endpoint,
+            @DefaultValue("us-east-1") String region,
+            String bucket,
+            String accessKey,
+            String secretKey,
+            @DefaultValue("false") boolean pathStyleAccess,
+            @DefaultValue("8MB") DataSize partSize,
+            @DefaultValue("32") int maxConnections,
+            @DefaultValue("5s") Duration connectionAcquireTimeout,
+            @DefaultValue("true") boolean presignedDownloads,
+            @DefaultValue("5m") Duration presignedUrlTtl
+    ) {
+    }
+
+    public enum Backend {
+        /** One file per PDF, see {@link FileSystemStorageService}. */
+        FILESYSTEM,
+        /** PDFs appended to large segment files, see {@link PackFileStorageService}. */
+        PACK,
+        /** One object per PDF in an S3-compatible bucket, see {@link S3StorageService}. */
+        S3
+    }
+
+    public enum Layout {
+        /** {@code <tenantId>/<certificateId>.pdf}, one directory per tenant. */
+        TENANT,
+        /** {@code cas/<h0h1>/<h2h3>/<sha256>.pdf}, sharded by hash and deduplicated. */
+        CONTENT_ADDRESSED
+    }
+}
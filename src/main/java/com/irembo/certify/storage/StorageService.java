@@ -0,0 +1,48 @@
+package com.irembo.certify.storage;
+
+import org.springframework.core.io.Resource;
+
+import java.net.URI;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Storage for certificate PDFs. The storage path returned by {@link #write} is what the
+ * {@code Certificate} entity keeps; it is opaque to everything but the storage backend.
+ * <p>
+ * Backends may deduplicate identical content, so a storage path can be shared by several
+ * certificates; callers must only {@link #delete} paths nothing else refers to.
+ */
+public interface StorageService {
+
+    /**
+     * Stream a PDF into storage and return where it was stored, with its SHA-256 and size.
+     * Nothing becomes visible to readers unless {@code writer} completes.
+     */
+    StoredFile write(UUID tenantId, UUID certificateId, ContentWriter writer);
+
+    /**
+     * Open a stored PDF for streaming, without reading it into memory up front.
+     *
+     * @throws IllegalStateException if nothing is stored at {@code storagePath}
+     */
+    Resource open(String storagePath);
+
+    /**
+     * Whether anything is stored at {@code storagePath}.
+     */
+    boolean exists(String storagePath);
+
+    /**
+     * A short-lived URL clients can download {@code storagePath} from directly, saving the
+     * application from streaming it, or empty if the backend serves downloads itself.
+     */
+    default Optional<URI> downloadUrl(String storagePath, String filename) {
+        return Optional.empty();
+    }
+
+    /**
+     * Remove a stored PDF. Missing content is ignored.
+     */
+    void delete(String storagePath);
+}
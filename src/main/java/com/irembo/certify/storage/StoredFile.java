@@ -0,0 +1,8 @@
+package com.irembo.certify.storage;
+
+/**
+ * A file written by {@link StorageService#write}: where it was stored, its
+ * SHA-256 as lowercase hex, and its size in bytes.
+ */
+public record StoredFile(String storagePath, String sha256, long size) {
+}
@@ -0,0 +1,89 @@
+package com.irembo.certify.template;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An HTML template whose {@code ${key}} placeholders have been located once, so that
+ * rendering is a single pass over pre-split literal segments instead of one
+ * {@code String.replace} per data entry.
+ * <p>
+ * Placeholders without a matching data entry are emitted unchanged, and {@code null}
+ * values render as an empty string.
+ */
+public final class CompiledTemplate {
+
+    private static final String OPEN = "${";
+    private static final char CLOSE = '}';
+
+    // literals.length == keys.length + 1; output is literals[0] keys[0] literals[1] ...
+    private final String[] literals;
+    private final String[] keys;
+    private final int literalLength;
+
+    private CompiledTemplate(String[] literals, String[] keys, int literalLength) {
+        this.literals = literals;
+        this.keys = keys;
+        this.literalLength = literalLength;
+    }
+
+    public static CompiledTemplate compile(String source) {
+        List<String> literals = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        int literalLength = 0;
+        int pos = 0;
+        while (true) {
+            int open = source.indexOf(OPEN, pos);
+            int close = open < 0 ? -1 : source.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                break;
+            }
+            literals.add(source.substring(pos, open));
+            literalLength += open - pos;
+            keys.add(source.substring(open + OPEN.length(), close));
+            pos = close + 1;
+        }
+        literals.add(source.substring(pos));
+        literalLength += source.length() - pos;
+        return new CompiledTemplate(literals.toArray(String[]::new), keys.toArray(String[]::new), literalLength);
+    }
+
+    public boolean hasPlaceholders() {
+        return keys.length > 0;
+    }
+
+    /**
+     * The placeholder key if the template is exactly one placeholder and nothing else,
+     * otherwise {@code null}.
+     */
+    public String soleKey() {
+        return keys.length == 1 && literalLength == 0 ? keys[0] : null;
+    }
+
+    public String render(Map<String, ?> data) {
+        StringBuilder out = new StringBuilder(literalLength + keys.length * 32);
+        renderTo(data, out);
+        return out.toString();
+    }
+
+    public void renderTo(Map<String, ?> data, Appendable out) {
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                out.append(literals[i]);
+                String key = keys[i];
+                if (data.containsKey(key)) {
+                    Object value = data.get(key);
+                    out.append(value != null ? value.toString() : "");
+                } else {
+                    out.append(OPEN).append(key).append(CLOSE);
+                }
+            }
+            out.append(literals[keys.length]);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to render template", e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.irembo.certify.template;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Applies {@code ${key}} placeholders to certificate templates.
+ * <p>
+ * Compiled templates are cached per template id; the cached entry is replaced when
+ * the template's version changes, so edits are picked up without explicit eviction
+ * and the cache never holds more than one version per template. Like the document
+ * cache, it keeps at most {@link TemplateDocumentCache#MAX_TEMPLATES} templates.
+ */
+@Component
+public class PlaceholderTemplateEngine {
+
+    private final Cache<UUID, VersionedTemplate> cache = Caffeine.newBuilder()
+            .maximumSize(TemplateDocumentCache.MAX_TEMPLATES)
+            .build();
+
+    public String render(CertificateTemplate template, Map<String, ?> data) {
+        return compile(template).render(data);
+    }
+
+    public CompiledTemplate compile(CertificateTemplate template) {
+        if (template.getId() == null) {
+            return CompiledTemplate.compile(template.getHtmlTemplate());
+        }
+        int version = template.getVersion();
+        VersionedTemplate cached = cache.getIfPresent(template.getId());
+        if (cached != null && cached.version() == version) {
+            return cached.compiled();
+        }
+        return cache.asMap().compute(template.getId(), (id, current) ->
+                current != null && current.version() == version
+                        ? current
+                        : new VersionedTemplate(version, CompiledTemplate.compile(template.getHtmlTemplate()))
+        ).compiled();
+    }
+
+    /**
+     * Drop the compiled template for a template that is no longer in use.
+     */
+    public void evict(UUID templateId) {
+        cache.invalidate(templateId);
+    }
+
+    private record VersionedTemplate(int version, CompiledTemplate compiled) {
+    }
+}
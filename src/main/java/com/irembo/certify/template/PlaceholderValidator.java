@@ -0,0 +1,81 @@
+package com.irembo.certify.template;
+
+import com.irembo.certify.template.dto.PlaceholderDefinition;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Checks a row of certificate data against a template's {@link PlaceholderDefinition}s.
+ * <p>
+ * Required placeholders must have a non-blank value. Values of placeholders typed
+ * {@code number}, {@code date} (ISO-8601, e.g. {@code 2024-06-01}) or {@code boolean}
+ * must parse as such; any other type is free text. Keys without a definition are
+ * allowed, since templates may use placeholders they don't declare.
+ */
+public final class PlaceholderValidator {
+
+    private final List<PlaceholderDefinition> placeholders;
+
+    public PlaceholderValidator(List<PlaceholderDefinition> placeholders) {
+        this.placeholders = List.copyOf(placeholders);
+    }
+
+    /**
+     * The problems with {@code row}, one message per placeholder; empty if it is valid.
+     */
+    public List<String> validate(Map<String, ?> row) {
+        List<String> problems = null;
+        for (PlaceholderDefinition placeholder : placeholders) {
+            String problem = check(placeholder, row.get(placeholder.key()));
+            if (problem != null) {
+                if (problems == null) {
+                    problems = new ArrayList<>(2);
+                }
+                problems.add(problem);
+            }
+        }
+        return problems != null ? problems : List.of();
+    }
+
+    private static String check(PlaceholderDefinition placeholder, Object value) {
+        String text = value != null ? value.toString() : null;
+        if (text == null || text.isBlank()) {
+            return placeholder.required() ? "'" + placeholder.key() + "' is required" : null;
+        }
+        String type = placeholder.type() != null ? placeholder.type().toLowerCase(Locale.ROOT) : "";
+        return switch (type) {
+            case "number" -> value instanceof Number || isNumber(text) ? null
+                    : "'" + placeholder.key() + "' must be a number";
+            case "date" -> isDate(text) ? null
+                    : "'" + placeholder.key() + "' must be a date (yyyy-MM-dd)";
+            case "boolean" -> value instanceof Boolean || "true".equalsIgnoreCase(text) || "false".equalsIgnoreCase(text)
+                    ? null
+                    : "'" + placeholder.key() + "' must be true or false";
+            default -> null;
+        };
+    }
+
+    private static boolean isNumber(String text) {
+        try {
+            new BigDecimal(text.trim());
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean isDate(String text) {
+        try {
+            LocalDate.parse(text.trim());
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.irembo.certify.template;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.irembo.certify.pdf.PdfRenderer;
+import com.irembo.certify.qr.QrCodeImage;
+import com.irembo.certify.qr.QrCodeObjectDrawer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Caches parsed template documents per template id and version.
+ * <p>
+ * A template is parsed once, when it is saved or first rendered. Each render then works
+ * on a deep copy of the cached document with placeholder values substituted into text
+ * and attribute nodes, which is much cheaper than re-parsing the markup. Values are
+ * inserted as text, so they cannot change the document structure. The one exception is
+ * an {@code <img>} whose {@code src} is a single placeholder bound to a vector
+ * {@link QrCodeImage}: it is replaced by an {@code <object>} that the PDF renderer draws
+ * as paths.
+ * <p>
+ * Templates that don't parse as XHTML are remembered as such and rendered through the
+ * string path instead.
+ * <p>
+ * At most {@value #MAX_TEMPLATES} templates are kept, least recently used first out.
+ */
+@Component
+public class TemplateDocumentCache {
+
+    private static final Logger log = LoggerFactory.getLogger(TemplateDocumentCache.class);
+
+    static final int MAX_TEMPLATES = 1_000;
+
+    private final PdfRenderer pdfRenderer;
+    private final Cache<UUID, PreparedDocument> cache = Caffeine.newBuilder()
+            .maximumSize(MAX_TEMPLATES)
+            .build();
+
+    public TemplateDocumentCache(PdfRenderer pdfRenderer) {
+        this.pdfRenderer = pdfRenderer;
+    }
+
+    /**
+     * Parse and cache the template, replacing any previously cached version.
+     */
+    public void prepare(CertificateTemplate template) {
+        if (template.getId() != null) {
+            cache.put(template.getId(), parse(template));
+        }
+    }
+
+    /**
+     * Drop the cached document for a template that is no longer in use.
+     */
+    public void evict(UUID templateId) {
+        cache.invalidate(templateId);
+    }
+
+    /**
+     * Returns a fresh document for the template with {@code data} applied, or {@code null}
+     * if the template can't be rendered from a pre-parsed document.
+     */
+    public Document bind(CertificateTemplate template, Map<String, ?> data) {
+        PreparedDocument prepared = lookup(template);
+        if (prepared.prototype() == null) {
+            return null;
+        }
+
+        Document copy = prepared.copy();
+        substitute(copy, prepared.compiledValues(), data);
+        return copy;
+    }
+
+    private PreparedDocument lookup(CertificateTemplate template) {
+        if (template.getId() == null) {
+            return parse(template);
+        }
+        int version = template.getVersion();
+        PreparedDocument cached = cache.getIfPresent(template.getId());
+        if (cached != null && cached.version() == version) {
+            return cached;
+        }
+        // Concurrent misses for the same template wait for a single parse.
+        return cache.asMap().compute(template.getId(), (id, current) ->
+                current != null && current.version() == version ? current : parse(template)
+        );
+    }
+
+    private PreparedDocument parse(CertificateTemplate template) {
+        Document document;
+        try {
+            document = pdfRenderer.prepareDocument(template.getHtmlTemplate());
+        } catch (IllegalArgumentException e) {
+            log.debug("Template id={} version={} is not well-formed XHTML; using string rendering",
+                    template.getId(), template.getVersion(), e);
+            document = null;
+        }
+
+        Map<String, CompiledTemplate> compiledValues = new HashMap<>();
+        if (document != null) {
+            collectPlaceholders(document, compiledValues);
+        }
+        return new PreparedDocument(template.getVersion(), document, compiledValues, new ConcurrentLinkedQueue<>());
+    }
+
+    private static void collectPlaceholders(Node node, Map<String, CompiledTemplate> compiledValues) {
+        if (isTextual(node)) {
+            compileIfTemplated(node.getNodeValue(), compiledValues);
+        }
+        NamedNodeMap attributes = node.getAttributes();
+        if (attributes != null) {
+            for (int i = 0; i < attributes.getLength(); i++) {
+                compileIfTemplated(attributes.item(i).getNodeValue(), compiledValues);
+            }
+        }
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            collectPlaceholders(child, compiledValues);
+        }
+    }
+
+    private static void compileIfTemplated(String value, Map<String, CompiledTemplate> compiledValues) {
+        if (value != null && value.contains("${") && !compiledValues.containsKey(value)) {
+            CompiledTemplate compiled = CompiledTemplate.compile(value);
+            if (compiled.hasPlaceholders()) {
+                compiledValues.put(value, compiled);
+            }
+        }
+    }
+
+    /**
+     * Returns the node now occupying {@code node}'s position, which differs from
+     * {@code node} only when it was replaced.
+     */
+    private static Node substitute(Node node, Map<String, CompiledTemplate> compiledValues, Map<String, ?> data) {
+        if (compiledValues.isEmpty()) {
+            return node;
+        }
+        Element qrObject = vectorQrReplacement(node, compiledValues, data);
+        if (qrObject != null) {
+            node.getParentNode().replaceChild(qrObject, node);
+            return qrObject;
+        }
+        if (isTextual(node)) {
+            CompiledTemplate compiled = compiledValues.get(node.getNodeValue());
+            if (compiled != null) {
+                node.setNodeValue(compiled.render(data));
+            }
+        }
+        NamedNodeMap attributes = node.getAttributes();
+        if (attributes != null) {
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Node attribute = attributes.item(i);
+                CompiledTemplate compiled = compiledValues.get(attribute.getNodeValue());
+                if (compiled != null) {
+                    attribute.setNodeValue(compiled.render(data));
+                }
+            }
+        }
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            child = substitute(child, compiledValues, data);
+        }
+        return node;
+    }
+
+    private static Element vectorQrReplacement(Node node, Map<String, CompiledTemplate> compiledValues, Map<String, ?> data) {
+        if (node.getNodeType() != Node.ELEMENT_NODE || !"img".equalsIgnoreCase(node.getLocalName() != null
+                ? node.getLocalName() : node.getNodeName())) {
+            return null;
+        }
+        Element img = (Element) node;
+        CompiledTemplate src = compiledValues.get(img.getAttribute("src"));
+        String key = src != null ? src.soleKey() : null;
+        if (key == null || !(data.get(key) instanceof QrCodeImage qr) || !qr.vector()) {
+            return null;
+        }
+
+        Element object = img.getOwnerDocument().createElementNS(img.getNamespaceURI(), "object");
+        NamedNodeMap attributes = img.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Node attribute = attributes.item(i);
+            String name = attribute.getNodeName();
+            if (!name.equals("src") && !name.equals("alt") && !name.equals("width") && !name.equals("height")
+                    && !name.equals("style")) {
+                CompiledTemplate compiled = compiledValues.get(attribute.getNodeValue());
+                object.setAttribute(name, compiled != null ? compiled.render(data) : attribute.getNodeValue());
+            }
+        }
+        object.setAttribute("type", QrCodeObjectDrawer.OBJECT_TYPE);
+        object.setAttribute(QrCodeObjectDrawer.CONTENT_ATTRIBUTE, qr.content());
+
+        // <object> has no intrinsic size, so carry the image's size over as CSS, falling back
+        // to the size the PNG would have had.
+        CompiledTemplate styleTemplate = compiledValues.get(img.getAttribute("style"));
+        String style = styleTemplate != null ? styleTemplate.render(data) : img.getAttribute("style");
+        String width = cssLength(img.getAttribute("width"), qr.size());
+        String height = cssLength(img.getAttribute("height"), qr.size());
+        object.setAttribute("style", "display:inline-block;width:" + width + ";height:" + height + ";" + style);
+        return object;
+    }
+
+    private static String cssLength(String attribute, int fallbackPx) {
+        if (attribute.isBlank()) {
+            return fallbackPx + "px";
+        }
+        String value = attribute.trim();
+        return Character.isDigit(value.charAt(value.length() - 1)) ? value + "px" : value;
+    }
+
+    private static boolean isTextual(Node node) {
+        return node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE;
+    }
+
+    /**
+     * DOM implementations make no thread-safety promises, even for reads, so each render
+     * clones from a private copy of the prototype taken from {@code spares}. Only the
+     * first render on each concurrent thread copies the prototype itself, under its lock;
+     * the spares grow to the peak number of concurrent renders of the template.
+     */
+    private record PreparedDocument(int version, Document prototype, Map<String, CompiledTemplate> compiledValues,
+                                    Queue<Document> spares) {
+
+        Document copy() {
+            Document source = spares.poll();
+            if (source == null) {
+                synchronized (prototype) {
+                    source = (Document) prototype.cloneNode(true);
+                }
+            }
+            try {
+                return (Document) source.cloneNode(true);
+            } finally {
+                spares.offer(source);
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.irembo.certify.template;
+
+import com.irembo.certify.pdf.PdfRenderer;
+import com.irembo.certify.pdf.RenderExecutor;
+import com.irembo.certify.pdf.RenderLane;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Renders a certificate template with placeholder data to PDF.
+ * <p>
+ * Templates are rendered from a cached, pre-parsed document whenever possible; templates
+ * that aren't well-formed XHTML fall back to string substitution followed by a full parse.
+ * All rendering is admitted through the shared {@link RenderExecutor}.
+ * <p>
+ * For print batches, {@link #appendPdf} renders many rows of one template as a single
+ * document, each row starting on a new page, so fonts and images are embedded once for
+ * all of them instead of once per certificate.
+ */
+@Component
+public class TemplateRenderer {
+
+    private static final String ROW_ID_PREFIX = "certify-print-row-";
+    private static final String SECTION_STYLE = "position: relative; min-height: 1px";
+    private static final Pattern ROW_ID = Pattern.compile(Pattern.quote(ROW_ID_PREFIX) + "\\d+");
+
+    private final PdfRenderer pdfRenderer;
+    private final PlaceholderTemplateEngine templateEngine;
+    private final TemplateDocumentCache documentCache;
+    private final RenderExecutor renderExecutor;
+
+    public TemplateRenderer(
+            PdfRenderer pdfRenderer,
+            PlaceholderTemplateEngine templateEngine,
+            TemplateDocumentCache documentCache,
+            RenderExecutor renderExecutor
+    ) {
+        this.pdfRenderer = pdfRenderer;
+        this.templateEngine = templateEngine;
+        this.documentCache = documentCache;
+        this.renderExecutor = renderExecutor;
+    }
+
+    /**
+     * @throws com.irembo.certify.pdf.RenderRejectedException if {@code lane} is saturated
+     */
+    public byte[] renderPdf(CertificateTemplate template, Map<String, ?> data, RenderLane lane) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderPdf(template, data, lane, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Render straight into {@code out}, which is left open.
+     *
+     * @throws com.irembo.certify.pdf.RenderRejectedException if {@code lane} is saturated
+     */
+    public void renderPdf(CertificateTemplate template, Map<String, ?> data, RenderLane lane, OutputStream out) {
+        renderExecutor.execute(lane, () -> {
+            render(template, data, out);
+            return null;
+        });
+    }
+
+    /**
+     * Append one or more pages per row to {@code target}, which is left open and unsaved,
+     * and return the index in {@code target} of each row's first page. The rows are
+     * rendered as one document and admitted to {@code lane} as a single render.
+     *
+     * @throws com.irembo.certify.pdf.RenderRejectedException if {@code lane} is saturated
+     */
+    public int[] appendPdf(CertificateTemplate template, List<? extends Map<String, ?>> rows, RenderLane lane,
+                           PDDocument target) {
+        return renderExecutor.execute(lane, () -> {
+            Document document = combine(template, rows);
+            Map<String, Integer> pages = pdfRenderer.appendDocumentToPdf(document, target, ROW_ID);
+            int[] firstPages = new int[rows.size()];
+            for (int i = 0; i < firstPages.length; i++) {
+                Integer page = pages.get(ROW_ID_PREFIX + i);
+                if (page == null) {
+                    throw new IllegalStateException("Row " + i + " of the print batch produced no pages");
+                }
+                firstPages[i] = page;
+            }
+            return firstPages;
+        });
+    }
+
+    /**
+     * The bodies of every row's document, each wrapped in a page-breaking, relatively
+     * positioned section, moved into the first row's document.
+     */
+    private Document combine(CertificateTemplate template, List<? extends Map<String, ?>> rows) {
+        Document combined = null;
+        Element combinedBody = null;
+        for (int i = 0; i < rows.size(); i++) {
+            Document document = parse(template, rows.get(i));
+            Element body = body(document);
+            if (combined == null) {
+                combined = document;
+                combinedBody = body;
+            }
+            Element section = combined.createElementNS(combinedBody.getNamespaceURI(), "div");
+            section.setAttribute("id", ROW_ID_PREFIX + i);
+            // Relative, so absolutely positioned template elements are placed on their row's
+            // page rather than against the first page. A section holding nothing but such
+            // elements has no height, and a forced break right after an empty one is dropped,
+            // hence the minimum height. Only the first row sits below the body's top margin,
+            // which does not repeat after a page break.
+            section.setAttribute("style", i > 0 ? "page-break-before: always; " + SECTION_STYLE : SECTION_STYLE);
+            for (Node child = body.getFirstChild(); child != null; child = body.getFirstChild()) {
+                section.appendChild(document == combined ? body.removeChild(child) : combined.adoptNode(child));
+            }
+            combinedBody.appendChild(section);
+        }
+        return combined;
+    }
+
+    private Document parse(CertificateTemplate template, Map<String, ?> data) {
+        Document document = documentCache.bind(template, data);
+        return document != null ? document : pdfRenderer.prepareDocument(templateEngine.render(template, data));
+    }
+
+    private static Element body(Document document) {
+        NodeList bodies = document.getElementsByTagNameNS("*", "body");
+        if (bodies.getLength() == 0) {
+            throw new IllegalArgumentException("Template has no <body> to render in a print batch");
+        }
+        return (Element) bodies.item(0);
+    }
+
+    private void render(CertificateTemplate template, Map<String, ?> data, OutputStream out) {
+        Document document = documentCache.bind(template, data);
+        if (document != null) {
+            pdfRenderer.renderDocumentToPdf(document, out);
+        } else {
+            pdfRenderer.renderHtmlToPdf(templateEngine.render(template, data), out);
+        }
+    }
+
+    /**
+     * Parse a freshly saved template version so the first certificate doesn't pay for it.
+     */
+    public void prepare(CertificateTemplate template) {
+        documentCache.prepare(template);
+    }
+
+    /**
+     * Forget a deactivated template; rendering it again parses it afresh.
+     */
+    public void evict(UUID templateId) {
+        documentCache.evict(templateId);
+        templateEngine.evict(templateId);
+    }
+}
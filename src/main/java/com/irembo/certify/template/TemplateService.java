@@ -4,18 +4,20 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.irembo.certify.common.TenantContextHolder;
-import com.irembo.certify.pdf.PdfRenderer;
+import com.irembo.certify.pdf.RenderLane;
 import com.irembo.certify.template.dto.PlaceholderDefinition;
 import com.irembo.certify.template.dto.TemplatePreviewRequest;
 import com.irembo.certify.template.dto.TemplateRequest;
 import com.irembo.certify.template.dto.TemplateResponse;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
 
 import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.UUID;
 
@@ -25,7 +27,7 @@ public class TemplateService {
 
     private final CertificateTemplateRepository repository;
     private final ObjectMapper objectMapper;
-    private final PdfRenderer pdfRenderer;
+    private final TemplateRenderer templateRenderer;
 
     private static final TypeReference<List<PlaceholderDefinition>> PLACEHOLDER_LIST_TYPE =
             new TypeReference<>() {};
@@ -33,11 +35,11 @@ public class TemplateService {
     public TemplateService(
             CertificateTemplateRepository repository,
             ObjectMapper objectMapper,
-            PdfRenderer pdfRenderer
+            TemplateRenderer templateRenderer
     ) {
         this.repository = repository;
         this.objectMapper = objectMapper;
-        this.pdfRenderer = pdfRenderer;
+        this.templateRenderer = templateRenderer;
     }
 
     public List<TemplateResponse> listForCurrentTenant() {
@@ -66,6 +68,7 @@ public class TemplateService {
         template.setActive(true);
         template.setVersion(1);
         CertificateTemplate saved = repository.save(template);
+        prepareAfterCommit(saved);
         return toResponse(saved);
     }
 
@@ -79,6 +82,7 @@ public class TemplateService {
         template.setHtmlTemplate(request.htmlTemplate());
         template.setPlaceholdersJson(writePlaceholders(request.placeholders()));
         template.setVersion(template.getVersion() + 1);
+        prepareAfterCommit(template);
 
         return toResponse(template);
     }
@@ -88,15 +92,45 @@ public class TemplateService {
         CertificateTemplate template = repository.findByIdAndTenantId(id, tenantId)
                 .orElseThrow(() -> new NoSuchElementException("Template not found"));
         template.setActive(false);
+        templateRenderer.evict(id);
     }
 
+    /**
+     * Renders a preview without an enclosing transaction, so that waiting for and running
+     * the render doesn't pin a pooled connection; the template is loaded in a short read.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public byte[] previewTemplate(UUID id, TemplatePreviewRequest request) {
         UUID tenantId = requireTenant();
         CertificateTemplate template = repository.findByIdAndTenantId(id, tenantId)
                 .orElseThrow(() -> new NoSuchElementException("Template not found"));
 
-        String html = applyPlaceholders(template.getHtmlTemplate(), request.data());
-        return pdfRenderer.renderHtmlToPdf(html);
+        return templateRenderer.renderPdf(template, request.data(), RenderLane.INTERACTIVE);
+    }
+
+    /**
+     * Validator for data rows against the template's placeholder definitions.
+     */
+    public PlaceholderValidator placeholderValidator(CertificateTemplate template) {
+        return new PlaceholderValidator(readPlaceholders(template.getPlaceholdersJson()));
+    }
+
+    /**
+     * Parse the new template version once it is committed. Preparing it earlier would cache
+     * a version that a rollback leaves unsaved, and that a later update may reuse for
+     * different HTML.
+     */
+    private void prepareAfterCommit(CertificateTemplate template) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            templateRenderer.prepare(template);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                templateRenderer.prepare(template);
+            }
+        });
     }
 
     private TemplateResponse toResponse(CertificateTemplate template) {
@@ -140,14 +174,4 @@ public class TemplateService {
         }
         return tenantId;
     }
-
-    private String applyPlaceholders(String htmlTemplate, Map<String, Object> data) {
-        String result = htmlTemplate;
-        for (Map.Entry<String, Object> entry : data.entrySet()) {
-            String placeholder = "${" + entry.getKey() + "}";
-            String value = entry.getValue() != null ? entry.getValue().toString() : "";
-            result = result.replace(placeholder, value);
-        }
-        return result;
-    }
 }
@@ -18,4 +18,11 @@ public class Tenant extends BaseEntity {
 
     @Column(name = "slug", nullable = false, unique = true)
     private String slug;
+
+    /**
+     * Relative share of the certificate job workers this tenant gets while other tenants
+     * have jobs queued too.
+     */
+    @Column(name = "job_weight", nullable = false)
+    private int jobWeight = 1;
 }
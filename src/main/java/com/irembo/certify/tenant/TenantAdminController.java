@@ -2,15 +2,19 @@ package com.irembo.certify.tenant;
 
 import com.irembo.certify.tenant.dto.CreateTenantRequest;
 import com.irembo.certify.tenant.dto.TenantSummaryResponse;
+import com.irembo.certify.tenant.dto.UpdateJobWeightRequest;
 import jakarta.validation.Valid;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
+import java.util.UUID;
 
 @RestController
 @RequestMapping("/api/admin/tenants")
@@ -32,4 +36,15 @@ public class TenantAdminController {
     public TenantSummaryResponse createTenant(@Valid @RequestBody CreateTenantRequest request) {
         return tenantAdminService.createTenant(request);
     }
+
+    /**
+     * Set the tenant's share of the certificate job workers relative to other tenants.
+     */
+    @PutMapping("/{id}/job-weight")
+    public TenantSummaryResponse updateJobWeight(
+            @PathVariable("id") UUID id,
+            @Valid @RequestBody UpdateJobWeightRequest request
+    ) {
+        return tenantAdminService.updateJobWeight(id, request.jobWeight());
+    }
 }
@@ -16,6 +16,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.NoSuchElementException;
 import java.util.UUID;
 
 @Service
@@ -63,17 +64,10 @@ public class TenantAdminService {
         }
 
         return tenants.stream()
-                .map(tenant -> new TenantSummaryResponse(
+                .map(tenant -> toSummary(tenant, adminContactsByTenantId.getOrDefault(
                         tenant.getId(),
-                        tenant.getName(),
-                        tenant.getSlug(),
-                        tenant.getCreatedAt(),
-                        tenant.getUpdatedAt(),
-                        adminContactsByTenantId.getOrDefault(
-                                tenant.getId(),
-                                new TenantSummaryResponse.TenantAdminContact("", "")
-                        )
-                ))
+                        new TenantSummaryResponse.TenantAdminContact("", "")
+                )))
                 .toList();
     }
 
@@ -110,12 +104,34 @@ public class TenantAdminService {
         TenantSummaryResponse.TenantAdminContact contact =
                 new TenantSummaryResponse.TenantAdminContact(admin.getFullName(), admin.getEmail());
 
+        return toSummary(savedTenant, contact);
+    }
+
+    @Transactional
+    public TenantSummaryResponse updateJobWeight(UUID tenantId, int jobWeight) {
+        if (jobWeight < 1) {
+            throw new IllegalArgumentException("Job weight must be at least 1");
+        }
+        Tenant tenant = tenantRepository.findById(tenantId)
+                .orElseThrow(() -> new NoSuchElementException("Tenant not found"));
+        tenant.setJobWeight(jobWeight);
+
+        TenantSummaryResponse.TenantAdminContact contact = userRepository
+                .findByTenantIdInAndRoleOrderByCreatedAtAsc(List.of(tenantId), Role.TENANT_ADMIN).stream()
+                .findFirst()
+                .map(admin -> new TenantSummaryResponse.TenantAdminContact(admin.getFullName(), admin.getEmail()))
+                .orElseGet(() -> new TenantSummaryResponse.TenantAdminContact("", ""));
+        return toSummary(tenant, contact);
+    }
+
+    private static TenantSummaryResponse toSummary(Tenant tenant, TenantSummaryResponse.TenantAdminContact contact) {
         return new TenantSummaryResponse(
-                savedTenant.getId(),
-                savedTenant.getName(),
-                savedTenant.getSlug(),
-                savedTenant.getCreatedAt(),
-                savedTenant.getUpdatedAt(),
+                tenant.getId(),
+                tenant.getName(),
+                tenant.getSlug(),
+                tenant.getJobWeight(),
+                tenant.getCreatedAt(),
+                tenant.getUpdatedAt(),
                 contact
         );
     }
@@ -7,6 +7,7 @@ public record TenantSummaryResponse(
         UUID id,
         String name,
         String slug,
+        int jobWeight,
         Instant createdAt,
         Instant updatedAt,
         TenantAdminContact admin
@@ -0,0 +1,11 @@
+package com.irembo.certify.tenant.dto;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+
+public record UpdateJobWeightRequest(
+        @Min(value = 1, message = "Job weight must be at least 1")
+        @Max(value = 1000, message = "Job weight must be at most 1000")
+        int jobWeight
+) {
+}
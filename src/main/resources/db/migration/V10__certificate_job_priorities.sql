@@ -0,0 +1,22 @@
+-- Priority lanes and deadlines for certificate jobs. Each lane is claimed on its own,
+-- earliest deadline first within a tenant's jobs; the pending index covers that order
+-- and replaces the per-tenant index from V9.
+
+ALTER TABLE certificate_jobs
+    ADD COLUMN IF NOT EXISTS priority varchar(16) NOT NULL DEFAULT 'NORMAL',
+    ADD COLUMN IF NOT EXISTS deadline timestamptz;
+
+UPDATE certificate_jobs
+SET priority = 'LOW'
+WHERE batch_id IS NOT NULL
+  AND status IN ('PENDING', 'PROCESSING');
+
+DROP INDEX IF EXISTS idx_certificate_jobs_tenant_pending;
+
+CREATE INDEX IF NOT EXISTS idx_certificate_jobs_lane_pending
+    ON certificate_jobs (priority, tenant_id, deadline, created_at, row_index)
+    WHERE status = 'PENDING';
+
+CREATE INDEX IF NOT EXISTS idx_certificate_jobs_lane_processing
+    ON certificate_jobs (priority, tenant_id)
+    WHERE status = 'PROCESSING';
@@ -0,0 +1,11 @@
+-- Retries for certificate jobs. Every claim counts as an attempt; a job that failed with
+-- a transient error waits in PENDING until next_attempt_at, and one that runs out of
+-- attempts moves to DEAD_LETTER until it is requeued.
+
+ALTER TABLE certificate_jobs
+    ADD COLUMN IF NOT EXISTS attempts int NOT NULL DEFAULT 0,
+    ADD COLUMN IF NOT EXISTS next_attempt_at timestamptz;
+
+CREATE INDEX IF NOT EXISTS idx_certificate_jobs_dead_letter
+    ON certificate_jobs (tenant_id, batch_id)
+    WHERE status = 'DEAD_LETTER';
@@ -0,0 +1,9 @@
+-- Files the storage migration has moved away from. They are deleted once the grace
+-- period is over, so that reads which resolved the old path before the move can finish.
+
+CREATE TABLE IF NOT EXISTS storage_deletions (
+    storage_path varchar(1024) PRIMARY KEY,
+    delete_after timestamptz   NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_storage_deletions_due ON storage_deletions (delete_after);
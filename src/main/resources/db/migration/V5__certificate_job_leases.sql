@@ -0,0 +1,17 @@
+-- Lease columns for certificate job claiming. A worker node owns a PROCESSING job
+-- until lease_expires_at; expired leases are returned to PENDING by the reaper.
+
+ALTER TABLE certificate_jobs
+    ADD COLUMN IF NOT EXISTS lease_owner      varchar(128),
+    ADD COLUMN IF NOT EXISTS lease_expires_at timestamptz;
+
+-- Jobs that were PROCESSING before leases existed have no owner left to finish them;
+-- expire their leases so the reaper hands them back to the queue.
+UPDATE certificate_jobs
+SET lease_expires_at = now()
+WHERE status = 'PROCESSING'
+  AND lease_expires_at IS NULL;
+
+CREATE INDEX IF NOT EXISTS idx_certificate_jobs_processing_lease
+    ON certificate_jobs (lease_expires_at)
+    WHERE status = 'PROCESSING';
@@ -0,0 +1,4 @@
+-- Storage paths are looked up when a content-addressed file may be shared by several
+-- certificates, and scanned by the storage layout migration.
+
+CREATE INDEX IF NOT EXISTS idx_certificates_storage_path ON certificates (storage_path);
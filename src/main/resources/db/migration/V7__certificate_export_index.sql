@@ -0,0 +1,3 @@
+-- Exports walk a tenant's certificates in creation order, optionally within a date range.
+
+CREATE INDEX IF NOT EXISTS idx_certificates_tenant_created ON certificates (tenant_id, created_at, id);
@@ -0,0 +1,25 @@
+-- Bulk submissions. A batch owns one certificate job per data row; its counters are
+-- advanced in the same statement that records each job's outcome.
+
+CREATE TABLE IF NOT EXISTS certificate_batches (
+    id              uuid PRIMARY KEY,
+    tenant_id       uuid         NOT NULL,
+    template_id     uuid         NOT NULL,
+    requested_by    varchar(320) NOT NULL,
+    status          varchar(32)  NOT NULL,
+    total_rows      integer      NOT NULL,
+    completed_count integer      NOT NULL DEFAULT 0,
+    failed_count    integer      NOT NULL DEFAULT 0,
+    created_at      timestamptz  NOT NULL,
+    updated_at      timestamptz  NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_certificate_batches_tenant ON certificate_batches (tenant_id, created_at);
+
+ALTER TABLE certificate_jobs
+    ADD COLUMN IF NOT EXISTS batch_id  uuid REFERENCES certificate_batches (id),
+    ADD COLUMN IF NOT EXISTS row_index integer;
+
+CREATE INDEX IF NOT EXISTS idx_certificate_jobs_batch
+    ON certificate_jobs (batch_id, status, row_index)
+    WHERE batch_id IS NOT NULL;
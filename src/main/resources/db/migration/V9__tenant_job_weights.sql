@@ -0,0 +1,10 @@
+-- Fair scheduling of certificate jobs across tenants. A tenant's share of the workers
+-- is proportional to its job_weight; claims walk the tenants that have pending jobs
+-- through the partial index below.
+
+ALTER TABLE tenants
+    ADD COLUMN IF NOT EXISTS job_weight integer NOT NULL DEFAULT 1 CHECK (job_weight > 0);
+
+CREATE INDEX IF NOT EXISTS idx_certificate_jobs_tenant_pending
+    ON certificate_jobs (tenant_id, created_at, row_index)
+    WHERE status = 'PENDING';
@@ -0,0 +1,276 @@
+package com.irembo.certify.certificate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.irembo.certify.certificate.dto.BatchRowError;
+import com.irembo.certify.certificate.dto.CertificateBatchRequest;
+import com.irembo.certify.certificate.dto.CertificateBatchUploadResponse;
+import com.irembo.certify.common.TenantContextHolder;
+import com.irembo.certify.template.CertificateTemplate;
+import com.irembo.certify.template.CertificateTemplateRepository;
+import com.irembo.certify.template.PlaceholderValidator;
+import com.irembo.certify.template.TemplateService;
+import com.irembo.certify.template.dto.PlaceholderDefinition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CertificateBatchServiceTest {
+
+    @Mock
+    private CertificateBatchRepository batchRepository;
+
+    @Mock
+    private CertificateJobRepository jobRepository;
+
+    @Mock
+    private CertificateTemplateRepository templateRepository;
+
+    @Mock
+    private TemplateService templateService;
+
+    @Mock
+    private CertificateBulkWriter bulkWriter;
+
+    @Mock
+    private CertificateJobNotifier jobNotifier;
+
+    private final UUID tenantId = UUID.randomUUID();
+    private final UUID templateId = UUID.randomUUID();
+    private CertificateBatchService service;
+
+    @BeforeEach
+    void setUp() {
+        TenantContextHolder.setTenantId(tenantId);
+        service = new CertificateBatchService(batchRepository, jobRepository, templateRepository, templateService,
+                bulkWriter, jobNotifier, new ObjectMapper(), mock(PlatformTransactionManager.class),
+                new CertificateJobProperties(50, 1, false, Duration.ofMinutes(5), 3,
+                        Duration.ofSeconds(1), Duration.ofSeconds(30), true, 0, 0,
+                        5, Duration.ofSeconds(10), Duration.ofMinutes(10), Duration.ofHours(1)),
+                new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        TenantContextHolder.clear();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void submitStoresBatchWithOnePendingJobPerRow() {
+        when(templateRepository.findByIdAndTenantId(templateId, tenantId)).thenReturn(Optional.of(new CertificateTemplate()));
+        when(batchRepository.saveAndFlush(any(CertificateBatch.class))).thenAnswer(invocation -> {
+            CertificateBatch batch = invocation.getArgument(0);
+            batch.setId(UUID.randomUUID());
+            return batch;
+        });
+
+        CertificateBatch batch = service.submitBatch(new CertificateBatchRequest(templateId,
+                List.of(Map.of("name", "Alice"), Map.of("name", "Bob"))), "user@example.com");
+
+        assertThat(batch.getTenantId()).isEqualTo(tenantId);
+        assertThat(batch.getStatus()).isEqualTo(CertificateBatchStatus.PENDING);
+        assertThat(batch.getTotalRows()).isEqualTo(2);
+        assertThat(batch.getRemainingCount()).isEqualTo(2);
+
+        ArgumentCaptor<List<CertificateJob>> jobs = ArgumentCaptor.forClass(List.class);
+        verify(bulkWriter).insertJobs(jobs.capture());
+        assertThat(jobs.getValue()).extracting(CertificateJob::getRowIndex).containsExactly(0, 1);
+        assertThat(jobs.getValue()).allSatisfy(job -> {
+            assertThat(job.getBatchId()).isEqualTo(batch.getId());
+            assertThat(job.getTenantId()).isEqualTo(tenantId);
+            assertThat(job.getStatus()).isEqualTo(CertificateJobStatus.PENDING);
+            assertThat(job.getPriority()).isEqualTo(CertificateJobPriority.LOW);
+        });
+        assertThat(jobs.getValue().get(1).getRequestDataJson()).isEqualTo("{\"name\":\"Bob\"}");
+        verify(jobNotifier).jobsQueued();
+    }
+
+    @Test
+    void submitRejectsOversizedBatchesAndUnknownTemplates() {
+        List<Map<String, Object>> tooMany = List.of(Map.of(), Map.of(), Map.of(), Map.of());
+        assertThatThrownBy(() -> service.submitBatch(new CertificateBatchRequest(templateId, tooMany), "u"))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        when(templateRepository.findByIdAndTenantId(templateId, tenantId)).thenReturn(Optional.empty());
+        assertThatThrownBy(() -> service.submitBatch(new CertificateBatchRequest(templateId, List.of(Map.of())), "u"))
+                .isInstanceOf(NoSuchElementException.class);
+        verify(batchRepository, never()).saveAndFlush(any());
+    }
+
+    @Test
+    void failuresAreListedInRowOrderOnlyWhenThereAreAny() {
+        UUID batchId = UUID.randomUUID();
+        CertificateBatch batch = new CertificateBatch();
+        batch.setId(batchId);
+        when(batchRepository.findByIdAndTenantId(batchId, tenantId)).thenReturn(Optional.of(batch));
+
+        assertThat(service.getFailuresForCurrentTenant(batchId, 10)).isEmpty();
+        verify(jobRepository, never()).findByBatchIdAndStatusInOrderByRowIndex(any(), any(), any());
+
+        batch.setFailedCount(1);
+        CertificateJob failed = new CertificateJob();
+        failed.setId(UUID.randomUUID());
+        failed.setRowIndex(7);
+        failed.setErrorMessage("Template placeholder missing");
+        when(jobRepository.findByBatchIdAndStatusInOrderByRowIndex(eq(batchId),
+                eq(List.of(CertificateJobStatus.FAILED, CertificateJobStatus.DEAD_LETTER)), any(Pageable.class)))
+                .thenReturn(List.of(failed));
+
+        assertThat(service.getFailuresForCurrentTenant(batchId, 10))
+                .singleElement()
+                .satisfies(failure -> {
+                    assertThat(failure.rowIndex()).isEqualTo(7);
+                    assertThat(failure.errorMessage()).isEqualTo("Template placeholder missing");
+                });
+    }
+
+    @Test
+    void batchesOfOtherTenantsAreNotFound() {
+        UUID batchId = UUID.randomUUID();
+        when(batchRepository.findByIdAndTenantId(batchId, tenantId)).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> service.getBatchForCurrentTenant(batchId))
+                .isInstanceOf(NoSuchElementException.class);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void csvUploadQueuesValidRowsAndReportsInvalidOnesByLine() {
+        stubTemplateWithPlaceholders();
+        String csv = """
+                name,date
+                Alice,2024-06-01
+                "Bob
+                Smith",not-a-date
+                ,2024-06-02
+                """;
+
+        CertificateBatchUploadResponse response = service.uploadBatch(templateId,
+                CertificateBatchService.UploadFormat.CSV, stream(csv), "user@example.com");
+
+        assertThat(response.acceptedRows()).isEqualTo(1);
+        assertThat(response.rejectedRows()).isEqualTo(2);
+        assertThat(response.errors()).extracting(BatchRowError::line).containsExactly(3L, 5L);
+        assertThat(response.errors().get(0).message()).contains("'date' must be a date");
+        assertThat(response.errors().get(1).message()).contains("'name' is required");
+        assertThat(response.batch().totalRows()).isEqualTo(1);
+        assertThat(response.batch().status()).isEqualTo(CertificateBatchStatus.PENDING);
+
+        ArgumentCaptor<List<CertificateJob>> jobs = ArgumentCaptor.forClass(List.class);
+        verify(bulkWriter).insertJobs(jobs.capture());
+        assertThat(jobs.getValue()).singleElement().satisfies(job -> {
+            assertThat(job.getRowIndex()).isZero();
+            assertThat(job.getStatus()).isEqualTo(CertificateJobStatus.UPLOADING);
+            assertThat(job.getRequestDataJson()).isEqualTo("{\"name\":\"Alice\",\"date\":\"2024-06-01\"}");
+        });
+        verify(jobRepository).queueUploadedJobs(response.batch().id());
+        verify(jobNotifier).jobsQueued();
+    }
+
+    @Test
+    void ndjsonUploadReportsLinesPastBlankLines() {
+        stubTemplateWithPlaceholders();
+        String ndjson = """
+                {"name":"Alice","date":"2024-06-01"}
+
+                {"date":"2024-06-02"}
+                """;
+
+        CertificateBatchUploadResponse response = service.uploadBatch(templateId,
+                CertificateBatchService.UploadFormat.NDJSON, stream(ndjson), "user@example.com");
+
+        assertThat(response.acceptedRows()).isEqualTo(1);
+        assertThat(response.errors()).singleElement()
+                .satisfies(error -> assertThat(error.line()).isEqualTo(3));
+    }
+
+    @Test
+    void malformedUploadIsRejectedWithItsLine() {
+        stubTemplateWithPlaceholders();
+        String csv = """
+                name,date
+                Alice,2024-06-01
+                Bob,2024-06-02,extra
+                """;
+
+        assertThatThrownBy(() -> service.uploadBatch(templateId, CertificateBatchService.UploadFormat.CSV,
+                stream(csv), "user@example.com"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageStartingWith("Line 3:");
+    }
+
+    @Test
+    void uploadBeyondTheRowLimitIsRejected() {
+        stubTemplateWithPlaceholders();
+        String csv = "name,date\nA,\nB,\nC,\nD,\n";
+
+        assertThatThrownBy(() -> service.uploadBatch(templateId, CertificateBatchService.UploadFormat.CSV,
+                stream(csv), "user@example.com"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("at most 3 rows");
+        verify(jobRepository, never()).queueUploadedJobs(any());
+        verify(jobNotifier, never()).jobsQueued();
+    }
+
+    @Test
+    void failedUploadIsDeletedWithTheJobsCopiedSoFar() {
+        stubTemplateWithPlaceholders();
+        String csv = "name,date\nA,\nB,\nC,\nD,\n";
+
+        ArgumentCaptor<CertificateBatch> batch = ArgumentCaptor.forClass(CertificateBatch.class);
+        assertThatThrownBy(() -> service.uploadBatch(templateId, CertificateBatchService.UploadFormat.CSV,
+                stream(csv), "user@example.com"))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        verify(batchRepository).saveAndFlush(batch.capture());
+        assertThat(batch.getValue().getStatus()).isEqualTo(CertificateBatchStatus.UPLOADING);
+        verify(jobRepository).deleteByBatchId(batch.getValue().getId());
+        verify(batchRepository).deleteById(batch.getValue().getId());
+    }
+
+    private void stubTemplateWithPlaceholders() {
+        CertificateTemplate template = new CertificateTemplate();
+        when(templateRepository.findByIdAndTenantId(templateId, tenantId)).thenReturn(Optional.of(template));
+        when(templateService.placeholderValidator(template)).thenReturn(new PlaceholderValidator(List.of(
+                new PlaceholderDefinition("name", "Name", "text", true),
+                new PlaceholderDefinition("date", "Date", "date", false))));
+        when(batchRepository.saveAndFlush(any(CertificateBatch.class))).thenAnswer(invocation -> {
+            CertificateBatch batch = invocation.getArgument(0);
+            batch.setId(UUID.randomUUID());
+            return batch;
+        });
+        lenient().when(batchRepository.save(any(CertificateBatch.class))).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
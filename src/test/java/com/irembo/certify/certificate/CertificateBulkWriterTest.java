@@ -0,0 +1,128 @@
+package com.irembo.certify.certificate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.springframework.dao.DataAccessException;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class CertificateBulkWriterTest {
+
+    private final DataSource dataSource = mock(DataSource.class);
+    private final Connection connection = mock(Connection.class);
+    private final CopyManager copyManager = mock(CopyManager.class);
+    private final CopyIn copyIn = mock(CopyIn.class);
+    private final ByteArrayOutputStream copied = new ByteArrayOutputStream();
+    private final CertificateBulkWriter writer = new CertificateBulkWriter(dataSource);
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        PGConnection pgConnection = mock(PGConnection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+        when(pgConnection.getCopyAPI()).thenReturn(copyManager);
+        when(copyManager.copyIn(any(String.class))).thenReturn(copyIn);
+        doAnswer(invocation -> {
+            copied.write(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2));
+            return null;
+        }).when(copyIn).writeToCopy(any(byte[].class), anyInt(), anyInt());
+    }
+
+    @Test
+    void copiesJobsAsQuotedCsvWithEmptyFieldsForNulls() throws SQLException {
+        CertificateJob first = job("{\"name\":\"Alice \\\"Al\\\"\"}", 0);
+        CertificateJob second = job("{}", null);
+        second.setBatchId(null);
+
+        writer.insertJobs(List.of(first, second));
+
+        verify(copyManager).copyIn("COPY certificate_jobs (id, tenant_id, template_id, request_data_json, status, "
+                + "priority, deadline, requested_by, batch_id, row_index, created_at, updated_at) FROM STDIN (FORMAT csv)");
+        verify(copyIn).endCopy();
+        verify(connection).close();
+
+        assertThat(first.getId()).isNotNull();
+        assertThat(first.getCreatedAt()).isNotNull().isEqualTo(first.getUpdatedAt());
+        String[] lines = copied.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(lines[0]).isEqualTo(String.join(",",
+                quoted(first.getId()), quoted(first.getTenantId()), quoted(first.getTemplateId()),
+                "\"{\"\"name\"\":\"\"Alice \\\"\"Al\\\"\"\"\"}\"", "\"PENDING\"", "\"NORMAL\"", "",
+                "\"user@example.com\"", quoted(first.getBatchId()),
+                "\"0\"", quoted(first.getCreatedAt()), quoted(first.getUpdatedAt())));
+        assertThat(lines[1]).contains("\"user@example.com\",,,\"");
+    }
+
+    @Test
+    void copiesCertificatesAndTokensInTheirOwnStatements() throws SQLException {
+        Certificate certificate = new Certificate();
+        certificate.setTenantId(UUID.randomUUID());
+        certificate.setTemplateId(UUID.randomUUID());
+        certificate.setDataJson("{}");
+        certificate.setStatus(CertificateStatus.PENDING);
+        certificate.setHash("pending");
+        certificate.setStoragePath("pending");
+        certificate.setCreatedBy("user@example.com");
+
+        writer.insertCertificates(List.of(certificate));
+        CertificateVerificationToken token = CertificateVerificationToken.create(certificate.getId(), "pending", null);
+        writer.insertTokens(List.of(token));
+
+        verify(copyManager).copyIn("COPY certificates (id, tenant_id, template_id, data_json, status, storage_path, "
+                + "hash, created_by, created_at, updated_at) FROM STDIN (FORMAT csv)");
+        verify(copyManager).copyIn("COPY certificate_verification_tokens (public_id, certificate_id, checksum, "
+                + "expires_at, created_at) FROM STDIN (FORMAT csv)");
+        assertThat(copied.toString(StandardCharsets.UTF_8))
+                .contains(quoted(token.getPublicId()) + "," + quoted(certificate.getId()) + ",\"pending\",,");
+    }
+
+    @Test
+    void failedCopyIsCancelledAndNothingIsSentForEmptyInput() throws SQLException {
+        writer.insertJobs(List.of());
+        verifyNoInteractions(dataSource);
+
+        when(copyIn.isActive()).thenReturn(true);
+        doThrow(new SQLException("connection reset")).when(copyIn).writeToCopy(any(byte[].class), anyInt(), anyInt());
+
+        assertThatThrownBy(() -> writer.insertJobs(List.of(job("{}", 0))))
+                .isInstanceOf(DataAccessException.class);
+        verify(copyIn).cancelCopy();
+        verify(copyIn, never()).endCopy();
+    }
+
+    private static CertificateJob job(String data, Integer rowIndex) {
+        CertificateJob job = new CertificateJob();
+        job.setTenantId(UUID.randomUUID());
+        job.setTemplateId(UUID.randomUUID());
+        job.setRequestDataJson(data);
+        job.setRequestedBy("user@example.com");
+        job.setBatchId(UUID.randomUUID());
+        job.setRowIndex(rowIndex);
+        return job;
+    }
+
+    private static String quoted(Object value) {
+        return "\"" + value + "\"";
+    }
+}
@@ -0,0 +1,177 @@
+package com.irembo.certify.certificate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.web.method.annotation.AuthenticationPrincipalArgumentResolver;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(MockitoExtension.class)
+class CertificateControllerTest {
+
+    private static final byte[] PDF = "%PDF-1.4 certificate body".getBytes(StandardCharsets.US_ASCII);
+    private static final String HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @Mock
+    private CertificateService certificateService;
+
+    @Mock
+    private CertificateExportService exportService;
+
+    @Mock
+    private CertificatePrintBatchService printBatchService;
+
+    @Mock
+    private CertificateJobEventStream eventStream;
+
+    private MockMvc mockMvc;
+    private final UUID certificateId = UUID.randomUUID();
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders
+                .standaloneSetup(new CertificateController(certificateService, exportService, printBatchService,
+                        eventStream))
+                .setCustomArgumentResolvers(new AuthenticationPrincipalArgumentResolver())
+                .build();
+        lenient().when(certificateService.downloadForCurrentTenant(certificateId))
+                .thenReturn(new CertificateDownload(new ByteArrayResource(PDF), HASH));
+    }
+
+    @Test
+    void downloadStreamsPdfWithHashAsETag() throws Exception {
+        mockMvc.perform(get("/api/v1/certificates/{id}/download", certificateId))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + HASH + "\""))
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/pdf"))
+                .andExpect(content().bytes(PDF));
+    }
+
+    @Test
+    void downloadAnswersMatchingIfNoneMatchWithNotModified() throws Exception {
+        mockMvc.perform(get("/api/v1/certificates/{id}/download", certificateId)
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"" + HASH + "\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    void downloadServesByteRanges() throws Exception {
+        mockMvc.perform(get("/api/v1/certificates/{id}/download", certificateId)
+                        .header(HttpHeaders.RANGE, "bytes=0-7"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 0-7/" + PDF.length))
+                .andExpect(content().bytes("%PDF-1.4".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void downloadRedirectsToPresignedUrlWhenStorageProvidesOne() throws Exception {
+        URI url = URI.create("https://bucket.example.com/tenant/certificate.pdf?X-Amz-Signature=abc");
+        when(certificateService.downloadForCurrentTenant(certificateId))
+                .thenReturn(CertificateDownload.redirect(url, HASH));
+
+        mockMvc.perform(get("/api/v1/certificates/{id}/download", certificateId))
+                .andExpect(status().isFound())
+                .andExpect(header().string(HttpHeaders.LOCATION, url.toString()))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-store"));
+    }
+
+    @Test
+    void exportStreamsZipAsynchronously() throws Exception {
+        CertificateExportService.CertificateExport export = mock(CertificateExportService.CertificateExport.class);
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(0).write(PDF);
+            return null;
+        }).when(export).writeTo(any(OutputStream.class));
+        when(exportService.startExport(null, Instant.parse("2024-01-01T00:00:00Z"), null)).thenReturn(export);
+
+        MvcResult result = mockMvc.perform(get("/api/v1/certificates/export").param("from", "2024-01-01T00:00:00Z"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/zip"))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=certificates.zip"))
+                .andExpect(content().bytes(PDF));
+        verify(export).abandon();
+    }
+
+    @Test
+    void exportThatNeverStartsGivesItsSlotBack() throws Exception {
+        CertificateExportService.CertificateExport export = mock(CertificateExportService.CertificateExport.class);
+        when(exportService.startExport(null, null, null)).thenReturn(export);
+
+        MvcResult result = mockMvc.perform(get("/api/v1/certificates/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        // The client goes away before the body is dispatched.
+        result.getRequest().getAsyncContext().complete();
+
+        verify(export).abandon();
+    }
+
+    @Test
+    void printBatchStreamsTheMergedPdf() throws Exception {
+        CertificatePrintBatchService.PrintBatch batch = mock(CertificatePrintBatchService.PrintBatch.class);
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(0).write(PDF);
+            return null;
+        }).when(batch).writeTo(any(OutputStream.class));
+        when(printBatchService.startBatch(any(), any())).thenReturn(batch);
+
+        MvcResult result = mockMvc.perform(post("/api/v1/certificates/print-batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"templateId\":\"" + UUID.randomUUID() + "\",\"rows\":[{\"name\":\"Alice\"}]}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_PDF_VALUE))
+                .andExpect(content().bytes(PDF));
+        verify(batch).abandon();
+    }
+
+    @Test
+    void printBatchThatNeverStartsGivesItsSlotBack() throws Exception {
+        CertificatePrintBatchService.PrintBatch batch = mock(CertificatePrintBatchService.PrintBatch.class);
+        when(printBatchService.startBatch(any(), any())).thenReturn(batch);
+
+        MvcResult result = mockMvc.perform(post("/api/v1/certificates/print-batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"templateId\":\"" + UUID.randomUUID() + "\",\"rows\":[{\"name\":\"Alice\"}]}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getRequest().getAsyncContext().complete();
+
+        verify(batch).abandon();
+    }
+}
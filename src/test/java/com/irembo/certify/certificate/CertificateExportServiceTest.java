@@ -0,0 +1,140 @@
+package com.irembo.certify.certificate;
+
+import com.irembo.certify.common.TenantContextHolder;
+import com.irembo.certify.storage.StorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.unit.DataSize;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CertificateExportServiceTest {
+
+    private static final byte[] SMALL = "%PDF-1.4 small".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LARGE = "%PDF-1.4 larger than the entry buffer".getBytes(StandardCharsets.US_ASCII);
+
+    private final UUID tenantId = UUID.randomUUID();
+    private final DataSource dataSource = mock(DataSource.class);
+    private final Connection connection = mock(Connection.class);
+    private final PreparedStatement statement = mock(PreparedStatement.class);
+    private final ResultSet resultSet = mock(ResultSet.class);
+    private final StorageService storageService = mock(StorageService.class);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        TenantContextHolder.setTenantId(tenantId);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+    }
+
+    @AfterEach
+    void tearDown() {
+        TenantContextHolder.clear();
+    }
+
+    @Test
+    void streamsEveryCertificateAsStoredEntryAndListsMissingOnes() throws Exception {
+        UUID small = UUID.randomUUID();
+        UUID large = UUID.randomUUID();
+        UUID missing = UUID.randomUUID();
+        Timestamp createdAt = Timestamp.from(Instant.parse("2024-06-01T10:00:00Z"));
+        when(resultSet.next()).thenReturn(true, true, true, false);
+        when(resultSet.getObject("id", UUID.class)).thenReturn(small, large, missing);
+        when(resultSet.getString("storage_path")).thenReturn("cas/small", "cas/large", "cas/missing");
+        when(resultSet.getTimestamp("created_at")).thenReturn(createdAt);
+        when(storageService.open("cas/small")).thenReturn(new ByteArrayResource(SMALL));
+        when(storageService.open("cas/large")).thenReturn(new ByteArrayResource(LARGE));
+        when(storageService.open("cas/missing")).thenThrow(new IllegalStateException("Stored certificate not found"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service(2).startExport(null, null, null).writeTo(out);
+
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry = zip.getNextEntry();
+            assertThat(entry.getName()).isEqualTo("certificate-" + small + ".pdf");
+            assertThat(entry.getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(zip.readAllBytes()).isEqualTo(SMALL);
+            assertThat(zip.getNextEntry().getName()).isEqualTo("certificate-" + large + ".pdf");
+            assertThat(zip.readAllBytes()).isEqualTo(LARGE);
+            assertThat(zip.getNextEntry().getName()).isEqualTo("MISSING.txt");
+            assertThat(new String(zip.readAllBytes(), StandardCharsets.UTF_8)).contains(missing.toString());
+            assertThat(zip.getNextEntry()).isNull();
+        }
+        verify(statement).setObject(1, tenantId);
+        verify(statement).setFetchSize(100);
+    }
+
+    @Test
+    void filtersAreBoundInOrder() throws Exception {
+        UUID templateId = UUID.randomUUID();
+        Instant from = Instant.parse("2024-01-01T00:00:00Z");
+        Instant to = Instant.parse("2024-02-01T00:00:00Z");
+        when(resultSet.next()).thenReturn(false);
+
+        service(2).startExport(templateId, from, to).writeTo(new ByteArrayOutputStream());
+
+        verify(statement).setObject(1, tenantId);
+        verify(statement).setObject(2, templateId);
+        verify(statement).setObject(3, Timestamp.from(from));
+        verify(statement).setObject(4, Timestamp.from(to));
+    }
+
+    @Test
+    void rejectsExportsBeyondTheSlotLimitUntilOneFinishes() throws Exception {
+        when(resultSet.next()).thenReturn(false);
+        CertificateExportService service = service(1);
+
+        CertificateExportService.CertificateExport running = service.startExport(null, null, null);
+        assertThatThrownBy(() -> service.startExport(null, null, null))
+                .isInstanceOf(ExportRejectedException.class);
+
+        running.writeTo(new ByteArrayOutputStream());
+        // Completing the request afterwards must not free the slot a second time.
+        running.abandon();
+        assertThat(service.startExport(null, null, null)).isNotNull();
+        assertThatThrownBy(() -> service.startExport(null, null, null))
+                .isInstanceOf(ExportRejectedException.class);
+    }
+
+    @Test
+    void abandonedExportGivesItsSlotBackAndCannotBeWritten() {
+        CertificateExportService service = service(1);
+
+        CertificateExportService.CertificateExport abandoned = service.startExport(null, null, null);
+        abandoned.abandon();
+        abandoned.abandon();
+
+        assertThatThrownBy(() -> abandoned.writeTo(new ByteArrayOutputStream()))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(service.startExport(null, null, null)).isNotNull();
+        assertThatThrownBy(() -> service.startExport(null, null, null))
+                .isInstanceOf(ExportRejectedException.class);
+    }
+
+    private CertificateExportService service(int maxConcurrent) {
+        return new CertificateExportService(dataSource, mock(PlatformTransactionManager.class), storageService,
+                new CertificateExportProperties(maxConcurrent, 100, DataSize.ofBytes(SMALL.length)));
+    }
+}
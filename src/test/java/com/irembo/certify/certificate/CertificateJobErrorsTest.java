@@ -0,0 +1,68 @@
+package com.irembo.certify.certificate;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.exc.InvalidDefinitionException;
+import com.irembo.certify.pdf.RenderLane;
+import com.irembo.certify.pdf.RenderRejectedException;
+import org.junit.jupiter.api.Test;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.PSQLState;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataIntegrityViolationException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.nio.charset.MalformedInputException;
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.zip.ZipException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CertificateJobErrorsTest {
+
+    @Test
+    void transientFailuresAreRetryableWhereverTheyAreInTheCauseChain() {
+        assertThat(CertificateJobErrors.isRetryable(new RenderRejectedException(RenderLane.BULK, Duration.ofSeconds(1))))
+                .isTrue();
+        assertThat(CertificateJobErrors.isRetryable(
+                new IllegalStateException("Failed to store certificate PDF", new IOException("No space left"))))
+                .isTrue();
+        assertThat(CertificateJobErrors.isRetryable(new CannotAcquireLockException("lock timeout"))).isTrue();
+        assertThat(CertificateJobErrors.isRetryable(new IllegalStateException("Failed to store certificate PDF",
+                new PSQLException("deadlock detected", PSQLState.DEADLOCK_DETECTED))))
+                .isTrue();
+        assertThat(CertificateJobErrors.isRetryable(new IllegalStateException("Failed to store certificate PDF",
+                SdkClientException.create("Unable to execute HTTP request")))).isTrue();
+    }
+
+    @Test
+    void failuresThatWouldRepeatArePermanent() {
+        assertThat(CertificateJobErrors.isRetryable(new NoSuchElementException("Template not found"))).isFalse();
+        assertThat(CertificateJobErrors.isRetryable(new IllegalArgumentException("Missing placeholder"))).isFalse();
+        assertThat(CertificateJobErrors.isRetryable(new DataIntegrityViolationException("duplicate key"))).isFalse();
+        assertThat(CertificateJobErrors.isRetryable(
+                new IllegalStateException("Stored certificate not found", new FileNotFoundException("a.pdf"))))
+                .isFalse();
+        assertThat(CertificateJobErrors.isRetryable(new IllegalStateException("Failed to store certificate PDF",
+                NoSuchBucketException.builder().message("The specified bucket does not exist").build())))
+                .isFalse();
+        assertThat(CertificateJobErrors.isRetryable(new IllegalStateException("Failed to parse certificate data",
+                new JsonParseException(null, "Unexpected character ('}')")))).isFalse();
+        assertThat(CertificateJobErrors.isRetryable(new IllegalStateException("Failed to serialize certificate data",
+                InvalidDefinitionException.from((JsonGenerator) null, "No serializer found", (JavaType) null))))
+                .isFalse();
+        assertThat(CertificateJobErrors.isRetryable(new UncheckedIOException(new MalformedURLException("no protocol"))))
+                .isFalse();
+        assertThat(CertificateJobErrors.isRetryable(new UncheckedIOException(new MalformedInputException(1))))
+                .isFalse();
+        assertThat(CertificateJobErrors.isRetryable(new UncheckedIOException(new ZipException("invalid entry"))))
+                .isFalse();
+    }
+}
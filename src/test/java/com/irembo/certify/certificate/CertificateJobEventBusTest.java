@@ -0,0 +1,110 @@
+package com.irembo.certify.certificate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class CertificateJobEventBusTest {
+
+    private final CertificateJobNotifier notifier = mock(CertificateJobNotifier.class);
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final CertificateJobEventBus bus = new CertificateJobEventBus(
+            notifier,
+            objectMapper,
+            new CertificateJobProperties(50, 4, false, Duration.ofMinutes(5), 1000,
+                    Duration.ofSeconds(1), Duration.ofSeconds(30), true, 0, 0,
+                    5, Duration.ofSeconds(10), Duration.ofMinutes(10), Duration.ofHours(1)),
+            new CertificateJobEventProperties(100, 16, Duration.ofMinutes(1), 100),
+            new SimpleMeterRegistry()
+    );
+
+    private final UUID tenantId = UUID.randomUUID();
+    private final UUID batchId = UUID.randomUUID();
+
+    @AfterEach
+    void stopRelay() {
+        bus.stopRelay();
+    }
+
+    @Test
+    void deliversToJobBatchAndTenantSubscribersUntilCancelled() {
+        CertificateJobEvent event = event(UUID.randomUUID(), batchId);
+        List<CertificateJobEvent> jobEvents = new ArrayList<>();
+        List<CertificateJobEvent> batchEvents = new ArrayList<>();
+        List<CertificateJobEvent> tenantEvents = new ArrayList<>();
+        List<CertificateJobEvent> otherEvents = new ArrayList<>();
+        CertificateJobEventBus.Subscription job = bus.subscribeToJob(event.jobId(), jobEvents::add);
+        bus.subscribeToBatch(batchId, batchEvents::add);
+        bus.subscribeToTenant(tenantId, tenantEvents::add);
+        bus.subscribeToTenant(UUID.randomUUID(), otherEvents::add);
+
+        bus.publish(event);
+        job.cancel();
+        bus.publish(event);
+
+        assertThat(jobEvents).containsExactly(event);
+        assertThat(batchEvents).containsExactly(event, event);
+        assertThat(tenantEvents).containsExactly(event, event);
+        assertThat(otherEvents).isEmpty();
+    }
+
+    @Test
+    void relaysEventsToOtherNodesAndIgnoresItsOwn() throws Exception {
+        CertificateJobEvent event = event(UUID.randomUUID(), null);
+        List<CertificateJobEvent> received = new ArrayList<>();
+        bus.subscribeToJob(event.jobId(), received::add);
+
+        bus.startRelay();
+        bus.publish(event);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<String>> payloads = ArgumentCaptor.forClass(List.class);
+        verify(notifier, timeout(5000)).jobEvents(payloads.capture());
+        assertThat(payloads.getValue()).hasSize(1);
+
+        // Every node hears its own notifications; those were delivered when published.
+        bus.receive(payloads.getValue().get(0));
+        assertThat(received).containsExactly(event);
+
+        bus.receive(objectMapper.writeValueAsString(new CertificateJobEventBus.RelayedEvent("other-node", event)));
+        bus.receive("not json");
+        assertThat(received).containsExactly(event, event);
+    }
+
+    @Test
+    void doesNotRelayWhenNodesDoNotListen() {
+        CertificateJobEventBus local = new CertificateJobEventBus(
+                notifier,
+                objectMapper,
+                new CertificateJobProperties(50, 4, false, Duration.ofMinutes(5), 1000,
+                        Duration.ofSeconds(1), Duration.ofSeconds(30), false, 0, 0,
+                        5, Duration.ofSeconds(10), Duration.ofMinutes(10), Duration.ofHours(1)),
+                new CertificateJobEventProperties(100, 16, Duration.ofMinutes(1), 1),
+                new SimpleMeterRegistry()
+        );
+        local.startRelay();
+        local.publish(event(UUID.randomUUID(), null));
+
+        verify(notifier, after(200).never()).jobEvents(anyList());
+    }
+
+    private CertificateJobEvent event(UUID jobId, UUID batchId) {
+        return new CertificateJobEvent(jobId, tenantId, batchId, 3, CertificateJobStatus.COMPLETED,
+                UUID.randomUUID(), null, 1, null, Instant.parse("2024-01-01T00:00:00Z"));
+    }
+}
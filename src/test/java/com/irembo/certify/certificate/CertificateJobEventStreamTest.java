@@ -0,0 +1,102 @@
+package com.irembo.certify.certificate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.irembo.certify.common.TenantContextHolder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.web.method.annotation.AuthenticationPrincipalArgumentResolver;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+class CertificateJobEventStreamTest {
+
+    private final CertificateService certificateService = mock(CertificateService.class);
+    private final CertificateJobEventBus bus = new CertificateJobEventBus(
+            mock(CertificateJobNotifier.class),
+            new ObjectMapper(),
+            new CertificateJobProperties(50, 4, false, Duration.ofMinutes(5), 1000,
+                    Duration.ofSeconds(1), Duration.ofSeconds(30), false, 0, 0,
+                    5, Duration.ofSeconds(10), Duration.ofMinutes(10), Duration.ofHours(1)),
+            new CertificateJobEventProperties(2, 16, Duration.ofMinutes(1), 100),
+            new SimpleMeterRegistry()
+    );
+    private final CertificateJobEventStream stream = new CertificateJobEventStream(
+            bus, new CertificateJobEventProperties(2, 16, Duration.ofMinutes(1), 100), new SimpleMeterRegistry());
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders
+                .standaloneSetup(new CertificateController(certificateService, mock(CertificateExportService.class),
+                        mock(CertificatePrintBatchService.class), stream))
+                .setCustomArgumentResolvers(new AuthenticationPrincipalArgumentResolver())
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TenantContextHolder.clear();
+        stream.shutdown();
+    }
+
+    @Test
+    void jobStreamStartsWithTheCurrentStateAndFollowsPublishedEvents() throws Exception {
+        CertificateJob job = new CertificateJob();
+        job.setId(UUID.randomUUID());
+        job.setTenantId(UUID.randomUUID());
+        job.setTemplateId(UUID.randomUUID());
+        job.setStatus(CertificateJobStatus.PROCESSING);
+        when(certificateService.getJobForCurrentTenant(job.getId())).thenReturn(job);
+
+        MvcResult result = mockMvc.perform(get("/api/v1/certificates/jobs/{id}/events", job.getId()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        job.setStatus(CertificateJobStatus.COMPLETED);
+        bus.publish(CertificateJobEvent.of(job, Instant.now()));
+
+        await().untilAsserted(() -> assertThat(result.getResponse().getContentAsString())
+                .startsWith("event:job\ndata:{\"jobId\":\"" + job.getId() + "\"")
+                .containsSubsequence("\"status\":\"PROCESSING\"", "event:job\n", "\"status\":\"COMPLETED\""));
+        assertThat(result.getResponse().getContentType()).startsWith("text/event-stream");
+    }
+
+    @Test
+    void releasesTheStreamWhenTheSnapshotCannotBeRead() {
+        UUID jobId = UUID.randomUUID();
+
+        assertThatThrownBy(() -> stream.streamJob(jobId, () -> {
+            throw new NoSuchElementException("Job not found");
+        })).isInstanceOf(NoSuchElementException.class);
+
+        assertThat(stream.openStreams()).isZero();
+    }
+
+    @Test
+    void rejectsStreamsBeyondTheLimit() {
+        TenantContextHolder.setTenantId(UUID.randomUUID());
+        stream.streamCurrentTenant();
+        stream.streamCurrentTenant();
+
+        assertThatThrownBy(stream::streamCurrentTenant)
+                .isInstanceOf(EventStreamRejectedException.class);
+        assertThat(stream.openStreams()).isEqualTo(2);
+    }
+}
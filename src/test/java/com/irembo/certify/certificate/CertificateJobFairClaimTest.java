@@ -0,0 +1,200 @@
+package com.irembo.certify.certificate;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Simulates workers draining the queue with the real claim query, one claim per tick.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class CertificateJobFairClaimTest {
+
+    private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+
+    @Container
+    static final PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private static NamedParameterJdbcTemplate jdbc;
+
+    private final Map<UUID, Integer> finishesAt = new HashMap<>();
+    private final Map<UUID, UUID> tenantOfJob = new HashMap<>();
+
+    @BeforeAll
+    static void migrate() {
+        Flyway.configure()
+                .dataSource(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword())
+                .locations("classpath:db/migration")
+                .load()
+                .migrate();
+        jdbc = new NamedParameterJdbcTemplate(new DriverManagerDataSource(
+                postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword()));
+    }
+
+    @BeforeEach
+    void clean() {
+        jdbc.getJdbcTemplate().execute("TRUNCATE certificate_jobs, certificate_batches, tenants CASCADE");
+    }
+
+    @Test
+    void smallTenantWaitsAtMostOneJobDurationBehindAFlood() {
+        UUID flooding = tenant("flooding", 1);
+        UUID small = tenant("small", 1);
+        queue(flooding, 5000, START);
+
+        int workers = 4;
+        int jobTicks = 3;
+        Map<UUID, Integer> queuedAt = new HashMap<>();
+        List<Integer> waits = new ArrayList<>();
+        for (int tick = 0; tick < 200; tick++) {
+            finishJobsDueAt(tick);
+            if (tick % 10 == 5) {
+                queuedAt.put(queue(small, 1, START.plusSeconds(3600 + tick)).get(0), tick);
+            }
+            for (UUID id : claim(workers - finishesAt.size(), tick + jobTicks)) {
+                if (small.equals(tenantOfJob.get(id))) {
+                    waits.add(tick - queuedAt.get(id));
+                }
+            }
+        }
+
+        // Strict FIFO would keep every one of them behind the 5000 older jobs.
+        assertThat(waits).hasSize(queuedAt.size());
+        assertThat(waits).allSatisfy(wait -> assertThat(wait).isLessThanOrEqualTo(jobTicks));
+    }
+
+    @Test
+    void tenantsWithBacklogsShareWorkersByWeight() {
+        UUID heavy = tenant("heavy", 3);
+        UUID light = tenant("light", 1);
+        queue(light, 2000, START);
+        queue(heavy, 2000, START.plusSeconds(60));
+
+        Map<UUID, Integer> claimed = new HashMap<>();
+        for (int tick = 0; tick < 200; tick++) {
+            finishJobsDueAt(tick);
+            for (UUID id : claim(8 - finishesAt.size(), tick + 2)) {
+                claimed.merge(tenantOfJob.get(id), 1, Integer::sum);
+            }
+        }
+
+        double ratio = claimed.get(heavy) / (double) claimed.get(light);
+        assertThat(ratio).isBetween(2.5, 3.5);
+    }
+
+    @Test
+    void claimsOnlyFromTheRequestedLaneAndEarliestDeadlineFirst() {
+        UUID tenant = tenant("deadlines", 1);
+        queue(tenant, 3, START);
+        UUID urgent = queue(tenant, 1, START.plusSeconds(60)).get(0);
+        jdbc.update("UPDATE certificate_jobs SET deadline = :deadline WHERE id = :id", new MapSqlParameterSource()
+                .addValue("deadline", Timestamp.from(START.plusSeconds(120)))
+                .addValue("id", urgent));
+        UUID high = queue(tenant, 1, START).get(0);
+        jdbc.update("UPDATE certificate_jobs SET priority = 'HIGH' WHERE id = :id",
+                new MapSqlParameterSource("id", high));
+
+        assertThat(claim(CertificateJobPriority.NORMAL, 1, 1)).containsExactly(urgent);
+        assertThat(claim(CertificateJobPriority.NORMAL, 10, 1)).hasSize(3).doesNotContain(high);
+        assertThat(claim(CertificateJobPriority.HIGH, 10, 1)).containsExactly(high);
+    }
+
+    @Test
+    void skipsJobsWaitingOutABackoffOrDeadLetteredAndCountsAttempts() {
+        UUID tenant = tenant("retries", 1);
+        List<UUID> ids = queue(tenant, 3, START);
+        jdbc.update("""
+                UPDATE certificate_jobs SET attempts = 1, next_attempt_at = now() + interval '1 hour' WHERE id = :id
+                """, new MapSqlParameterSource("id", ids.get(0)));
+        jdbc.update("UPDATE certificate_jobs SET status = 'DEAD_LETTER', attempts = 5 WHERE id = :id",
+                new MapSqlParameterSource("id", ids.get(1)));
+
+        assertThat(claim(10, 1)).containsExactly(ids.get(2));
+        assertThat(jdbc.queryForObject("SELECT attempts FROM certificate_jobs WHERE id = :id",
+                new MapSqlParameterSource("id", ids.get(2)), Integer.class)).isEqualTo(1);
+
+        jdbc.update("UPDATE certificate_jobs SET next_attempt_at = now() - interval '1 second' WHERE id = :id",
+                new MapSqlParameterSource("id", ids.get(0)));
+        assertThat(claim(10, 1)).containsExactly(ids.get(0));
+    }
+
+    private List<UUID> claim(int limit, int finishTick) {
+        return claim(CertificateJobPriority.NORMAL, limit, finishTick);
+    }
+
+    private List<UUID> claim(CertificateJobPriority priority, int limit, int finishTick) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        List<UUID> ids = jdbc.query(CertificateJobRepository.CLAIM_NEXT_BATCH_SQL, new MapSqlParameterSource()
+                        .addValue("owner", "simulation")
+                        .addValue("leaseSeconds", 300L)
+                        .addValue("priority", priority.name())
+                        .addValue("limit", limit),
+                (rs, row) -> {
+                    UUID id = rs.getObject("id", UUID.class);
+                    tenantOfJob.put(id, rs.getObject("tenant_id", UUID.class));
+                    return id;
+                });
+        ids.forEach(id -> finishesAt.put(id, finishTick));
+        return ids;
+    }
+
+    private void finishJobsDueAt(int tick) {
+        List<UUID> done = finishesAt.entrySet().stream()
+                .filter(entry -> entry.getValue() <= tick)
+                .map(Map.Entry::getKey)
+                .toList();
+        if (done.isEmpty()) {
+            return;
+        }
+        jdbc.update("UPDATE certificate_jobs SET status = 'COMPLETED', lease_owner = NULL WHERE id IN (:ids)",
+                new MapSqlParameterSource("ids", done));
+        done.forEach(finishesAt::remove);
+    }
+
+    private static UUID tenant(String slug, int jobWeight) {
+        UUID id = UUID.randomUUID();
+        jdbc.update("""
+                INSERT INTO tenants (id, name, slug, job_weight, created_at, updated_at)
+                VALUES (:id, :slug, :slug, :jobWeight, now(), now())
+                """, new MapSqlParameterSource()
+                .addValue("id", id)
+                .addValue("slug", slug)
+                .addValue("jobWeight", jobWeight));
+        return id;
+    }
+
+    private List<UUID> queue(UUID tenantId, int count, Instant createdAt) {
+        List<UUID> ids = jdbc.queryForList("""
+                INSERT INTO certificate_jobs (id, tenant_id, template_id, request_data_json, status, requested_by,
+                                              created_at, updated_at)
+                SELECT gen_random_uuid(), :tenantId, :tenantId, CAST('{}' AS jsonb), 'PENDING', 'simulation',
+                       CAST(:createdAt AS timestamptz) + n * interval '1 millisecond', now()
+                FROM generate_series(1, :count) n
+                RETURNING id
+                """, new MapSqlParameterSource()
+                .addValue("tenantId", tenantId)
+                .addValue("createdAt", Timestamp.from(createdAt))
+                .addValue("count", count), UUID.class);
+        ids.forEach(id -> tenantOfJob.put(id, tenantId));
+        return ids;
+    }
+}
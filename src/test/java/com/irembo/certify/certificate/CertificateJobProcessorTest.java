@@ -1,18 +1,39 @@
 package com.irembo.certify.certificate;
 
 import com.irembo.certify.certificate.dto.CertificateResponse;
+import com.irembo.certify.pdf.RenderLane;
+import com.irembo.certify.pdf.RenderRejectedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -24,27 +45,27 @@ class CertificateJobProcessorTest {
     @Mock
     private CertificateService certificateService;
 
+    @Mock
+    private CertificateJobEventBus eventBus;
+
+    private CertificateJobProcessor processor;
+
+    @AfterEach
+    void shutdownProcessor() {
+        if (processor != null) {
+            processor.shutdown();
+        }
+    }
+
     @Test
     void processSingleJobCompletesSuccessfully() {
-        UUID jobId = UUID.randomUUID();
-        UUID tenantId = UUID.randomUUID();
-        UUID templateId = UUID.randomUUID();
         UUID certificateId = UUID.randomUUID();
-
-        CertificateJob job = new CertificateJob();
-        job.setId(jobId);
-        job.setTenantId(tenantId);
-        job.setTemplateId(templateId);
-        job.setStatus(CertificateJobStatus.PROCESSING);
-        job.setRequestDataJson("{}");
-        job.setRequestedBy("user@example.com");
-
-        when(jobRepository.findById(jobId)).thenReturn(Optional.of(job));
+        CertificateJob job = claimedJob();
 
         CertificateResponse certificateResponse = new CertificateResponse(
                 certificateId,
-                templateId,
-                tenantId,
+                job.getTemplateId(),
+                job.getTenantId(),
                 CertificateStatus.GENERATED,
                 "path",
                 "hash",
@@ -55,37 +76,211 @@ class CertificateJobProcessorTest {
                 "http://verify.test/public/verify/" + certificateId
         );
         when(certificateService.processJob(any(CertificateJob.class))).thenReturn(certificateResponse);
+        when(jobRepository.finishJob(any(), anyString(), any(), any(), any(), any())).thenReturn(1);
 
-        CertificateJobProcessor processor = new CertificateJobProcessor(jobRepository, certificateService);
-        processor.processSingleJob(jobId);
+        processor = newProcessor(1);
+        processor.processSingleJob(job);
 
         assertThat(job.getStatus()).isEqualTo(CertificateJobStatus.COMPLETED);
         assertThat(job.getCertificateId()).isEqualTo(certificateId);
         assertThat(job.getErrorMessage()).isNull();
+        verify(jobRepository).finishJob(eq(job.getId()), eq(processor.getNodeId()),
+                eq(CertificateJobStatus.COMPLETED), eq(certificateId), isNull(), any(Instant.class));
+        verify(eventBus).publish(argThat(event -> event.jobId().equals(job.getId())
+                && event.status() == CertificateJobStatus.COMPLETED
+                && certificateId.equals(event.certificateId())));
     }
 
     @Test
     void processSingleJobMarksFailedOnException() {
-        UUID jobId = UUID.randomUUID();
-        UUID tenantId = UUID.randomUUID();
-        UUID templateId = UUID.randomUUID();
+        CertificateJob job = claimedJob();
 
-        CertificateJob job = new CertificateJob();
-        job.setId(jobId);
-        job.setTenantId(tenantId);
-        job.setTemplateId(templateId);
-        job.setStatus(CertificateJobStatus.PROCESSING);
-        job.setRequestDataJson("{}");
-        job.setRequestedBy("user@example.com");
-
-        when(jobRepository.findById(jobId)).thenReturn(Optional.of(job));
         when(certificateService.processJob(any(CertificateJob.class)))
                 .thenThrow(new IllegalStateException("boom"));
 
-        CertificateJobProcessor processor = new CertificateJobProcessor(jobRepository, certificateService);
-        processor.processSingleJob(jobId);
+        processor = newProcessor(1);
+        processor.processSingleJob(job);
 
         assertThat(job.getStatus()).isEqualTo(CertificateJobStatus.FAILED);
         assertThat(job.getErrorMessage()).contains("boom");
+        verify(jobRepository).finishJob(eq(job.getId()), eq(processor.getNodeId()),
+                eq(CertificateJobStatus.FAILED), isNull(), contains("boom"), any(Instant.class));
+        // The lease was lost (no row updated), so the outcome is not announced.
+        verify(eventBus, never()).publish(any());
+    }
+
+    @Test
+    void transientFailureIsRetriedAfterABackoff() {
+        CertificateJob job = claimedJob();
+        when(certificateService.processJob(any(CertificateJob.class)))
+                .thenThrow(new RenderRejectedException(RenderLane.BULK, Duration.ofSeconds(1)));
+        when(jobRepository.retryJob(any(), anyString(), anyString(), any(), any())).thenReturn(1);
+
+        processor = newProcessor(1);
+        Instant before = Instant.now();
+        processor.processSingleJob(job);
+
+        assertThat(job.getStatus()).isEqualTo(CertificateJobStatus.PENDING);
+        assertThat(job.getNextAttemptAt()).isBetween(before.plusSeconds(5), Instant.now().plusSeconds(10));
+        verify(jobRepository).retryJob(eq(job.getId()), eq(processor.getNodeId()), contains("busy"),
+                eq(job.getNextAttemptAt()), any(Instant.class));
+        verify(jobRepository, never()).finishJob(any(), any(), any(), any(), any(), any());
+        verify(eventBus).publish(argThat(event -> event.status() == CertificateJobStatus.PENDING
+                && event.nextAttemptAt() != null));
+    }
+
+    @Test
+    void transientFailureOnTheLastAttemptMovesTheJobToTheDeadLetterQueue() {
+        CertificateJob job = claimedJob();
+        job.setAttempts(3);
+        when(certificateService.processJob(any(CertificateJob.class)))
+                .thenThrow(new IllegalStateException("Failed to store certificate PDF",
+                        new IOException("Connection reset")));
+
+        processor = newProcessor(1);
+        processor.processSingleJob(job);
+
+        assertThat(job.getStatus()).isEqualTo(CertificateJobStatus.DEAD_LETTER);
+        verify(jobRepository).finishJob(eq(job.getId()), eq(processor.getNodeId()),
+                eq(CertificateJobStatus.DEAD_LETTER), isNull(), contains("Failed to store"), any(Instant.class));
+        verify(jobRepository, never()).retryJob(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void jobClaimedMoreOftenThanItMayBeIsDeadLetteredWithoutProcessing() {
+        CertificateJob job = claimedJob();
+        job.setAttempts(4);
+
+        processor = newProcessor(1);
+        processor.processSingleJob(job);
+
+        verify(certificateService, never()).processJob(any());
+        verify(jobRepository).finishJob(eq(job.getId()), eq(processor.getNodeId()),
+                eq(CertificateJobStatus.DEAD_LETTER), isNull(), contains("3 attempts"), any(Instant.class));
+    }
+
+    @Test
+    void retryDelayDoublesPerAttemptWithJitterUpToTheMaximum() {
+        processor = newProcessor(1);
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(processor.retryDelay(1)).isBetween(Duration.ofSeconds(5), Duration.ofSeconds(10));
+            assertThat(processor.retryDelay(3)).isBetween(Duration.ofSeconds(20), Duration.ofSeconds(40));
+            assertThat(processor.retryDelay(50)).isBetween(Duration.ofMinutes(5), Duration.ofMinutes(10));
+        }
+    }
+
+    @Test
+    void eachLaneClaimsNoMoreJobsThanItsFreeWorkers() {
+        CountDownLatch release = new CountDownLatch(1);
+        CertificateJob first = claimedJob();
+        CertificateJob second = claimedJob();
+
+        when(jobRepository.claimNextBatch(anyString(), anyLong(), any(CertificateJobPriority.class), anyInt()))
+                .thenAnswer(invocation -> invocation.getArgument(2) == CertificateJobPriority.LOW
+                        ? List.of(first, second)
+                        : List.of());
+        when(certificateService.processJob(any(CertificateJob.class))).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            throw new IllegalStateException("done");
+        });
+
+        processor = newProcessor(2);
+        processor.pollAndProcessJobs();
+
+        // Both low-priority workers are busy, so the next poll must not claim for that lane,
+        // while the high-priority lane still has its own workers.
+        processor.pollAndProcessJobs();
+        verify(jobRepository).claimNextBatch(anyString(), anyLong(), eq(CertificateJobPriority.LOW), eq(2));
+        verify(jobRepository, times(2))
+                .claimNextBatch(anyString(), anyLong(), eq(CertificateJobPriority.HIGH), eq(2));
+
+        release.countDown();
+        verify(jobRepository, timeout(5000)).finishJob(eq(first.getId()), anyString(),
+                eq(CertificateJobStatus.FAILED), isNull(), anyString(), any(Instant.class));
+        verify(jobRepository, timeout(5000)).finishJob(eq(second.getId()), anyString(),
+                eq(CertificateJobStatus.FAILED), isNull(), anyString(), any(Instant.class));
+    }
+
+    @Test
+    void renewLeasesSkipsRoundTripWhenIdle() {
+        processor = newProcessor(1);
+        processor.renewLeases();
+
+        verify(jobRepository, never()).renewLeases(anyCollection(), anyString(), anyLong());
+    }
+
+    @Test
+    void requeueExpiredLeasesDelegatesToRepository() {
+        when(jobRepository.requeueExpiredLeases()).thenReturn(3);
+
+        processor = newProcessor(1);
+        processor.requeueExpiredLeases();
+
+        verify(jobRepository).requeueExpiredLeases();
+    }
+
+    @Test
+    void dispatcherClaimsAsSoonAsItIsWokenUp() {
+        when(jobRepository.claimNextBatch(anyString(), anyLong(), any(CertificateJobPriority.class), anyInt()))
+                .thenReturn(List.of());
+
+        processor = newProcessor(1, Duration.ofMinutes(10));
+        processor.setNotificationsActive(true);
+        processor.startDispatcher();
+        verify(jobRepository, timeout(5000))
+                .claimNextBatch(anyString(), anyLong(), eq(CertificateJobPriority.HIGH), anyInt());
+
+        processor.wakeUp();
+        verify(jobRepository, timeout(5000).times(2))
+                .claimNextBatch(anyString(), anyLong(), eq(CertificateJobPriority.HIGH), anyInt());
+    }
+
+    @Test
+    void finishedWorkerLooksForMoreJobsAfterAFullClaim() {
+        CertificateJob job = claimedJob();
+        AtomicBoolean claimed = new AtomicBoolean();
+        when(jobRepository.claimNextBatch(anyString(), anyLong(), any(CertificateJobPriority.class), anyInt()))
+                .thenAnswer(invocation -> invocation.getArgument(2) == CertificateJobPriority.NORMAL
+                        && claimed.compareAndSet(false, true) ? List.of(job) : List.of());
+        when(certificateService.processJob(any(CertificateJob.class))).thenThrow(new IllegalStateException("boom"));
+
+        // The poll interval is far away, so only the freed worker can trigger the second claim.
+        processor = newProcessor(1, Duration.ofMinutes(10));
+        processor.startDispatcher();
+
+        verify(jobRepository, timeout(5000).times(2))
+                .claimNextBatch(anyString(), anyLong(), eq(CertificateJobPriority.NORMAL), eq(1));
+    }
+
+    private CertificateJobProcessor newProcessor(int laneWorkers) {
+        return newProcessor(laneWorkers, Duration.ofSeconds(1));
+    }
+
+    /**
+     * A processor with {@code laneWorkers} workers in each lane.
+     */
+    private CertificateJobProcessor newProcessor(int laneWorkers, Duration pollInterval) {
+        return new CertificateJobProcessor(
+                jobRepository,
+                certificateService,
+                eventBus,
+                new CertificateJobProperties(50, 3 * laneWorkers, false, Duration.ofMinutes(5), 1000,
+                        pollInterval, Duration.ofMinutes(30), true, laneWorkers, laneWorkers,
+                        3, Duration.ofSeconds(10), Duration.ofMinutes(10), Duration.ofHours(1)),
+                new SimpleMeterRegistry()
+        );
+    }
+
+    private CertificateJob claimedJob() {
+        CertificateJob job = new CertificateJob();
+        job.setId(UUID.randomUUID());
+        job.setTenantId(UUID.randomUUID());
+        job.setTemplateId(UUID.randomUUID());
+        job.setStatus(CertificateJobStatus.PROCESSING);
+        job.setAttempts(1);
+        job.setRequestDataJson("{}");
+        job.setRequestedBy("user@example.com");
+        return job;
     }
 }
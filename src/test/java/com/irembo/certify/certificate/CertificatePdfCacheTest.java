@@ -0,0 +1,156 @@
+package com.irembo.certify.certificate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+class CertificatePdfCacheTest {
+
+    private static final byte[] PDF = "%PDF-1.4 certificate".getBytes(StandardCharsets.US_ASCII);
+    private static final String HASH = "hash-1";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger storageReads = new AtomicInteger();
+    private final UUID certificateId = UUID.randomUUID();
+
+    @Test
+    void repeatedDownloadsAreServedFromMemory() throws Exception {
+        CertificatePdfCache cache = cache(true, DataSize.ofKilobytes(1));
+
+        Resource first = cache.get(certificateId, HASH, storage(PDF));
+        Resource second = cache.get(certificateId, HASH, storage(PDF));
+
+        assertThat(first.getContentAsByteArray()).isEqualTo(PDF);
+        assertThat(second.getContentAsByteArray()).isEqualTo(PDF);
+        assertThat(second.contentLength()).isEqualTo(PDF.length);
+        assertThat(storageReads).hasValue(1);
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "certificate-pdf").tag("result", "hit").functionCounter().count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "certificate-pdf").tag("result", "miss").functionCounter().count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get("certify.download.cache.bytes").gauge().value()).isEqualTo(PDF.length);
+    }
+
+    @Test
+    void pdfsLargerThanTheEntryLimitAreStreamedFromStorage() throws Exception {
+        CertificatePdfCache cache = cache(true, DataSize.ofBytes(PDF.length - 1));
+
+        Resource first = cache.get(certificateId, HASH, storage(PDF));
+        cache.get(certificateId, HASH, storage(PDF));
+
+        assertThat(first).isInstanceOf(ByteArrayResource.class);
+        assertThat(storageReads).hasValue(2);
+    }
+
+    @Test
+    void invalidateDropsTheCachedPdf() throws Exception {
+        CertificatePdfCache cache = cache(true, DataSize.ofKilobytes(1));
+        cache.get(certificateId, HASH, storage(PDF));
+
+        cache.invalidate(certificateId);
+        cache.get(certificateId, HASH, storage(PDF));
+
+        assertThat(storageReads).hasValue(2);
+    }
+
+    @Test
+    void cachedPdfWithAnotherHashIsNotServed() throws Exception {
+        CertificatePdfCache cache = cache(true, DataSize.ofKilobytes(1));
+        byte[] replaced = "%PDF-1.4 replaced".getBytes(StandardCharsets.US_ASCII);
+        cache.get(certificateId, HASH, storage(PDF));
+
+        Resource resource = cache.get(certificateId, "hash-2", storage(replaced));
+
+        assertThat(resource.getContentAsByteArray()).isEqualTo(replaced);
+    }
+
+    @Test
+    void evictedPdfStaysReadableUntilItsLastStreamIsClosed() throws Exception {
+        CertificatePdfCache cache = cache(true, DataSize.ofKilobytes(1));
+        Resource resource = cache.get(certificateId, HASH, storage(PDF));
+        InputStream open = resource.getInputStream();
+
+        cache.invalidate(certificateId);
+
+        assertThat(open.readAllBytes()).isEqualTo(PDF);
+        open.close();
+        assertThatThrownBy(open::read).isInstanceOf(IOException.class);
+        // Once freed, the buffer is never read again; the resource goes back to storage.
+        await().untilAsserted(() -> {
+            assertThat(resource.getContentAsByteArray()).isEqualTo(PDF);
+            assertThat(storageReads).hasValue(2);
+        });
+    }
+
+    @Test
+    void concurrentMissesShareOneReadWithoutBlockingOtherCertificates() throws Exception {
+        CertificatePdfCache cache = cache(true, DataSize.ofKilobytes(1));
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch finishRead = new CountDownLatch(1);
+        Supplier<Resource> slowStorage = () -> {
+            storageReads.incrementAndGet();
+            reading.countDown();
+            try {
+                finishRead.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ByteArrayResource(PDF);
+        };
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            Future<Resource> first = executor.submit(() -> cache.get(certificateId, HASH, slowStorage));
+            assertThat(reading.await(5, TimeUnit.SECONDS)).isTrue();
+            Future<Resource> second = executor.submit(() -> cache.get(certificateId, HASH, slowStorage));
+
+            UUID other = UUID.randomUUID();
+            assertThat(cache.get(other, HASH, storage(PDF)).getContentAsByteArray()).isEqualTo(PDF);
+
+            finishRead.countDown();
+            assertThat(first.get(5, TimeUnit.SECONDS).getContentAsByteArray()).isEqualTo(PDF);
+            assertThat(second.get(5, TimeUnit.SECONDS).getContentAsByteArray()).isEqualTo(PDF);
+        }
+        assertThat(storageReads).hasValue(2);
+    }
+
+    @Test
+    void disabledCacheAlwaysReadsStorage() throws Exception {
+        CertificatePdfCache cache = cache(false, DataSize.ofKilobytes(1));
+
+        cache.get(certificateId, HASH, storage(PDF));
+        cache.get(certificateId, HASH, storage(PDF));
+
+        assertThat(storageReads).hasValue(2);
+    }
+
+    private CertificatePdfCache cache(boolean enabled, DataSize maxEntrySize) {
+        return new CertificatePdfCache(new CertificatePdfCacheProperties(
+                enabled, DataSize.ofMegabytes(1), maxEntrySize, Duration.ofHours(1)), meterRegistry);
+    }
+
+    private Supplier<Resource> storage(byte[] content) {
+        return () -> {
+            storageReads.incrementAndGet();
+            return new ByteArrayResource(content);
+        };
+    }
+}
@@ -0,0 +1,253 @@
+package com.irembo.certify.certificate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.irembo.certify.certificate.dto.PrintBatchRequest;
+import com.irembo.certify.common.TenantContextHolder;
+import com.irembo.certify.pdf.PdfFontRegistry;
+import com.irembo.certify.pdf.PdfRenderer;
+import com.irembo.certify.pdf.PdfRendererProperties;
+import com.irembo.certify.pdf.RenderExecutor;
+import com.irembo.certify.pdf.RenderExecutorProperties;
+import com.irembo.certify.qr.QrCodeObjectDrawer;
+import com.irembo.certify.qr.QrCodeProperties;
+import com.irembo.certify.qr.QrCodeService;
+import com.irembo.certify.storage.ContentWriter;
+import com.irembo.certify.storage.StorageService;
+import com.irembo.certify.storage.StoredFile;
+import com.irembo.certify.template.CertificateTemplate;
+import com.irembo.certify.template.PlaceholderTemplateEngine;
+import com.irembo.certify.template.TemplateDocumentCache;
+import com.irembo.certify.template.TemplateRenderer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CertificatePrintBatchServiceTest {
+
+    private final UUID tenantId = UUID.randomUUID();
+    private final QrCodeService qrCodeService = new QrCodeService(new QrCodeProperties(QrCodeProperties.Mode.VECTOR));
+    private final PdfRenderer pdfRenderer = new PdfRenderer(
+            new PdfFontRegistry(new PdfRendererProperties(null, 0)),
+            new QrCodeObjectDrawer(qrCodeService),
+            new SimpleMeterRegistry()
+    );
+    private final CertificateReservationService reservationService = mock(CertificateReservationService.class);
+    private final StorageService storageService = mock(StorageService.class);
+    private final Map<UUID, byte[]> stored = new LinkedHashMap<>();
+    private final List<CertificateReservationService.Reservation> reservations = new ArrayList<>();
+    private CertificateTemplate template;
+
+    @BeforeEach
+    void setUp() {
+        TenantContextHolder.setTenantId(tenantId);
+        template = new CertificateTemplate();
+        template.setId(UUID.randomUUID());
+        template.setTenantId(tenantId);
+        template.setHtmlTemplate("<h1>${name}</h1><img src='${qrCodeImage}' width='80' height='80'/>");
+        template.setVersion(1);
+
+        when(reservationService.reserveAll(eq(tenantId), eq(template.getId()), anyList(), anyString()))
+                .thenAnswer(invocation -> {
+                    List<CertificateReservationService.Reservation> chunk = new ArrayList<>();
+                    for (Object ignored : invocation.getArgument(2, List.class)) {
+                        Certificate certificate = new Certificate();
+                        certificate.setId(UUID.randomUUID());
+                        CertificateVerificationToken token =
+                                CertificateVerificationToken.create(certificate.getId(), "pending", null);
+                        chunk.add(new CertificateReservationService.Reservation(template, certificate, token));
+                    }
+                    reservations.addAll(chunk);
+                    return chunk;
+                });
+        when(storageService.write(eq(tenantId), any(UUID.class), any(ContentWriter.class)))
+                .thenAnswer(invocation -> {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    invocation.getArgument(2, ContentWriter.class).writeTo(out);
+                    UUID certificateId = invocation.getArgument(1);
+                    stored.put(certificateId, out.toByteArray());
+                    return new StoredFile("cas/" + certificateId, "hash-" + certificateId, out.size());
+                });
+    }
+
+    @AfterEach
+    void tearDown() {
+        TenantContextHolder.clear();
+    }
+
+    @Test
+    void issuesEveryRowAndMergesThemInOrder() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service(2, 10).startBatch(request("Alice", "Bob", "Carol"), "admin@example.com").writeTo(out);
+
+        try (PDDocument merged = PDDocument.load(out.toByteArray())) {
+            assertThat(merged.getNumberOfPages()).isEqualTo(3);
+            String text = new PDFTextStripper().getText(merged);
+            assertThat(text.indexOf("Alice")).isLessThan(text.indexOf("Bob"));
+            assertThat(text.indexOf("Bob")).isLessThan(text.indexOf("Carol"));
+        }
+
+        assertThat(reservations).hasSize(3);
+        List<String> names = List.of("Alice", "Bob", "Carol");
+        for (int i = 0; i < reservations.size(); i++) {
+            CertificateReservationService.Reservation reservation = reservations.get(i);
+            UUID certificateId = reservation.certificate().getId();
+            assertThat(text(stored.get(certificateId))).contains(names.get(i)).doesNotContain(names.get((i + 1) % 3));
+            verify(reservationService).complete(eq(reservation),
+                    anyString(), eq("hash-" + certificateId), eq("cas/" + certificateId));
+        }
+        verify(reservationService, never()).discard(any(), any());
+    }
+
+    @Test
+    void eachChunkIsStreamedBeforeTheNextOneIsIssued() throws Exception {
+        List<Integer> reservedAtFlush = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                reservedAtFlush.add(reservations.size());
+            }
+        };
+        service(1, 10).startBatch(request("Alice", "Bob", "Carol"), "admin@example.com").writeTo(out);
+
+        assertThat(reservedAtFlush).startsWith(1, 2, 3);
+        try (PDDocument merged = PDDocument.load(out.toByteArray())) {
+            assertThat(merged.getNumberOfPages()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    void absolutelyPositionedElementsStayOnTheirRowsPage() throws Exception {
+        template.setHtmlTemplate("<div style='position: absolute; top: 300px; left: 50px'>${name}</div>");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service(10, 10).startBatch(request("Alice", "Bob", "Carol"), "admin@example.com").writeTo(out);
+
+        try (PDDocument merged = PDDocument.load(out.toByteArray())) {
+            assertThat(merged.getNumberOfPages()).isEqualTo(3);
+            assertThat(firstGlyph(merged, 1).getUnicode()).isEqualTo("A");
+            TextPosition bob = firstGlyph(merged, 2);
+            TextPosition carol = firstGlyph(merged, 3);
+            assertThat(bob.getUnicode()).isEqualTo("B");
+            assertThat(carol.getUnicode()).isEqualTo("C");
+            assertThat(carol.getYDirAdj()).isCloseTo(bob.getYDirAdj(), within(0.5f));
+            assertThat(carol.getXDirAdj()).isCloseTo(bob.getXDirAdj(), within(0.5f));
+            // 300px (225pt) below the top of its own page, plus the page margin and the ascent.
+            assertThat(bob.getYDirAdj()).isBetween(225f, 225f + 72f);
+        }
+    }
+
+    @Test
+    void storedCertificatesCarryTheirOwnVerificationUrl() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        service(10, 10).startBatch(request("Alice"), "admin@example.com").writeTo(new ByteArrayOutputStream());
+
+        CertificateReservationService.Reservation reservation = reservations.get(0);
+        ArgumentCaptor<String> dataJson = ArgumentCaptor.forClass(String.class);
+        verify(reservationService).complete(eq(reservation), dataJson.capture(), anyString(), anyString());
+        assertThat(objectMapper.readTree(dataJson.getValue()).get("verificationUrl").asText())
+                .isEqualTo("http://verify.test/" + reservation.token().getPublicId());
+    }
+
+    @Test
+    void failedChunkDiscardsItsReservationsButKeepsEarlierChunks() {
+        template.setHtmlTemplate("<p>${name}</p>");
+        AtomicInteger writes = new AtomicInteger();
+        when(storageService.write(eq(tenantId), any(UUID.class), any(ContentWriter.class)))
+                .thenAnswer(invocation -> {
+                    if (writes.incrementAndGet() == 3) {
+                        throw new IllegalStateException("disk full");
+                    }
+                    return new StoredFile("cas/" + invocation.getArgument(1), "hash", 1);
+                });
+
+        assertThatThrownBy(() -> service(2, 10)
+                .startBatch(request("Alice", "Bob", "Carol", "Dave"), "admin@example.com")
+                .writeTo(new ByteArrayOutputStream()))
+                .hasMessageContaining("disk full");
+
+        verify(reservationService, times(2)).complete(any(), anyString(), anyString(), anyString());
+        verify(reservationService).discard(reservations.get(2), null);
+        verify(reservationService).discard(reservations.get(3), null);
+        verify(reservationService, never()).discard(eq(reservations.get(0)), any());
+    }
+
+    @Test
+    void rejectsOversizedBatchesAndBatchesBeyondTheSlotLimit() throws Exception {
+        CertificatePrintBatchService service = service(2, 2);
+        assertThatThrownBy(() -> service.startBatch(request("A", "B", "C"), "admin@example.com"))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        CertificatePrintBatchService.PrintBatch running = service.startBatch(request("A"), "admin@example.com");
+        assertThatThrownBy(() -> service.startBatch(request("B"), "admin@example.com"))
+                .isInstanceOf(ExportRejectedException.class);
+        running.abandon();
+        assertThatThrownBy(() -> running.writeTo(new ByteArrayOutputStream()))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(service.startBatch(request("B"), "admin@example.com")).isNotNull();
+    }
+
+    private static TextPosition firstGlyph(PDDocument document, int page) throws IOException {
+        List<TextPosition> glyphs = new ArrayList<>();
+        PDFTextStripper stripper = new PDFTextStripper() {
+            @Override
+            protected void writeString(String text, List<TextPosition> textPositions) {
+                glyphs.addAll(textPositions);
+            }
+        };
+        stripper.setStartPage(page);
+        stripper.setEndPage(page);
+        stripper.getText(document);
+        assertThat(glyphs).as("text on page %d", page).isNotEmpty();
+        return glyphs.get(0);
+    }
+
+    private CertificatePrintBatchService service(int chunkSize, int maxRows) {
+        TemplateRenderer templateRenderer = new TemplateRenderer(pdfRenderer, new PlaceholderTemplateEngine(),
+                new TemplateDocumentCache(pdfRenderer),
+                new RenderExecutor(new RenderExecutorProperties(null, null), new SimpleMeterRegistry()));
+        return new CertificatePrintBatchService(reservationService, templateRenderer,
+                storageService, qrCodeService, new ObjectMapper(),
+                new CertificatePrintBatchProperties(1, maxRows, chunkSize), "http://verify.test");
+    }
+
+    private PrintBatchRequest request(String... names) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (String name : names) {
+            rows.add(Map.of("name", name));
+        }
+        return new PrintBatchRequest(template.getId(), rows);
+    }
+
+    private static String text(byte[] pdf) throws IOException {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            assertThat(document.getNumberOfPages()).isEqualTo(1);
+            return new PDFTextStripper().getText(document);
+        }
+    }
+}
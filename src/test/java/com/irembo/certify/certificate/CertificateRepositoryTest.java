@@ -0,0 +1,63 @@
+package com.irembo.certify.certificate;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Testcontainers(disabledWithoutDocker = true)
+class CertificateRepositoryTest {
+
+    @Container
+    static final PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgres::getJdbcUrl);
+        registry.add("spring.datasource.username", postgres::getUsername);
+        registry.add("spring.datasource.password", postgres::getPassword);
+    }
+
+    @Autowired
+    private CertificateRepository certificateRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void legacyStorageScanSkipsPathsOfOtherLayoutsAndBackends() {
+        UUID legacy = insert("11111111-2222-3333-4444-555555555555/certificate.pdf");
+        insert("cas/ab/cd/abcd.pdf");
+        insert("pack/abcd");
+        insert("s3/11111111-2222-3333-4444-555555555555/certificate.pdf");
+        insert("pending");
+
+        assertThat(certificateRepository.findLegacyStorageAfter(new UUID(0, 0), PageRequest.of(0, 10)))
+                .extracting(CertificateRepository.StorageRef::getId)
+                .containsExactly(legacy);
+    }
+
+    private UUID insert(String storagePath) {
+        UUID id = UUID.randomUUID();
+        jdbcTemplate.update("""
+                INSERT INTO certificates (id, tenant_id, template_id, data_json, status, storage_path, hash,
+                                          created_by, created_at, updated_at)
+                VALUES (?, gen_random_uuid(), gen_random_uuid(), CAST('{}' AS jsonb), 'GENERATED', ?, 'hash',
+                        'test', now(), now())
+                """, id, storagePath);
+        return id;
+    }
+}
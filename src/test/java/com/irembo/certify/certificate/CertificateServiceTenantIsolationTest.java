@@ -3,9 +3,15 @@ package com.irembo.certify.certificate;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.irembo.certify.common.TenantContextHolder;
 import com.irembo.certify.pdf.PdfRenderer;
+import com.irembo.certify.pdf.RenderExecutor;
+import com.irembo.certify.pdf.RenderExecutorProperties;
 import com.irembo.certify.qr.QrCodeService;
-import com.irembo.certify.storage.FileSystemStorageService;
+import com.irembo.certify.storage.StorageService;
 import com.irembo.certify.template.CertificateTemplateRepository;
+import com.irembo.certify.template.PlaceholderTemplateEngine;
+import com.irembo.certify.template.TemplateDocumentCache;
+import com.irembo.certify.template.TemplateRenderer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -14,10 +20,14 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -42,7 +52,10 @@ class CertificateServiceTenantIsolationTest {
     private PdfRenderer pdfRenderer;
 
     @Mock
-    private FileSystemStorageService storageService;
+    private StorageService storageService;
+
+    @Mock
+    private CertificatePdfCache pdfCache;
 
     @Mock
     private QrCodeService qrCodeService;
@@ -69,7 +82,7 @@ class CertificateServiceTenantIsolationTest {
         certificate.setCreatedAt(Instant.now());
         certificate.setUpdatedAt(Instant.now());
 
-        when(certificateRepository.findAllByTenantId(tenantId))
+        when(certificateRepository.findAllByTenantIdAndStatusNot(tenantId, CertificateStatus.PENDING))
                 .thenReturn(List.of(certificate));
 
         CertificateService service = new CertificateService(
@@ -78,15 +91,20 @@ class CertificateServiceTenantIsolationTest {
                 templateRepository,
                 jobRepository,
                 objectMapper,
-                pdfRenderer,
+                templateRenderer(),
                 storageService,
+                pdfCache,
                 qrCodeService,
+                new CertificateReservationService(certificateRepository, tokenRepository, templateRepository,
+                        mock(CertificateBulkWriter.class), mock(StorageReferences.class),
+                        mock(CertificateJobProperties.class)),
+                mock(CertificateJobNotifier.class),
                 "http://verify.test"
         );
 
         service.listForCurrentTenant();
 
-        verify(certificateRepository).findAllByTenantId(tenantId);
+        verify(certificateRepository).findAllByTenantIdAndStatusNot(tenantId, CertificateStatus.PENDING);
     }
 
     @Test
@@ -99,9 +117,14 @@ class CertificateServiceTenantIsolationTest {
                 templateRepository,
                 jobRepository,
                 objectMapper,
-                pdfRenderer,
+                templateRenderer(),
                 storageService,
+                pdfCache,
                 qrCodeService,
+                new CertificateReservationService(certificateRepository, tokenRepository, templateRepository,
+                        mock(CertificateBulkWriter.class), mock(StorageReferences.class),
+                        mock(CertificateJobProperties.class)),
+                mock(CertificateJobNotifier.class),
                 "http://verify.test"
         );
 
@@ -109,4 +132,45 @@ class CertificateServiceTenantIsolationTest {
                 .isInstanceOf(IllegalStateException.class)
                 .hasMessageContaining("No tenant in context");
     }
+
+    @Test
+    void pendingReservationsCannotBeDownloaded() {
+        UUID tenantId = UUID.randomUUID();
+        TenantContextHolder.setTenantId(tenantId);
+
+        Certificate certificate = new Certificate();
+        certificate.setId(UUID.randomUUID());
+        certificate.setTenantId(tenantId);
+        certificate.setStatus(CertificateStatus.PENDING);
+        certificate.setStoragePath("pending");
+        certificate.setHash("pending");
+        when(certificateRepository.findByIdAndTenantId(certificate.getId(), tenantId))
+                .thenReturn(Optional.of(certificate));
+
+        CertificateService service = new CertificateService(
+                certificateRepository,
+                tokenRepository,
+                templateRepository,
+                jobRepository,
+                objectMapper,
+                templateRenderer(),
+                storageService,
+                pdfCache,
+                qrCodeService,
+                new CertificateReservationService(certificateRepository, tokenRepository, templateRepository,
+                        mock(CertificateBulkWriter.class), mock(StorageReferences.class),
+                        mock(CertificateJobProperties.class)),
+                mock(CertificateJobNotifier.class),
+                "http://verify.test"
+        );
+
+        assertThatThrownBy(() -> service.downloadForCurrentTenant(certificate.getId()))
+                .isInstanceOf(NoSuchElementException.class);
+        verifyNoInteractions(storageService, pdfCache);
+    }
+
+    private TemplateRenderer templateRenderer() {
+        return new TemplateRenderer(pdfRenderer, new PlaceholderTemplateEngine(), new TemplateDocumentCache(pdfRenderer),
+                new RenderExecutor(new RenderExecutorProperties(null, null), new SimpleMeterRegistry()));
+    }
 }
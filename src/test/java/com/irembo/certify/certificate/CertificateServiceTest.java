@@ -4,27 +4,47 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.irembo.certify.certificate.dto.CertificateGenerateRequest;
 import com.irembo.certify.common.TenantContextHolder;
 import com.irembo.certify.pdf.PdfRenderer;
+import com.irembo.certify.pdf.RenderExecutor;
+import com.irembo.certify.pdf.RenderExecutorProperties;
+import com.irembo.certify.qr.QrCodeImage;
 import com.irembo.certify.qr.QrCodeService;
-import com.irembo.certify.storage.FileSystemStorageService;
+import com.irembo.certify.storage.ContentWriter;
+import com.irembo.certify.storage.StorageService;
+import com.irembo.certify.storage.StoredFile;
 import com.irembo.certify.template.CertificateTemplate;
 import com.irembo.certify.template.CertificateTemplateRepository;
+import com.irembo.certify.template.PlaceholderTemplateEngine;
+import com.irembo.certify.template.TemplateDocumentCache;
+import com.irembo.certify.template.TemplateRenderer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.Answer;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.security.MessageDigest;
+import java.util.HexFormat;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -50,7 +70,10 @@ class CertificateServiceTest {
     private PdfRenderer pdfRenderer;
 
     @Mock
-    private FileSystemStorageService storageService;
+    private StorageService storageService;
+
+    @Mock
+    private CertificatePdfCache pdfCache;
 
     @Mock
     private QrCodeService qrCodeService;
@@ -78,8 +101,12 @@ class CertificateServiceTest {
 
         when(templateRepository.findByIdAndTenantId(templateId, tenantId))
                 .thenReturn(Optional.of(template));
-        when(qrCodeService.generateDataUrl(anyString(), anyInt())).thenReturn("qr-data-url");
-        when(pdfRenderer.renderHtmlToPdf(anyString())).thenReturn("pdf".getBytes());
+        when(qrCodeService.image(anyString(), anyInt()))
+                .thenReturn(new QrCodeImage("http://verify.test", 200, false, () -> "qr-data-url"));
+        doAnswer(invocation -> {
+            invocation.getArgument(1, OutputStream.class).write("pdf".getBytes());
+            return null;
+        }).when(pdfRenderer).renderHtmlToPdf(anyString(), any(OutputStream.class));
 
         CertificateService service = new CertificateService(
                 certificateRepository,
@@ -87,9 +114,14 @@ class CertificateServiceTest {
                 templateRepository,
                 jobRepository,
                 objectMapper,
-                pdfRenderer,
+                templateRenderer(),
                 storageService,
+                pdfCache,
                 qrCodeService,
+                new CertificateReservationService(certificateRepository, tokenRepository, templateRepository,
+                        mock(CertificateBulkWriter.class), mock(StorageReferences.class),
+                        mock(CertificateJobProperties.class)),
+                mock(CertificateJobNotifier.class),
                 "http://verify.test/public/verify"
         );
 
@@ -100,7 +132,7 @@ class CertificateServiceTest {
         assertThat(result).isEqualTo("pdf".getBytes());
 
         ArgumentCaptor<String> htmlCaptor = ArgumentCaptor.forClass(String.class);
-        verify(pdfRenderer).renderHtmlToPdf(htmlCaptor.capture());
+        verify(pdfRenderer).renderHtmlToPdf(htmlCaptor.capture(), any(OutputStream.class));
         String html = htmlCaptor.getValue();
 
         assertThat(html).contains("http://verify.test/public/verify/");
@@ -147,11 +179,16 @@ class CertificateServiceTest {
 
         CertificateVerificationToken token = CertificateVerificationToken.create(certificateId, "pending", null);
         when(tokenRepository.save(any(CertificateVerificationToken.class))).thenReturn(token);
-        when(tokenRepository.findByCertificateId(certificateId)).thenReturn(java.util.Optional.of(token));
+        when(certificateRepository.findById(certificateId)).thenReturn(Optional.of(saved));
+        when(tokenRepository.findById(token.getPublicId())).thenReturn(Optional.of(token));
 
         byte[] pdfBytes = "pdf-body".getBytes();
-        when(pdfRenderer.renderHtmlToPdf(anyString())).thenReturn(pdfBytes);
-        when(storageService.save(tenantId, certificateId, pdfBytes)).thenReturn("stored/path.pdf");
+        doAnswer(invocation -> {
+            invocation.getArgument(1, OutputStream.class).write(pdfBytes);
+            return null;
+        }).when(pdfRenderer).renderHtmlToPdf(anyString(), any(OutputStream.class));
+        when(storageService.write(eq(tenantId), eq(certificateId), any(ContentWriter.class)))
+                .thenAnswer(writeInMemory("stored/path.pdf"));
 
         CertificateService service = new CertificateService(
                 certificateRepository,
@@ -159,9 +196,14 @@ class CertificateServiceTest {
                 templateRepository,
                 jobRepository,
                 objectMapper,
-                pdfRenderer,
+                templateRenderer(),
                 storageService,
+                pdfCache,
                 qrCodeService,
+                new CertificateReservationService(certificateRepository, tokenRepository, templateRepository,
+                        mock(CertificateBulkWriter.class), mock(StorageReferences.class),
+                        mock(CertificateJobProperties.class)),
+                mock(CertificateJobNotifier.class),
                 "http://verify.test/public/verify"
         );
 
@@ -179,7 +221,87 @@ class CertificateServiceTest {
 
         assertThat(response.hash()).isEqualTo(expectedHash);
         assertThat(response.storagePath()).isEqualTo("stored/path.pdf");
+        assertThat(response.status()).isEqualTo(CertificateStatus.GENERATED);
         assertThat(response.verificationUrl())
-                .startsWith("http://verify.test/public/verify/");
+                .isEqualTo("http://verify.test/public/verify/" + token.getPublicId());
+        assertThat(token.getChecksum()).isEqualTo(expectedHash);
+        // The QR code is only render input; it must not end up in the persisted data.
+        ArgumentCaptor<Object> persisted = ArgumentCaptor.forClass(Object.class);
+        verify(objectMapper, atLeastOnce()).writeValueAsString(persisted.capture());
+        assertThat(persisted.getAllValues())
+                .allSatisfy(value -> assertThat(((Map<?, ?>) value).containsKey("qrCodeImage")).isFalse());
+    }
+
+    @Test
+    void generateDiscardsReservationWhenRenderFails() {
+        UUID tenantId = UUID.randomUUID();
+        UUID templateId = UUID.randomUUID();
+        TenantContextHolder.setTenantId(tenantId);
+
+        CertificateTemplate template = new CertificateTemplate();
+        template.setId(templateId);
+        template.setTenantId(tenantId);
+        template.setHtmlTemplate("<p>Hello</p>");
+        template.setPlaceholdersJson("[]");
+        template.setName("T");
+        template.setActive(true);
+        template.setVersion(1);
+
+        when(templateRepository.findByIdAndTenantId(templateId, tenantId))
+                .thenReturn(Optional.of(template));
+
+        UUID certificateId = UUID.randomUUID();
+        when(certificateRepository.save(any(Certificate.class))).thenAnswer(invocation -> {
+            Certificate certificate = invocation.getArgument(0);
+            certificate.setId(certificateId);
+            return certificate;
+        });
+        when(tokenRepository.save(any(CertificateVerificationToken.class)))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        doThrow(new IllegalStateException("render failed"))
+                .when(pdfRenderer).renderHtmlToPdf(anyString(), any(OutputStream.class));
+        when(storageService.write(any(), any(), any(ContentWriter.class))).thenAnswer(writeInMemory("stored/path.pdf"));
+
+        CertificateService service = new CertificateService(
+                certificateRepository,
+                tokenRepository,
+                templateRepository,
+                jobRepository,
+                objectMapper,
+                templateRenderer(),
+                storageService,
+                pdfCache,
+                qrCodeService,
+                new CertificateReservationService(certificateRepository, tokenRepository, templateRepository,
+                        mock(CertificateBulkWriter.class), mock(StorageReferences.class),
+                        mock(CertificateJobProperties.class)),
+                mock(CertificateJobNotifier.class),
+                "http://verify.test/public/verify"
+        );
+
+        CertificateGenerateRequest request = new CertificateGenerateRequest(templateId, new LinkedHashMap<>());
+
+        assertThatThrownBy(() -> service.generate(request, "user@example.com"))
+                .hasMessageContaining("render failed");
+        verify(tokenRepository).deleteById(any(UUID.class));
+        verify(certificateRepository).deleteById(certificateId);
+        verify(storageService, never()).delete(any());
+    }
+
+    /**
+     * Runs the storage writer against memory and reports the stored file like the real service.
+     */
+    private static Answer<StoredFile> writeInMemory(String storagePath) {
+        return invocation -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            invocation.getArgument(2, ContentWriter.class).writeTo(out);
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(out.toByteArray());
+            return new StoredFile(storagePath, HexFormat.of().formatHex(hash), out.size());
+        };
+    }
+
+    private TemplateRenderer templateRenderer() {
+        return new TemplateRenderer(pdfRenderer, new PlaceholderTemplateEngine(), new TemplateDocumentCache(pdfRenderer),
+                new RenderExecutor(new RenderExecutorProperties(null, null), new SimpleMeterRegistry()));
     }
 }
@@ -0,0 +1,105 @@
+package com.irembo.certify.certificate;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PdfStreamWriterTest {
+
+    @Test
+    void writesPagesOfSeveralDocumentsAsOneWithAValidCrossReferenceTable() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PdfStreamWriter pdf = new PdfStreamWriter(out);
+        try (PDDocument first = document("Alice", "Bob")) {
+            pdf.addPages(first);
+        }
+        pdf.flush();
+        int afterFirst = out.size();
+        try (PDDocument second = document("Carol")) {
+            pdf.addPages(second);
+        }
+        pdf.finish();
+
+        byte[] written = out.toByteArray();
+        // The first document's pages went out before the second one was added.
+        assertThat(Pattern.compile("/Type /Page ").matcher(
+                new String(written, 0, afterFirst, StandardCharsets.ISO_8859_1)).results().count()).isEqualTo(2);
+        assertCrossReferencesPointAtTheirObjects(written);
+        try (PDDocument merged = PDDocument.load(written)) {
+            assertThat(merged.getNumberOfPages()).isEqualTo(3);
+            String text = new PDFTextStripper().getText(merged);
+            assertThat(text).containsSubsequence("Alice", "Bob", "Carol");
+        }
+    }
+
+    @Test
+    void pagesKeepTheAttributesTheyInheritedFromTheirPageTree() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PdfStreamWriter pdf = new PdfStreamWriter(out);
+        try (PDDocument document = document("Alice")) {
+            PDPage page = document.getPage(0);
+            document.getPages().getCOSObject().setItem(COSName.MEDIA_BOX, PDRectangle.A5.getCOSArray());
+            document.getPages().getCOSObject().setItem(COSName.RESOURCES, page.getResources());
+            page.getCOSObject().removeItem(COSName.MEDIA_BOX);
+            page.getCOSObject().removeItem(COSName.RESOURCES);
+            pdf.addPages(document);
+        }
+        pdf.finish();
+
+        try (PDDocument merged = PDDocument.load(out.toByteArray())) {
+            PDPage page = merged.getPage(0);
+            assertThat(page.getCOSObject().getItem(COSName.MEDIA_BOX)).isNotNull();
+            assertThat(page.getMediaBox().getWidth()).isEqualTo(PDRectangle.A5.getWidth());
+            assertThat(new PDFTextStripper().getText(merged)).contains("Alice");
+        }
+    }
+
+    private static PDDocument document(String... names) throws IOException {
+        PDDocument document = new PDDocument();
+        PDResources resources = new PDResources();
+        for (String name : names) {
+            PDPage page = new PDPage(PDRectangle.A4);
+            page.setResources(resources);
+            document.addPage(page);
+            try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                content.beginText();
+                content.setFont(PDType1Font.HELVETICA, 24);
+                content.newLineAtOffset(72, 700);
+                content.showText(name);
+                content.endText();
+            }
+        }
+        return document;
+    }
+
+    private static void assertCrossReferencesPointAtTheirObjects(byte[] pdf) {
+        String text = new String(pdf, StandardCharsets.ISO_8859_1);
+        Matcher startXref = Pattern.compile("startxref\n(\\d+)\n%%EOF\n$").matcher(text);
+        assertThat(startXref.find()).isTrue();
+        int xref = Integer.parseInt(startXref.group(1));
+        assertThat(text.substring(xref)).startsWith("xref\n0 ");
+        Matcher entries = Pattern.compile("(\\d{10}) 00000 n\r\n").matcher(text);
+        entries.region(xref, text.length());
+        int object = 1;
+        while (entries.find()) {
+            int offset = Integer.parseInt(entries.group(1));
+            assertThat(text.substring(offset)).startsWith(object + " 0 obj\n");
+            object++;
+        }
+        assertThat(text.substring(xref)).startsWith("xref\n0 " + object + "\n");
+    }
+}
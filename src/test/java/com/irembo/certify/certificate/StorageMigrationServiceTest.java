@@ -0,0 +1,169 @@
+package com.irembo.certify.certificate;
+
+import com.irembo.certify.storage.FileSystemStorageService;
+import com.irembo.certify.storage.StorageProperties;
+import com.irembo.certify.storage.StoredFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class StorageMigrationServiceTest {
+
+    private static final Duration GRACE = Duration.ofHours(3);
+
+    @TempDir
+    Path root;
+
+    @Mock
+    private CertificateRepository certificateRepository;
+
+    @Mock
+    private StorageDeletionRepository deletionRepository;
+
+    @Test
+    void migratesLegacyFilesAndSchedulesOriginalsForDeletion() throws Exception {
+        FileSystemStorageService legacy = storage(StorageProperties.Layout.TENANT);
+        StoredFile good = legacy.write(UUID.randomUUID(), UUID.randomUUID(),
+                out -> out.write("good".getBytes(StandardCharsets.US_ASCII)));
+        StoredFile tampered = legacy.write(UUID.randomUUID(), UUID.randomUUID(),
+                out -> out.write("tampered".getBytes(StandardCharsets.US_ASCII)));
+
+        UUID goodId = new UUID(0, 1);
+        UUID tamperedId = new UUID(0, 2);
+        when(certificateRepository.findLegacyStorageAfter(eq(new UUID(0, 0)), any()))
+                .thenReturn(List.of(ref(goodId, good.storagePath(), good.sha256()),
+                        ref(tamperedId, tampered.storagePath(), "0".repeat(64))));
+        when(certificateRepository.findLegacyStorageAfter(eq(tamperedId), any())).thenReturn(List.of());
+        when(certificateRepository.moveStoragePath(eq(goodId), eq(good.storagePath()), any())).thenReturn(1);
+
+        StorageMigrationService service = service();
+        Instant started = Instant.now();
+        service.start();
+        await().until(() -> service.status().state() != StorageMigrationStatus.State.RUNNING);
+
+        StorageMigrationStatus status = service.status();
+        assertThat(status.state()).isEqualTo(StorageMigrationStatus.State.COMPLETED);
+        assertThat(status.scanned()).isEqualTo(2);
+        assertThat(status.migrated()).isEqualTo(1);
+        assertThat(status.failed()).isEqualTo(1);
+        // Readers may still have the old path open, so it outlives the move.
+        assertThat(Files.exists(root.resolve(good.storagePath()))).isTrue();
+        ArgumentCaptor<Instant> deleteAfter = ArgumentCaptor.forClass(Instant.class);
+        verify(deletionRepository).schedule(eq(good.storagePath()), deleteAfter.capture());
+        assertThat(deleteAfter.getValue()).isAfterOrEqualTo(started.plus(GRACE));
+        assertThat(Files.exists(root.resolve(tampered.storagePath()))).isTrue();
+        assertThat(listFiles(root.resolve("cas"))).hasSize(1);
+        verify(certificateRepository, never()).moveStoragePath(eq(tamperedId), any(), any());
+        verify(deletionRepository, never()).schedule(eq(tampered.storagePath()), any());
+    }
+
+    @Test
+    void sweepDeletesDueFilesThatNothingRefersTo() {
+        FileSystemStorageService legacy = storage(StorageProperties.Layout.TENANT);
+        StoredFile moved = legacy.write(UUID.randomUUID(), UUID.randomUUID(),
+                out -> out.write("moved".getBytes(StandardCharsets.US_ASCII)));
+        StoredFile referenced = legacy.write(UUID.randomUUID(), UUID.randomUUID(),
+                out -> out.write("referenced".getBytes(StandardCharsets.US_ASCII)));
+        when(deletionRepository.findByDeleteAfterLessThanEqualOrderByDeleteAfter(any(), any()))
+                .thenReturn(List.of(deletion(moved.storagePath()), deletion(referenced.storagePath())));
+        when(certificateRepository.existsByStoragePath(moved.storagePath())).thenReturn(false);
+        when(certificateRepository.existsByStoragePath(referenced.storagePath())).thenReturn(true);
+
+        service().sweepDeletions();
+
+        assertThat(Files.exists(root.resolve(moved.storagePath()))).isFalse();
+        assertThat(Files.exists(root.resolve(referenced.storagePath()))).isTrue();
+        verify(deletionRepository).deleteAllByIdInBatch(List.of(moved.storagePath(), referenced.storagePath()));
+    }
+
+    @Test
+    void sweepHandlesOneBatchPerRun() {
+        List<StorageDeletion> fullBatch = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            fullBatch.add(deletion(UUID.randomUUID() + "/" + UUID.randomUUID() + ".pdf"));
+        }
+        when(deletionRepository.findByDeleteAfterLessThanEqualOrderByDeleteAfter(any(), any())).thenReturn(fullBatch);
+
+        service().sweepDeletions();
+
+        verify(deletionRepository, times(1)).findByDeleteAfterLessThanEqualOrderByDeleteAfter(any(), any());
+        ArgumentCaptor<List<String>> deleted = ArgumentCaptor.forClass(List.class);
+        verify(deletionRepository).deleteAllByIdInBatch(deleted.capture());
+        assertThat(deleted.getValue()).hasSize(500);
+    }
+
+    private StorageMigrationService service() {
+        return new StorageMigrationService(
+                certificateRepository,
+                deletionRepository,
+                new StorageReferences(certificateRepository, storage(StorageProperties.Layout.CONTENT_ADDRESSED)),
+                storage(StorageProperties.Layout.CONTENT_ADDRESSED),
+                properties(StorageProperties.Layout.CONTENT_ADDRESSED)
+        );
+    }
+
+    private static StorageDeletion deletion(String storagePath) {
+        StorageDeletion deletion = new StorageDeletion();
+        deletion.setStoragePath(storagePath);
+        deletion.setDeleteAfter(Instant.now());
+        return deletion;
+    }
+
+    private static List<Path> listFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).toList();
+        }
+    }
+
+    private FileSystemStorageService storage(StorageProperties.Layout layout) {
+        return new FileSystemStorageService(properties(layout));
+    }
+
+    private StorageProperties properties(StorageProperties.Layout layout) {
+        return new StorageProperties(root.toString(), layout, StorageProperties.Backend.FILESYSTEM,
+                new StorageProperties.Migration(2, 10, GRACE), null, null);
+    }
+
+    private static CertificateRepository.StorageRef ref(UUID id, String storagePath, String hash) {
+        return new CertificateRepository.StorageRef() {
+            @Override
+            public UUID getId() {
+                return id;
+            }
+
+            @Override
+            public String getStoragePath() {
+                return storagePath;
+            }
+
+            @Override
+            public String getHash() {
+                return hash;
+            }
+        };
+    }
+}
@@ -0,0 +1,79 @@
+package com.irembo.certify.certificate;
+
+import com.irembo.certify.storage.StorageService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.ConcurrencyFailureException;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class StorageReferencesTest {
+
+    private static final String PATH = "cas/ab/cd/abcd.pdf";
+
+    @Mock
+    private CertificateRepository certificateRepository;
+
+    @Mock
+    private StorageService storageService;
+
+    @Test
+    void deleteChecksReferencesAndDeletesUnderTheLock() {
+        when(certificateRepository.existsByStoragePath(PATH)).thenReturn(false);
+
+        assertThat(references().deleteIfUnreferenced(PATH)).isTrue();
+
+        InOrder order = inOrder(certificateRepository, storageService);
+        order.verify(certificateRepository).lockStoragePath(PATH);
+        order.verify(certificateRepository).existsByStoragePath(PATH);
+        order.verify(storageService).delete(PATH);
+    }
+
+    @Test
+    void referencedFileIsKept() {
+        when(certificateRepository.existsByStoragePath(PATH)).thenReturn(true);
+
+        assertThat(references().deleteIfUnreferenced(PATH)).isFalse();
+
+        verify(storageService, never()).delete(any());
+    }
+
+    @Test
+    void referenceToAFileDeletedSinceItWasWrittenIsRefused() {
+        when(storageService.exists(PATH)).thenReturn(false);
+
+        assertThatThrownBy(() -> references().lockForReference(PATH))
+                .isInstanceOf(ConcurrencyFailureException.class);
+        verify(certificateRepository).lockStoragePath(PATH);
+    }
+
+    @Test
+    void moveLocksTheNewPathBeforeRepointing() {
+        UUID id = UUID.randomUUID();
+        when(storageService.exists(PATH)).thenReturn(true);
+        when(certificateRepository.moveStoragePath(id, "old.pdf", PATH)).thenReturn(1);
+
+        assertThat(references().move(id, "old.pdf", PATH)).isTrue();
+
+        InOrder order = inOrder(certificateRepository, storageService);
+        order.verify(certificateRepository).lockStoragePath(PATH);
+        order.verify(storageService).exists(PATH);
+        order.verify(certificateRepository).moveStoragePath(id, "old.pdf", PATH);
+    }
+
+    private StorageReferences references() {
+        return new StorageReferences(certificateRepository, storageService);
+    }
+}
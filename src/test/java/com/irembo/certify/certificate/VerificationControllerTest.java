@@ -46,7 +46,7 @@ class VerificationControllerTest {
                 UUID.randomUUID(),
                 "http://verify.test/public/verify/" + publicId
         );
-        when(certificateService.getById(certificateId)).thenReturn(certificate);
+        when(certificateService.findById(certificateId)).thenReturn(Optional.of(certificate));
 
         VerificationController controller = new VerificationController(tokenRepository, certificateService);
 
@@ -79,7 +79,7 @@ class VerificationControllerTest {
                 UUID.randomUUID(),
                 "http://verify.test/public/verify/" + publicId
         );
-        when(certificateService.getById(certificateId)).thenReturn(certificate);
+        when(certificateService.findById(certificateId)).thenReturn(Optional.of(certificate));
 
         VerificationController controller = new VerificationController(tokenRepository, certificateService);
 
@@ -112,7 +112,7 @@ class VerificationControllerTest {
                 UUID.randomUUID(),
                 "http://verify.test/public/verify/" + publicId
         );
-        when(certificateService.getById(certificateId)).thenReturn(certificate);
+        when(certificateService.findById(certificateId)).thenReturn(Optional.of(certificate));
 
         VerificationController controller = new VerificationController(tokenRepository, certificateService);
 
@@ -123,4 +123,21 @@ class VerificationControllerTest {
         assertThat(body.get("valid")).isEqualTo(false);
         assertThat(body.get("reason")).isEqualTo("HASH_MISMATCH");
     }
+
+    @Test
+    void verifyReturnsNotFoundWhileCertificateIsPending() {
+        UUID publicId = UUID.randomUUID();
+        UUID certificateId = UUID.randomUUID();
+
+        CertificateVerificationToken token = CertificateVerificationToken.create(certificateId, "pending", null);
+        when(tokenRepository.findByPublicId(publicId)).thenReturn(Optional.of(token));
+        when(certificateService.findById(certificateId)).thenReturn(Optional.empty());
+
+        VerificationController controller = new VerificationController(tokenRepository, certificateService);
+
+        ResponseEntity<?> responseEntity = controller.verify(publicId);
+
+        assertThat(responseEntity.getStatusCode().value()).isEqualTo(404);
+        assertThat(responseEntity.getBody()).isNull();
+    }
 }
@@ -0,0 +1,82 @@
+package com.irembo.certify.certificate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ZipStreamWriterTest {
+
+    @TempDir
+    Path temp;
+
+    @Test
+    void writesStoredEntriesReadableByStandardReaders() throws Exception {
+        byte[] first = "%PDF-1.4 first".getBytes(StandardCharsets.US_ASCII);
+        byte[] second = "%PDF-1.4 second, streamed".getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(second);
+        Instant modified = Instant.parse("2024-06-01T10:15:30Z");
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipStreamWriter zip = new ZipStreamWriter(archive, temp)) {
+            zip.addEntry("first.pdf", modified, first, first.length);
+            zip.addEntry("second.pdf", modified, second.length, crc.getValue(), new ByteArrayInputStream(second));
+            zip.finish();
+        }
+
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+            ZipEntry entry = in.getNextEntry();
+            assertThat(entry.getName()).isEqualTo("first.pdf");
+            assertThat(entry.getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(entry.getLastModifiedTime().toInstant()).isEqualTo(modified);
+            assertThat(in.readAllBytes()).isEqualTo(first);
+            entry = in.getNextEntry();
+            assertThat(entry.getName()).isEqualTo("second.pdf");
+            assertThat(in.readAllBytes()).isEqualTo(second);
+            assertThat(in.getNextEntry()).isNull();
+        }
+        assertThat(listFiles(temp)).isEmpty();
+    }
+
+    @Test
+    void switchesToZip64EndRecordsPastSixtyFiveThousandEntries() throws Exception {
+        Path file = temp.resolve("large.zip");
+        byte[] content = {1, 2, 3};
+        int count = 70_000;
+
+        try (OutputStream out = Files.newOutputStream(file);
+             ZipStreamWriter zip = new ZipStreamWriter(out, temp)) {
+            for (int i = 0; i < count; i++) {
+                zip.addEntry("entry-" + i + ".pdf", Instant.now(), content, content.length);
+            }
+            zip.finish();
+        }
+
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            assertThat(zip.size()).isEqualTo(count);
+            ZipEntry last = zip.getEntry("entry-" + (count - 1) + ".pdf");
+            assertThat(zip.getInputStream(last).readAllBytes()).isEqualTo(content);
+        }
+    }
+
+    private static List<Path> listFiles(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.toList();
+        }
+    }
+}
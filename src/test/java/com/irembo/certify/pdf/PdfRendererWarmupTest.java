@@ -0,0 +1,45 @@
+package com.irembo.certify.pdf;
+
+import com.irembo.certify.qr.QrCodeObjectDrawer;
+import com.irembo.certify.qr.QrCodeProperties;
+import com.irembo.certify.qr.QrCodeService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Status;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PdfRendererWarmupTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final PdfFontRegistry fontRegistry = new PdfFontRegistry(new PdfRendererProperties(null, 2));
+    private final PdfRenderer pdfRenderer = new PdfRenderer(
+            fontRegistry,
+            new QrCodeObjectDrawer(new QrCodeService(new QrCodeProperties(QrCodeProperties.Mode.VECTOR))),
+            meterRegistry
+    );
+
+    @Test
+    void reportsOutOfServiceUntilWarmUpHasRun() {
+        PdfRendererWarmup warmup = new PdfRendererWarmup(pdfRenderer, fontRegistry, new PdfRendererProperties(null, 2));
+
+        assertThat(warmup.health().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+
+        warmup.warmUp();
+
+        assertThat(warmup.health().getStatus()).isEqualTo(Status.UP);
+        assertThat(meterRegistry.get("certify.pdf.render").tag("phase", "warmup").timer().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("certify.pdf.render").tag("phase", "live").timer().count()).isZero();
+    }
+
+    @Test
+    void liveRendersAreTimedSeparately() {
+        byte[] pdf = pdfRenderer.renderHtmlToPdf(PdfRendererWarmup.sampleHtml(Set.of("Sample Family")));
+
+        assertThat(new String(pdf, 0, 5, StandardCharsets.US_ASCII)).isEqualTo("%PDF-");
+        assertThat(meterRegistry.get("certify.pdf.render").tag("phase", "live").timer().count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,123 @@
+package com.irembo.certify.pdf;
+
+import com.irembo.certify.common.TenantContextHolder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RenderExecutorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private RenderExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        TenantContextHolder.clear();
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void runsRenderWithCallersTenant() {
+        executor = newExecutor(new RenderExecutorProperties.Lane(1, 1, 1, 0, Duration.ofSeconds(1)));
+        UUID tenantId = UUID.randomUUID();
+        TenantContextHolder.setTenantId(tenantId);
+
+        UUID seen = executor.execute(RenderLane.INTERACTIVE, TenantContextHolder::getTenantId);
+
+        assertThat(seen).isEqualTo(tenantId);
+    }
+
+    @Test
+    void rejectsWhenLaneAndQueueAreFull() throws Exception {
+        executor = newExecutor(new RenderExecutorProperties.Lane(1, 1, 1, 0, Duration.ofSeconds(5)));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> busy = CompletableFuture.supplyAsync(() ->
+                executor.execute(RenderLane.INTERACTIVE, () -> {
+                    started.countDown();
+                    await(release);
+                    return "done";
+                }));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> executor.execute(RenderLane.INTERACTIVE, () -> "rejected"))
+                .isInstanceOf(RenderRejectedException.class)
+                .satisfies(ex -> assertThat(((RenderRejectedException) ex).getRetryAfter()).isEqualTo(Duration.ofSeconds(5)));
+        // The bulk lane has its own limit.
+        assertThat(executor.execute(RenderLane.BULK, () -> "bulk")).isEqualTo("bulk");
+
+        release.countDown();
+        assertThat(busy.get(5, TimeUnit.SECONDS)).isEqualTo("done");
+        assertThat(meterRegistry.get("certify.pdf.executor.rejected").tag("lane", "interactive").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void rejectsQueuedRenderAfterQueueTimeout() throws Exception {
+        executor = newExecutor(new RenderExecutorProperties.Lane(1, 1, 1, 1, Duration.ofMillis(100)));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> busy = CompletableFuture.supplyAsync(() ->
+                executor.execute(RenderLane.INTERACTIVE, () -> {
+                    started.countDown();
+                    await(release);
+                    return "done";
+                }));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> executor.execute(RenderLane.INTERACTIVE, () -> "queued"))
+                .isInstanceOf(RenderRejectedException.class);
+        assertThat(meterRegistry.get("certify.pdf.executor.queued").tag("lane", "interactive").gauge().value())
+                .isZero();
+
+        release.countDown();
+        busy.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void propagatesRenderFailures() {
+        executor = newExecutor(new RenderExecutorProperties.Lane(1, 1, 1, 0, Duration.ofSeconds(1)));
+
+        assertThatThrownBy(() -> executor.execute(RenderLane.INTERACTIVE, () -> {
+            throw new IllegalStateException("boom");
+        })).isInstanceOf(IllegalStateException.class).hasMessage("boom");
+    }
+
+    @Test
+    void adaptiveLimitGrowsWhileLatencyIsStableAndShrinksWhenItRises() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 32);
+        for (int i = 0; i < 50; i++) {
+            limit.onSample(10_000_000, limit.current());
+        }
+        int grown = limit.current();
+        assertThat(grown).isGreaterThan(4);
+
+        for (int i = 0; i < 50; i++) {
+            limit.onSample(100_000_000, limit.current());
+        }
+        assertThat(limit.current()).isLessThan(grown);
+    }
+
+    private RenderExecutor newExecutor(RenderExecutorProperties.Lane interactive) {
+        return new RenderExecutor(new RenderExecutorProperties(interactive, null), meterRegistry);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
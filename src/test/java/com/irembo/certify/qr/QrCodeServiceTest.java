@@ -0,0 +1,89 @@
+package com.irembo.certify.qr;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QrCodeServiceTest {
+
+    private static final String URL = "http://localhost:4200/verify/7f6c1f3e-2d4b-4c1a-9f0e-0b8d2f7c5a11";
+
+    private final QrCodeService qrCodeService = new QrCodeService(new QrCodeProperties(QrCodeProperties.Mode.PNG));
+
+    @Test
+    void generatedPngDecodesBackToContent() throws Exception {
+        BufferedImage image = decodeDataUrl(qrCodeService.generateDataUrl(URL, 200));
+
+        String decoded = new QRCodeReader()
+                .decode(new BinaryBitmap(new HybridBinarizer(new BufferedImageLuminanceSource(image))))
+                .getText();
+
+        assertThat(decoded).isEqualTo(URL);
+    }
+
+    @Test
+    void pngIsExactlyTheRequestedSize() throws Exception {
+        for (int size : new int[]{200, 150, 333}) {
+            BufferedImage image = decodeDataUrl(qrCodeService.generateDataUrl(URL, size));
+
+            assertThat(image.getWidth()).as("width at %d", size).isEqualTo(size);
+            assertThat(image.getHeight()).as("height at %d", size).isEqualTo(size);
+        }
+    }
+
+    @Test
+    void pixelsMatchModulesAtWholeNumberScaleInsideAWhiteMargin() throws Exception {
+        BitMatrix matrix = qrCodeService.encode(URL);
+        int scale = 200 / matrix.getWidth();
+        int margin = (200 - matrix.getWidth() * scale) / 2;
+
+        BufferedImage image = decodeDataUrl(qrCodeService.generateDataUrl(URL, 200));
+
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int moduleX = Math.floorDiv(x - margin, scale);
+                int moduleY = Math.floorDiv(y - margin, scale);
+                boolean inCode = moduleX >= 0 && moduleX < matrix.getWidth()
+                        && moduleY >= 0 && moduleY < matrix.getHeight();
+                boolean dark = (image.getRGB(x, y) & 0xffffff) == 0;
+                assertThat(dark).as("pixel %d,%d", x, y).isEqualTo(inCode && matrix.get(moduleX, moduleY));
+            }
+        }
+    }
+
+    @Test
+    void sizeBelowTheCodeGivesOnePixelPerModule() throws Exception {
+        BitMatrix matrix = qrCodeService.encode(URL);
+
+        BufferedImage image = decodeDataUrl(qrCodeService.generateDataUrl(URL, 0));
+
+        assertThat(image.getWidth()).isEqualTo(matrix.getWidth());
+        assertThat(image.getHeight()).isEqualTo(matrix.getHeight());
+    }
+
+    @Test
+    void encoderBuffersAreReusedAcrossSizes() throws Exception {
+        String large = qrCodeService.generateDataUrl(URL, 400);
+        String small = qrCodeService.generateDataUrl("short", 100);
+
+        assertThat(decodeDataUrl(large).getWidth()).isGreaterThan(decodeDataUrl(small).getWidth());
+    }
+
+    private static BufferedImage decodeDataUrl(String dataUrl) throws Exception {
+        assertThat(dataUrl).startsWith("data:image/png;base64,");
+        byte[] png = Base64.getDecoder().decode(dataUrl.substring("data:image/png;base64,".length()));
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertThat(image).isNotNull();
+        return image;
+    }
+}
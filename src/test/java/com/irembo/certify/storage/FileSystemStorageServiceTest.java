@@ -0,0 +1,137 @@
+package com.irembo.certify.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileSystemStorageServiceTest {
+
+    private static final byte[] CONTENT = "%PDF-1.4 certificate".getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    Path root;
+
+    @Test
+    void writeStreamsContentIntoShardedContentAddressedPath() throws Exception {
+        FileSystemStorageService storage = storage(StorageProperties.Layout.CONTENT_ADDRESSED);
+        String sha256 = sha256(CONTENT);
+
+        StoredFile stored = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> {
+            out.write(CONTENT, 0, 5);
+            out.write(CONTENT, 5, CONTENT.length - 5);
+        });
+
+        assertThat(stored.storagePath())
+                .isEqualTo("cas/" + sha256.substring(0, 2) + "/" + sha256.substring(2, 4) + "/" + sha256 + ".pdf");
+        assertThat(stored.sha256()).isEqualTo(sha256);
+        assertThat(stored.size()).isEqualTo(CONTENT.length);
+        assertThat(storage.open(stored.storagePath()).getContentAsByteArray()).isEqualTo(CONTENT);
+        assertThat(listFiles(root.resolve("tmp"))).isEmpty();
+    }
+
+    @Test
+    void identicalContentIsStoredOnce() throws Exception {
+        FileSystemStorageService storage = storage(StorageProperties.Layout.CONTENT_ADDRESSED);
+
+        StoredFile first = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(CONTENT));
+        StoredFile second = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(CONTENT));
+
+        assertThat(second.storagePath()).isEqualTo(first.storagePath());
+        assertThat(listFiles(root.resolve(first.storagePath()).getParent())).hasSize(1);
+        assertThat(listFiles(root.resolve("tmp"))).isEmpty();
+
+        assertThat(storage.exists(first.storagePath())).isTrue();
+        storage.delete(first.storagePath());
+        assertThat(storage.exists(second.storagePath())).isFalse();
+    }
+
+    @Test
+    void tenantLayoutKeepsPerCertificatePaths() throws Exception {
+        FileSystemStorageService storage = storage(StorageProperties.Layout.TENANT);
+        UUID tenantId = UUID.randomUUID();
+        UUID certificateId = UUID.randomUUID();
+
+        StoredFile stored = storage.write(tenantId, certificateId, out -> out.write(CONTENT));
+
+        assertThat(stored.storagePath()).isEqualTo(tenantId + "/" + certificateId + ".pdf");
+        assertThat(stored.sha256()).isEqualTo(sha256(CONTENT));
+    }
+
+    @Test
+    void failedWriteLeavesNoFileBehind() throws Exception {
+        FileSystemStorageService storage = storage(StorageProperties.Layout.CONTENT_ADDRESSED);
+
+        assertThatThrownBy(() -> storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> {
+            out.write(new byte[100]);
+            throw new IllegalStateException("render failed");
+        })).hasMessage("render failed");
+
+        assertThat(listFiles(root.resolve("tmp"))).isEmpty();
+        assertThat(Files.exists(root.resolve("cas"))).isFalse();
+    }
+
+    @Test
+    void moveToContentAddressedLinksLegacyFileAndKeepsOriginal() throws Exception {
+        FileSystemStorageService legacy = storage(StorageProperties.Layout.TENANT);
+        StoredFile old = legacy.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(CONTENT));
+        FileSystemStorageService storage = storage(StorageProperties.Layout.CONTENT_ADDRESSED);
+
+        StoredFile moved = storage.moveToContentAddressed(old.storagePath(), old.sha256());
+
+        assertThat(FileSystemStorageService.isContentAddressed(moved.storagePath())).isTrue();
+        assertThat(moved.sha256()).isEqualTo(old.sha256());
+        assertThat(storage.open(moved.storagePath()).getContentAsByteArray()).isEqualTo(CONTENT);
+        assertThat(Files.exists(root.resolve(old.storagePath()))).isTrue();
+        assertThat(storage.moveToContentAddressed(moved.storagePath(), null).storagePath())
+                .isEqualTo(moved.storagePath());
+    }
+
+    @Test
+    void moveToContentAddressedPublishesNothingWhenTheHashDoesNotMatch() throws Exception {
+        FileSystemStorageService legacy = storage(StorageProperties.Layout.TENANT);
+        StoredFile old = legacy.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(CONTENT));
+        FileSystemStorageService storage = storage(StorageProperties.Layout.CONTENT_ADDRESSED);
+
+        assertThatThrownBy(() -> storage.moveToContentAddressed(old.storagePath(), "0".repeat(64)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("does not match");
+
+        assertThat(Files.exists(root.resolve("cas"))).isFalse();
+        assertThat(Files.exists(root.resolve(old.storagePath()))).isTrue();
+    }
+
+    @Test
+    void openRejectsPathsOutsideTheRoot() {
+        FileSystemStorageService storage = storage(StorageProperties.Layout.CONTENT_ADDRESSED);
+
+        assertThatThrownBy(() -> storage.open("../outside.pdf")).isInstanceOf(IllegalStateException.class);
+    }
+
+    private FileSystemStorageService storage(StorageProperties.Layout layout) {
+        return new FileSystemStorageService(
+                new StorageProperties(root.toString(), layout, StorageProperties.Backend.FILESYSTEM,
+                        new StorageProperties.Migration(1, 10, Duration.ofHours(3)), null, null));
+    }
+
+    private static String sha256(byte[] content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+
+    private static List<Path> listFiles(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.toList();
+        }
+    }
+}
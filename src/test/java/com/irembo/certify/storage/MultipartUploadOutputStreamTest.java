@@ -0,0 +1,109 @@
+package com.irembo.certify.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MultipartUploadOutputStreamTest {
+
+    private static final int PART_SIZE = 1024;
+
+    private S3Client s3;
+
+    @BeforeEach
+    void setUp() {
+        // The builder-consumer overloads are default methods that delegate to the request
+        // overloads; run them for real so only the request overloads need stubbing.
+        s3 = mock(S3Client.class, invocation ->
+                invocation.getMethod().getParameterCount() > 0
+                        && invocation.getMethod().getParameterTypes()[0] == Consumer.class
+                        ? invocation.callRealMethod()
+                        : RETURNS_DEFAULTS.answer(invocation));
+        when(s3.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+        when(s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenAnswer(invocation -> UploadPartResponse.builder()
+                        .eTag("etag-" + invocation.<UploadPartRequest>getArgument(0).partNumber())
+                        .build());
+    }
+
+    @Test
+    void contentWithinOnePartIsSentWithASinglePut() throws Exception {
+        MultipartUploadOutputStream out = new MultipartUploadOutputStream(s3, "bucket", "key.pdf", PART_SIZE);
+        out.write(new byte[PART_SIZE]);
+
+        out.complete();
+
+        ArgumentCaptor<RequestBody> body = ArgumentCaptor.forClass(RequestBody.class);
+        verify(s3).putObject(any(PutObjectRequest.class), body.capture());
+        assertThat(body.getValue().optionalContentLength()).hasValue((long) PART_SIZE);
+        verify(s3, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+    }
+
+    @Test
+    void largerContentIsUploadedInPartsAndCompleted() throws Exception {
+        MultipartUploadOutputStream out = new MultipartUploadOutputStream(s3, "bucket", "key.pdf", PART_SIZE);
+        byte[] chunk = new byte[300];
+        for (int i = 0; i < 8; i++) {
+            out.write(chunk);
+        }
+
+        out.complete();
+
+        ArgumentCaptor<RequestBody> bodies = ArgumentCaptor.forClass(RequestBody.class);
+        verify(s3, times(3)).uploadPart(any(UploadPartRequest.class), bodies.capture());
+        assertThat(bodies.getAllValues()).extracting(MultipartUploadOutputStreamTest::length)
+                .containsExactly(1024, 1024, 352);
+        ArgumentCaptor<CompleteMultipartUploadRequest> complete =
+                ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(s3).completeMultipartUpload(complete.capture());
+        assertThat(complete.getValue().uploadId()).isEqualTo("upload-1");
+        assertThat(complete.getValue().multipartUpload().parts())
+                .extracting(part -> part.partNumber() + ":" + part.eTag())
+                .isEqualTo(List.of("1:etag-1", "2:etag-2", "3:etag-3"));
+        verify(s3, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    @Test
+    void abortDiscardsStartedMultipartUpload() throws Exception {
+        MultipartUploadOutputStream out = new MultipartUploadOutputStream(s3, "bucket", "key.pdf", PART_SIZE);
+        out.write(new byte[PART_SIZE + 1]);
+
+        out.abort();
+
+        ArgumentCaptor<AbortMultipartUploadRequest> abort = ArgumentCaptor.forClass(AbortMultipartUploadRequest.class);
+        verify(s3).abortMultipartUpload(abort.capture());
+        assertThat(abort.getValue().uploadId()).isEqualTo("upload-1");
+    }
+
+    private static int length(RequestBody body) {
+        try (InputStream in = body.contentStreamProvider().newStream()) {
+            return in.readAllBytes().length;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
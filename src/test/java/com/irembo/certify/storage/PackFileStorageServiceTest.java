@@ -0,0 +1,269 @@
+package com.irembo.certify.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+import org.springframework.util.unit.DataSize;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PackFileStorageServiceTest {
+
+    @TempDir
+    Path root;
+
+    private final List<PackFileStorageService> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeStorage() {
+        opened.forEach(PackFileStorageService::close);
+    }
+
+    @Test
+    void writeAppendsToSegmentAndReadsBackFromMappedSlice() throws Exception {
+        PackFileStorageService storage = storage(DataSize.ofMegabytes(1));
+        byte[] first = pdf("first");
+        byte[] second = pdf("second");
+
+        StoredFile one = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(first));
+        StoredFile two = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(second));
+
+        assertThat(one.storagePath()).isEqualTo("pack/" + one.sha256());
+        assertThat(one.size()).isEqualTo(first.length);
+        assertThat(storage.open(one.storagePath()).getContentAsByteArray()).isEqualTo(first);
+        assertThat(storage.open(two.storagePath()).getContentAsByteArray()).isEqualTo(second);
+        assertThat(segmentFiles()).hasSize(1);
+        assertThat(listFiles(root.resolve("tmp"))).isEmpty();
+    }
+
+    @Test
+    void identicalContentIsAppendedOnce() throws Exception {
+        PackFileStorageService storage = storage(DataSize.ofMegabytes(1));
+        byte[] content = pdf("same");
+
+        StoredFile first = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(content));
+        StoredFile second = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(content));
+
+        assertThat(second.storagePath()).isEqualTo(first.storagePath());
+        assertThat(Files.size(segmentFiles().get(0)))
+                .isEqualTo(PackFileStorageService.HEADER_SIZE + content.length);
+    }
+
+    @Test
+    void activeSegmentIsMappedOnceAndTrimmedWhenClosed() throws Exception {
+        PackFileStorageService storage = storage(DataSize.ofMegabytes(1));
+        long written = 0;
+        for (int i = 0; i < 5; i++) {
+            byte[] content = pdf("record " + i);
+            StoredFile stored = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(content));
+            assertThat(storage.open(stored.storagePath()).getContentAsByteArray()).isEqualTo(content);
+            written += PackFileStorageService.HEADER_SIZE + content.length;
+        }
+
+        assertThat(storage.mappings()).isEqualTo(1);
+        storage.close();
+        assertThat(Files.size(segmentFiles().get(0))).isEqualTo(written);
+    }
+
+    @Test
+    void sealedSegmentIsTrimmedToItsRecords() throws Exception {
+        PackFileStorageService storage = storage(DataSize.ofBytes(64));
+        byte[] first = pdf("first");
+        StoredFile stored = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(first));
+        storage.open(stored.storagePath()).getContentAsByteArray();
+
+        storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(pdf("second")));
+
+        assertThat(Files.size(segmentFiles().get(0))).isEqualTo(PackFileStorageService.HEADER_SIZE + first.length);
+        assertThat(storage.open(stored.storagePath()).getContentAsByteArray()).isEqualTo(first);
+    }
+
+    @Test
+    void zeroFilledTailAndUnfinishedCompactionsAreDroppedOnRestart() throws Exception {
+        PackFileStorageService storage = storage(DataSize.ofMegabytes(1));
+        byte[] content = pdf("intact");
+        StoredFile stored = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(content));
+        storage.close();
+        Path segment = segmentFiles().get(0);
+        long intactSize = Files.size(segment);
+        Files.write(segment, new byte[4096], StandardOpenOption.APPEND);
+        Path unfinished = Files.write(segment.resolveSibling(segment.getFileName() + ".compacting"), content);
+
+        PackFileStorageService reopened = storage(DataSize.ofMegabytes(1));
+
+        assertThat(Files.size(segment)).isEqualTo(intactSize);
+        assertThat(Files.exists(unfinished)).isFalse();
+        assertThat(reopened.open(stored.storagePath()).getContentAsByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    void resourceSupportsSkippingForRangeRequests() throws Exception {
+        PackFileStorageService storage = storage(DataSize.ofMegabytes(1));
+        byte[] content = pdf("ranged");
+        StoredFile stored = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(content));
+
+        Resource resource = storage.open(stored.storagePath());
+        try (InputStream in = resource.getInputStream()) {
+            assertThat(in.skip(5)).isEqualTo(5);
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(content, 5, content.length));
+        }
+        assertThat(resource.contentLength()).isEqualTo(content.length);
+    }
+
+    @Test
+    void indexIsRebuiltOnRestartIncludingDeletes() throws Exception {
+        PackFileStorageService storage = storage(DataSize.ofMegabytes(1));
+        byte[] kept = pdf("kept");
+        StoredFile keep = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(kept));
+        StoredFile drop = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(pdf("dropped")));
+        storage.delete(drop.storagePath());
+        storage.close();
+
+        PackFileStorageService reopened = storage(DataSize.ofMegabytes(1));
+
+        assertThat(reopened.open(keep.storagePath()).getContentAsByteArray()).isEqualTo(kept);
+        assertThatThrownBy(() -> reopened.open(drop.storagePath()))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(reopened.exists(keep.storagePath())).isTrue();
+        assertThat(reopened.exists(drop.storagePath())).isFalse();
+    }
+
+    @Test
+    void tornRecordAtTheEndOfTheLastSegmentIsTruncated() throws Exception {
+        PackFileStorageService storage = storage(DataSize.ofMegabytes(1));
+        byte[] content = pdf("intact");
+        StoredFile stored = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(content));
+        storage.close();
+        Path segment = segmentFiles().get(0);
+        long intactSize = Files.size(segment);
+        Files.write(segment, new byte[]{0x43, 0x50, 0x4b}, StandardOpenOption.APPEND);
+
+        PackFileStorageService reopened = storage(DataSize.ofMegabytes(1));
+
+        assertThat(Files.size(segment)).isEqualTo(intactSize);
+        assertThat(reopened.open(stored.storagePath()).getContentAsByteArray()).isEqualTo(content);
+        StoredFile next = reopened.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(pdf("next")));
+        assertThat(reopened.open(next.storagePath()).getContentAsByteArray()).isEqualTo(pdf("next"));
+    }
+
+    @Test
+    void compactionMovesLiveRecordsAndDropsSparseSegments() throws Exception {
+        // Small segments: every record seals the segment before it.
+        PackFileStorageService storage = storage(DataSize.ofBytes(64));
+        byte[] kept = pdf("kept");
+        StoredFile keep = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(kept));
+        StoredFile drop = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(pdf("dropped")));
+        storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(pdf("other")));
+        storage.delete(drop.storagePath());
+        Resource openedBeforeCompaction = storage.open(keep.storagePath());
+        List<Path> before = segmentFiles();
+
+        storage.compact();
+
+        List<Path> after = segmentFiles();
+        assertThat(after).doesNotContain(before.get(1));
+        assertThat(storage.open(keep.storagePath()).getContentAsByteArray()).isEqualTo(kept);
+        assertThat(openedBeforeCompaction.getContentAsByteArray()).isEqualTo(kept);
+        assertThatThrownBy(() -> storage.open(drop.storagePath())).isInstanceOf(IllegalStateException.class);
+
+        storage.close();
+        PackFileStorageService reopened = storage(DataSize.ofBytes(64));
+        assertThat(reopened.open(keep.storagePath()).getContentAsByteArray()).isEqualTo(kept);
+        assertThatThrownBy(() -> reopened.open(drop.storagePath())).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void compactionRewritesSegmentInPlaceAndLaterDeletesSurviveRestart() throws Exception {
+        // Room for two records per segment.
+        PackFileStorageService storage = storage(DataSize.ofBytes(128));
+        byte[] kept = pdf("k");
+        StoredFile keep = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(kept));
+        StoredFile drop = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(pdf("dropped record")));
+        StoredFile other = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(pdf("other")));
+        storage.delete(drop.storagePath());
+        Resource openedBeforeCompaction = storage.open(keep.storagePath());
+        Path first = segmentFiles().get(0);
+
+        storage.compact();
+
+        assertThat(segmentFiles()).contains(first);
+        assertThat(Files.size(first)).isEqualTo(PackFileStorageService.HEADER_SIZE + kept.length);
+        assertThat(storage.open(keep.storagePath()).getContentAsByteArray()).isEqualTo(kept);
+        assertThat(openedBeforeCompaction.getContentAsByteArray()).isEqualTo(kept);
+
+        storage.delete(keep.storagePath());
+        storage.close();
+        PackFileStorageService reopened = storage(DataSize.ofBytes(128));
+        assertThatThrownBy(() -> reopened.open(keep.storagePath())).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> reopened.open(drop.storagePath())).isInstanceOf(IllegalStateException.class);
+        assertThat(reopened.open(other.storagePath()).getContentAsByteArray()).isEqualTo(pdf("other"));
+    }
+
+    @Test
+    void packDirectoryCanOnlyBeOpenedByOneInstanceAtATime() throws Exception {
+        PackFileStorageService storage = storage(DataSize.ofMegabytes(1));
+        StoredFile stored = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(pdf("owned")));
+
+        assertThatThrownBy(() -> storage(DataSize.ofMegabytes(1)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("in use by another process");
+
+        storage.close();
+        PackFileStorageService reopened = storage(DataSize.ofMegabytes(1));
+        assertThat(reopened.open(stored.storagePath()).getContentAsByteArray()).isEqualTo(pdf("owned"));
+    }
+
+    @Test
+    void fileSystemPathsAreStillServed() throws Exception {
+        FileSystemStorageService fileSystem = new FileSystemStorageService(properties(DataSize.ofMegabytes(1)));
+        StoredFile legacy = fileSystem.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(pdf("legacy")));
+        PackFileStorageService storage = storage(DataSize.ofMegabytes(1));
+
+        assertThat(storage.open(legacy.storagePath()).getContentAsByteArray()).isEqualTo(pdf("legacy"));
+        storage.delete(legacy.storagePath());
+        assertThat(Files.exists(root.resolve(legacy.storagePath()))).isFalse();
+    }
+
+    private PackFileStorageService storage(DataSize segmentSize) {
+        StorageProperties properties = properties(segmentSize);
+        PackFileStorageService storage = new PackFileStorageService(properties, new FileSystemStorageService(properties));
+        opened.add(storage);
+        return storage;
+    }
+
+    private StorageProperties properties(DataSize segmentSize) {
+        return new StorageProperties(root.toString(), StorageProperties.Layout.CONTENT_ADDRESSED,
+                StorageProperties.Backend.PACK, new StorageProperties.Migration(1, 10, Duration.ofHours(3)),
+                new StorageProperties.Pack(segmentSize, Duration.ZERO, 0.5), null);
+    }
+
+    private List<Path> segmentFiles() throws Exception {
+        return listFiles(root.resolve(PackFileStorageService.PACK_DIR)).stream()
+                .filter(file -> file.getFileName().toString().startsWith("segment-"))
+                .toList();
+    }
+
+    private static byte[] pdf(String text) {
+        return ("%PDF-1.4 " + text).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static List<Path> listFiles(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.irembo.certify.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import org.testcontainers.containers.MinIOContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Testcontainers(disabledWithoutDocker = true)
+class S3StorageServiceTest {
+
+    private static final String BUCKET = "certificates";
+
+    @Container
+    static final MinIOContainer minio = new MinIOContainer("minio/minio:RELEASE.2024-05-10T01-41-38Z");
+
+    @TempDir
+    Path root;
+
+    private S3StorageService storage;
+
+    @BeforeAll
+    static void createBucket() {
+        try (S3Client s3 = S3Client.builder()
+                .endpointOverride(URI.create(minio.getS3URL()))
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create(minio.getUserName(), minio.getPassword())))
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+                .build()) {
+            s3.createBucket(request -> request.bucket(BUCKET));
+        }
+    }
+
+    @AfterEach
+    void close() {
+        if (storage != null) {
+            storage.close();
+        }
+    }
+
+    @Test
+    void smallPdfIsStoredWithOneRequestAndReadBack() throws Exception {
+        storage = storage();
+        byte[] content = "%PDF-1.4 certificate".getBytes(StandardCharsets.US_ASCII);
+        UUID tenantId = UUID.randomUUID();
+        UUID certificateId = UUID.randomUUID();
+
+        StoredFile stored = storage.write(tenantId, certificateId, out -> out.write(content));
+
+        assertThat(stored.storagePath()).isEqualTo("s3/" + tenantId + "/" + certificateId + ".pdf");
+        assertThat(stored.size()).isEqualTo(content.length);
+        assertThat(storage.open(stored.storagePath()).contentLength()).isEqualTo(content.length);
+        assertThat(storage.open(stored.storagePath()).getContentAsByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    void largePdfIsUploadedInParts() throws Exception {
+        storage = storage();
+        // Two full 5 MB parts and a short last one.
+        byte[] content = new byte[11 * 1024 * 1024];
+        new Random(42).nextBytes(content);
+
+        StoredFile stored = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> {
+            for (int offset = 0; offset < content.length; offset += 100_000) {
+                out.write(content, offset, Math.min(100_000, content.length - offset));
+            }
+        });
+
+        assertThat(stored.size()).isEqualTo(content.length);
+        assertThat(storage.open(stored.storagePath()).getContentAsByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    void failedWriteLeavesNoObject() {
+        storage = storage();
+        UUID tenantId = UUID.randomUUID();
+        UUID certificateId = UUID.randomUUID();
+
+        assertThatThrownBy(() -> storage.write(tenantId, certificateId, out -> {
+            out.write(new byte[6 * 1024 * 1024]);
+            throw new UncheckedIOException(new IOException("render failed"));
+        })).isInstanceOf(UncheckedIOException.class);
+
+        assertThatThrownBy(() -> storage.open("s3/" + tenantId + "/" + certificateId + ".pdf"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("not found");
+    }
+
+    @Test
+    void presignedUrlServesThePdfDirectly() throws Exception {
+        storage = storage();
+        byte[] content = "%PDF-1.4 presigned".getBytes(StandardCharsets.US_ASCII);
+        StoredFile stored = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(content));
+
+        URI url = storage.downloadUrl(stored.storagePath(), "certificate.pdf").orElseThrow();
+        HttpResponse<byte[]> response = HttpClient.newHttpClient()
+                .send(HttpRequest.newBuilder(url).GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body()).isEqualTo(content);
+        assertThat(response.headers().firstValue("Content-Disposition"))
+                .hasValue("attachment; filename=certificate.pdf");
+    }
+
+    @Test
+    void deleteRemovesObject() {
+        storage = storage();
+        StoredFile stored = storage.write(UUID.randomUUID(), UUID.randomUUID(), out -> out.write(new byte[]{1, 2, 3}));
+
+        storage.delete(stored.storagePath());
+
+        assertThatThrownBy(() -> storage.open(stored.storagePath())).isInstanceOf(IllegalStateException.class);
+    }
+
+    private S3StorageService storage() {
+        StorageProperties properties = new StorageProperties(root.toString(),
+                StorageProperties.Layout.CONTENT_ADDRESSED, StorageProperties.Backend.S3,
+                new StorageProperties.Migration(1, 10, Duration.ofHours(3)), null,
+                new StorageProperties.S3(minio.getS3URL(), "us-east-1", BUCKET,
+                        minio.getUserName(), minio.getPassword(), true, DataSize.ofMegabytes(5),
+                        4, Duration.ofSeconds(5), true, Duration.ofMinutes(5)));
+        return new S3StorageService(properties, new FileSystemStorageService(properties));
+    }
+}
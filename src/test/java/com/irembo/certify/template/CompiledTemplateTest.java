@@ -0,0 +1,67 @@
+package com.irembo.certify.template;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompiledTemplateTest {
+
+    @Test
+    void renderSubstitutesEveryOccurrenceInOnePass() {
+        CompiledTemplate template = CompiledTemplate.compile("<p>${name}</p><p>${course} - ${name}</p>");
+
+        String html = template.render(Map.of("name", "Alice", "course", "Math"));
+
+        assertThat(html).isEqualTo("<p>Alice</p><p>Math - Alice</p>");
+    }
+
+    @Test
+    void renderKeepsUnknownPlaceholdersAndBlanksNullValues() {
+        CompiledTemplate template = CompiledTemplate.compile("${known}|${unknown}|${missing");
+        Map<String, Object> data = new HashMap<>();
+        data.put("known", null);
+
+        assertThat(template.render(data)).isEqualTo("|${unknown}|${missing");
+    }
+
+    @Test
+    void renderDoesNotReinterpretSubstitutedValues() {
+        CompiledTemplate template = CompiledTemplate.compile("${a}${b}");
+
+        assertThat(template.render(Map.of("a", "${b}", "b", "x"))).isEqualTo("${b}x");
+    }
+
+    @Test
+    void templateWithoutPlaceholdersRendersVerbatim() {
+        CompiledTemplate template = CompiledTemplate.compile("<h1>Static</h1>");
+
+        assertThat(template.hasPlaceholders()).isFalse();
+        assertThat(template.render(Map.of("name", "Alice"))).isEqualTo("<h1>Static</h1>");
+    }
+
+    @Test
+    void engineCachesPerTemplateVersion() {
+        PlaceholderTemplateEngine engine = new PlaceholderTemplateEngine();
+        CertificateTemplate template = new CertificateTemplate();
+        template.setId(UUID.randomUUID());
+        template.setHtmlTemplate("<p>${name}</p>");
+        template.setVersion(1);
+
+        CompiledTemplate first = engine.compile(template);
+        assertThat(engine.compile(template)).isSameAs(first);
+
+        template.setHtmlTemplate("<h1>${name}</h1>");
+        template.setVersion(2);
+
+        assertThat(engine.compile(template)).isNotSameAs(first);
+        assertThat(engine.render(template, Map.of("name", "Bob"))).isEqualTo("<h1>Bob</h1>");
+
+        CompiledTemplate second = engine.compile(template);
+        engine.evict(template.getId());
+        assertThat(engine.compile(template)).isNotSameAs(second);
+    }
+}
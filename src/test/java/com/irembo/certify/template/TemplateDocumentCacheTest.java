@@ -0,0 +1,253 @@
+package com.irembo.certify.template;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import com.irembo.certify.pdf.PdfFontRegistry;
+import com.irembo.certify.pdf.PdfRenderer;
+import com.irembo.certify.pdf.PdfRendererProperties;
+import com.irembo.certify.qr.QrCodeObjectDrawer;
+import com.irembo.certify.qr.QrCodeProperties;
+import com.irembo.certify.qr.QrCodeService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.contentstream.PDFStreamEngine;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.contentstream.operator.OperatorName;
+import org.apache.pdfbox.contentstream.operator.state.Concatenate;
+import org.apache.pdfbox.contentstream.operator.state.Restore;
+import org.apache.pdfbox.contentstream.operator.state.Save;
+import org.apache.pdfbox.contentstream.operator.state.SetMatrix;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.util.Matrix;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class TemplateDocumentCacheTest {
+
+    private static final String VERIFY_URL = "http://localhost:4200/verify/7f6c1f3e-2d4b-4c1a-9f0e-0b8d2f7c5a11";
+
+    private final QrCodeService qrCodeService = new QrCodeService(new QrCodeProperties(QrCodeProperties.Mode.VECTOR));
+    private final PdfRenderer pdfRenderer = new PdfRenderer(
+            new PdfFontRegistry(new PdfRendererProperties(null, 0)),
+            new QrCodeObjectDrawer(qrCodeService),
+            new SimpleMeterRegistry()
+    );
+
+    @Test
+    void bindSubstitutesTextAndAttributesOnACopy() {
+        TemplateDocumentCache cache = new TemplateDocumentCache(pdfRenderer);
+        CertificateTemplate template = template("<p>Hello ${name}</p><img src='${qrCodeImage}'/>");
+
+        Document first = cache.bind(template, Map.of("name", "Alice", "qrCodeImage", "data:image/png;base64,AAA"));
+        Document second = cache.bind(template, Map.of("name", "Bob", "qrCodeImage", "data:image/png;base64,BBB"));
+
+        assertThat(first.getElementsByTagName("p").item(0).getTextContent()).isEqualTo("Hello Alice");
+        assertThat(((Element) first.getElementsByTagName("img").item(0)).getAttribute("src"))
+                .isEqualTo("data:image/png;base64,AAA");
+        assertThat(second.getElementsByTagName("p").item(0).getTextContent()).isEqualTo("Hello Bob");
+        assertThat(((Element) second.getElementsByTagName("img").item(0)).getAttribute("src"))
+                .isEqualTo("data:image/png;base64,BBB");
+    }
+
+    @Test
+    void bindInsertsValuesAsText() {
+        TemplateDocumentCache cache = new TemplateDocumentCache(pdfRenderer);
+        CertificateTemplate template = template("<p>${name}</p>");
+
+        Document document = cache.bind(template, Map.of("name", "Smith & <b>Co</b>"));
+
+        assertThat(document.getElementsByTagName("p").item(0).getTextContent()).isEqualTo("Smith & <b>Co</b>");
+        assertThat(document.getElementsByTagName("b").getLength()).isZero();
+    }
+
+    @Test
+    void bindReturnsNullForMalformedTemplates() {
+        TemplateDocumentCache cache = new TemplateDocumentCache(pdfRenderer);
+
+        assertThat(cache.bind(template("<p>unclosed <br> tag</p>"), Map.of())).isNull();
+    }
+
+    @Test
+    void bindPicksUpNewTemplateVersions() {
+        TemplateDocumentCache cache = new TemplateDocumentCache(pdfRenderer);
+        CertificateTemplate template = template("<p>v1 ${name}</p>");
+        cache.prepare(template);
+
+        template.setHtmlTemplate("<p>v2 ${name}</p>");
+        template.setVersion(2);
+
+        Document document = cache.bind(template, Map.of("name", "Alice"));
+        assertThat(document.getElementsByTagName("p").item(0).getTextContent()).isEqualTo("v2 Alice");
+    }
+
+    @Test
+    void templateIsParsedOncePerVersionAndAgainAfterEviction() {
+        PdfRenderer parser = spy(pdfRenderer);
+        TemplateDocumentCache cache = new TemplateDocumentCache(parser);
+        CertificateTemplate template = template("<p>${name}</p>");
+
+        cache.bind(template, Map.of("name", "Alice"));
+        cache.bind(template, Map.of("name", "Bob"));
+        verify(parser, times(1)).prepareDocument(anyString());
+
+        template.setVersion(2);
+        cache.bind(template, Map.of("name", "Alice"));
+        verify(parser, times(2)).prepareDocument(anyString());
+
+        cache.evict(template.getId());
+        cache.bind(template, Map.of("name", "Alice"));
+        verify(parser, times(3)).prepareDocument(anyString());
+    }
+
+    @Test
+    void concurrentBindsEachGetTheirOwnValues() throws Exception {
+        TemplateDocumentCache cache = new TemplateDocumentCache(pdfRenderer);
+        CertificateTemplate template = template("<p>Hello ${name}</p>");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String name = "name-" + i;
+                results.add(executor.submit(() -> cache.bind(template, Map.of("name", name))
+                        .getElementsByTagName("p").item(0).getTextContent()));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertThat(results.get(i).get()).isEqualTo("Hello name-" + i);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void boundDocumentRendersToPdf() {
+        TemplateDocumentCache cache = new TemplateDocumentCache(pdfRenderer);
+        Document document = cache.bind(template("<h1>${name}</h1>"), Map.of("name", "Alice"));
+
+        byte[] pdf = pdfRenderer.renderDocumentToPdf(document);
+
+        assertThat(new String(pdf, 0, 5, StandardCharsets.US_ASCII)).isEqualTo("%PDF-");
+    }
+
+    @Test
+    void vectorQrCodeImageBecomesObjectWithImageSize() {
+        TemplateDocumentCache cache = new TemplateDocumentCache(pdfRenderer);
+        CertificateTemplate template = template("<p><img class='qr' width='120' src='${qrCodeImage}'/></p>");
+
+        Document document = cache.bind(template, Map.of("qrCodeImage", qrCodeService.image(VERIFY_URL, 200)));
+
+        assertThat(document.getElementsByTagName("img").getLength()).isZero();
+        Element object = (Element) document.getElementsByTagName("object").item(0);
+        assertThat(object.getAttribute("type")).isEqualTo(QrCodeObjectDrawer.OBJECT_TYPE);
+        assertThat(object.getAttribute(QrCodeObjectDrawer.CONTENT_ATTRIBUTE)).isEqualTo(VERIFY_URL);
+        assertThat(object.getAttribute("class")).isEqualTo("qr");
+        assertThat(object.getAttribute("style")).contains("width:120px").contains("height:200px");
+    }
+
+    @Test
+    void pngQrCodeImageStaysADataUrl() {
+        QrCodeService pngService = new QrCodeService(new QrCodeProperties(QrCodeProperties.Mode.PNG));
+        TemplateDocumentCache cache = new TemplateDocumentCache(pdfRenderer);
+        CertificateTemplate template = template("<img src='${qrCodeImage}'/>");
+
+        Document document = cache.bind(template, Map.of("qrCodeImage", pngService.image(VERIFY_URL, 200)));
+
+        assertThat(((Element) document.getElementsByTagName("img").item(0)).getAttribute("src"))
+                .startsWith("data:image/png;base64,");
+    }
+
+    @Test
+    void pngQrCodeWithoutExplicitSizeRendersAtTheRequestedSize() throws Exception {
+        QrCodeService pngService = new QrCodeService(new QrCodeProperties(QrCodeProperties.Mode.PNG));
+        TemplateDocumentCache cache = new TemplateDocumentCache(pdfRenderer);
+        Document document = cache.bind(template("<img src='${qrCodeImage}'/>"),
+                Map.of("qrCodeImage", pngService.image(VERIFY_URL, 200)));
+
+        byte[] pdf = pdfRenderer.renderDocumentToPdf(document);
+
+        try (PDDocument loaded = PDDocument.load(pdf)) {
+            ImageSizes sizes = new ImageSizes();
+            sizes.processPage(loaded.getPage(0));
+            // 200 CSS pixels at 0.75pt each.
+            assertThat(sizes.drawn).singleElement().satisfies(size -> {
+                assertThat(size.getScalingFactorX()).isCloseTo(150f, within(0.01f));
+                assertThat(size.getScalingFactorY()).isCloseTo(150f, within(0.01f));
+            });
+        }
+    }
+
+    @Test
+    void vectorQrCodeRendersAsScannablePaths() throws Exception {
+        TemplateDocumentCache cache = new TemplateDocumentCache(pdfRenderer);
+        Document document = cache.bind(template("<img src='${qrCodeImage}'/>"),
+                Map.of("qrCodeImage", qrCodeService.image(VERIFY_URL, 200)));
+
+        byte[] pdf = pdfRenderer.renderDocumentToPdf(document);
+
+        try (PDDocument loaded = PDDocument.load(pdf)) {
+            assertThat(loaded.getPage(0).getResources().getXObjectNames()).isEmpty();
+            BufferedImage page = new PDFRenderer(loaded).renderImageWithDPI(0, 150, ImageType.GRAY);
+            String decoded = new QRCodeReader()
+                    .decode(new BinaryBitmap(new HybridBinarizer(new BufferedImageLuminanceSource(page))))
+                    .getText();
+            assertThat(decoded).isEqualTo(VERIFY_URL);
+        }
+    }
+
+    /**
+     * Records the transformation each image XObject is drawn with, which for an image is
+     * its size on the page in points.
+     */
+    private static class ImageSizes extends PDFStreamEngine {
+
+        private final List<Matrix> drawn = new ArrayList<>();
+
+        ImageSizes() {
+            addOperator(new Concatenate());
+            addOperator(new SetMatrix());
+            addOperator(new Save());
+            addOperator(new Restore());
+        }
+
+        @Override
+        protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+            if (OperatorName.DRAW_OBJECT.equals(operator.getName())
+                    && getResources().isImageXObject((COSName) operands.get(0))) {
+                drawn.add(getGraphicsState().getCurrentTransformationMatrix().clone());
+            }
+            super.processOperator(operator, operands);
+        }
+    }
+
+    private static CertificateTemplate template(String html) {
+        CertificateTemplate template = new CertificateTemplate();
+        template.setId(UUID.randomUUID());
+        template.setHtmlTemplate(html);
+        template.setVersion(1);
+        return template;
+    }
+}
@@ -1,8 +1,11 @@
 package com.irembo.certify.template;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.irembo.certify.common.TenantContextHolder;
 import com.irembo.certify.pdf.PdfRenderer;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.irembo.certify.pdf.RenderExecutor;
+import com.irembo.certify.pdf.RenderExecutorProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -40,7 +43,7 @@ class TemplateServiceTenantIsolationTest {
 
         when(templateRepository.findAllByTenantId(tenantId)).thenReturn(List.of());
 
-        TemplateService service = new TemplateService(templateRepository, objectMapper, pdfRenderer);
+        TemplateService service = new TemplateService(templateRepository, objectMapper, templateRenderer());
 
         service.listForCurrentTenant();
 
@@ -50,10 +53,15 @@ class TemplateServiceTenantIsolationTest {
     @Test
     void listForCurrentTenantFailsWithoutTenant() {
         TenantContextHolder.clear();
-        TemplateService service = new TemplateService(templateRepository, objectMapper, pdfRenderer);
+        TemplateService service = new TemplateService(templateRepository, objectMapper, templateRenderer());
 
         assertThatThrownBy(service::listForCurrentTenant)
                 .isInstanceOf(IllegalStateException.class)
                 .hasMessageContaining("No tenant in context");
     }
+
+    private TemplateRenderer templateRenderer() {
+        return new TemplateRenderer(pdfRenderer, new PlaceholderTemplateEngine(), new TemplateDocumentCache(pdfRenderer),
+                new RenderExecutor(new RenderExecutorProperties(null, null), new SimpleMeterRegistry()));
+    }
 }
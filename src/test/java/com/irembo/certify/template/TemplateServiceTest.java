@@ -3,21 +3,33 @@ package com.irembo.certify.template;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.irembo.certify.common.TenantContextHolder;
 import com.irembo.certify.pdf.PdfRenderer;
+import com.irembo.certify.pdf.RenderExecutor;
+import com.irembo.certify.pdf.RenderExecutorProperties;
 import com.irembo.certify.template.dto.TemplatePreviewRequest;
+import com.irembo.certify.template.dto.TemplateRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.io.OutputStream;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -56,9 +68,12 @@ class TemplateServiceTest {
 
         when(templateRepository.findByIdAndTenantId(templateId, tenantId))
                 .thenReturn(Optional.of(template));
-        when(pdfRenderer.renderHtmlToPdf(anyString())).thenReturn("pdf".getBytes());
+        doAnswer(invocation -> {
+            invocation.getArgument(1, OutputStream.class).write("pdf".getBytes());
+            return null;
+        }).when(pdfRenderer).renderHtmlToPdf(anyString(), any(OutputStream.class));
 
-        TemplateService service = new TemplateService(templateRepository, objectMapper, pdfRenderer);
+        TemplateService service = new TemplateService(templateRepository, objectMapper, templateRenderer());
 
         TemplatePreviewRequest request = new TemplatePreviewRequest(Map.of("recipientName", "Alice"));
         byte[] result = service.previewTemplate(templateId, request);
@@ -66,7 +81,7 @@ class TemplateServiceTest {
         assertThat(result).isEqualTo("pdf".getBytes());
 
         ArgumentCaptor<String> htmlCaptor = ArgumentCaptor.forClass(String.class);
-        verify(pdfRenderer).renderHtmlToPdf(htmlCaptor.capture());
+        verify(pdfRenderer).renderHtmlToPdf(htmlCaptor.capture(), any(OutputStream.class));
         String renderedHtml = htmlCaptor.getValue();
         assertThat(renderedHtml).contains("Alice");
         assertThat(renderedHtml).doesNotContain("${recipientName}");
@@ -75,7 +90,7 @@ class TemplateServiceTest {
     @Test
     void previewTemplateFailsWithoutTenant() {
         TenantContextHolder.clear();
-        TemplateService service = new TemplateService(templateRepository, objectMapper, pdfRenderer);
+        TemplateService service = new TemplateService(templateRepository, objectMapper, templateRenderer());
 
         assertThatThrownBy(() ->
                 service.previewTemplate(UUID.randomUUID(), new TemplatePreviewRequest(Map.of()))
@@ -83,4 +98,53 @@ class TemplateServiceTest {
                 .isInstanceOf(IllegalStateException.class)
                 .hasMessageContaining("No tenant in context");
     }
+
+    @Test
+    void deactivateTemplateEvictsItFromTheRenderCaches() {
+        UUID tenantId = UUID.randomUUID();
+        UUID templateId = UUID.randomUUID();
+        TenantContextHolder.setTenantId(tenantId);
+        CertificateTemplate template = new CertificateTemplate();
+        template.setId(templateId);
+        template.setActive(true);
+        when(templateRepository.findByIdAndTenantId(templateId, tenantId)).thenReturn(Optional.of(template));
+        TemplateRenderer templateRenderer = mock(TemplateRenderer.class);
+
+        new TemplateService(templateRepository, objectMapper, templateRenderer).deactivateTemplate(templateId);
+
+        assertThat(template.isActive()).isFalse();
+        verify(templateRenderer).evict(templateId);
+    }
+
+    @Test
+    void updateTemplatePreparesTheNewVersionOnlyOnceCommitted() throws Exception {
+        UUID tenantId = UUID.randomUUID();
+        UUID templateId = UUID.randomUUID();
+        TenantContextHolder.setTenantId(tenantId);
+        CertificateTemplate template = new CertificateTemplate();
+        template.setId(templateId);
+        template.setVersion(1);
+        when(templateRepository.findByIdAndTenantId(templateId, tenantId)).thenReturn(Optional.of(template));
+        when(objectMapper.writeValueAsString(any())).thenReturn("[]");
+        TemplateRenderer templateRenderer = mock(TemplateRenderer.class);
+        TemplateService service = new TemplateService(templateRepository, objectMapper, templateRenderer);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            service.updateTemplate(templateId, new TemplateRequest("Test", null, "<p>v2</p>", List.of()));
+            verify(templateRenderer, never()).prepare(any());
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(templateRenderer).prepare(template);
+        assertThat(template.getVersion()).isEqualTo(2);
+    }
+
+    private TemplateRenderer templateRenderer() {
+        return new TemplateRenderer(pdfRenderer, new PlaceholderTemplateEngine(), new TemplateDocumentCache(pdfRenderer),
+                new RenderExecutor(new RenderExecutorProperties(null, null), new SimpleMeterRegistry()));
+    }
 }
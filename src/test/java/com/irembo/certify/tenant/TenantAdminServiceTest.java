@@ -116,4 +116,25 @@ class TenantAdminServiceTest {
 
         verify(userRepository, times(1)).findByTenantIdInAndRoleOrderByCreatedAtAsc(anyList(), eq(Role.TENANT_ADMIN));
     }
+
+    @Test
+    void updateJobWeightSetsTheWeightOfAnExistingTenant() {
+        Tenant tenant = new Tenant();
+        tenant.setId(UUID.randomUUID());
+        tenant.setName("Acme Corp");
+        tenant.setSlug("acme-corp");
+        when(tenantRepository.findById(tenant.getId())).thenReturn(java.util.Optional.of(tenant));
+        when(userRepository.findByTenantIdInAndRoleOrderByCreatedAtAsc(List.of(tenant.getId()), Role.TENANT_ADMIN))
+                .thenReturn(List.of());
+
+        TenantSummaryResponse response = tenantAdminService.updateJobWeight(tenant.getId(), 5);
+
+        assertThat(tenant.getJobWeight()).isEqualTo(5);
+        assertThat(response.jobWeight()).isEqualTo(5);
+
+        UUID unknown = UUID.randomUUID();
+        when(tenantRepository.findById(unknown)).thenReturn(java.util.Optional.empty());
+        assertThrows(java.util.NoSuchElementException.class, () -> tenantAdminService.updateJobWeight(unknown, 2));
+        assertThrows(IllegalArgumentException.class, () -> tenantAdminService.updateJobWeight(tenant.getId(), 0));
+    }
 }